@@ -3,7 +3,6 @@ package com.example.musicplayer;
 import android.app.AlertDialog;
 import android.app.Dialog;
 import android.content.*;
-import android.media.MediaMetadataRetriever;
 import android.os.Bundle;
 import android.os.IBinder;
 import android.support.v4.app.Fragment;
@@ -20,23 +19,36 @@ import com.example.musicplayer.fragment.AlbumListFragment;
 import com.example.musicplayer.fragment.ArtistListFragment;
 import com.example.musicplayer.fragment.MainFragment;
 import com.example.musicplayer.fragment.MusicListFragment;
+import com.example.musicplayer.fragment.SearchFragment;
 import com.example.musicplayer.message.Message;
 import com.example.musicplayer.message.MessageCallback;
 import com.example.musicplayer.message.MessageData2;
 import com.example.musicplayer.message.MessagePump;
 import com.example.musicplayer.pojo.Song;
 import com.example.musicplayer.pojo.SongGroup;
+import com.example.musicplayer.scan.LibraryScanner;
+import com.example.musicplayer.scan.ScanProgress;
 import com.example.musicplayer.service.MusicPlayerService;
 import com.example.musicplayer.service.MusicPlayerServiceBinder;
+import com.example.musicplayer.service.PlayQueue;
 import com.example.musicplayer.util.TaskExecutor;
 import com.example.musicplayer.util.Util;
 
-import java.io.File;
 
 public class MainActivity extends FragmentActivity implements View.OnClickListener, MessageCallback {
     private final static boolean DEBUG = true;
     private final static String TAG = MainActivity.class.getSimpleName();
 
+    // the play modes the menu goes through, {repeat mode, shuffle mode}, see PlayQueue
+    private final static int[][] PLAY_MODES = {
+            { PlayQueue.REPEAT_OFF, PlayQueue.SHUFFLE_OFF },
+            { PlayQueue.REPEAT_ALL, PlayQueue.SHUFFLE_OFF },
+            { PlayQueue.REPEAT_ONE, PlayQueue.SHUFFLE_OFF },
+            { PlayQueue.REPEAT_ALL, PlayQueue.SHUFFLE_ON },
+            { PlayQueue.REPEAT_ALL, PlayQueue.SHUFFLE_SPREAD_ARTISTS },
+    };
+    private final static String[] PLAY_MODE_NAMES = { "顺序播放", "列表循环", "单曲循环", "随机播放", "随机播放(歌手不连续)" };
+
     private MusicPlayerApplication mApp;
     private MusicPlayerDAO mMusicPlayerDAO;
 
@@ -44,6 +56,7 @@ public class MainActivity extends FragmentActivity implements View.OnClickListen
     private MusicListFragment mMusicListFragment;
     private ArtistListFragment mArtistListFragment;
     private AlbumListFragment mAlbumListFragment;
+    private SearchFragment mSearchFragment;
 
     private MusicPlayerService mMusicPlayerService;
 
@@ -63,6 +76,10 @@ public class MainActivity extends FragmentActivity implements View.OnClickListen
     private SharedPreferences mPrefs;
 
     private MenuItem mScanSongsMenuItem;
+    private MenuItem mCancelScanMenuItem;
+    private MenuItem mPlayModeMenuItem;
+    // the summary toast is only shown for scans started from the menu, not for the one at startup
+    private boolean mManualScanRequested;
 
     public final static String LIST_TYPE = "list_type";
     public final static String EXTRA_ID = "extra_id";
@@ -157,6 +174,10 @@ public class MainActivity extends FragmentActivity implements View.OnClickListen
         mMessagePump.register(Message.Type.SHOW_FRAGMENT_MUSIC_LIST, this);
         mMessagePump.register(Message.Type.SHOW_FRAGMENT_ARTIST_LIST, this);
         mMessagePump.register(Message.Type.SHOW_FRAGMENT_ALBUM_LIST, this);
+
+        mMessagePump.register(Message.Type.ON_SCAN_STARTED, this);
+        mMessagePump.register(Message.Type.ON_SCAN_PROGRESS, this);
+        mMessagePump.register(Message.Type.ON_SCAN_FINISHED, this);
     }
 
     @Override
@@ -172,6 +193,7 @@ public class MainActivity extends FragmentActivity implements View.OnClickListen
 
         mArtistListFragment = new ArtistListFragment();
         mAlbumListFragment = new AlbumListFragment();
+        mSearchFragment = new SearchFragment();
     }
 
     private void showFragment(Fragment fragment) {
@@ -196,40 +218,69 @@ public class MainActivity extends FragmentActivity implements View.OnClickListen
     public boolean onCreateOptionsMenu(Menu menu) {
         // Inflate the menu; this adds items to the action bar if it is present.
         getMenuInflater().inflate(R.menu.main, menu);
-        mScanSongsMenuItem = menu.getItem(0);
+        mScanSongsMenuItem = menu.findItem(R.id.action_scan);
+        mCancelScanMenuItem = menu.findItem(R.id.action_cancel_scan);
+        mPlayModeMenuItem = menu.findItem(R.id.action_play_mode);
+        mPlayModeMenuItem.setTitle(getString(R.string.action_play_mode) + "：" + PLAY_MODE_NAMES[getPlayMode()]);
+        if (mApp.getLibraryScanner().isScanRunning())
+            onScanStarted();
         return true;
     }
 
+    // index into PLAY_MODES of the saved modes
+    private int getPlayMode () {
+        int repeatMode = mPrefs.getInt(MusicPlayerApplication.PREF_KEY_REPEAT_MODE, PlayQueue.REPEAT_OFF);
+        int shuffleMode = mPrefs.getInt(MusicPlayerApplication.PREF_KEY_SHUFFLE_MODE, PlayQueue.SHUFFLE_OFF);
+        for (int i = 0; i < PLAY_MODES.length; ++i) {
+            if (PLAY_MODES[i][0] == repeatMode && PLAY_MODES[i][1] == shuffleMode)
+                return i;
+        }
+        return 0;
+    }
+
     @Override
     public boolean onOptionsItemSelected(MenuItem item) {
         switch (item.getItemId()) {
+            case R.id.action_search:
+                if (!mSearchFragment.isVisible())
+                    showFragment(mSearchFragment);
+                break;
             case R.id.action_scan:
                 mScanSongsMenuItem.setEnabled(false);
                 setProgressBarIndeterminateVisibility(true);
+                mManualScanRequested = true;
 
                 Toast.makeText(this, "开始扫描SD卡...", Toast.LENGTH_SHORT).show();
 
                 TaskExecutor.executeTask(new Runnable() {
                     @Override
                     public void run() {
-                        mMusicPlayerDAO.truncateAllSongRelatedTables();
-
+                        // the UI is updated by ON_SCAN_PROGRESS/ON_SCAN_FINISHED
                         scanMP3Files();
-
-                        mApp.clearCachedAllMusicSongList();
-                        mMainFragment.setItemDataCounts(true);
-
-                        MainActivity.this.runOnUiThread(new Runnable() {
-                            @Override
-                            public void run() {
-                                mScanSongsMenuItem.setEnabled(true);
-                                setProgressBarIndeterminateVisibility(false);
-                                Toast.makeText(MainActivity.this, "扫描完成！", Toast.LENGTH_SHORT).show();
-                            }
-                        });
                     }
                 });
                 break;
+            case R.id.action_cancel_scan:
+                mCancelScanMenuItem.setEnabled(false);
+                TaskExecutor.executeTask(new Runnable() {
+                    @Override
+                    public void run() {
+                        mApp.getLibraryScanner().cancelScan();
+                    }
+                });
+                break;
+            case R.id.action_play_mode:
+                int playMode = (getPlayMode() + 1) % PLAY_MODES.length;
+                mPrefs.edit()
+                        .putInt(MusicPlayerApplication.PREF_KEY_REPEAT_MODE, PLAY_MODES[playMode][0])
+                        .putInt(MusicPlayerApplication.PREF_KEY_SHUFFLE_MODE, PLAY_MODES[playMode][1])
+                        .commit();
+                if (mMusicPlayerService != null)
+                    mMusicPlayerService.setPlayMode(PLAY_MODES[playMode][0], PLAY_MODES[playMode][1]);
+
+                mPlayModeMenuItem.setTitle(getString(R.string.action_play_mode) + "：" + PLAY_MODE_NAMES[playMode]);
+                Toast.makeText(this, PLAY_MODE_NAMES[playMode], Toast.LENGTH_SHORT).show();
+                break;
             case R.id.action_quit:
                 showDialog(DIALOG_EXIT_ID);
                 return true;
@@ -283,74 +334,13 @@ public class MainActivity extends FragmentActivity implements View.OnClickListen
 
     private void scanMP3Files () {
         if (DEBUG) Log.d(TAG, ">>>> start scanning for mp3 files...");
-        String rootDir = "/sdcard" ;
 
-        synchronized (MusicPlayerApplication.INIT_CACHED_SONG_LIST_SYNC) {
-            traverseScanMP3Files(new File(rootDir));
-        }
+        // the lists stay usable while it runs, they are refreshed as its batches are committed
+        mApp.getLibraryScanner().scan(LibraryScanner.MODE_INCREMENTAL);
 
         if (DEBUG) Log.d(TAG, ">>>> done scanning for mp3 files...");
     }
 
-    private void traverseScanMP3Files (File dir) {
-        if (dir.exists()) {
-//            if (DEBUG) Log.d(TAG, ">>>> scanning dir: " + dir.getAbsoluteFile());
-            if (dir.getName().startsWith(".") || dir.getAbsolutePath().startsWith("/sdcard/Android/"))
-                return;
-
-            File[] files = dir.listFiles();
-            if (files == null)
-                return;
-
-            for (int i = 0; i < files.length; ++i) {
-                File file = files[i];
-                if (file.isDirectory()) {
-                    traverseScanMP3Files(file);
-                } else {
-                    if (file.getName().toLowerCase().endsWith("mp3")) {
-                        readMp3MetaData(file);
-                    }
-                }
-            }
-        }
-    }
-
-    private void readMp3MetaData(File file) {
-        try {
-            String filePath = file.getAbsolutePath();
-
-            MediaMetadataRetriever mmr = new MediaMetadataRetriever();
-            mmr.setDataSource(filePath);
-
-            String duration = Util.ensureNotNull(mmr.extractMetadata(MediaMetadataRetriever.METADATA_KEY_DURATION), "");
-
-            int intDuration = 0;
-            if (duration != null && duration.length() > 0)
-                intDuration = Integer.parseInt(duration);
-
-            if (intDuration == 0)
-                return;
-
-            String title = Util.ensureNotNull(mmr.extractMetadata(MediaMetadataRetriever.METADATA_KEY_TITLE), file.getName());
-            String artist = Util.ensureNotNull(mmr.extractMetadata(MediaMetadataRetriever.METADATA_KEY_ARTIST), "");
-            String album = Util.ensureNotNull(mmr.extractMetadata(MediaMetadataRetriever.METADATA_KEY_ALBUM), "");
-
-            int albumId = 0;
-            int artistId = 0;
-            if (!album.equals(""))
-                albumId = mMusicPlayerDAO.addAlbum(album);
-            if (!artist.equals(""))
-                artistId = mMusicPlayerDAO.addArtist(artist);
-
-            mMusicPlayerDAO.addSong(title, artistId, artist, albumId, album, intDuration, filePath);
-
-            if (DEBUG)
-                Log.d(TAG, ">>>> song info: " + artist + ", " + title + ", " + album + ", " + duration + ", " + artistId + ", " + albumId);
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-    }
-
     @Override
     public void onClick(View v) {
         switch (v.getId()) {
@@ -436,6 +426,47 @@ public class MainActivity extends FragmentActivity implements View.OnClickListen
             case ON_DELETE_CURRENT_SONG:
                 setInfoForCurSong(null, 0);
                 break;
+            case ON_SCAN_STARTED:
+                onScanStarted();
+                break;
+            case ON_SCAN_PROGRESS:
+                onScanProgress((ScanProgress) message.data);
+                break;
+            case ON_SCAN_FINISHED:
+                onScanFinished((ScanProgress) message.data);
+                break;
+        }
+    }
+
+    private void onScanStarted () {
+        // also covers the quick scan started in the background at startup
+        if (mScanSongsMenuItem != null) {
+            mScanSongsMenuItem.setEnabled(false);
+            mCancelScanMenuItem.setEnabled(true);
+            mCancelScanMenuItem.setVisible(true);
+        }
+        setProgressBarIndeterminateVisibility(true);
+    }
+
+    private void onScanProgress (ScanProgress progress) {
+        if (mScanSongsMenuItem != null)
+            mScanSongsMenuItem.setTitle("扫描中(" + progress.songsCommitted + "/" + progress.filesParsed + "/" + progress.filesSeen + ")");
+    }
+
+    private void onScanFinished (ScanProgress progress) {
+        if (mScanSongsMenuItem != null) {
+            mScanSongsMenuItem.setTitle(R.string.action_scan);
+            mScanSongsMenuItem.setEnabled(true);
+            mCancelScanMenuItem.setVisible(false);
+        }
+        setProgressBarIndeterminateVisibility(false);
+
+        if (progress.cancelled) {
+            mManualScanRequested = false;
+            Toast.makeText(this, "扫描已停止，下次扫描将从中断处继续", Toast.LENGTH_SHORT).show();
+        } else if (mManualScanRequested) {
+            mManualScanRequested = false;
+            Toast.makeText(this, "扫描完成！共" + progress.filesSeen + "首歌曲，更新" + progress.songsCommitted + "首", Toast.LENGTH_SHORT).show();
         }
     }
 
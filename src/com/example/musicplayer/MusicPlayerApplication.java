@@ -1,14 +1,32 @@
 package com.example.musicplayer;
 
 import android.app.Application;
+import android.content.ComponentCallbacks2;
 import android.content.Intent;
+import android.content.SharedPreferences;
+import android.text.TextUtils;
+import android.util.Log;
+import com.example.musicplayer.db.DBExecutor;
+import com.example.musicplayer.db.LibraryQueries;
+import com.example.musicplayer.db.LibraryTables;
 import com.example.musicplayer.db.MusicPlayerDAO;
 import com.example.musicplayer.db.MusicPlayerDBHelper;
+import com.example.musicplayer.db.SongListCache;
 import com.example.musicplayer.handler.MainHandler;
+import com.example.musicplayer.message.Message;
+import com.example.musicplayer.message.MessageCallback;
 import com.example.musicplayer.message.MessagePump;
 import com.example.musicplayer.pojo.Song;
+import com.example.musicplayer.scan.LibraryScanner;
+import com.example.musicplayer.scan.MediaStoreSource;
+import com.example.musicplayer.scan.ScanRules;
+import com.example.musicplayer.scan.StorageVolumes;
+import com.example.musicplayer.service.LibraryWatcherService;
 import com.example.musicplayer.service.MusicPlayerService;
+import com.example.musicplayer.util.CompactSongStore;
 
+import java.io.File;
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -17,19 +35,36 @@ import java.util.List;
  * Date: 7/20/13
  * Time: 1:20 PM
  */
-public class MusicPlayerApplication extends Application {
+public class MusicPlayerApplication extends Application implements MessageCallback {
+    private final static boolean DEBUG = true;
+    private final static String TAG = MusicPlayerApplication.class.getSimpleName();
+
     private static MusicPlayerApplication mInstance;
 
     private MainHandler mMainHandler;
     private MusicPlayerDAO mMusicPlayerDAO;
+    private LibraryQueries mLibraryQueries;
     private MessagePump mMessagePump;
+    private LibraryScanner mLibraryScanner;
 
     public final static String SHARED_PREF = MusicPlayerApplication.class.getSimpleName();
 
     public final static String PREF_KEY_LAST_PLAYED_SONG_ID = "last_played_song_id";
     public final static String PREF_KEY_LAST_PLAYED_SONG_PROGRESS = "last_played_song_progress";
+    // see PlayQueue
+    public final static String PREF_KEY_REPEAT_MODE = "repeat_mode";
+    public final static String PREF_KEY_SHUFFLE_MODE = "shuffle_mode";
+    // scan roots separated by '\n', see ScanRules for the format of the rules
+    public final static String PREF_KEY_SCAN_ROOTS = "scan_roots";
+    public final static String PREF_KEY_SCAN_RULES = "scan_rules";
+    public final static String PREF_KEY_SCAN_MIN_FILE_SIZE = "scan_min_file_size";
+
+    private final static String LIBRARY_SNAPSHOT_FILE = "library.snapshot";
+    // the snapshot is written once the library was left alone for this long
+    private final static int SNAPSHOT_DELAY = 3000;
 
-    private List<Song> mCachedSongList;
+    // all songs, kept column by column, the lists get its read-only asList()
+    private SongListCache mSongListCache;
     private List<Song> mCurrentPlayList;
 
     @Override
@@ -41,8 +76,110 @@ public class MusicPlayerApplication extends Application {
         mMainHandler = new MainHandler();
 
         mMusicPlayerDAO = new MusicPlayerDAO(new MusicPlayerDBHelper(this));
+        mSongListCache = new SongListCache(mMusicPlayerDAO);
+        mLibraryQueries = new LibraryQueries(mMusicPlayerDAO, new DBExecutor(DBExecutor.DEFAULT_READER_COUNT), mMainHandler);
+
+        // the lists after a restart come from the snapshot of the library while it is fresh
+        mMusicPlayerDAO.setSnapshotFile(new File(getFilesDir(), LIBRARY_SNAPSHOT_FILE));
+        mMusicPlayerDAO.getTables().addObserver(new LibraryTables.Observer() {
+            @Override
+            public void onTablesChanged(int tables) {
+                scheduleSnapshotUpdate();
+            }
+        });
+        // there is none on the first launch
+        scheduleSnapshotUpdate();
 
         mMessagePump = new MessagePump();
+
+        mLibraryScanner = new LibraryScanner(mMusicPlayerDAO, mMessagePump, LibraryScanner.getDefaultParallelism());
+        mLibraryScanner.setScanRules(loadScanRules());
+        mLibraryScanner.setMediaStoreSource(new MediaStoreSource(getContentResolver()));
+
+        mMessagePump.register(Message.Type.ON_SCAN_FINISHED, this);
+
+        // keep the library fresh without the user pressing "scan", only the directories
+        // that changed since the last scan are listed, the first one imports the MediaStore
+        mLibraryScanner.scanInBackground(LibraryScanner.MODE_QUICK);
+
+        // and between scans
+        startService(new Intent(this, LibraryWatcherService.class));
+    }
+
+    @Override
+    public void onReceiveMessage(Message message) {
+        switch (message.type) {
+            case ON_SCAN_FINISHED:
+                // the songs changed, the cached list is reloaded on next use
+                clearCachedAllMusicSongList();
+                scheduleSnapshotUpdate();
+                break;
+        }
+    }
+
+    // not called before API 14, onLowMemory() is
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        // lets go of the index and the query cache of the DAO too
+        mSongListCache.trimMemory(level);
+        if (DEBUG) Log.d(TAG, ">>>> onTrimMemory(" + level + "): " + mSongListCache);
+    }
+
+    @Override
+    public void onLowMemory() {
+        super.onLowMemory();
+        mSongListCache.trimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+        if (DEBUG) Log.d(TAG, ">>>> onLowMemory: " + mSongListCache);
+    }
+
+    private final Runnable mUpdateSnapshotTask = new Runnable() {
+        @Override
+        public void run() {
+            // the batches of a running scan would write it over and over, it is done when the scan finishes
+            if (mLibraryScanner.isScanRunning())
+                return;
+
+            mLibraryQueries.getExecutor().executeRead(new Runnable() {
+                @Override
+                public void run() {
+                    mMusicPlayerDAO.updateSnapshot();
+                }
+            });
+        }
+    };
+
+    // any thread
+    private void scheduleSnapshotUpdate () {
+        mMainHandler.removeCallbacks(mUpdateSnapshotTask);
+        mMainHandler.postDelayed(mUpdateSnapshotTask, SNAPSHOT_DELAY);
+    }
+
+    // roots that were never configured follow the mounted volumes
+    private ScanRules loadScanRules () {
+        SharedPreferences prefs = getSharedPreferences(SHARED_PREF, MODE_PRIVATE);
+        String roots = prefs.getString(PREF_KEY_SCAN_ROOTS, null);
+        return ScanRules.compile(roots != null ? Arrays.asList(roots.split("\n")) : StorageVolumes.getDefaultRoots(),
+                prefs.getString(PREF_KEY_SCAN_RULES, ScanRules.DEFAULT_RULES),
+                prefs.getLong(PREF_KEY_SCAN_MIN_FILE_SIZE, ScanRules.DEFAULT_MIN_FILE_SIZE));
+    }
+
+    /**
+     * saves and applies the scan rules, they take effect on the next scan.
+     *
+     * @param roots null to follow the mounted volumes
+     */
+    public void updateScanRules (List<String> roots, String ruleText, long minFileSize) {
+        SharedPreferences.Editor editor = getSharedPreferences(SHARED_PREF, MODE_PRIVATE).edit();
+        if (roots != null)
+            editor.putString(PREF_KEY_SCAN_ROOTS, TextUtils.join("\n", roots));
+        else
+            editor.remove(PREF_KEY_SCAN_ROOTS);
+        editor.putString(PREF_KEY_SCAN_RULES, ruleText)
+                .putLong(PREF_KEY_SCAN_MIN_FILE_SIZE, minFileSize)
+                .commit();
+
+        mLibraryScanner.setScanRules(loadScanRules());
     }
 
     public static MusicPlayerApplication getInstance () {
@@ -57,10 +194,24 @@ public class MusicPlayerApplication extends Application {
         return mMusicPlayerDAO;
     }
 
+    // the queries the lists show, they follow the writes to the library
+    public LibraryQueries getLibraryQueries () {
+        return mLibraryQueries;
+    }
+
     public MessagePump getMessagePump () {
         return mMessagePump;
     }
 
+    public LibraryScanner getLibraryScanner () {
+        return mLibraryScanner;
+    }
+
+    // for its size and hit/miss counts
+    public SongListCache getSongListCache () {
+        return mSongListCache;
+    }
+
     public void setCurrentPlayList (List<Song> songList) {
         mCurrentPlayList = songList;
     }
@@ -69,21 +220,49 @@ public class MusicPlayerApplication extends Application {
         return mCurrentPlayList;
     }
 
-    public final static Object INIT_CACHED_SONG_LIST_SYNC = new Object();
+    // the list is read-only, a change to the songs puts a new one in its place. the list
+    // loaded while a scan runs is the snapshot of its last committed batch and is dropped
+    // when the scan finishes. a list let go of on low memory is loaded again, see SongListCache
     public List<Song> getCachedAllMusicSongList(boolean init) {
-        if (init) {
-            synchronized (INIT_CACHED_SONG_LIST_SYNC) {
-                if (mCachedSongList == null) {
-                    mCachedSongList = mMusicPlayerDAO.getAllSongs();
-                }
-            }
-        }
-
-        return mCachedSongList;
+        CompactSongStore store = mSongListCache.get(init);
+        return store != null ? store.asList() : null;
     }
 
     public void clearCachedAllMusicSongList () {
-        mCachedSongList = null;
+        mSongListCache.clear();
+    }
+
+    /**
+     * patches the cached song list (if it is loaded) instead of dropping it. the patched
+     * list is made on a reader of the database and swapped in on the UI thread since the
+     * adapters read it there, a play list that was the old one follows it.
+     * broadcasts ON_LIBRARY_CHANGED when done.
+     */
+    public void updateCachedAllMusicSongList (final List<Song> changedSongs, final List<Integer> deletedSongIds) {
+        mLibraryQueries.getExecutor().executeRead(new Runnable() {
+            @Override
+            public void run() {
+                final CompactSongStore store = mSongListCache.peek();
+                final CompactSongStore patched = store != null ? store.patch(changedSongs, deletedSongIds) : null;
+
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (store != null) {
+                            // another patch was swapped in since, this one is made again on top of it
+                            if (!mSongListCache.replace(store, patched)) {
+                                updateCachedAllMusicSongList(changedSongs, deletedSongIds);
+                                return;
+                            }
+                            if (mCurrentPlayList == store.asList())
+                                mCurrentPlayList = patched.asList();
+                        }
+
+                        mMessagePump.broadcastMessage(Message.Type.ON_LIBRARY_CHANGED, null);
+                    }
+                });
+            }
+        });
     }
 
     public void startPlayingSong (int songId, int progress) {
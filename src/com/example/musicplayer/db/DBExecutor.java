@@ -0,0 +1,71 @@
+package com.example.musicplayer.db;
+
+import android.os.Process;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: neevek
+ * Date: 10/19/26
+ * Time: 5:40 PM
+ */
+
+// the threads the database work of the UI runs on: one writer, so writes never wait
+// for each other on the database lock, and a few readers, which with write-ahead
+// logging read the last committed state next to the writer (see MusicPlayerDBHelper).
+// the scanner keeps its own threads.
+public class DBExecutor {
+    public final static int DEFAULT_READER_COUNT = 2;
+
+    private final ExecutorService mWriter;
+    private final ExecutorService mReaders;
+
+    public DBExecutor (int readerCount) {
+        mWriter = Executors.newSingleThreadExecutor(new DBThreadFactory("db-writer"));
+        mReaders = Executors.newFixedThreadPool(readerCount, new DBThreadFactory("db-reader"));
+    }
+
+    public void executeRead (Runnable task) {
+        mReaders.execute(task);
+    }
+
+    public <T> Future<T> submitRead (Callable<T> task) {
+        return mReaders.submit(task);
+    }
+
+    public void executeWrite (Runnable task) {
+        mWriter.execute(task);
+    }
+
+    public void shutdown () {
+        mWriter.shutdown();
+        mReaders.shutdown();
+    }
+
+    private static class DBThreadFactory implements ThreadFactory {
+        private final String mName;
+        private final AtomicInteger mCount = new AtomicInteger();
+
+        DBThreadFactory (String name) {
+            mName = name;
+        }
+
+        @Override
+        public Thread newThread(final Runnable r) {
+            return new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    // below the UI thread, above the scan
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND + Process.THREAD_PRIORITY_MORE_FAVORABLE);
+                    r.run();
+                }
+            }, mName + "-" + mCount.incrementAndGet());
+        }
+    }
+}
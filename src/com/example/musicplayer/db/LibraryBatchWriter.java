@@ -0,0 +1,266 @@
+package com.example.musicplayer.db;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import com.example.musicplayer.pojo.SongMetadata;
+import com.example.musicplayer.util.Util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: neevek
+ * Date: 10/18/26
+ * Time: 4:30 PM
+ */
+
+// writes scanned songs into the database in big explicit transactions.
+//
+// songs are buffered and written batchSize at a time with precompiled statements,
+// artist/album ids are resolved through in-memory name->id maps instead of a
+// SELECT per song. the song_count of artists/albums is kept by triggers, call
+// MusicPlayerDAO.deleteEmptySongGroups() once when all batches are written.
+//
+// a journaled writer also records, in the same transaction as each batch, the
+// directories completed so far and the number of committed songs in the checkpoint
+// of the running scan, so a killed scan can be resumed from its last batch.
+//
+// every committed batch that wrote songs is told to the observers of LibraryTables.
+//
+// a batch whose transaction fails is dropped, its songs keep the generation they had,
+// so a scan must not take songs outside its generation as gone once hasFailed().
+//
+// get an instance with MusicPlayerDAO.openBatchWriter(), close() it when done.
+public class LibraryBatchWriter {
+    public final static int DEFAULT_BATCH_SIZE = 500;
+
+    public interface CommitListener {
+        // called on the thread that flushed, right after the transaction of the batch committed
+        void onCommitted (List<SongMetadata> songs);
+    }
+
+    private SQLiteDatabase mDb;
+    private LibraryTables mTables;
+    private int mScanGeneration;
+    private int mBatchSize;
+    private boolean mJournaled;
+    private CommitListener mCommitListener;
+
+    private List<SongMetadata> mPendingSongs;
+    private List<String> mPendingCompletedDirs = new ArrayList<String>();
+
+    private Map<String, Integer> mArtistIds;
+    private Map<String, Integer> mAlbumIds;
+
+    private SQLiteStatement mInsertArtistStatement;
+    private SQLiteStatement mInsertAlbumStatement;
+    private SQLiteStatement mInsertSongStatement;
+    private SQLiteStatement mUpdateSongStatement;
+    private SQLiteStatement mTouchSongStatement;
+    private SQLiteStatement mInsertJournalStatement;
+    private SQLiteStatement mUpdateCheckpointStatement;
+
+    private int mCommittedCount;
+    private boolean mFailed;
+
+    LibraryBatchWriter (SQLiteDatabase db, LibraryTables tables, int scanGeneration, int batchSize, boolean journaled) {
+        mDb = db;
+        mTables = tables;
+        mScanGeneration = scanGeneration;
+        mBatchSize = batchSize;
+        mJournaled = journaled;
+        mPendingSongs = new ArrayList<SongMetadata>(batchSize);
+
+        mArtistIds = loadNameIds("artist_info");
+        mAlbumIds = loadNameIds("album_info");
+
+        mInsertArtistStatement = db.compileStatement(MusicPlayerDAO.SQL_INSERT_ARTIST);
+        mInsertAlbumStatement = db.compileStatement(MusicPlayerDAO.SQL_INSERT_ALBUM);
+        mInsertSongStatement = db.compileStatement(MusicPlayerDAO.SQL_INSERT_SONG);
+        mUpdateSongStatement = db.compileStatement(MusicPlayerDAO.SQL_UPDATE_SONG);
+        mTouchSongStatement = db.compileStatement("UPDATE song_info SET scan_generation=? WHERE _id=?");
+        if (journaled) {
+            mInsertJournalStatement = db.compileStatement("INSERT OR REPLACE INTO scan_journal (dir_path, scan_generation) VALUES (?, ?)");
+            mUpdateCheckpointStatement = db.compileStatement("UPDATE scan_state SET committed_count=committed_count+? WHERE _id=1");
+        }
+    }
+
+    public void setCommitListener (CommitListener commitListener) {
+        mCommitListener = commitListener;
+    }
+
+    private Map<String, Integer> loadNameIds (String tableName) {
+        Map<String, Integer> map = new HashMap<String, Integer>();
+        Cursor cursor = null;
+        try {
+            cursor = mDb.rawQuery("SELECT _id, name FROM " + tableName, null);
+            if (cursor.moveToFirst()) {
+                while (!cursor.isAfterLast()) {
+                    map.put(cursor.getString(1), cursor.getInt(0));
+                    cursor.moveToNext();
+                }
+            }
+        } finally {
+            if (cursor != null)
+                cursor.close();
+        }
+        return map;
+    }
+
+    /**
+     * buffers the song, writes the whole batch when it is full.
+     * songs with existingId > 0 update that row, others are inserted, unchanged
+     * songs only get the scan generation updated.
+     */
+    public synchronized void add (SongMetadata song) {
+        mPendingSongs.add(song);
+        if (mPendingSongs.size() >= mBatchSize)
+            flush();
+    }
+
+    // journaled writers only, the directory goes into the journal with the next batch
+    public synchronized void addCompletedDir (String dirPath) {
+        mPendingCompletedDirs.add(dirPath);
+    }
+
+    /**
+     * writes all buffered songs in one transaction.
+     *
+     * @return false if the transaction failed, the batch is dropped then
+     */
+    public synchronized boolean flush () {
+        if (mPendingSongs.isEmpty() && mPendingCompletedDirs.isEmpty())
+            return true;
+
+        List<String> newArtists = new ArrayList<String>();
+        List<String> newAlbums = new ArrayList<String>();
+        boolean committed = false;
+        int writtenCount = 0;
+
+        MusicPlayerDBHelper.beginTransaction(mDb);
+        try {
+            for (int i = 0; i < mPendingSongs.size(); ++i) {
+                SongMetadata song = mPendingSongs.get(i);
+
+                if (song.unchanged) {
+                    mTouchSongStatement.bindLong(1, mScanGeneration);
+                    mTouchSongStatement.bindLong(2, song.existingId);
+                    mTouchSongStatement.execute();
+                    continue;
+                }
+
+                int artistId = resolveId(song.artist, mArtistIds, mInsertArtistStatement, newArtists);
+                int albumId = resolveId(song.album, mAlbumIds, mInsertAlbumStatement, newAlbums);
+
+                SQLiteStatement statement = song.existingId > 0 ? mUpdateSongStatement : mInsertSongStatement;
+                MusicPlayerDAO.bindSong(statement, song, artistId, albumId, mScanGeneration);
+                if (song.existingId > 0)
+                    statement.bindLong(15, song.existingId);
+                else
+                    statement.bindString(15, song.filePath);
+                statement.execute();
+                ++writtenCount;
+            }
+
+            if (mJournaled) {
+                for (int i = 0; i < mPendingCompletedDirs.size(); ++i) {
+                    mInsertJournalStatement.bindString(1, mPendingCompletedDirs.get(i));
+                    mInsertJournalStatement.bindLong(2, mScanGeneration);
+                    mInsertJournalStatement.execute();
+                }
+                mUpdateCheckpointStatement.bindLong(1, writtenCount);
+                mUpdateCheckpointStatement.execute();
+            }
+
+            mDb.setTransactionSuccessful();
+            committed = true;
+        } catch (Exception e) {
+            e.printStackTrace();
+        } finally {
+            mDb.endTransaction();
+        }
+
+        // the completed directories of a failed batch are dropped, a resumed scan lists them again
+        mPendingCompletedDirs.clear();
+
+        if (committed) {
+            mCommittedCount += writtenCount;
+            if (writtenCount > 0)
+                mTables.notifyChanged(LibraryTables.ALL);
+            if (mCommitListener != null)
+                mCommitListener.onCommitted(mPendingSongs);
+        } else {
+            mFailed = true;
+            // the ids of the names inserted in the failed transaction were rolled back
+            for (int i = 0; i < newArtists.size(); ++i)
+                mArtistIds.remove(newArtists.get(i));
+            for (int i = 0; i < newAlbums.size(); ++i)
+                mAlbumIds.remove(newAlbums.get(i));
+        }
+
+        mPendingSongs.clear();
+        return committed;
+    }
+
+    private int resolveId (String name, Map<String, Integer> nameIds, SQLiteStatement insertStatement, List<String> newNames) {
+        if (name.length() == 0)
+            return 0;
+
+        Integer id = nameIds.get(name);
+        if (id == null) {
+            insertStatement.bindString(1, name);
+            insertStatement.bindBlob(2, Util.getSortKey(name));
+            id = (int)insertStatement.executeInsert();
+            if (id == -1)
+                id = queryNameId(insertStatement == mInsertArtistStatement ? "artist_info" : "album_info", name);
+            nameIds.put(name, id);
+            newNames.add(name);
+        }
+        return id;
+    }
+
+    // only needed if the name was inserted behind our back
+    private int queryNameId (String tableName, String name) {
+        Cursor cursor = null;
+        try {
+            cursor = mDb.rawQuery("SELECT _id FROM " + tableName + " WHERE name=?", new String[]{ name });
+            if (cursor.moveToFirst())
+                return cursor.getInt(0);
+        } finally {
+            if (cursor != null)
+                cursor.close();
+        }
+        return 0;
+    }
+
+    // number of songs written by committed transactions so far, unchanged songs not included
+    public synchronized int getCommittedCount () {
+        return mCommittedCount;
+    }
+
+    // true once a batch failed to commit
+    public synchronized boolean hasFailed () {
+        return mFailed;
+    }
+
+    // flushes the buffered songs and releases the compiled statements
+    public synchronized void close () {
+        // the commit listener may complete directories while the last batch is flushed
+        while (!mPendingSongs.isEmpty() || !mPendingCompletedDirs.isEmpty())
+            flush();
+
+        mInsertArtistStatement.close();
+        mInsertAlbumStatement.close();
+        mInsertSongStatement.close();
+        mUpdateSongStatement.close();
+        mTouchSongStatement.close();
+        if (mJournaled) {
+            mInsertJournalStatement.close();
+            mUpdateCheckpointStatement.close();
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package com.example.musicplayer.db;
+
+import android.util.SparseArray;
+import android.util.SparseIntArray;
+import com.example.musicplayer.pojo.Album;
+import com.example.musicplayer.pojo.Artist;
+import com.example.musicplayer.pojo.LibraryCounts;
+import com.example.musicplayer.pojo.Song;
+import com.example.musicplayer.util.CompactSongStore;
+import com.example.musicplayer.util.Util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: neevek
+ * Date: 10/19/26
+ * Time: 9:00 PM
+ */
+
+// the artists and albums of the store of all songs, so their lists and songs are read
+// from memory once the songs are loaded, see MusicPlayerDAO.getAllSongStore().
+//
+// every artist/album id maps to the positions of its songs in the store, in list order,
+// kept in int arrays under int keys, the orders of the artists/albums as the queries
+// sort them are worked out once. the store is the one the song list is, it does not
+// change, the index only adds the positions to it.
+class LibraryIndex {
+    private final CompactSongStore mStore;
+    private final Groups mArtists;
+    private final Groups mAlbums;
+    private final long mHeapSize;
+
+    LibraryIndex (CompactSongStore store) {
+        mStore = store;
+        mArtists = new Groups(store, true);
+        mAlbums = new Groups(store, false);
+        mHeapSize = mArtists.estimateHeapSize() + mAlbums.estimateHeapSize();
+    }
+
+    CompactSongStore getStore () {
+        return mStore;
+    }
+
+    // bytes of heap the positions and orders take, the store not counted, 4 byte references
+    long estimateHeapSize () {
+        return mHeapSize;
+    }
+
+    LibraryCounts getCounts () {
+        return new LibraryCounts(mStore.size(), mArtists.mOrder.length, mAlbums.mOrder.length);
+    }
+
+    List<Song> getSongsByArtistId (int artistId) {
+        return getSongs(mArtists.mPositions.get(artistId));
+    }
+
+    List<Song> getSongsByAlbumId (int albumId) {
+        return getSongs(mAlbums.mPositions.get(albumId));
+    }
+
+    private List<Song> getSongs (int[] positions) {
+        if (positions == null)
+            return new ArrayList<Song>();
+
+        List<Song> songs = new ArrayList<Song>(positions.length);
+        for (int i = 0; i < positions.length; ++i)
+            songs.add(mStore.getSong(positions[i]));
+        return songs;
+    }
+
+    List<Artist> getArtists () {
+        int[] order = mArtists.mOrder;
+        List<Artist> artists = new ArrayList<Artist>(order.length);
+        for (int i = 0; i < order.length; ++i) {
+            int[] positions = mArtists.mPositions.get(order[i]);
+            artists.add(new Artist(order[i], mStore.getArtist(positions[0]), positions.length));
+        }
+        return artists;
+    }
+
+    List<Album> getAlbums () {
+        int[] order = mAlbums.mOrder;
+        List<Album> albums = new ArrayList<Album>(order.length);
+        for (int i = 0; i < order.length; ++i) {
+            int[] positions = mAlbums.mPositions.get(order[i]);
+            albums.add(new Album(order[i], mStore.getAlbum(positions[0]), positions.length));
+        }
+        return albums;
+    }
+
+    // the artists or the albums of the songs, songs without one (id 0) are in none
+    private static class Groups {
+        // song positions by group id
+        final SparseArray<int[]> mPositions = new SparseArray<int[]>();
+        // group ids in "ORDER BY name_key, _id"
+        final int[] mOrder;
+
+        Groups (CompactSongStore store, boolean byArtist) {
+            int size = store.size();
+            SparseIntArray counts = new SparseIntArray();
+            for (int i = 0; i < size; ++i) {
+                int groupId = byArtist ? store.getArtistId(i) : store.getAlbumId(i);
+                if (groupId > 0)
+                    counts.put(groupId, counts.get(groupId) + 1);
+            }
+
+            // filled in song order, so every group lists its songs in list order
+            SparseIntArray filled = new SparseIntArray(counts.size());
+            for (int i = 0; i < size; ++i) {
+                int groupId = byArtist ? store.getArtistId(i) : store.getAlbumId(i);
+                if (groupId <= 0)
+                    continue;
+
+                int[] positions = mPositions.get(groupId);
+                if (positions == null) {
+                    positions = new int[counts.get(groupId)];
+                    mPositions.put(groupId, positions);
+                }
+                int n = filled.get(groupId);
+                positions[n] = i;
+                filled.put(groupId, n + 1);
+            }
+
+            GroupKey[] keys = new GroupKey[mPositions.size()];
+            for (int i = 0; i < keys.length; ++i) {
+                int first = mPositions.valueAt(i)[0];
+                keys[i] = new GroupKey(mPositions.keyAt(i), Util.getSortKey(byArtist ? store.getArtist(first) : store.getAlbum(first)));
+            }
+            Arrays.sort(keys, GROUP_KEY_ORDER);
+
+            mOrder = new int[keys.length];
+            for (int i = 0; i < keys.length; ++i)
+                mOrder[i] = keys[i].id;
+        }
+
+        // the keys and values of the SparseArray, the order and the positions
+        long estimateHeapSize () {
+            long size = 3 * arraySize(mOrder.length);
+            for (int i = 0; i < mPositions.size(); ++i)
+                size += arraySize(mPositions.valueAt(i).length);
+            return size;
+        }
+    }
+
+    // an int or reference array, 8 byte aligned
+    private static long arraySize (int length) {
+        return (16 + (long)length * 4 + 7) & ~7;
+    }
+
+    private static class GroupKey {
+        final int id;
+        final byte[] sortKey;
+
+        GroupKey (int id, byte[] sortKey) {
+            this.id = id;
+            this.sortKey = sortKey;
+        }
+    }
+
+    // the order SQLite gives blobs, bytes compared unsigned, then by id
+    private final static Comparator<GroupKey> GROUP_KEY_ORDER = new Comparator<GroupKey>() {
+        @Override
+        public int compare(GroupKey lhs, GroupKey rhs) {
+            int length = Math.min(lhs.sortKey.length, rhs.sortKey.length);
+            for (int i = 0; i < length; ++i) {
+                int result = (lhs.sortKey[i] & 0xff) - (rhs.sortKey[i] & 0xff);
+                if (result != 0)
+                    return result;
+            }
+            if (lhs.sortKey.length != rhs.sortKey.length)
+                return lhs.sortKey.length - rhs.sortKey.length;
+            return lhs.id - rhs.id;
+        }
+    };
+}
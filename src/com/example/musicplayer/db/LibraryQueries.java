@@ -0,0 +1,110 @@
+package com.example.musicplayer.db;
+
+import android.os.Handler;
+import com.example.musicplayer.pojo.Album;
+import com.example.musicplayer.pojo.Artist;
+import com.example.musicplayer.pojo.LibraryCounts;
+import com.example.musicplayer.pojo.Song;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: neevek
+ * Date: 10/19/26
+ * Time: 6:00 PM
+ */
+
+// the library queries the UI shows, as ObservableQuery instances that run on the
+// readers of the DBExecutor and follow the writes of MusicPlayerDAO.
+//
+// asking twice for the same query, e.g. the songs of an artist from two screens,
+// returns the same instance while it has subscribers, so they share its loads.
+public class LibraryQueries {
+    private final MusicPlayerDAO mMusicPlayerDAO;
+    private final DBExecutor mExecutor;
+    private final Handler mMainHandler;
+
+    // the queries that have subscribers, by key, guarded by this
+    private final Map<String, ObservableQuery<?>> mQueries = new HashMap<String, ObservableQuery<?>>();
+
+    public LibraryQueries (MusicPlayerDAO dao, DBExecutor executor, Handler mainHandler) {
+        mMusicPlayerDAO = dao;
+        mExecutor = executor;
+        mMainHandler = mainHandler;
+    }
+
+    public DBExecutor getExecutor () {
+        return mExecutor;
+    }
+
+    public ObservableQuery<LibraryCounts> getLibraryCounts () {
+        return getQuery("counts", LibraryTables.ALL, new Callable<LibraryCounts>() {
+            @Override
+            public LibraryCounts call() throws Exception {
+                return mMusicPlayerDAO.getLibraryCounts();
+            }
+        });
+    }
+
+    public ObservableQuery<List<Artist>> getArtists () {
+        return getQuery("artists", LibraryTables.ARTISTS, new Callable<List<Artist>>() {
+            @Override
+            public List<Artist> call() throws Exception {
+                return mMusicPlayerDAO.getArtists();
+            }
+        });
+    }
+
+    public ObservableQuery<List<Album>> getAlbums () {
+        return getQuery("albums", LibraryTables.ALBUMS, new Callable<List<Album>>() {
+            @Override
+            public List<Album> call() throws Exception {
+                return mMusicPlayerDAO.getAlbums();
+            }
+        });
+    }
+
+    public ObservableQuery<List<Song>> getSongsByArtistId (final int artistId) {
+        return getQuery("songs:artist:" + artistId, LibraryTables.SONGS, new Callable<List<Song>>() {
+            @Override
+            public List<Song> call() throws Exception {
+                return mMusicPlayerDAO.getSongsByArtistId(artistId);
+            }
+        });
+    }
+
+    public ObservableQuery<List<Song>> getSongsByAlbumId (final int albumId) {
+        return getQuery("songs:album:" + albumId, LibraryTables.SONGS, new Callable<List<Song>>() {
+            @Override
+            public List<Song> call() throws Exception {
+                return mMusicPlayerDAO.getSongsByAlbumId(albumId);
+            }
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private synchronized <T> ObservableQuery<T> getQuery (String key, int tables, Callable<T> loader) {
+        ObservableQuery<T> query = (ObservableQuery<T>) mQueries.get(key);
+        if (query == null)
+            query = new ObservableQuery<T>(key, tables, loader, this, mExecutor, mMainHandler);
+        return query;
+    }
+
+    // holding the lock, the query got its first subscriber
+    void attach (ObservableQuery<?> query) {
+        if (!mQueries.containsKey(query.getKey()))
+            mQueries.put(query.getKey(), query);
+        mMusicPlayerDAO.getTables().addObserver(query);
+    }
+
+    // holding the lock, the query lost its last subscriber
+    void release (ObservableQuery<?> query) {
+        if (mQueries.get(query.getKey()) == query)
+            mQueries.remove(query.getKey());
+        mMusicPlayerDAO.getTables().removeObserver(query);
+    }
+}
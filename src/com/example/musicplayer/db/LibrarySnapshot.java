@@ -0,0 +1,382 @@
+package com.example.musicplayer.db;
+
+import com.example.musicplayer.pojo.Album;
+import com.example.musicplayer.pojo.Artist;
+import com.example.musicplayer.pojo.LibraryCounts;
+import com.example.musicplayer.pojo.Song;
+import com.example.musicplayer.pojo.SongGroup;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: neevek
+ * Date: 10/19/26
+ * Time: 8:00 PM
+ */
+
+// a copy of what the lists show, in one binary file that is mapped read-only, so
+// after a restart the first lists are read from it instead of queried and sorted.
+// MusicPlayerDAO serves its list queries from it while it is fresh.
+//
+// layout, big endian, offsets in bytes:
+//   header       magic, format version, library version (long), song/artist/album
+//                counts, artist/album member counts, string pool size, CRC32 of the rest
+//   songs        SONG_SIZE each, in list order
+//   artists      GROUP_SIZE each, in list order, their songs are members[first, first + count)
+//   albums       same
+//   members      indexes of songs, the artist members then the album members
+//   string pool  a char count and the UTF-16 chars of every distinct string, the
+//                records point into it
+//
+// it is stamped with library_stats.version, which every write of the library bumps,
+// open() takes nothing older than the current one. written to a temporary file that
+// replaces the old one, so a crash leaves either of them whole.
+public class LibrarySnapshot {
+    // "MPLS"
+    private final static int MAGIC = 0x4d504c53;
+    private final static int FORMAT_VERSION = 1;
+
+    private final static int HEADER_SIZE = 48;
+    // id, title, artist id, artist, album id, album, duration, file path, bitrate, sample rate
+    private final static int SONG_SIZE = 40;
+    // id, name, song count, first member
+    private final static int GROUP_SIZE = 16;
+    // sample rate high bit
+    private final static int VBR_FLAG = 0x80000000;
+
+    private final ByteBuffer mBuffer;
+    private final long mLibraryVersion;
+    private final int mSongCount;
+    private final int mArtistCount;
+    private final int mAlbumCount;
+    private final int mArtistsOffset;
+    private final int mAlbumsOffset;
+    private final int mMembersOffset;
+    private final int mPoolOffset;
+
+    private LibrarySnapshot (ByteBuffer buffer) {
+        mBuffer = buffer;
+        mLibraryVersion = buffer.getLong(8);
+        mSongCount = buffer.getInt(16);
+        mArtistCount = buffer.getInt(20);
+        mAlbumCount = buffer.getInt(24);
+        mArtistsOffset = HEADER_SIZE + mSongCount * SONG_SIZE;
+        mAlbumsOffset = mArtistsOffset + mArtistCount * GROUP_SIZE;
+        mMembersOffset = mAlbumsOffset + mAlbumCount * GROUP_SIZE;
+        mPoolOffset = mMembersOffset + (buffer.getInt(28) + buffer.getInt(32)) * 4;
+    }
+
+    /**
+     * maps the snapshot.
+     *
+     * @return null if there is none, it is broken, of another format or older than libraryVersion
+     */
+    static LibrarySnapshot open (File file, long libraryVersion) {
+        if (!file.exists())
+            return null;
+
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(file, "r");
+            long length = raf.length();
+            if (length < HEADER_SIZE || length > Integer.MAX_VALUE)
+                return null;
+
+            // the mapping stays valid after the file is closed
+            ByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != FORMAT_VERSION || buffer.getLong(8) != libraryVersion)
+                return null;
+
+            long sectionsSize = (long)buffer.getInt(16) * SONG_SIZE + (long)(buffer.getInt(20) + buffer.getInt(24)) * GROUP_SIZE +
+                    (long)(buffer.getInt(28) + buffer.getInt(32)) * 4 + buffer.getInt(36);
+            if (HEADER_SIZE + sectionsSize != length || buffer.getInt(40) != checksum(buffer, (int)length))
+                return null;
+
+            return new LibrarySnapshot(buffer);
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            if (raf != null) {
+                try {
+                    raf.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+        return null;
+    }
+
+    private static int checksum (ByteBuffer buffer, int length) {
+        CRC32 crc = new CRC32();
+        ByteBuffer body = buffer.duplicate();
+        body.position(HEADER_SIZE);
+        byte[] chunk = new byte[8192];
+        while (body.hasRemaining()) {
+            int n = Math.min(chunk.length, body.remaining());
+            body.get(chunk, 0, n);
+            crc.update(chunk, 0, n);
+        }
+        return (int)crc.getValue();
+    }
+
+    long getLibraryVersion () {
+        return mLibraryVersion;
+    }
+
+    LibraryCounts getCounts () {
+        return new LibraryCounts(mSongCount, mArtistCount, mAlbumCount);
+    }
+
+    // all songs in list order, a list of its own
+    List<Song> getSongs () {
+        List<Song> songs = new ArrayList<Song>(mSongCount);
+        for (int i = 0; i < mSongCount; ++i)
+            songs.add(getSong(i));
+        return songs;
+    }
+
+    List<Artist> getArtists () {
+        List<Artist> artists = new ArrayList<Artist>(mArtistCount);
+        for (int i = 0; i < mArtistCount; ++i) {
+            int record = mArtistsOffset + i * GROUP_SIZE;
+            artists.add(new Artist(mBuffer.getInt(record), getString(mBuffer.getInt(record + 4)), mBuffer.getInt(record + 8)));
+        }
+        return artists;
+    }
+
+    List<Album> getAlbums () {
+        List<Album> albums = new ArrayList<Album>(mAlbumCount);
+        for (int i = 0; i < mAlbumCount; ++i) {
+            int record = mAlbumsOffset + i * GROUP_SIZE;
+            albums.add(new Album(mBuffer.getInt(record), getString(mBuffer.getInt(record + 4)), mBuffer.getInt(record + 8)));
+        }
+        return albums;
+    }
+
+    List<Song> getSongsByArtistId (int artistId) {
+        return getGroupSongs(mArtistsOffset, mArtistCount, artistId);
+    }
+
+    List<Song> getSongsByAlbumId (int albumId) {
+        return getGroupSongs(mAlbumsOffset, mAlbumCount, albumId);
+    }
+
+    private List<Song> getGroupSongs (int groupsOffset, int groupCount, int groupId) {
+        List<Song> songs = new ArrayList<Song>();
+        for (int i = 0; i < groupCount; ++i) {
+            int record = groupsOffset + i * GROUP_SIZE;
+            if (mBuffer.getInt(record) != groupId)
+                continue;
+
+            int count = mBuffer.getInt(record + 8);
+            int member = mMembersOffset + mBuffer.getInt(record + 12) * 4;
+            for (int j = 0; j < count; ++j)
+                songs.add(getSong(mBuffer.getInt(member + j * 4)));
+            break;
+        }
+        return songs;
+    }
+
+    private Song getSong (int index) {
+        int record = HEADER_SIZE + index * SONG_SIZE;
+        Song song = new Song(mBuffer.getInt(record), getString(mBuffer.getInt(record + 4)),
+                mBuffer.getInt(record + 8), getString(mBuffer.getInt(record + 12)),
+                mBuffer.getInt(record + 16), getString(mBuffer.getInt(record + 20)),
+                mBuffer.getInt(record + 24), getString(mBuffer.getInt(record + 28)));
+        song.bitrate = mBuffer.getInt(record + 32);
+        int sampleRate = mBuffer.getInt(record + 36);
+        song.sampleRate = sampleRate & ~VBR_FLAG;
+        song.vbr = (sampleRate & VBR_FLAG) != 0;
+        return song;
+    }
+
+    // absolute reads only, the buffer is shared by the reader threads
+    private String getString (int poolOffset) {
+        int offset = mPoolOffset + poolOffset;
+        char[] chars = new char[mBuffer.getChar(offset)];
+        offset += 2;
+        for (int i = 0; i < chars.length; ++i)
+            chars[i] = mBuffer.getChar(offset + i * 2);
+        return new String(chars);
+    }
+
+    /**
+     * writes the snapshot of the given lists, read while library_stats.version was libraryVersion.
+     * the songs in list order, the artists/albums too.
+     */
+    static void write (File file, long libraryVersion, List<Song> songs, List<Artist> artists, List<Album> albums) throws IOException {
+        // indexes of the songs of every artist/album, in list order
+        Map<Integer, List<Integer>> artistMembers = groupMembers(songs, true);
+        Map<Integer, List<Integer>> albumMembers = groupMembers(songs, false);
+
+        StringPool pool = new StringPool();
+        int[] songStrings = new int[songs.size() * 4];
+        for (int i = 0; i < songs.size(); ++i) {
+            Song song = songs.get(i);
+            songStrings[i * 4] = pool.add(song.title);
+            songStrings[i * 4 + 1] = pool.add(song.artist);
+            songStrings[i * 4 + 2] = pool.add(song.album);
+            songStrings[i * 4 + 3] = pool.add(song.filePath);
+        }
+        int[] artistStrings = addNames(pool, artists);
+        int[] albumStrings = addNames(pool, albums);
+
+        int artistMemberCount = countMembers(artists, artistMembers);
+        int albumMemberCount = countMembers(albums, albumMembers);
+        int length = HEADER_SIZE + songs.size() * SONG_SIZE + (artists.size() + albums.size()) * GROUP_SIZE +
+                (artistMemberCount + albumMemberCount) * 4 + pool.size();
+
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        buffer.putInt(MAGIC)
+                .putInt(FORMAT_VERSION)
+                .putLong(libraryVersion)
+                .putInt(songs.size())
+                .putInt(artists.size())
+                .putInt(albums.size())
+                .putInt(artistMemberCount)
+                .putInt(albumMemberCount)
+                .putInt(pool.size())
+                .putInt(0)  // checksum, below
+                .putInt(0);
+
+        for (int i = 0; i < songs.size(); ++i) {
+            Song song = songs.get(i);
+            buffer.putInt(song.id)
+                    .putInt(songStrings[i * 4])
+                    .putInt(song.artistId)
+                    .putInt(songStrings[i * 4 + 1])
+                    .putInt(song.albumId)
+                    .putInt(songStrings[i * 4 + 2])
+                    .putInt(song.duration)
+                    .putInt(songStrings[i * 4 + 3])
+                    .putInt(song.bitrate)
+                    .putInt(song.vbr ? song.sampleRate | VBR_FLAG : song.sampleRate);
+        }
+        putGroups(buffer, artists, artistStrings, artistMembers, 0);
+        putGroups(buffer, albums, albumStrings, albumMembers, artistMemberCount);
+        putMembers(buffer, artists, artistMembers);
+        putMembers(buffer, albums, albumMembers);
+        pool.writeTo(buffer);
+
+        buffer.putInt(40, checksum(buffer, length));
+
+        File tmpFile = new File(file.getPath() + ".tmp");
+        FileOutputStream out = new FileOutputStream(tmpFile);
+        try {
+            buffer.rewind();
+            FileChannel channel = out.getChannel();
+            while (buffer.hasRemaining())
+                channel.write(buffer);
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        if (!tmpFile.renameTo(file)) {
+            tmpFile.delete();
+            throw new IOException("failed to replace " + file);
+        }
+    }
+
+    private static Map<Integer, List<Integer>> groupMembers (List<Song> songs, boolean byArtist) {
+        Map<Integer, List<Integer>> members = new HashMap<Integer, List<Integer>>();
+        for (int i = 0; i < songs.size(); ++i) {
+            int groupId = byArtist ? songs.get(i).artistId : songs.get(i).albumId;
+            List<Integer> groupMembers = members.get(groupId);
+            if (groupMembers == null) {
+                groupMembers = new ArrayList<Integer>();
+                members.put(groupId, groupMembers);
+            }
+            groupMembers.add(i);
+        }
+        return members;
+    }
+
+    private static int[] addNames (StringPool pool, List<? extends SongGroup> groups) {
+        int[] offsets = new int[groups.size()];
+        for (int i = 0; i < groups.size(); ++i)
+            offsets[i] = pool.add(groups.get(i).name);
+        return offsets;
+    }
+
+    private static int countMembers (List<? extends SongGroup> groups, Map<Integer, List<Integer>> members) {
+        int count = 0;
+        for (int i = 0; i < groups.size(); ++i) {
+            List<Integer> groupMembers = members.get(groups.get(i).id);
+            if (groupMembers != null)
+                count += groupMembers.size();
+        }
+        return count;
+    }
+
+    // the song count is the one of the members, so the file agrees with itself
+    private static void putGroups (ByteBuffer buffer, List<? extends SongGroup> groups, int[] nameOffsets,
+                                   Map<Integer, List<Integer>> members, int firstMember) {
+        for (int i = 0; i < groups.size(); ++i) {
+            List<Integer> groupMembers = members.get(groups.get(i).id);
+            int count = groupMembers != null ? groupMembers.size() : 0;
+            buffer.putInt(groups.get(i).id)
+                    .putInt(nameOffsets[i])
+                    .putInt(count)
+                    .putInt(firstMember);
+            firstMember += count;
+        }
+    }
+
+    private static void putMembers (ByteBuffer buffer, List<? extends SongGroup> groups, Map<Integer, List<Integer>> members) {
+        for (int i = 0; i < groups.size(); ++i) {
+            List<Integer> groupMembers = members.get(groups.get(i).id);
+            if (groupMembers == null)
+                continue;
+            for (int j = 0; j < groupMembers.size(); ++j)
+                buffer.putInt(groupMembers.get(j));
+        }
+    }
+
+    // every distinct string once, the repeated artist/album names of the songs share theirs
+    private static class StringPool {
+        private final Map<String, Integer> mOffsets = new HashMap<String, Integer>();
+        private final List<String> mStrings = new ArrayList<String>();
+        private int mSize;
+
+        int add (String s) {
+            if (s == null)
+                s = "";
+            if (s.length() > Character.MAX_VALUE)
+                s = s.substring(0, Character.MAX_VALUE);
+
+            Integer offset = mOffsets.get(s);
+            if (offset == null) {
+                offset = mSize;
+                mOffsets.put(s, offset);
+                mStrings.add(s);
+                mSize += 2 + s.length() * 2;
+            }
+            return offset;
+        }
+
+        int size () {
+            return mSize;
+        }
+
+        void writeTo (ByteBuffer buffer) {
+            for (int i = 0; i < mStrings.size(); ++i) {
+                String s = mStrings.get(i);
+                buffer.putChar((char)s.length());
+                for (int j = 0; j < s.length(); ++j)
+                    buffer.putChar(s.charAt(j));
+            }
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.example.musicplayer.db;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: neevek
+ * Date: 10/19/26
+ * Time: 5:30 PM
+ */
+
+// tells who reads the library that tables were written. MusicPlayerDAO and
+// LibraryBatchWriter call notifyChanged() right after the transaction that wrote
+// them committed, with a mask of the tables.
+//
+// the song counts of artist_info/album_info follow song_info by triggers, so a write
+// of songs changes all three.
+//
+// every table also has a write generation, bumped before the observers are told, so
+// a result read before the write can be told from one read after it (see QueryCache).
+public class LibraryTables {
+    public final static int SONGS = 1;
+    public final static int ARTISTS = 1 << 1;
+    public final static int ALBUMS = 1 << 2;
+    public final static int ALL = SONGS | ARTISTS | ALBUMS;
+
+    public interface Observer {
+        // called on the thread that wrote, keep it short
+        void onTablesChanged (int tables);
+    }
+
+    private final List<Observer> mObservers = new CopyOnWriteArrayList<Observer>();
+    // by table bit
+    private final long[] mGenerations = new long[3];
+
+    public void addObserver (Observer observer) {
+        mObservers.add(observer);
+    }
+
+    public void removeObserver (Observer observer) {
+        mObservers.remove(observer);
+    }
+
+    // the sum of the generations of the tables, it grows with a write to any of them
+    public synchronized long getGeneration (int tables) {
+        long generation = 0;
+        for (int i = 0; i < mGenerations.length; ++i) {
+            if ((tables & (1 << i)) != 0)
+                generation += mGenerations[i];
+        }
+        return generation;
+    }
+
+    void notifyChanged (int tables) {
+        if (tables == 0)
+            return;
+
+        synchronized (this) {
+            for (int i = 0; i < mGenerations.length; ++i) {
+                if ((tables & (1 << i)) != 0)
+                    ++mGenerations[i];
+            }
+        }
+        for (int i = 0; i < mObservers.size(); ++i)
+            mObservers.get(i).onTablesChanged(tables);
+    }
+}
@@ -0,0 +1,26 @@
+package com.example.musicplayer.db;
+
+import android.database.sqlite.SQLiteDatabase;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: neevek
+ * Date: 10/19/26
+ * Time: 1:30 PM
+ */
+
+// one step of the schema, takes a database of version - 1 to version.
+//
+// MusicPlayerDBHelper runs the steps in order, on upgrade the ones above the old
+// version, on create all of them on top of the first schema, so a new database and
+// an upgraded one always end up the same. the steps run in the transaction of
+// onCreate()/onUpgrade(), a step that throws rolls the whole upgrade back.
+abstract class Migration {
+    final int version;
+
+    Migration (int version) {
+        this.version = version;
+    }
+
+    abstract void migrate (SQLiteDatabase db);
+}
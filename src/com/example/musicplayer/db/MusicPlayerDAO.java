@@ -3,14 +3,34 @@ package com.example.musicplayer.db;
 import android.content.ContentValues;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
 import com.example.musicplayer.pojo.Album;
 import com.example.musicplayer.pojo.Artist;
+import com.example.musicplayer.pojo.DirRecord;
+import com.example.musicplayer.pojo.LibraryCounts;
+import com.example.musicplayer.pojo.PathAlias;
+import com.example.musicplayer.pojo.ScanCheckpoint;
 import com.example.musicplayer.pojo.Song;
+import com.example.musicplayer.pojo.SongFingerprint;
+import com.example.musicplayer.pojo.SongMetadata;
+import com.example.musicplayer.pojo.SongPage;
+import com.example.musicplayer.util.CompactSongStore;
+import com.example.musicplayer.util.PinyinInitials;
 import com.example.musicplayer.util.Util;
 
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.SoftReference;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * Created with IntelliJ IDEA.
@@ -19,33 +39,452 @@ import java.util.List;
  * Time: 11:45 AM
  */
 public class MusicPlayerDAO {
+    private final static boolean DEBUG = true;
+    private final static String TAG = MusicPlayerDAO.class.getSimpleName();
+
+    private final static String SONG_COLUMNS = "_id, title, artist_id, artist, album_id, album, duration, file_path, bitrate, sample_rate, vbr";
+
+    // the hot statements take their values as bound arguments, so the SQL text stays the
+    // same from call to call and is compiled once, see StatementCache. the queries that
+    // return rows go through rawQuery() with selection args for the same reason, the
+    // connection keeps its own cache of compiled SQL keyed by the SQL text
+    final static String SQL_INSERT_ARTIST = "INSERT OR IGNORE INTO artist_info (name, name_key) VALUES (?, ?)";
+    final static String SQL_INSERT_ALBUM = "INSERT OR IGNORE INTO album_info (name, name_key) VALUES (?, ?)";
+    final static String SQL_SELECT_ARTIST_ID = "SELECT _id FROM artist_info WHERE name=?";
+    private final static String SQL_SELECT_ALBUM_ID = "SELECT _id FROM album_info WHERE name=?";
+    private final static String SQL_DELETE_EMPTY_ARTIST = "DELETE FROM artist_info WHERE _id=? AND song_count<=0";
+    private final static String SQL_DELETE_EMPTY_ALBUM = "DELETE FROM album_info WHERE _id=? AND song_count<=0";
+    final static String SQL_INSERT_SONG = "INSERT OR IGNORE INTO song_info (title, artist_id, artist, album_id, album, duration, " +
+            "bitrate, sample_rate, vbr, file_size, last_modified, scan_generation, title_key, initials, file_path) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+    final static String SQL_UPDATE_SONG = "UPDATE song_info SET title=?, artist_id=?, artist=?, album_id=?, album=?, duration=?, " +
+            "bitrate=?, sample_rate=?, vbr=?, file_size=?, last_modified=?, scan_generation=?, title_key=?, initials=? WHERE _id=?";
+    private final static String SQL_DELETE_SONG = "DELETE FROM song_info WHERE _id=?";
+    private final static String SQL_SELECT_SONG_ID_BY_PATH = "SELECT _id FROM song_info WHERE file_path=?";
+    private final static String SQL_SELECT_MAX_SCAN_GENERATION = "SELECT IFNULL(MAX(scan_generation), 0) FROM song_info";
+    // library_stats is kept by triggers, counting is a lookup
+    final static String SQL_COUNT_SONGS = "SELECT song_count FROM library_stats WHERE _id=1";
+    private final static String SQL_COUNT_ALBUMS = "SELECT album_count FROM library_stats WHERE _id=1";
+    private final static String SQL_COUNT_ARTISTS = "SELECT artist_count FROM library_stats WHERE _id=1";
+    private final static String SQL_SELECT_LIBRARY_VERSION = "SELECT version FROM library_stats WHERE _id=1";
+    private final static String SQL_SELECT_COUNTS = "SELECT song_count, artist_count, album_count FROM library_stats WHERE _id=1";
+
+    // lists are ordered by the collation keys written with the rows, _id breaks the ties
+    private final static String SONG_ORDER = " ORDER BY title_key, _id";
+    private final static String SQL_SELECT_ALL_SONGS = "SELECT " + SONG_COLUMNS + " FROM song_info" + SONG_ORDER;
+    final static String SQL_SELECT_SONG_BY_ID = "SELECT " + SONG_COLUMNS + " FROM song_info WHERE _id=?";
+    final static String SQL_SELECT_SONGS_BY_ALBUM_ID = "SELECT " + SONG_COLUMNS + " FROM song_info WHERE album_id=?" + SONG_ORDER;
+    final static String SQL_SELECT_SONGS_BY_ARTIST_ID = "SELECT " + SONG_COLUMNS + " FROM song_info WHERE artist_id=?" + SONG_ORDER;
+    private final static String SQL_SELECT_ALBUMS = "SELECT _id, name, song_count FROM album_info ORDER BY name_key, _id";
+    private final static String SQL_SELECT_ARTISTS = "SELECT _id, name, song_count FROM artist_info ORDER BY name_key, _id";
+    private final static String SQL_SEARCH_SONGS = "SELECT " + SONG_COLUMNS + " FROM song_info WHERE _id IN " +
+            "(SELECT docid FROM song_fts WHERE song_fts MATCH ?)" + SONG_ORDER + " LIMIT ?";
+    private final static String SQL_SELECT_SONG_BY_PATH = "SELECT " + SONG_COLUMNS + " FROM song_info WHERE file_path=?";
+
     private SQLiteOpenHelper mDbHelper;
+    private final StatementCache mStatementCache = new StatementCache();
+    private final LibraryTables mTables = new LibraryTables();
+    // the artist/album lists and the songs of an artist/album, see QueryCache
+    private final QueryCache mQueryCache = new QueryCache(mTables, QueryCache.DEFAULT_BUDGET);
+
+    // the lists are read from it while nothing was written since, see LibrarySnapshot
+    private File mSnapshotFile;
+    private LibrarySnapshot mSnapshot;
+    private boolean mSnapshotOpened;
+    private final Object mSnapshotLock = new Object();
+
+    // made on the last store of all songs read, used while nothing was written since.
+    // only softly reachable while the song list is, see softenMemory()
+    private LibraryIndex mIndex;
+    private SoftReference<LibraryIndex> mSoftIndex;
+    private long mIndexGeneration;
+    private final Object mIndexLock = new Object();
 
     public MusicPlayerDAO (SQLiteOpenHelper dbHelper) {
         mDbHelper = dbHelper;
+
+        // the first observer, the others read past it
+        mTables.addObserver(new LibraryTables.Observer() {
+            @Override
+            public void onTablesChanged(int tables) {
+                synchronized (mSnapshotLock) {
+                    mSnapshot = null;
+                }
+            }
+        });
+    }
+
+    // observe it to know when the library tables were written
+    public LibraryTables getTables () {
+        return mTables;
+    }
+
+    // for its hit/miss counts
+    public QueryCache getQueryCache () {
+        return mQueryCache;
+    }
+
+    // where the snapshot of the library is kept, it is mapped on the first list query
+    public void setSnapshotFile (File file) {
+        synchronized (mSnapshotLock) {
+            mSnapshotFile = file;
+        }
+    }
+
+    // null if there is none or the library was written since it was
+    private LibrarySnapshot getSnapshot () {
+        synchronized (mSnapshotLock) {
+            if (!mSnapshotOpened && mSnapshotFile != null) {
+                mSnapshotOpened = true;
+                long startTime = System.currentTimeMillis();
+                mSnapshot = LibrarySnapshot.open(mSnapshotFile, getLibraryVersion());
+                if (DEBUG) Log.d(TAG, ">>>> snapshot " + (mSnapshot != null ? "mapped" : "missing or stale") + " in " + (System.currentTimeMillis() - startTime) + "ms");
+            }
+            return mSnapshot;
+        }
+    }
+
+    /**
+     * writes the snapshot of the library if the one there is missing or stale, run it
+     * off the UI thread once the library was written.
+     */
+    public void updateSnapshot () {
+        File file;
+        synchronized (mSnapshotLock) {
+            file = mSnapshotFile;
+        }
+        if (file == null || getSnapshot() != null)
+            return;
+
+        // a write since this is taken keeps the new snapshot from being used
+        long generation = mTables.getGeneration(LibraryTables.ALL);
+        long libraryVersion = getLibraryVersion();
+        List<Song> songs = querySongs(SQL_SELECT_ALL_SONGS, null);
+        List<Artist> artists = queryArtists();
+        List<Album> albums = queryAlbums();
+        // the lists are read by statements of their own, they are of one version only if none was written meanwhile
+        if (songs == null || artists == null || albums == null || getLibraryVersion() != libraryVersion)
+            return;
+
+        try {
+            long startTime = System.currentTimeMillis();
+            LibrarySnapshot.write(file, libraryVersion, songs, artists, albums);
+            if (DEBUG) Log.d(TAG, ">>>> wrote snapshot of " + songs.size() + " songs in " + (System.currentTimeMillis() - startTime) + "ms");
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+
+        LibrarySnapshot snapshot = LibrarySnapshot.open(file, libraryVersion);
+        synchronized (mSnapshotLock) {
+            if (mTables.getGeneration(LibraryTables.ALL) == generation)
+                mSnapshot = snapshot;
+        }
+    }
+
+    // null if no list of all songs was read since the last write, or the GC took it
+    private LibraryIndex getIndex () {
+        synchronized (mIndexLock) {
+            LibraryIndex index = mIndex != null ? mIndex : mSoftIndex != null ? mSoftIndex.get() : null;
+            if (index != null && mIndexGeneration != mTables.getGeneration(LibraryTables.ALL)) {
+                index = null;
+                mIndex = null;
+                mSoftIndex = null;
+            }
+            return index;
+        }
+    }
+
+    // generation from before the songs were read
+    private void updateIndex (CompactSongStore store, long generation) {
+        LibraryIndex index = new LibraryIndex(store);
+        synchronized (mIndexLock) {
+            if (generation == mTables.getGeneration(LibraryTables.ALL)) {
+                mIndex = index;
+                mSoftIndex = null;
+                mIndexGeneration = generation;
+            }
+        }
+    }
+
+    /**
+     * drops the lists kept in memory to serve the list queries, the index and the query
+     * cache, they are read again when asked. the snapshot stays mapped, its pages are
+     * the kernel's to reclaim.
+     */
+    public void releaseMemory () {
+        synchronized (mIndexLock) {
+            mIndex = null;
+            mSoftIndex = null;
+        }
+        mQueryCache.clear();
     }
 
+    /**
+     * lets the GC take the index along with the store of all songs it is made on, which
+     * the SongListCache lets go of softly at the same time (it would keep the store
+     * otherwise), and drops the query cache. see holdIndex().
+     */
+    public void softenMemory () {
+        synchronized (mIndexLock) {
+            if (mIndex != null) {
+                mSoftIndex = new SoftReference<LibraryIndex>(mIndex);
+                mIndex = null;
+            }
+        }
+        mQueryCache.clear();
+    }
+
+    // the store was taken back before the GC took it, the index on it is held again
+    void holdIndex (CompactSongStore store) {
+        synchronized (mIndexLock) {
+            LibraryIndex index = mSoftIndex != null ? mSoftIndex.get() : null;
+            if (index != null && index.getStore() == store) {
+                mIndex = index;
+                mSoftIndex = null;
+            }
+        }
+    }
+
+    // estimated bytes the index keeps the GC from taking besides the store, 0 while it is soft
+    long getIndexHeapSize () {
+        synchronized (mIndexLock) {
+            return mIndex != null ? mIndex.estimateHeapSize() : 0;
+        }
+    }
+
+    private long getLibraryVersion () {
+        return queryLong(SQL_SELECT_LIBRARY_VERSION);
+    }
+
+    private SQLiteStatement getStatement (SQLiteDatabase db, String sql) {
+        return mStatementCache.get(db, sql);
+    }
+
+    // the song_count of the artist follows the songs added with its id
     public int addArtist (String name) {
+        return addSongGroup(name, SQL_INSERT_ARTIST, SQL_SELECT_ARTIST_ID, LibraryTables.ARTISTS);
+    }
+
+    public int addAlbum (String name) {
+        return addSongGroup(name, SQL_INSERT_ALBUM, SQL_SELECT_ALBUM_ID, LibraryTables.ALBUMS);
+    }
+
+    // inserts the artist/album if it is new, returns its id
+    private int addSongGroup (String name, String insertSql, String selectIdSql, int table) {
         SQLiteDatabase db;
-        Cursor cursor = null;
         int rowId = 0;
         try {
             db = mDbHelper.getWritableDatabase();
-            ContentValues contentValues = new ContentValues();
-            contentValues.put("name", name);
-            rowId = (int)db.insertWithOnConflict("artist_info", null, contentValues, SQLiteDatabase.CONFLICT_IGNORE);
-            if (rowId == -1) {
-                String sql = "SELECT _id FROM artist_info WHERE name='"+ Util.escapeDBSingleQuotes(name) +"'";
-                cursor = db.rawQuery(sql, null);
+            SQLiteStatement statement = getStatement(db, insertSql);
+            synchronized (statement) {
+                statement.bindString(1, name);
+                statement.bindBlob(2, Util.getSortKey(name));
+                rowId = (int)statement.executeInsert();
+            }
+            if (rowId != -1) {
+                mTables.notifyChanged(table);
+            } else {
+                statement = getStatement(db, selectIdSql);
+                synchronized (statement) {
+                    statement.bindString(1, name);
+                    rowId = (int)statement.simpleQueryForLong();
+                }
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        return rowId;
+    }
 
-                if (cursor.moveToFirst()) {
-                    rowId = cursor.getInt(0);
+    private void executeWithId (SQLiteDatabase db, String sql, long id) {
+        SQLiteStatement statement = getStatement(db, sql);
+        synchronized (statement) {
+            statement.bindLong(1, id);
+            statement.execute();
+        }
+    }
+
+    public int addSong (SongMetadata song, int artistId, int albumId, int scanGeneration) {
+        SQLiteDatabase db;
+        try {
+            db = mDbHelper.getWritableDatabase();
+            SQLiteStatement statement = getStatement(db, SQL_INSERT_SONG);
+            int songId;
+            synchronized (statement) {
+                bindSong(statement, song, artistId, albumId, scanGeneration);
+                statement.bindString(15, song.filePath);
+                songId = (int)statement.executeInsert();
+            }
+            if (songId != -1)
+                mTables.notifyChanged(LibraryTables.ALL);
+            return songId;
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        return -1;
+    }
+
+    // re-writes the metadata of a file that changed since the last scan, the _id is kept
+    // so that references to the song (e.g. the last played song) stay valid
+    public void updateSong (int songId, SongMetadata song, int artistId, int albumId, int scanGeneration) {
+        SQLiteDatabase db;
+        try {
+            db = mDbHelper.getWritableDatabase();
+            SQLiteStatement statement = getStatement(db, SQL_UPDATE_SONG);
+            synchronized (statement) {
+                bindSong(statement, song, artistId, albumId, scanGeneration);
+                statement.bindLong(15, songId);
+                statement.execute();
+            }
+            mTables.notifyChanged(LibraryTables.ALL);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    // binds the arguments 1 to 14 of SQL_INSERT_SONG and SQL_UPDATE_SONG
+    static void bindSong (SQLiteStatement statement, SongMetadata song, int artistId, int albumId, int scanGeneration) {
+        statement.bindString(1, song.title);
+        statement.bindLong(2, artistId);
+        statement.bindString(3, song.artist);
+        statement.bindLong(4, albumId);
+        statement.bindString(5, song.album);
+        statement.bindLong(6, song.duration);
+        statement.bindLong(7, song.bitrate);
+        statement.bindLong(8, song.sampleRate);
+        statement.bindLong(9, song.vbr ? 1 : 0);
+        statement.bindLong(10, song.fileSize);
+        statement.bindLong(11, song.lastModified);
+        statement.bindLong(12, scanGeneration);
+        statement.bindBlob(13, Util.getSortKey(song.title));
+        statement.bindString(14, getInitials(song.title, song.artist, song.album));
+    }
+
+    // the initials column, searched along with the text: the pinyin initials of every
+    // field (see PinyinInitials) followed by its CJK characters one by one, which the
+    // tokenizer would take as one word, "周杰伦" -> "zjl 周 杰 伦". the initials between
+    // the fields keep a phrase of characters from running from one field into the next
+    static String getInitials (String title, String artist, String album) {
+        StringBuilder sb = new StringBuilder();
+        appendInitials(sb, title);
+        appendInitials(sb, artist);
+        appendInitials(sb, album);
+        return sb.toString();
+    }
+
+    private static void appendInitials (StringBuilder sb, String s) {
+        if (sb.length() > 0)
+            sb.append(' ');
+        sb.append(PinyinInitials.of(s));
+        if (s == null)
+            return;
+        for (int i = 0; i < s.length(); ++i) {
+            char c = s.charAt(i);
+            if (isCJK(c))
+                sb.append(' ').append(c);
+        }
+    }
+
+    // written without spaces between the words, the simple tokenizer of FTS keeps a run
+    // of them as one word
+    private static boolean isCJK (char c) {
+        return (c >= 0x4E00 && c <= 0x9FFF) || (c >= 0x3400 && c <= 0x4DBF)
+                || (c >= 0x3040 && c <= 0x30FF) || (c >= 0xAC00 && c <= 0xD7AF);
+    }
+
+    // fingerprints of all files in song_info, keyed by file path
+    public Map<String, SongFingerprint> getSongFingerprints () {
+        SQLiteDatabase db;
+        Cursor cursor = null;
+        Map<String, SongFingerprint> map = new HashMap<String, SongFingerprint>();
+        try {
+            db = mDbHelper.getReadableDatabase();
+            String sql = "SELECT _id, file_path, file_size, last_modified FROM song_info";
+            cursor = db.rawQuery(sql, null);
+
+            if (cursor.moveToFirst()) {
+                while (!cursor.isAfterLast()) {
+                    int id = cursor.getInt(0);
+                    String filePath = cursor.getString(1);
+                    long fileSize = cursor.getLong(2);
+                    long lastModified = cursor.getLong(3);
+
+                    map.put(filePath, new SongFingerprint(id, fileSize, lastModified));
+
+                    cursor.moveToNext();
                 }
             }
+        } catch (Exception e) {
+            e.printStackTrace();
+        } finally {
+            if (cursor != null)
+                cursor.close();
+        }
+        return map;
+    }
+
+    public int getNextScanGeneration () {
+        return getCurrentScanGeneration() + 1;
+    }
 
-            if (rowId > 0) {
-                String sql = "UPDATE artist_info SET song_count=song_count+1 WHERE _id=" + rowId;
-                db.execSQL(sql);
+    // generation of the last scan, songs added between scans are stamped with it
+    public int getCurrentScanGeneration () {
+        return (int)queryLong(SQL_SELECT_MAX_SCAN_GENERATION);
+    }
+
+    // runs a cached single value query, 0 on errors
+    private long queryLong (String sql) {
+        SQLiteDatabase db;
+        try {
+            db = mDbHelper.getReadableDatabase();
+            SQLiteStatement statement = getStatement(db, sql);
+            synchronized (statement) {
+                return statement.simpleQueryForLong();
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        return 0;
+    }
+
+    // ids of the songs with the given file paths, keyed by file path
+    public Map<String, Integer> getSongIdsByPaths (List<String> filePaths) {
+        SQLiteDatabase db;
+        Map<String, Integer> map = new HashMap<String, Integer>();
+        try {
+            db = mDbHelper.getReadableDatabase();
+            SQLiteStatement statement = getStatement(db, SQL_SELECT_SONG_ID_BY_PATH);
+            synchronized (statement) {
+                for (int i = 0; i < filePaths.size(); ++i) {
+                    String filePath = filePaths.get(i);
+                    statement.bindString(1, filePath);
+                    try {
+                        map.put(filePath, (int)statement.simpleQueryForLong());
+                    } catch (SQLiteDoneException e) {
+                        // not in the library
+                    }
+                }
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        return map;
+    }
+
+    public List<Song> getSongsByPaths (List<String> filePaths) {
+        SQLiteDatabase db;
+        Cursor cursor = null;
+        List<Song> list = new ArrayList<Song>();
+        try {
+            db = mDbHelper.getReadableDatabase();
+            String[] args = new String[1];
+            for (int i = 0; i < filePaths.size(); ++i) {
+                args[0] = filePaths.get(i);
+                cursor = db.rawQuery(SQL_SELECT_SONG_BY_PATH, args);
+                if (cursor.moveToFirst())
+                    list.add(readSong(cursor));
+                cursor.close();
+                cursor = null;
             }
         } catch (Exception e) {
             e.printStackTrace();
@@ -53,91 +492,263 @@ public class MusicPlayerDAO {
             if (cursor != null)
                 cursor.close();
         }
-        return rowId;
+        return list;
     }
 
-    public int addAlbum (String name) {
+    /**
+     * deletes, in one transaction, the songs with the given file paths and the songs
+     * in the directories with the given paths. call deleteEmptySongGroups() afterwards.
+     *
+     * @return ids of the deleted songs
+     */
+    public List<Integer> deleteSongsByPaths (List<String> paths) {
         SQLiteDatabase db;
         Cursor cursor = null;
-        int rowId = 0;
+        List<Integer> deletedSongIds = new ArrayList<Integer>();
         try {
             db = mDbHelper.getWritableDatabase();
-            ContentValues contentValues = new ContentValues();
-            contentValues.put("name", name);
-            rowId = (int)db.insertWithOnConflict("album_info", null, contentValues, SQLiteDatabase.CONFLICT_IGNORE);
-            if (rowId == -1) {
-                String sql = "SELECT _id FROM album_info WHERE name='"+ Util.escapeDBSingleQuotes(name) +"'";
-                cursor = db.rawQuery(sql, null);
+            MusicPlayerDBHelper.beginTransaction(db);
+            try {
+                // the files under a directory are the range [path + "/", path + "0"), '0' is
+                // the character after '/', so both branches search the index of file_path
+                String where = "file_path=? OR (file_path>=? AND file_path<?)";
+                String[] args = new String[3];
+                for (int i = 0; i < paths.size(); ++i) {
+                    args[0] = paths.get(i);
+                    args[1] = paths.get(i) + "/";
+                    args[2] = paths.get(i) + "0";
 
-                if (cursor.moveToFirst()) {
-                    rowId = cursor.getInt(0);
-                }
-            }
+                    cursor = db.rawQuery("SELECT _id FROM song_info WHERE " + where, args);
+                    if (cursor.moveToFirst()) {
+                        while (!cursor.isAfterLast()) {
+                            deletedSongIds.add(cursor.getInt(0));
+                            cursor.moveToNext();
+                        }
+                    }
+                    cursor.close();
+                    cursor = null;
 
-            if (rowId > 0) {
-                String sql = "UPDATE album_info SET song_count=song_count+1 WHERE _id=" + rowId;
-                db.execSQL(sql);
+                    db.delete("song_info", where, args);
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
             }
+            if (!deletedSongIds.isEmpty())
+                mTables.notifyChanged(LibraryTables.ALL);
         } catch (Exception e) {
             e.printStackTrace();
+            deletedSongIds.clear();
         } finally {
             if (cursor != null)
                 cursor.close();
         }
-        return rowId;
+        return deletedSongIds;
     }
 
-    public int addSong (String title, int artistId, String artist, int albumId, String album, int duration, String filePath) {
+    // deletes, in one statement, all songs whose files were not seen by the scan of the given generation
+    public int deleteSongsNotInGeneration (int scanGeneration) {
         SQLiteDatabase db;
         try {
             db = mDbHelper.getWritableDatabase();
-            ContentValues contentValues = new ContentValues();
-            contentValues.put("title", title);
-            contentValues.put("artist_id", artistId);
-            contentValues.put("artist", artist);
-            contentValues.put("album_id", albumId);
-            contentValues.put("album", album);
-            contentValues.put("duration", duration);
-            contentValues.put("file_path", filePath);
-            return (int)db.insertWithOnConflict("song_info", null, contentValues, SQLiteDatabase.CONFLICT_IGNORE);
+            int count = db.delete("song_info", "scan_generation<>?", new String[]{ String.valueOf(scanGeneration) });
+            if (count > 0)
+                mTables.notifyChanged(LibraryTables.ALL);
+            return count;
         } catch (Exception e) {
             e.printStackTrace();
         }
-        return -1;
+        return 0;
     }
 
-    public void deleteSong (int songId, int artistId, int albumId) {
+    // all directories the last scan listed, whatever the rules were
+    public List<DirRecord> getDirRecords () {
+        return queryDirRecords("SELECT path, parent_path, last_modified, child_count, scanned_at FROM dir_info", null);
+    }
+
+    // the directories the last scan listed if it ran with these rules, see ScanRules.getHash()
+    public List<DirRecord> getDirRecords (long rulesHash) {
+        return queryDirRecords("SELECT path, parent_path, last_modified, child_count, scanned_at FROM dir_info WHERE rules_hash=?",
+                new String[] { String.valueOf(rulesHash) });
+    }
+
+    private List<DirRecord> queryDirRecords (String sql, String[] args) {
         SQLiteDatabase db;
         Cursor cursor = null;
+        List<DirRecord> list = new ArrayList<DirRecord>();
         try {
-            db = mDbHelper.getWritableDatabase();
-            String sql = "DELETE FROM song_info WHERE _id=" + songId;
-            db.execSQL(sql);
+            db = mDbHelper.getReadableDatabase();
+            cursor = db.rawQuery(sql, args);
 
-            sql = "SELECT song_count FROM album_info WHERE _id=" + albumId;
-            cursor = db.rawQuery(sql, null);
             if (cursor.moveToFirst()) {
-                int songCount = cursor.getInt(0);
-                if (songCount > 1) {
-                    sql = "UPDATE album_info SET song_count=song_count-1 WHERE _id=" + albumId;
-                } else {
-                    sql = "DELETE FROM album_info WHERE _id=" + albumId;
+                while (!cursor.isAfterLast()) {
+                    String path = cursor.getString(0);
+                    String parentPath = cursor.isNull(1) ? null : cursor.getString(1);
+                    long lastModified = cursor.getLong(2);
+                    int childCount = cursor.getInt(3);
+                    long scannedAt = cursor.getLong(4);
+
+                    list.add(new DirRecord(path, parentPath, lastModified, childCount, scannedAt));
+
+                    cursor.moveToNext();
                 }
-                db.execSQL(sql);
             }
+        } catch (Exception e) {
+            e.printStackTrace();
+        } finally {
+            if (cursor != null)
+                cursor.close();
+        }
+        return list;
+    }
 
-            cursor.close();
+    // replaces all directory records with the ones of the scan that just finished, in one transaction
+    // rulesHash is ScanRules.getHash() of the rules the directories were listed with
+    public void replaceDirRecords (List<DirRecord> records, long rulesHash) {
+        SQLiteDatabase db;
+        SQLiteStatement statement = null;
+        try {
+            db = mDbHelper.getWritableDatabase();
+            MusicPlayerDBHelper.beginTransaction(db);
+            try {
+                db.execSQL("DELETE FROM dir_info");
+                statement = db.compileStatement("INSERT OR REPLACE INTO dir_info (path, parent_path, last_modified, child_count, scanned_at, rules_hash) VALUES (?, ?, ?, ?, ?, ?)");
+                for (int i = 0; i < records.size(); ++i) {
+                    DirRecord record = records.get(i);
+                    statement.bindString(1, record.path);
+                    if (record.parentPath != null)
+                        statement.bindString(2, record.parentPath);
+                    else
+                        statement.bindNull(2);
+                    statement.bindLong(3, record.lastModified);
+                    statement.bindLong(4, record.childCount);
+                    statement.bindLong(5, record.scannedAt);
+                    statement.bindLong(6, rulesHash);
+                    statement.execute();
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        } finally {
+            if (statement != null)
+                statement.close();
+        }
+    }
 
-            sql = "SELECT song_count FROM artist_info WHERE _id=" + artistId;
-            cursor = db.rawQuery(sql, null);
+    // replaces the aliases found by the last scan with the ones found by this scan
+    public void replacePathAliases (List<PathAlias> aliases) {
+        SQLiteDatabase db;
+        SQLiteStatement statement = null;
+        try {
+            db = mDbHelper.getWritableDatabase();
+            MusicPlayerDBHelper.beginTransaction(db);
+            try {
+                db.execSQL("DELETE FROM path_alias");
+                statement = db.compileStatement("INSERT OR REPLACE INTO path_alias (alias_path, target_path) VALUES (?, ?)");
+                for (int i = 0; i < aliases.size(); ++i) {
+                    statement.bindString(1, aliases.get(i).aliasPath);
+                    statement.bindString(2, aliases.get(i).targetPath);
+                    statement.execute();
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        } finally {
+            if (statement != null)
+                statement.close();
+        }
+    }
+
+    // opens a writer for bulk ingestion of scanned songs, see LibraryBatchWriter
+    public LibraryBatchWriter openBatchWriter (int scanGeneration) {
+        return openBatchWriter(scanGeneration, false);
+    }
+
+    /**
+     * @param journaled true if the writer belongs to the scan started with beginScanJournal(),
+     *                  its batches then update the checkpoint of that scan
+     */
+    public LibraryBatchWriter openBatchWriter (int scanGeneration, boolean journaled) {
+        return new LibraryBatchWriter(mDbHelper.getWritableDatabase(), mTables, scanGeneration, LibraryBatchWriter.DEFAULT_BATCH_SIZE, journaled);
+    }
+
+    // records that a scan started, drops the journal of the previous one
+    public void beginScanJournal (int scanGeneration, int mode, String rootDir) {
+        SQLiteDatabase db;
+        try {
+            db = mDbHelper.getWritableDatabase();
+            MusicPlayerDBHelper.beginTransaction(db);
+            try {
+                db.execSQL("DELETE FROM scan_journal");
+
+                ContentValues contentValues = new ContentValues();
+                contentValues.put("_id", 1);
+                contentValues.put("scan_generation", scanGeneration);
+                contentValues.put("mode", mode);
+                contentValues.put("root_dir", rootDir);
+                contentValues.put("started_at", System.currentTimeMillis());
+                contentValues.put("committed_count", 0);
+                contentValues.put("finished", 0);
+                db.insertWithOnConflict("scan_state", null, contentValues, SQLiteDatabase.CONFLICT_REPLACE);
+
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    // records that the scan finished, it will not be resumed
+    public void finishScanJournal () {
+        SQLiteDatabase db;
+        try {
+            db = mDbHelper.getWritableDatabase();
+            MusicPlayerDBHelper.beginTransaction(db);
+            try {
+                db.execSQL("DELETE FROM scan_journal");
+                db.execSQL("UPDATE scan_state SET finished=1");
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    // the checkpoint of the last scan if it was cancelled or killed before it finished, null otherwise
+    public ScanCheckpoint getScanCheckpoint () {
+        SQLiteDatabase db;
+        Cursor cursor = null;
+        ScanCheckpoint checkpoint = null;
+        try {
+            db = mDbHelper.getReadableDatabase();
+            cursor = db.rawQuery("SELECT scan_generation, mode, root_dir, started_at, committed_count FROM scan_state WHERE _id=1 AND finished=0", null);
             if (cursor.moveToFirst()) {
-                int songCount = cursor.getInt(0);
-                if (songCount > 1) {
-                    sql = "UPDATE artist_info SET song_count=song_count-1 WHERE _id=" + albumId;
-                } else {
-                    sql = "DELETE FROM artist_info WHERE _id=" + albumId;
+                checkpoint = new ScanCheckpoint(cursor.getInt(0), cursor.getInt(1), cursor.getString(2),
+                        cursor.getLong(3), cursor.getInt(4), new HashSet<String>());
+            }
+            cursor.close();
+            cursor = null;
+
+            if (checkpoint != null) {
+                Set<String> completedDirs = checkpoint.completedDirs;
+                cursor = db.rawQuery("SELECT dir_path FROM scan_journal WHERE scan_generation=?",
+                        new String[]{ String.valueOf(checkpoint.scanGeneration) });
+                if (cursor.moveToFirst()) {
+                    while (!cursor.isAfterLast()) {
+                        completedDirs.add(cursor.getString(0));
+                        cursor.moveToNext();
+                    }
                 }
-                db.execSQL(sql);
             }
         } catch (Exception e) {
             e.printStackTrace();
@@ -145,94 +756,344 @@ public class MusicPlayerDAO {
             if (cursor != null)
                 cursor.close();
         }
+        return checkpoint;
+    }
+
+    /**
+     * drops the artists/albums that have no songs left. song_count is kept by triggers
+     * (see MusicPlayerDBHelper), but they leave the empty rows alone, call this once
+     * the songs were written/deleted.
+     */
+    public void deleteEmptySongGroups () {
+        SQLiteDatabase db;
+        try {
+            db = mDbHelper.getWritableDatabase();
+            MusicPlayerDBHelper.beginTransaction(db);
+            try {
+                db.execSQL("DELETE FROM artist_info WHERE song_count<=0");
+                db.execSQL("DELETE FROM album_info WHERE song_count<=0");
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            mTables.notifyChanged(LibraryTables.ARTISTS | LibraryTables.ALBUMS);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    // updates the statistics the query planner picks indexes by, run it after bulk loads
+    public void analyze () {
+        try {
+            mDbHelper.getWritableDatabase().execSQL("ANALYZE");
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    // the artist/album goes with its last song, the triggers count it down
+    public void deleteSong (int songId, int artistId, int albumId) {
+        SQLiteDatabase db;
+        try {
+            db = mDbHelper.getWritableDatabase();
+            MusicPlayerDBHelper.beginTransaction(db);
+            try {
+                executeWithId(db, SQL_DELETE_SONG, songId);
+                executeWithId(db, SQL_DELETE_EMPTY_ALBUM, albumId);
+                executeWithId(db, SQL_DELETE_EMPTY_ARTIST, artistId);
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            mTables.notifyChanged(LibraryTables.ALL);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
     }
 
     public int getAllMusicCount () {
-        return getTotalRowCount("song_info");
+        return (int)queryLong(SQL_COUNT_SONGS);
     }
 
     public int getAlbumCount () {
-        return getTotalRowCount("album_info");
+        return (int)queryLong(SQL_COUNT_ALBUMS);
     }
 
     public int getArtistCount () {
-        return getTotalRowCount("artist_info");
+        return (int)queryLong(SQL_COUNT_ARTISTS);
     }
 
-    private int getTotalRowCount (String tableName) {
+    // the three counts from the same row, so they agree with each other
+    public LibraryCounts getLibraryCounts () {
+        LibraryIndex index = getIndex();
+        if (index != null)
+            return index.getCounts();
+        LibrarySnapshot snapshot = getSnapshot();
+        if (snapshot != null)
+            return snapshot.getCounts();
+
         SQLiteDatabase db;
         Cursor cursor = null;
         try {
             db = mDbHelper.getReadableDatabase();
-            String sql = "SELECT 1 FROM " + tableName;
-            cursor = db.rawQuery(sql, null);
-
-            if (cursor.moveToFirst()) {
-                return cursor.getCount();
-            }
+            cursor = db.rawQuery(SQL_SELECT_COUNTS, null);
+            if (cursor.moveToFirst())
+                return new LibraryCounts(cursor.getInt(0), cursor.getInt(1), cursor.getInt(2));
         } catch (Exception e) {
             e.printStackTrace();
         } finally {
             if (cursor != null)
                 cursor.close();
         }
-        return 0;
+        return new LibraryCounts(0, 0, 0);
     }
 
-    public List<Song> getAllSongs () {
-        return getSongsWithSQL("SELECT _id, title, artist_id, artist, album_id, album, duration, file_path FROM song_info");
+    // the artists/albums are served from memory after this, see LibraryIndex. the index
+    // is made on the store returned, the songs are not kept a second time
+    public CompactSongStore getAllSongStore () {
+        long generation = mTables.getGeneration(LibraryTables.ALL);
+        LibrarySnapshot snapshot = getSnapshot();
+        List<Song> list = snapshot != null ? snapshot.getSongs() : querySongs(SQL_SELECT_ALL_SONGS, null);
+        CompactSongStore store = new CompactSongStore(list != null ? list : Collections.<Song>emptyList());
+
+        updateIndex(store, generation);
+        return store;
     }
 
+    // unmodifiable, it may be cached
     public List<Song> getSongsByAlbumId (int albumId) {
-        return getSongsWithSQL("SELECT _id, title, artist_id, artist, album_id, album, duration, file_path FROM song_info WHERE album_id=" + albumId);
+        String key = "songs:album:" + albumId;
+        List<Song> list = mQueryCache.get(key);
+        if (list != null)
+            return list;
+
+        long generation = mQueryCache.getGeneration(LibraryTables.SONGS);
+        LibraryIndex index = getIndex();
+        LibrarySnapshot snapshot = index == null ? getSnapshot() : null;
+        list = index != null ? index.getSongsByAlbumId(albumId) : snapshot != null ? snapshot.getSongsByAlbumId(albumId)
+                : querySongs(SQL_SELECT_SONGS_BY_ALBUM_ID, new String[]{ String.valueOf(albumId) });
+        return cacheSongs(key, generation, list);
     }
 
+    // unmodifiable, it may be cached
     public List<Song> getSongsByArtistId (int artistId) {
-        return getSongsWithSQL("SELECT _id, title, artist_id, artist, album_id, album, duration, file_path FROM song_info WHERE artist_id=" + artistId);
+        String key = "songs:artist:" + artistId;
+        List<Song> list = mQueryCache.get(key);
+        if (list != null)
+            return list;
+
+        long generation = mQueryCache.getGeneration(LibraryTables.SONGS);
+        LibraryIndex index = getIndex();
+        LibrarySnapshot snapshot = index == null ? getSnapshot() : null;
+        list = index != null ? index.getSongsByArtistId(artistId) : snapshot != null ? snapshot.getSongsByArtistId(artistId)
+                : querySongs(SQL_SELECT_SONGS_BY_ARTIST_ID, new String[]{ String.valueOf(artistId) });
+        return cacheSongs(key, generation, list);
     }
 
-    private List<Song> getSongsWithSQL (String sql) {
+    private List<Song> cacheSongs (String key, long generation, List<Song> list) {
+        if (list == null)
+            return Collections.emptyList();
+        return mQueryCache.put(key, LibraryTables.SONGS, generation, list, QueryCache.sizeOfSongs(list));
+    }
+
+    private List<Song> getSongsWithSQL (String sql, String[] selectionArgs) {
+        List<Song> list = querySongs(sql, selectionArgs);
+        return list != null ? list : new ArrayList<Song>();
+    }
+
+    // null if the query failed, the failure is not cached
+    List<Song> querySongs (String sql, String[] selectionArgs) {
         SQLiteDatabase db;
         Cursor cursor = null;
         List<Song> list = new ArrayList<Song>();
         try {
             db = mDbHelper.getReadableDatabase();
-            cursor = db.rawQuery(sql, null);
+            cursor = db.rawQuery(sql, selectionArgs);
 
             if (cursor.moveToFirst()) {
                 while (!cursor.isAfterLast()) {
-                    int id = cursor.getInt(0);
-                    String title = cursor.getString(1);
-                    int artistId = cursor.getInt(2);
-                    String artist = cursor.getString(3);
-                    int albumId = cursor.getInt(4);
-                    String album = cursor.getString(5);
-                    int duration = cursor.getInt(6);
-                    String filePath = cursor.getString(7);
-
-                    list.add(new Song (id, title, artistId, artist, albumId, album, duration, filePath));
+                    list.add(readSong(cursor));
 
                     cursor.moveToNext();
                 }
             }
         } catch (Exception e) {
             e.printStackTrace();
+            list = null;
         } finally {
             if (cursor != null)
                 cursor.close();
         }
-        Util.sortSongList(list);
         return list;
     }
 
+    /**
+     * a page of all songs in list order, keyset paginated on (title_key, _id): the page
+     * is looked up in the title_key index from the given row instead of counting an
+     * OFFSET from the start of the table, so it costs the same anywhere in the list.
+     *
+     * @param anchor  the page starts right after this row, or ends right before it if
+     *                forward is false, null for the start/end of the list
+     * @param skip    rows between the anchor and the page, 0 for the neighbouring page
+     * @return the songs in list order, also when read backward
+     */
+    public SongPage getSongPage (SongPage.Bound anchor, boolean forward, int skip, int limit) {
+        SQLiteDatabase db;
+        Cursor cursor = null;
+        List<Song> list = new ArrayList<Song>(limit);
+        SongPage.Bound first = null;
+        SongPage.Bound last = null;
+        try {
+            db = mDbHelper.getReadableDatabase();
+
+            // a blob can not be a selection arg, the key goes into the SQL as a literal
+            StringBuilder sql = new StringBuilder("SELECT ").append(SONG_COLUMNS).append(", title_key FROM song_info");
+            String[] args;
+            if (anchor != null) {
+                String key = toBlobLiteral(anchor.titleKey);
+                char op = forward ? '>' : '<';
+                // the first term is the index range, the second drops the rows up to the anchor
+                sql.append(" WHERE title_key").append(op).append('=').append(key)
+                        .append(" AND (title_key").append(op).append(key).append(" OR _id").append(op).append("?)");
+                args = new String[]{ String.valueOf(anchor.id), String.valueOf(limit), String.valueOf(skip) };
+            } else {
+                args = new String[]{ String.valueOf(limit), String.valueOf(skip) };
+            }
+            sql.append(forward ? SONG_ORDER : " ORDER BY title_key DESC, _id DESC").append(" LIMIT ? OFFSET ?");
+            cursor = db.rawQuery(sql.toString(), args);
+
+            byte[] firstKey = null;
+            byte[] lastKey = null;
+            while (cursor.moveToNext()) {
+                list.add(readSong(cursor));
+                if (firstKey == null)
+                    firstKey = cursor.getBlob(11);
+                lastKey = cursor.getBlob(11);
+            }
+
+            if (!list.isEmpty()) {
+                if (!forward) {
+                    Collections.reverse(list);
+                    byte[] key = firstKey;
+                    firstKey = lastKey;
+                    lastKey = key;
+                }
+                first = new SongPage.Bound(firstKey, list.get(0).id);
+                last = new SongPage.Bound(lastKey, list.get(list.size() - 1).id);
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        } finally {
+            if (cursor != null)
+                cursor.close();
+        }
+        return new SongPage(list, first, last);
+    }
+
+    /**
+     * songs whose title, artist, album or pinyin initials have words starting with every
+     * word of the query, e.g. "zjl" or "周 晴" find 晴天 by 周杰伦. CJK characters are
+     * matched anywhere in a field, "杰伦" finds it too. looked up in the song_fts index
+     * instead of scanning song_info.
+     */
+    public List<Song> searchSongs (String query, int limit) {
+        String matchQuery = toMatchQuery(query);
+        if (matchQuery == null)
+            return new ArrayList<Song>();
+        return getSongsWithSQL(SQL_SEARCH_SONGS, new String[]{ matchQuery, String.valueOf(limit) });
+    }
+
+    // "Jay cho" -> "jay* cho*", "杰伦 jay" -> '"杰 伦" jay*', null if nothing is left to
+    // search for. a run of CJK characters is a phrase of the characters the initials column
+    // holds one by one. the operators and quotes of the FTS syntax are dropped, the words
+    // are lowercased so that "or"/"and" stay words (the tokenizer folds the case of the
+    // indexed text the same way)
+    private static String toMatchQuery (String query) {
+        StringBuilder sb = new StringBuilder();
+        // 0 outside a word, 1 in a word, 2 in a run of CJK characters
+        int state = 0;
+        for (int i = 0; i < query.length(); ++i) {
+            char c = query.charAt(i);
+            int newState = isCJK(c) ? 2 : Character.isLetterOrDigit(c) ? 1 : 0;
+            if (newState != state) {
+                endMatchTerm(sb, state);
+                if (newState != 0) {
+                    if (sb.length() > 0)
+                        sb.append(' ');
+                    if (newState == 2)
+                        sb.append('"');
+                }
+            } else if (newState == 2) {
+                sb.append(' ');
+            }
+            if (newState != 0)
+                sb.append(Character.toLowerCase(c));
+            state = newState;
+        }
+        endMatchTerm(sb, state);
+        return sb.length() > 0 ? sb.toString() : null;
+    }
+
+    private static void endMatchTerm (StringBuilder sb, int state) {
+        if (state == 1)
+            sb.append('*');
+        else if (state == 2)
+            sb.append('"');
+    }
+
+    private final static char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
+    private static String toBlobLiteral (byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2 + 3);
+        sb.append("X'");
+        for (int i = 0; i < bytes.length; ++i) {
+            sb.append(HEX_DIGITS[(bytes[i] >> 4) & 0xf]);
+            sb.append(HEX_DIGITS[bytes[i] & 0xf]);
+        }
+        return sb.append('\'').toString();
+    }
+
+    // reads a row selected with SONG_COLUMNS
+    static Song readSong (Cursor cursor) {
+        int id = cursor.getInt(0);
+        String title = cursor.getString(1);
+        int artistId = cursor.getInt(2);
+        String artist = cursor.getString(3);
+        int albumId = cursor.getInt(4);
+        String album = cursor.getString(5);
+        int duration = cursor.getInt(6);
+        String filePath = cursor.getString(7);
+
+        Song song = new Song (id, title, artistId, artist, albumId, album, duration, filePath);
+        song.bitrate = cursor.getInt(8);
+        song.sampleRate = cursor.getInt(9);
+        song.vbr = cursor.getInt(10) != 0;
+        return song;
+    }
+
+    // unmodifiable, it may be cached
     public List<Album> getAlbums () {
+        List<Album> list = mQueryCache.get("albums");
+        if (list != null)
+            return list;
+
+        long generation = mQueryCache.getGeneration(LibraryTables.ALBUMS);
+        LibraryIndex index = getIndex();
+        LibrarySnapshot snapshot = index == null ? getSnapshot() : null;
+        list = index != null ? index.getAlbums() : snapshot != null ? snapshot.getAlbums() : queryAlbums();
+        if (list == null)
+            return Collections.emptyList();
+        return mQueryCache.put("albums", LibraryTables.ALBUMS, generation, list, QueryCache.sizeOfSongGroups(list));
+    }
+
+    // null if the query failed
+    private List<Album> queryAlbums () {
         SQLiteDatabase db;
         Cursor cursor = null;
         List<Album> list = new ArrayList<Album>();
         try {
             db = mDbHelper.getReadableDatabase();
-            String sql = "SELECT _id, name, song_count FROM album_info";
-            cursor = db.rawQuery(sql, null);
+            cursor = db.rawQuery(SQL_SELECT_ALBUMS, null);
 
             if (cursor.moveToFirst()) {
                 while (!cursor.isAfterLast()) {
@@ -247,12 +1108,11 @@ public class MusicPlayerDAO {
             }
         } catch (Exception e) {
             e.printStackTrace();
+            list = null;
         } finally {
             if (cursor != null)
                 cursor.close();
         }
-
-        Util.sortAlbumList(list);
         return list;
     }
 
@@ -262,19 +1122,10 @@ public class MusicPlayerDAO {
         Song song = null;
         try {
             db = mDbHelper.getReadableDatabase();
-            String sql = "SELECT _id, title, artist_id, artist, album_id, album, duration, file_path FROM song_info WHERE _id=" + id;
-            cursor = db.rawQuery(sql, null);
+            cursor = db.rawQuery(SQL_SELECT_SONG_BY_ID, new String[]{ String.valueOf(id) });
 
             if (cursor.moveToFirst()) {
-                String title = cursor.getString(1);
-                int artistId = cursor.getInt(2);
-                String artist = cursor.getString(3);
-                int albumId = cursor.getInt(4);
-                String album = cursor.getString(5);
-                int duration = cursor.getInt(6);
-                String filePath = cursor.getString(7);
-
-                song = new Song (id, title, artistId, artist, albumId, album, duration, filePath);
+                song = readSong(cursor);
             }
         } catch (Exception e) {
             e.printStackTrace();
@@ -285,14 +1136,29 @@ public class MusicPlayerDAO {
         return song;
     }
 
+    // unmodifiable, it may be cached
     public List<Artist> getArtists () {
+        List<Artist> list = mQueryCache.get("artists");
+        if (list != null)
+            return list;
+
+        long generation = mQueryCache.getGeneration(LibraryTables.ARTISTS);
+        LibraryIndex index = getIndex();
+        LibrarySnapshot snapshot = index == null ? getSnapshot() : null;
+        list = index != null ? index.getArtists() : snapshot != null ? snapshot.getArtists() : queryArtists();
+        if (list == null)
+            return Collections.emptyList();
+        return mQueryCache.put("artists", LibraryTables.ARTISTS, generation, list, QueryCache.sizeOfSongGroups(list));
+    }
+
+    // null if the query failed
+    private List<Artist> queryArtists () {
         SQLiteDatabase db;
         Cursor cursor = null;
         List<Artist> list = new ArrayList<Artist>();
         try {
             db = mDbHelper.getReadableDatabase();
-            String sql = "SELECT _id, name, song_count FROM artist_info";
-            cursor = db.rawQuery(sql, null);
+            cursor = db.rawQuery(SQL_SELECT_ARTISTS, null);
 
             if (cursor.moveToFirst()) {
                 while (!cursor.isAfterLast()) {
@@ -307,12 +1173,11 @@ public class MusicPlayerDAO {
             }
         } catch (Exception e) {
             e.printStackTrace();
+            list = null;
         } finally {
             if (cursor != null)
                 cursor.close();
         }
-
-        Util.sortArtistList(list);
         return list;
     }
 
@@ -323,6 +1188,9 @@ public class MusicPlayerDAO {
             db.execSQL("DELETE FROM song_info");
             db.execSQL("DELETE FROM artist_info");
             db.execSQL("DELETE FROM album_info");
+            // the directory records vouch for songs in the directories, they go with the songs
+            db.execSQL("DELETE FROM dir_info");
+            mTables.notifyChanged(LibraryTables.ALL);
         } catch (Exception e) {
             e.printStackTrace();
         }
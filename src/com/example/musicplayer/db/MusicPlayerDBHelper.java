@@ -1,8 +1,13 @@
 package com.example.musicplayer.db;
 
 import android.content.Context;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Build;
+import com.example.musicplayer.util.Util;
 
 /**
  * Created with IntelliJ IDEA.
@@ -12,21 +17,158 @@ import android.database.sqlite.SQLiteOpenHelper;
  */
 public class MusicPlayerDBHelper extends SQLiteOpenHelper {
     public static String dbName = "main.db";
-    public final static int VERSION = 1;
+
+    // the schema is the first one plus every step below, add a step to change it
+    private final static Migration[] MIGRATIONS = {
+            new Migration(2) {
+                // file fingerprints for incremental scans
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL("ALTER TABLE song_info ADD COLUMN file_size integer default 0");
+                    db.execSQL("ALTER TABLE song_info ADD COLUMN last_modified integer default 0");
+                    db.execSQL("ALTER TABLE song_info ADD COLUMN scan_generation integer default 0");
+                }
+            },
+            new Migration(3) {
+                // stream properties estimated from the mp3 frame headers
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL("ALTER TABLE song_info ADD COLUMN bitrate integer default 0");
+                    db.execSQL("ALTER TABLE song_info ADD COLUMN sample_rate integer default 0");
+                    db.execSQL("ALTER TABLE song_info ADD COLUMN vbr integer default 0");
+                }
+            },
+            new Migration(4) {
+                // directory mtimes for quick scans
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL("CREATE TABLE dir_info (path text primary key, parent_path text, last_modified integer, child_count integer, scanned_at integer)");
+                }
+            },
+            new Migration(5) {
+                // scan_state has a single row describing the last scan, scan_journal holds the
+                // directories that scan completed, see MusicPlayerDAO.getScanCheckpoint()
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL("CREATE TABLE scan_state (_id integer primary key, scan_generation integer, mode integer, root_dir text, started_at integer, committed_count integer default 0, finished integer default 0)");
+                    db.execSQL("CREATE TABLE scan_journal (dir_path text primary key, scan_generation integer)");
+                }
+            },
+            new Migration(6) {
+                // other paths to the directories and files a scan read
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL("CREATE TABLE path_alias (alias_path text primary key, target_path text not null)");
+                }
+            },
+            new Migration(7) {
+                // indexes for the songs of an artist/album, and song counts kept by triggers
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL("CREATE INDEX song_info_artist_id ON song_info (artist_id)");
+                    db.execSQL("CREATE INDEX song_info_album_id ON song_info (album_id)");
+                    db.execSQL("CREATE INDEX song_info_scan_generation ON song_info (scan_generation)");
+                    initCounterTriggers(db);
+                }
+            },
+            new Migration(8) {
+                // collation keys, lists come out of SQLite in the order of Util.getSortKey()
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL("ALTER TABLE song_info ADD COLUMN title_key blob");
+                    db.execSQL("ALTER TABLE artist_info ADD COLUMN name_key blob");
+                    db.execSQL("ALTER TABLE album_info ADD COLUMN name_key blob");
+                    fillSortKeys(db, "song_info", "title", "title_key");
+                    fillSortKeys(db, "artist_info", "name", "name_key");
+                    fillSortKeys(db, "album_info", "name", "name_key");
+                    db.execSQL("CREATE INDEX song_info_title_key ON song_info (title_key)");
+                    db.execSQL("CREATE INDEX artist_info_name_key ON artist_info (name_key)");
+                    db.execSQL("CREATE INDEX album_info_name_key ON album_info (name_key)");
+                }
+            },
+            new Migration(9) {
+                // full-text search, see MusicPlayerDAO.searchSongs()
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL("ALTER TABLE song_info ADD COLUMN initials text");
+                    fillInitials(db);
+                    initSearchIndex(db);
+                }
+            },
+            new Migration(10) {
+                // a version of the library, see LibrarySnapshot
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    initVersionTriggers(db);
+                }
+            },
+            new Migration(11) {
+                // the scan rules the directories were listed with, see ScanRules.getHash().
+                // the records of older versions have none and are not trusted by a quick scan
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL("ALTER TABLE dir_info ADD COLUMN rules_hash integer");
+                }
+            },
+            new Migration(12) {
+                // the CJK characters one by one in the initials column, see MusicPlayerDAO.getInitials()
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    fillInitials(db);
+                }
+            },
+    };
+
+    public final static int VERSION = MIGRATIONS[MIGRATIONS.length - 1].version;
 
     public MusicPlayerDBHelper(Context context) {
-        super(context, dbName, null, VERSION);
+        this(context, dbName);
+    }
+
+    // name null for an in-memory database
+    public MusicPlayerDBHelper(Context context, String name) {
+        super(context, name, null, VERSION);
     }
 
     @Override
     public void onCreate(SQLiteDatabase db) {
         initTable(db);
+        migrate(db, 1);
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        migrate(db, oldVersion);
+    }
+
+    // with write-ahead logging a write transaction no longer locks the readers out, a
+    // query on another thread reads the last committed state through a connection of
+    // its own, so the lists can be browsed while a scan writes its batches. 3.0+ only,
+    // an in-memory database stays in journal mode
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB && !db.isReadOnly())
+            db.enableWriteAheadLogging();
     }
 
+    // BEGIN IMMEDIATE where it is available, BEGIN EXCLUSIVE also keeps the readers
+    // out in journal mode
+    static void beginTransaction (SQLiteDatabase db) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB)
+            db.beginTransactionNonExclusive();
+        else
+            db.beginTransaction();
+    }
+
+    private static void migrate (SQLiteDatabase db, int fromVersion) {
+        for (int i = 0; i < MIGRATIONS.length; ++i) {
+            if (MIGRATIONS[i].version > fromVersion)
+                MIGRATIONS[i].migrate(db);
+        }
+    }
+
+    // the first schema, never change it, add a Migration instead
     private void initTable (SQLiteDatabase db) {
         String sql = "CREATE TABLE artist_info (_id integer primary key AUTOINCREMENT, name text, song_count integer default 0, UNIQUE(name) ON CONFLICT IGNORE)";
         db.execSQL(sql);
@@ -36,4 +178,137 @@ public class MusicPlayerDBHelper extends SQLiteOpenHelper {
         db.execSQL(sql);
     }
 
+    // the keys of the rows that are already there, new rows get theirs when they are written
+    private static void fillSortKeys (SQLiteDatabase db, String tableName, String textColumn, String keyColumn) {
+        Cursor cursor = null;
+        SQLiteStatement statement = null;
+        try {
+            cursor = db.rawQuery("SELECT _id, " + textColumn + " FROM " + tableName, null);
+            statement = db.compileStatement("UPDATE " + tableName + " SET " + keyColumn + "=? WHERE _id=?");
+            while (cursor.moveToNext()) {
+                statement.bindBlob(1, Util.getSortKey(cursor.getString(1)));
+                statement.bindLong(2, cursor.getLong(0));
+                statement.execute();
+            }
+        } finally {
+            if (cursor != null)
+                cursor.close();
+            if (statement != null)
+                statement.close();
+        }
+    }
+
+    private static void fillInitials (SQLiteDatabase db) {
+        Cursor cursor = null;
+        SQLiteStatement statement = null;
+        try {
+            cursor = db.rawQuery("SELECT _id, title, artist, album FROM song_info", null);
+            statement = db.compileStatement("UPDATE song_info SET initials=? WHERE _id=?");
+            while (cursor.moveToNext()) {
+                statement.bindString(1, MusicPlayerDAO.getInitials(cursor.getString(1), cursor.getString(2), cursor.getString(3)));
+                statement.bindLong(2, cursor.getLong(0));
+                statement.execute();
+            }
+        } finally {
+            if (cursor != null)
+                cursor.close();
+            if (statement != null)
+                statement.close();
+        }
+    }
+
+    // song_fts holds the searchable text of every song under its _id (the docid), the
+    // triggers keep it in step with song_info. FTS4 keeps prefix indexes for the short
+    // prefixes typed first, the SQLite of older devices only has FTS3.
+    private static void initSearchIndex (SQLiteDatabase db) {
+        try {
+            db.execSQL("CREATE VIRTUAL TABLE song_fts USING fts4 (title, artist, album, initials, prefix=\"1,2,3\")");
+        } catch (SQLiteException e) {
+            db.execSQL("CREATE VIRTUAL TABLE song_fts USING fts3 (title, artist, album, initials)");
+        }
+        db.execSQL("INSERT INTO song_fts (docid, title, artist, album, initials) SELECT _id, title, artist, album, initials FROM song_info");
+
+        db.execSQL("CREATE TRIGGER song_info_fts_insert AFTER INSERT ON song_info BEGIN " +
+                "INSERT INTO song_fts (docid, title, artist, album, initials) VALUES (NEW._id, NEW.title, NEW.artist, NEW.album, NEW.initials); " +
+                "END");
+        db.execSQL("CREATE TRIGGER song_info_fts_delete AFTER DELETE ON song_info BEGIN " +
+                "DELETE FROM song_fts WHERE docid=OLD._id; " +
+                "END");
+        // a rescan that only touches scan_generation leaves the index alone
+        db.execSQL("CREATE TRIGGER song_info_fts_update AFTER UPDATE OF title, artist, album, initials ON song_info BEGIN " +
+                "UPDATE song_fts SET title=NEW.title, artist=NEW.artist, album=NEW.album, initials=NEW.initials WHERE docid=NEW._id; " +
+                "END");
+    }
+
+    // library_stats.version grows with every write of what the lists show, in the same
+    // transaction, so a copy of the library stamped with it can tell it is stale even
+    // after the process was restarted. a rescan that only touches scan_generation and
+    // the song_count updates of the counter triggers leave it alone.
+    private static void initVersionTriggers (SQLiteDatabase db) {
+        db.execSQL("ALTER TABLE library_stats ADD COLUMN version integer default 0");
+
+        db.execSQL("CREATE TRIGGER song_info_version_insert AFTER INSERT ON song_info BEGIN " +
+                "UPDATE library_stats SET version=version+1 WHERE _id=1; END");
+        db.execSQL("CREATE TRIGGER song_info_version_delete AFTER DELETE ON song_info BEGIN " +
+                "UPDATE library_stats SET version=version+1 WHERE _id=1; END");
+        db.execSQL("CREATE TRIGGER song_info_version_update AFTER UPDATE OF title, artist_id, artist, album_id, album, " +
+                "duration, file_path, bitrate, sample_rate, vbr, title_key ON song_info BEGIN " +
+                "UPDATE library_stats SET version=version+1 WHERE _id=1; END");
+        db.execSQL("CREATE TRIGGER artist_info_version_insert AFTER INSERT ON artist_info BEGIN " +
+                "UPDATE library_stats SET version=version+1 WHERE _id=1; END");
+        db.execSQL("CREATE TRIGGER artist_info_version_delete AFTER DELETE ON artist_info BEGIN " +
+                "UPDATE library_stats SET version=version+1 WHERE _id=1; END");
+        db.execSQL("CREATE TRIGGER album_info_version_insert AFTER INSERT ON album_info BEGIN " +
+                "UPDATE library_stats SET version=version+1 WHERE _id=1; END");
+        db.execSQL("CREATE TRIGGER album_info_version_delete AFTER DELETE ON album_info BEGIN " +
+                "UPDATE library_stats SET version=version+1 WHERE _id=1; END");
+    }
+
+    // song_count of artist_info/album_info and the single library_stats row follow every
+    // change of song_info, so counting is a lookup instead of a table scan.
+    //
+    // the triggers do not delete the artists/albums they count down to 0, a running
+    // LibraryBatchWriter still holds their ids, see MusicPlayerDAO.deleteEmptySongGroups()
+    private static void initCounterTriggers (SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE library_stats (_id integer primary key, song_count integer default 0, artist_count integer default 0, album_count integer default 0)");
+
+        // counts of the rows that are already there
+        db.execSQL("UPDATE artist_info SET song_count=(SELECT COUNT(*) FROM song_info WHERE artist_id=artist_info._id)");
+        db.execSQL("UPDATE album_info SET song_count=(SELECT COUNT(*) FROM song_info WHERE album_id=album_info._id)");
+        db.execSQL("DELETE FROM artist_info WHERE song_count=0");
+        db.execSQL("DELETE FROM album_info WHERE song_count=0");
+        db.execSQL("INSERT INTO library_stats (_id, song_count, artist_count, album_count) VALUES (1, " +
+                "(SELECT COUNT(*) FROM song_info), (SELECT COUNT(*) FROM artist_info), (SELECT COUNT(*) FROM album_info))");
+
+        db.execSQL("CREATE TRIGGER song_info_insert AFTER INSERT ON song_info BEGIN " +
+                "UPDATE artist_info SET song_count=song_count+1 WHERE _id=NEW.artist_id; " +
+                "UPDATE album_info SET song_count=song_count+1 WHERE _id=NEW.album_id; " +
+                "UPDATE library_stats SET song_count=song_count+1 WHERE _id=1; " +
+                "END");
+        db.execSQL("CREATE TRIGGER song_info_delete AFTER DELETE ON song_info BEGIN " +
+                "UPDATE artist_info SET song_count=song_count-1 WHERE _id=OLD.artist_id; " +
+                "UPDATE album_info SET song_count=song_count-1 WHERE _id=OLD.album_id; " +
+                "UPDATE library_stats SET song_count=song_count-1 WHERE _id=1; " +
+                "END");
+        // a rescanned file may have been re-tagged, the scanner rewrites the ids of every changed song
+        db.execSQL("CREATE TRIGGER song_info_update_artist AFTER UPDATE OF artist_id ON song_info " +
+                "WHEN OLD.artist_id<>NEW.artist_id BEGIN " +
+                "UPDATE artist_info SET song_count=song_count+1 WHERE _id=NEW.artist_id; " +
+                "UPDATE artist_info SET song_count=song_count-1 WHERE _id=OLD.artist_id; " +
+                "END");
+        db.execSQL("CREATE TRIGGER song_info_update_album AFTER UPDATE OF album_id ON song_info " +
+                "WHEN OLD.album_id<>NEW.album_id BEGIN " +
+                "UPDATE album_info SET song_count=song_count+1 WHERE _id=NEW.album_id; " +
+                "UPDATE album_info SET song_count=song_count-1 WHERE _id=OLD.album_id; " +
+                "END");
+
+        db.execSQL("CREATE TRIGGER artist_info_insert AFTER INSERT ON artist_info BEGIN " +
+                "UPDATE library_stats SET artist_count=artist_count+1 WHERE _id=1; END");
+        db.execSQL("CREATE TRIGGER artist_info_delete AFTER DELETE ON artist_info BEGIN " +
+                "UPDATE library_stats SET artist_count=artist_count-1 WHERE _id=1; END");
+        db.execSQL("CREATE TRIGGER album_info_insert AFTER INSERT ON album_info BEGIN " +
+                "UPDATE library_stats SET album_count=album_count+1 WHERE _id=1; END");
+        db.execSQL("CREATE TRIGGER album_info_delete AFTER DELETE ON album_info BEGIN " +
+                "UPDATE library_stats SET album_count=album_count-1 WHERE _id=1; END");
+    }
 }
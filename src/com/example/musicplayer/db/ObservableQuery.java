@@ -0,0 +1,166 @@
+package com.example.musicplayer.db;
+
+import android.os.Handler;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: neevek
+ * Date: 10/19/26
+ * Time: 5:50 PM
+ */
+
+// a query whose result is pushed to its subscribers on the UI thread, first when
+// it is loaded and again every time one of the tables it reads is written.
+//
+// all subscribers of a query share one load: it runs on a reader of the DBExecutor
+// once however many subscribe while it runs, and the tables written while it runs
+// make it run once more when it is done, not once per write. the result is shared
+// too, subscribers must not modify it. get instances from LibraryQueries, they are
+// released when their last subscriber unsubscribes. the state of all queries is
+// guarded by the lock of the LibraryQueries, so a query is never released while
+// someone subscribes to it.
+public class ObservableQuery<T> implements LibraryTables.Observer {
+    public interface Subscriber<T> {
+        // on the UI thread
+        void onResult (T result);
+    }
+
+    public class Subscription {
+        private final Subscriber<T> mSubscriber;
+        private volatile boolean mActive = true;
+
+        private Subscription (Subscriber<T> subscriber) {
+            mSubscriber = subscriber;
+        }
+
+        // no result is delivered after this returns, call it on the UI thread
+        public void unsubscribe () {
+            if (mActive) {
+                mActive = false;
+                removeSubscription(this);
+            }
+        }
+    }
+
+    private final String mKey;
+    private final int mTables;
+    private final Callable<T> mLoader;
+    private final LibraryQueries mQueries;
+    private final DBExecutor mExecutor;
+    private final Handler mMainHandler;
+
+    private final List<Subscription> mSubscriptions = new ArrayList<Subscription>();
+    private T mResult;
+    private boolean mLoaded;
+    private boolean mLoading;
+    // tables were written since the running load started
+    private boolean mStale;
+
+    ObservableQuery (String key, int tables, Callable<T> loader, LibraryQueries queries, DBExecutor executor, Handler mainHandler) {
+        mKey = key;
+        mTables = tables;
+        mLoader = loader;
+        mQueries = queries;
+        mExecutor = executor;
+        mMainHandler = mainHandler;
+    }
+
+    String getKey () {
+        return mKey;
+    }
+
+    /**
+     * the subscriber gets the last result right away if there is one, and every
+     * result loaded from now on until it unsubscribes.
+     */
+    public Subscription subscribe (Subscriber<T> subscriber) {
+        synchronized (mQueries) {
+            Subscription subscription = new Subscription(subscriber);
+            if (mSubscriptions.isEmpty())
+                mQueries.attach(this);
+            mSubscriptions.add(subscription);
+
+            if (mLoaded)
+                deliver(subscription, mResult);
+            if (!mLoaded || mStale)
+                load();
+            return subscription;
+        }
+    }
+
+    private void removeSubscription (Subscription subscription) {
+        synchronized (mQueries) {
+            mSubscriptions.remove(subscription);
+            if (mSubscriptions.isEmpty()) {
+                mQueries.release(this);
+                // nobody asks any more, the next subscriber loads it again
+                mLoaded = false;
+                mResult = null;
+            }
+        }
+    }
+
+    @Override
+    public void onTablesChanged(int tables) {
+        if ((tables & mTables) == 0)
+            return;
+
+        synchronized (mQueries) {
+            mStale = true;
+            if (!mSubscriptions.isEmpty())
+                load();
+        }
+    }
+
+    // holding the lock
+    private void load () {
+        if (mLoading)
+            return;
+
+        mLoading = true;
+        mStale = false;
+        mExecutor.executeRead(new Runnable() {
+            @Override
+            public void run() {
+                T result = null;
+                try {
+                    result = mLoader.call();
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+                onLoaded(result);
+            }
+        });
+    }
+
+    private void onLoaded (T result) {
+        synchronized (mQueries) {
+            mLoading = false;
+            if (mSubscriptions.isEmpty())
+                return;
+
+            if (result != null) {
+                mResult = result;
+                mLoaded = true;
+                for (int i = 0; i < mSubscriptions.size(); ++i)
+                    deliver(mSubscriptions.get(i), result);
+            }
+            if (mStale)
+                load();
+        }
+    }
+
+    private void deliver (final Subscription subscription, final T result) {
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (subscription.mActive)
+                    subscription.mSubscriber.onResult(result);
+            }
+        });
+    }
+}
@@ -0,0 +1,146 @@
+package com.example.musicplayer.db;
+
+import android.support.v4.util.LruCache;
+import com.example.musicplayer.pojo.Song;
+import com.example.musicplayer.pojo.SongGroup;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: neevek
+ * Date: 10/19/26
+ * Time: 7:00 PM
+ */
+
+// the lists MusicPlayerDAO read last, by query and arguments, so going back and forth
+// between the artist/album lists does not read and sort them again.
+//
+// an entry is stamped with the write generation of the tables its query reads (see
+// LibraryTables), taken before the query ran. a write to any of them bumps it and
+// the entry is a miss from then on, also when the write committed while the query
+// ran. the least recently used entries go when the estimated size is over budget.
+//
+// the lists are shared by everyone who gets them, they are unmodifiable.
+public class QueryCache {
+    public final static int DEFAULT_BUDGET = 1024 * 1024;
+
+    // rough heap bytes of a row besides its strings
+    private final static int SONG_OVERHEAD = 80;
+    private final static int SONG_GROUP_OVERHEAD = 40;
+
+    private static class Entry {
+        final List<?> list;
+        final int tables;
+        final long generation;
+        final int size;
+
+        Entry (List<?> list, int tables, long generation, int size) {
+            this.list = list;
+            this.tables = tables;
+            this.generation = generation;
+            this.size = size;
+        }
+    }
+
+    private final LibraryTables mTables;
+    private final int mBudget;
+    private final LruCache<String, Entry> mEntries;
+
+    private int mHitCount;
+    private int mMissCount;
+
+    QueryCache (LibraryTables tables, int budget) {
+        mTables = tables;
+        mBudget = budget;
+        mEntries = new LruCache<String, Entry>(budget) {
+            @Override
+            protected int sizeOf(String key, Entry entry) {
+                return entry.size;
+            }
+        };
+    }
+
+    // take it before running the query, see put()
+    long getGeneration (int tables) {
+        return mTables.getGeneration(tables);
+    }
+
+    // null if not cached or written since
+    @SuppressWarnings("unchecked")
+    synchronized <T> List<T> get (String key) {
+        Entry entry = mEntries.get(key);
+        if (entry != null && entry.generation != mTables.getGeneration(entry.tables)) {
+            mEntries.remove(key);
+            entry = null;
+        }
+
+        if (entry == null) {
+            ++mMissCount;
+            return null;
+        }
+        ++mHitCount;
+        return (List<T>) entry.list;
+    }
+
+    /**
+     * @param generation getGeneration(tables) from before the query ran
+     * @return the list as cached, unmodifiable
+     */
+    synchronized <T> List<T> put (String key, int tables, long generation, List<T> list, int size) {
+        list = Collections.unmodifiableList(list);
+        // a result that would push out most of the others is not worth it, nor one that is stale already
+        if (size <= mBudget / 4 && generation == mTables.getGeneration(tables))
+            mEntries.put(key, new Entry(list, tables, generation, size));
+        return list;
+    }
+
+    public synchronized void clear () {
+        mEntries.evictAll();
+    }
+
+    public synchronized int getHitCount () {
+        return mHitCount;
+    }
+
+    public synchronized int getMissCount () {
+        return mMissCount;
+    }
+
+    public synchronized int getEvictionCount () {
+        return mEntries.evictionCount();
+    }
+
+    // estimated bytes of the cached lists
+    public synchronized int getSize () {
+        return mEntries.size();
+    }
+
+    @Override
+    public synchronized String toString() {
+        int accessCount = mHitCount + mMissCount;
+        return "QueryCache[size=" + mEntries.size() + "/" + mBudget + ", hits=" + mHitCount + ", misses=" + mMissCount +
+                ", hitRate=" + (accessCount != 0 ? 100 * mHitCount / accessCount : 0) + "%, evictions=" + mEntries.evictionCount() + "]";
+    }
+
+    static int sizeOfSongs (List<Song> songs) {
+        int size = 0;
+        for (int i = 0; i < songs.size(); ++i) {
+            Song song = songs.get(i);
+            size += SONG_OVERHEAD + 2 * (length(song.title) + length(song.artist) + length(song.album) + length(song.filePath));
+        }
+        return size;
+    }
+
+    static int sizeOfSongGroups (List<? extends SongGroup> groups) {
+        int size = 0;
+        for (int i = 0; i < groups.size(); ++i)
+            size += SONG_GROUP_OVERHEAD + 2 * length(groups.get(i).name);
+        return size;
+    }
+
+    private static int length (String s) {
+        return s != null ? s.length() : 0;
+    }
+}
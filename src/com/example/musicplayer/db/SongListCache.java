@@ -0,0 +1,232 @@
+package com.example.musicplayer.db;
+
+import android.content.ComponentCallbacks2;
+import com.example.musicplayer.util.CompactSongStore;
+
+import java.lang.ref.Reference;
+import java.lang.ref.SoftReference;
+import java.lang.ref.WeakReference;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: neevek
+ * Date: 10/20/26
+ * Time: 10:10 AM
+ */
+
+// the list of all songs, loaded on first use and kept as a CompactSongStore, let go of
+// step by step as the system runs short of memory, see trimMemory():
+//
+//   held      the store is kept
+//   soft      the GC may take it when it needs the heap
+//   dropped   only kept while someone else holds it, the play list does while it is the list
+//
+// the LibraryIndex the DAO made on the store goes the same way, it is soft or dropped
+// with it, and its query cache is emptied, or they would keep the store after all.
+//
+// a store that was let go of is taken back on the next get() if it is still there, or
+// loaded again. the counts tell how often the list was there, how often it was loaded
+// and how often it was loaded again because it had been let go of.
+public class SongListCache {
+    private final static int HELD = 0;
+    private final static int SOFT = 1;
+    private final static int DROPPED = 2;
+
+    private final MusicPlayerDAO mMusicPlayerDAO;
+    // one load at a time, the counts and the store are guarded by the cache
+    private final Object mLoadLock = new Object();
+
+    private CompactSongStore mStore;
+    // the store let go of, soft or weak
+    private Reference<CompactSongStore> mReleasedStore;
+    private int mState = HELD;
+    private long mStoreSize;
+    // bumped by clear(), a load that started before it is not kept
+    private int mVersion;
+    // the store was let go of, the next load is a rebuild
+    private boolean mTrimmed;
+
+    private int mHitCount;
+    private int mMissCount;
+    private int mRebuildCount;
+    private int mReclaimCount;
+    private int mTrimCount;
+
+    public SongListCache (MusicPlayerDAO dao) {
+        mMusicPlayerDAO = dao;
+    }
+
+    /**
+     * @param load load it if it is not there, off the UI thread
+     * @return null if it is not there and load is false
+     */
+    public CompactSongStore get (boolean load) {
+        int version;
+        synchronized (this) {
+            CompactSongStore store = takeBack();
+            if (store != null) {
+                ++mHitCount;
+                return store;
+            }
+            if (!load)
+                return null;
+        }
+
+        synchronized (mLoadLock) {
+            synchronized (this) {
+                // loaded while we waited
+                CompactSongStore store = takeBack();
+                if (store != null) {
+                    ++mHitCount;
+                    return store;
+                }
+                ++mMissCount;
+                if (mTrimmed)
+                    ++mRebuildCount;
+                version = mVersion;
+            }
+
+            CompactSongStore store = mMusicPlayerDAO.getAllSongStore();
+            long size = store.estimateHeapSize();
+            synchronized (this) {
+                if (version == mVersion) {
+                    setStore(store, size);
+                    mTrimmed = false;
+                }
+            }
+            return store;
+        }
+    }
+
+    // the store in whatever form it is kept, not counted and not taken back, null if there is none
+    public synchronized CompactSongStore peek () {
+        if (mStore != null)
+            return mStore;
+        return mReleasedStore != null ? mReleasedStore.get() : null;
+    }
+
+    /**
+     * puts the patched store in the place of the one it was made of, kept the way that
+     * one was. nothing is done if that one is not the store any more.
+     *
+     * @return false if it was not, the store was replaced or let go of meanwhile
+     */
+    public synchronized boolean replace (CompactSongStore store, CompactSongStore patched) {
+        if (store == null)
+            return false;
+
+        if (mStore == store) {
+            setStore(patched, patched.estimateHeapSize());
+        } else if (mReleasedStore != null && mReleasedStore.get() == store) {
+            mStoreSize = patched.estimateHeapSize();
+            mReleasedStore = newReference(patched, mState);
+        } else {
+            return false;
+        }
+        return true;
+    }
+
+    // the songs changed, the list is loaded again on next use
+    public synchronized void clear () {
+        ++mVersion;
+        mStore = null;
+        mReleasedStore = null;
+        mState = HELD;
+        mStoreSize = 0;
+        mTrimmed = false;
+    }
+
+    /**
+     * lets go of the store as far as the level asks, see ComponentCallbacks2: soft once
+     * the UI is hidden, in the background or running low, dropped when the process is
+     * about to be killed, running critical or on onLowMemory().
+     */
+    public synchronized void trimMemory (int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            release(DROPPED);
+            mMusicPlayerDAO.releaseMemory();
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            release(SOFT);
+            mMusicPlayerDAO.softenMemory();
+        }
+    }
+
+    // holding the lock
+    private void release (int state) {
+        if (state <= mState)
+            return;
+
+        CompactSongStore store = peek();
+        mState = state;
+        mStore = null;
+        mReleasedStore = store != null ? newReference(store, state) : null;
+        if (store != null) {
+            mTrimmed = true;
+            ++mTrimCount;
+        }
+    }
+
+    // holding the lock, the store let go of is held again if the GC left it
+    private CompactSongStore takeBack () {
+        if (mStore != null)
+            return mStore;
+        if (mReleasedStore == null)
+            return null;
+
+        CompactSongStore store = mReleasedStore.get();
+        mReleasedStore = null;
+        mState = HELD;
+        if (store != null) {
+            ++mReclaimCount;
+            mStore = store;
+            mMusicPlayerDAO.holdIndex(store);
+        } else {
+            mStoreSize = 0;
+        }
+        return store;
+    }
+
+    // holding the lock
+    private void setStore (CompactSongStore store, long size) {
+        mStore = store;
+        mReleasedStore = null;
+        mState = HELD;
+        mStoreSize = size;
+    }
+
+    private static Reference<CompactSongStore> newReference (CompactSongStore store, int state) {
+        return state == SOFT ? new SoftReference<CompactSongStore>(store) : new WeakReference<CompactSongStore>(store);
+    }
+
+    // estimated bytes the cache and the index on the store keep the GC from taking, 0
+    // while they are let go of
+    public synchronized long getRetainedSize () {
+        return (mStore != null ? mStoreSize : 0) + mMusicPlayerDAO.getIndexHeapSize();
+    }
+
+    public synchronized int getHitCount () {
+        return mHitCount;
+    }
+
+    public synchronized int getMissCount () {
+        return mMissCount;
+    }
+
+    // loads of a store that had been let go of
+    public synchronized int getRebuildCount () {
+        return mRebuildCount;
+    }
+
+    // stores let go of and taken back before the GC took them
+    public synchronized int getReclaimCount () {
+        return mReclaimCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        String state = mState == HELD ? "held" : mState == SOFT ? "soft" : "dropped";
+        return "SongListCache[" + (peek() != null ? state : "empty") + ", retained=" + getRetainedSize() / 1024 + "KB" +
+                ", hits=" + mHitCount + ", misses=" + mMissCount + ", rebuilds=" + mRebuildCount +
+                ", reclaims=" + mReclaimCount + ", trims=" + mTrimCount + "]";
+    }
+}
@@ -0,0 +1,50 @@
+package com.example.musicplayer.db;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: neevek
+ * Date: 10/19/26
+ * Time: 10:20 AM
+ */
+
+// compiled statements of one connection, keyed by their SQL.
+//
+// compileStatement() parses and plans the SQL on every call, a cached statement is
+// only bound again. a statement belongs to the connection it was compiled on, so the
+// cache is dropped when the helper hands out another SQLiteDatabase. the keys are the
+// SQL constants of MusicPlayerDAO, the cache never grows past them.
+//
+// a SQLiteStatement is not thread safe, hold its lock while binding and executing it.
+class StatementCache {
+    private SQLiteDatabase mDb;
+    private final Map<String, SQLiteStatement> mStatements = new HashMap<String, SQLiteStatement>();
+
+    synchronized SQLiteStatement get (SQLiteDatabase db, String sql) {
+        if (db != mDb) {
+            clear();
+            mDb = db;
+        }
+
+        SQLiteStatement statement = mStatements.get(sql);
+        if (statement == null) {
+            statement = db.compileStatement(sql);
+            mStatements.put(sql, statement);
+        }
+        return statement;
+    }
+
+    synchronized void clear () {
+        Iterator<SQLiteStatement> it = mStatements.values().iterator();
+        while (it.hasNext())
+            it.next().close();
+        mStatements.clear();
+        mDb = null;
+    }
+}
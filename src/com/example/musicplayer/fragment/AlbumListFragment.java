@@ -12,11 +12,10 @@ import android.widget.TextView;
 import com.example.musicplayer.MainActivity;
 import com.example.musicplayer.MusicPlayerApplication;
 import com.example.musicplayer.R;
-import com.example.musicplayer.db.MusicPlayerDAO;
+import com.example.musicplayer.db.ObservableQuery;
 import com.example.musicplayer.message.Message;
 import com.example.musicplayer.message.MessageData2;
 import com.example.musicplayer.pojo.Album;
-import com.example.musicplayer.util.TaskExecutor;
 
 import java.util.List;
 
@@ -26,7 +25,7 @@ import java.util.List;
  * Date: 7/20/13
  * Time: 10:12 AM
  */
-public class AlbumListFragment extends Fragment implements AdapterView.OnItemClickListener {
+public class AlbumListFragment extends Fragment implements AdapterView.OnItemClickListener, ObservableQuery.Subscriber<List<Album>> {
     private final static boolean DEBUG = true;
     private final static String TAG = AlbumListFragment.class.getSimpleName();
 
@@ -36,7 +35,8 @@ public class AlbumListFragment extends Fragment implements AdapterView.OnItemCli
     private ListView mListView;
     private AlbumListAdapter mAdapter;
 
-    private MusicPlayerDAO mMusicPlayerDAO;
+    // the list is shared with the other subscribers of the query, it is only read
+    private ObservableQuery<List<Album>>.Subscription mSubscription;
 
     @Override
     public void onCreate(Bundle savedInstanceState) {
@@ -44,34 +44,27 @@ public class AlbumListFragment extends Fragment implements AdapterView.OnItemCli
 
         mApp = MusicPlayerApplication.getInstance();
 
-        mMusicPlayerDAO = mApp.getMusicPlayerDAO();
-
         mListView = (ListView)LayoutInflater.from(getActivity()).inflate(R.layout.music_list, null, false);
         mListView.setOnItemClickListener(this);
 
-        TaskExecutor.executeTask(new Runnable() {
-            @Override
-            public void run() {
-                if (isDetached())
-                    return;
-
-                mAlbumList = mMusicPlayerDAO.getAlbums();
-
-                mApp.runOnUiThread(new Runnable() {
-                    @Override
-                    public void run() {
-                        mAdapter = new AlbumListAdapter();
-                        mListView.setAdapter(mAdapter);
-                    }
-                });
-            }
-        });
+        mSubscription = mApp.getLibraryQueries().getAlbums().subscribe(this);
     }
 
     @Override
     public void onDestroy() {
         super.onDestroy();
-        mAlbumList.clear();
+        mSubscription.unsubscribe();
+    }
+
+    @Override
+    public void onResult(List<Album> albumList) {
+        mAlbumList = albumList;
+        if (mAdapter == null) {
+            mAdapter = new AlbumListAdapter();
+            mListView.setAdapter(mAdapter);
+        } else {
+            mAdapter.notifyDataSetChanged();
+        }
     }
 
     @Override
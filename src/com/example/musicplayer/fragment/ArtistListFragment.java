@@ -12,11 +12,10 @@ import android.widget.TextView;
 import com.example.musicplayer.MainActivity;
 import com.example.musicplayer.MusicPlayerApplication;
 import com.example.musicplayer.R;
-import com.example.musicplayer.db.MusicPlayerDAO;
+import com.example.musicplayer.db.ObservableQuery;
 import com.example.musicplayer.message.Message;
 import com.example.musicplayer.message.MessageData2;
 import com.example.musicplayer.pojo.Artist;
-import com.example.musicplayer.util.TaskExecutor;
 
 import java.util.List;
 
@@ -26,7 +25,7 @@ import java.util.List;
  * Date: 7/20/13
  * Time: 10:12 AM
  */
-public class ArtistListFragment extends Fragment implements AdapterView.OnItemClickListener {
+public class ArtistListFragment extends Fragment implements AdapterView.OnItemClickListener, ObservableQuery.Subscriber<List<Artist>> {
     private final static boolean DEBUG = true;
     private final static String TAG = ArtistListFragment.class.getSimpleName();
 
@@ -36,7 +35,8 @@ public class ArtistListFragment extends Fragment implements AdapterView.OnItemCl
     private ListView mListView;
     private ArtistListAdapter mAdapter;
 
-    private MusicPlayerDAO mMusicPlayerDAO;
+    // the list is shared with the other subscribers of the query, it is only read
+    private ObservableQuery<List<Artist>>.Subscription mSubscription;
 
     @Override
     public void onCreate(Bundle savedInstanceState) {
@@ -44,35 +44,27 @@ public class ArtistListFragment extends Fragment implements AdapterView.OnItemCl
 
         mApp = MusicPlayerApplication.getInstance();
 
-        mMusicPlayerDAO = mApp.getMusicPlayerDAO();
-
         mListView = (ListView)LayoutInflater.from(getActivity()).inflate(R.layout.music_list, null, false);
         mListView.setOnItemClickListener(this);
 
-        TaskExecutor.executeTask(new Runnable() {
-            @Override
-            public void run() {
-                if (isDetached())
-                    return;
-
-                mArtistList = mMusicPlayerDAO.getArtists();
-
-                mApp.runOnUiThread(new Runnable() {
-                    @Override
-                    public void run() {
-                        mAdapter = new ArtistListAdapter();
-                        mListView.setAdapter(mAdapter);
-                    }
-                });
-            }
-        });
-
+        mSubscription = mApp.getLibraryQueries().getArtists().subscribe(this);
     }
 
     @Override
     public void onDestroy() {
         super.onDestroy();
-        mArtistList.clear();
+        mSubscription.unsubscribe();
+    }
+
+    @Override
+    public void onResult(List<Artist> artistList) {
+        mArtistList = artistList;
+        if (mAdapter == null) {
+            mAdapter = new ArtistListAdapter();
+            mListView.setAdapter(mAdapter);
+        } else {
+            mAdapter.notifyDataSetChanged();
+        }
     }
 
     @Override
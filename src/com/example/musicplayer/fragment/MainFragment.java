@@ -1,7 +1,6 @@
 package com.example.musicplayer.fragment;
 
 import android.os.Bundle;
-import android.os.Looper;
 import android.support.v4.app.Fragment;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -10,12 +9,11 @@ import android.widget.*;
 import com.example.musicplayer.MainActivity;
 import com.example.musicplayer.MusicPlayerApplication;
 import com.example.musicplayer.R;
-import com.example.musicplayer.db.MusicPlayerDAO;
+import com.example.musicplayer.db.ObservableQuery;
 import com.example.musicplayer.message.Message;
-import com.example.musicplayer.message.MessageCallback;
 import com.example.musicplayer.message.MessageData2;
+import com.example.musicplayer.pojo.LibraryCounts;
 import com.example.musicplayer.pojo.SongGroup;
-import com.example.musicplayer.util.TaskExecutor;
 
 /**
  * Created with IntelliJ IDEA.
@@ -23,11 +21,10 @@ import com.example.musicplayer.util.TaskExecutor;
  * Date: 7/20/13
  * Time: 10:12 AM
  */
-public class MainFragment extends Fragment implements AdapterView.OnItemClickListener, MessageCallback {
+public class MainFragment extends Fragment implements AdapterView.OnItemClickListener, ObservableQuery.Subscriber<LibraryCounts> {
     private View mLayout;
 
     private MusicPlayerApplication mApp;
-    private MusicPlayerDAO mMusicPlayerDAO;
 
     private GridView mGridView;
     private MainGridViewItemAdapter mAdapter;
@@ -38,10 +35,11 @@ public class MainFragment extends Fragment implements AdapterView.OnItemClickLis
 
 
     private String mTitle;
+    // the counts follow every write to the library, the batches of a running scan too
+    private ObservableQuery<LibraryCounts>.Subscription mCountsSubscription;
 
     public MainFragment () {
         mApp = MusicPlayerApplication.getInstance();
-        mMusicPlayerDAO = mApp.getMusicPlayerDAO();
     }
 
     @Override
@@ -49,7 +47,6 @@ public class MainFragment extends Fragment implements AdapterView.OnItemClickLis
         super.onCreate(savedInstanceState);
 
         mTitle = getResources().getString(R.string.app_name);
-        mApp.getMessagePump().register(Message.Type.REDRAW_LIST, this);
     }
 
     @Override
@@ -66,19 +63,7 @@ public class MainFragment extends Fragment implements AdapterView.OnItemClickLis
         mGridView = (GridView) mLayout;
         mGridView.setOnItemClickListener(this);
 
-        TaskExecutor.executeTask(new Runnable() {
-            @Override
-            public void run() {
-                setItemDataCounts(false);
-                mApp.runOnUiThread(new Runnable() {
-                    @Override
-                    public void run() {
-                        mAdapter = new MainGridViewItemAdapter();
-                        mGridView.setAdapter(mAdapter);
-                    }
-                });
-            }
-        });
+        mCountsSubscription = mApp.getLibraryQueries().getLibraryCounts().subscribe(this);
 
         return mLayout;
     }
@@ -86,24 +71,21 @@ public class MainFragment extends Fragment implements AdapterView.OnItemClickLis
     @Override
     public void onDestroy() {
         super.onDestroy();
-        mApp.getMessagePump().unregister(this);
+        if (mCountsSubscription != null)
+            mCountsSubscription.unsubscribe();
     }
 
-    public void setItemDataCounts(boolean redraw) {
-        MENU_ITEM_DATA_COUNT[0] = mMusicPlayerDAO.getAllMusicCount();
-        MENU_ITEM_DATA_COUNT[1] = mMusicPlayerDAO.getArtistCount();
-        MENU_ITEM_DATA_COUNT[2] = mMusicPlayerDAO.getAlbumCount();
-
-        if (redraw) {
-            if (Looper.myLooper() == Looper.getMainLooper())
-                mAdapter.notifyDataSetChanged();
-            else
-                mApp.runOnUiThread(new Runnable() {
-                    @Override
-                    public void run() {
-                        mAdapter.notifyDataSetChanged();
-                    }
-                });
+    @Override
+    public void onResult(LibraryCounts counts) {
+        MENU_ITEM_DATA_COUNT[0] = counts.songCount;
+        MENU_ITEM_DATA_COUNT[1] = counts.artistCount;
+        MENU_ITEM_DATA_COUNT[2] = counts.albumCount;
+
+        if (mAdapter == null) {
+            mAdapter = new MainGridViewItemAdapter();
+            mGridView.setAdapter(mAdapter);
+        } else {
+            mAdapter.notifyDataSetChanged();
         }
     }
 
@@ -165,13 +147,4 @@ public class MainFragment extends Fragment implements AdapterView.OnItemClickLis
                 break;
         }
     }
-
-    @Override
-    public void onReceiveMessage(Message message) {
-        switch (message.type) {
-            case REDRAW_LIST:
-                setItemDataCounts(true);
-                break;
-        }
-    }
 }
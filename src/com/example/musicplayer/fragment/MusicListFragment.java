@@ -12,13 +12,14 @@ import com.example.musicplayer.MainActivity;
 import com.example.musicplayer.MusicPlayerApplication;
 import com.example.musicplayer.R;
 import com.example.musicplayer.db.MusicPlayerDAO;
-import com.example.musicplayer.message.Message;
+import com.example.musicplayer.db.ObservableQuery;
 import com.example.musicplayer.pojo.Song;
 import com.example.musicplayer.service.MusicPlayerService;
 import com.example.musicplayer.util.TaskExecutor;
 import com.example.musicplayer.util.Util;
 
 import java.io.File;
+import java.util.Collections;
 import java.util.List;
 
 import static android.app.Dialog.*;
@@ -29,14 +30,18 @@ import static android.app.Dialog.*;
  * Date: 7/20/13
  * Time: 10:12 AM
  */
-public class MusicListFragment extends Fragment implements AdapterView.OnItemClickListener {
+public class MusicListFragment extends Fragment implements AdapterView.OnItemClickListener, AbsListView.OnScrollListener, ObservableQuery.Subscriber<List<Song>> {
     private final static boolean DEBUG = true;
     private final static String TAG = MusicListFragment.class.getSimpleName();
 
     private MusicPlayerApplication mApp;
     private View mLayout;
 
+    // the songs of an artist/album, all songs are read page by page through mSongWindow.
+    // both follow the writes to the library by themselves
     private List<Song> mSongList;
+    private ObservableQuery<List<Song>>.Subscription mSongListSubscription;
+    private SongWindow mSongWindow;
     private ListView mListView;
     private MusicListAdapter mAdapter;
 
@@ -60,54 +65,55 @@ public class MusicListFragment extends Fragment implements AdapterView.OnItemCli
         final int type = args.getInt(MainActivity.LIST_TYPE, MainActivity.TYPE_ALL_MUSIC);
 
         mTitle = args.getString(MainActivity.EXTRA_TITLE);
+
         if (DEBUG) Log.d(TAG, ">>>> list type: " + type);
 
-        TaskExecutor.executeTask(new Runnable() {
-            @Override
-            public void run() {
-                if (isDetached())
-                    return;
-
-                List<Song> songList = null;
-                switch (type) {
-                    case MainActivity.TYPE_ALL_MUSIC:
-                        songList = mApp.getCachedAllMusicSongList(true);
-                        break;
-                    case MainActivity.TYPE_BY_ARTIST:
-                        songList = mMusicPlayerDAO.getSongsByArtistId(args.getInt(MainActivity.EXTRA_ID));
-                        break;
-                    case MainActivity.TYPE_BY_ALBUM:
-                        songList = mMusicPlayerDAO.getSongsByAlbumId(args.getInt(MainActivity.EXTRA_ID));
-                        break;
+        if (type == MainActivity.TYPE_ALL_MUSIC) {
+            // the whole list is only loaded when a song is played, see onItemClick()
+            mAdapter = new MusicListAdapter();
+            mSongWindow = new SongWindow(mApp, new SongWindow.Listener() {
+                @Override
+                public void onWindowChanged() {
+                    mAdapter.notifyDataSetChanged();
                 }
+            });
+            mSongWindow.open();
+            return;
+        }
 
-                if (getActivity() == null)
-                    return;
-
-                mApp.setCurrentPlayList(songList);
-
-                final List<Song> finalSongList = songList;
-                mApp.runOnUiThread(new Runnable() {
-                    @Override
-                    public void run() {
-                        mSongList = finalSongList;
-
-                        if (mAdapter == null)
-                            mAdapter = new MusicListAdapter();
-                        mListView.setAdapter(mAdapter);
-
-                        getActivity().setTitle(mTitle);
-                    }
-                });
-            }
-        });
+        ObservableQuery<List<Song>> query = type == MainActivity.TYPE_BY_ARTIST
+                ? mApp.getLibraryQueries().getSongsByArtistId(args.getInt(MainActivity.EXTRA_ID))
+                : mApp.getLibraryQueries().getSongsByAlbumId(args.getInt(MainActivity.EXTRA_ID));
+        mSongListSubscription = query.subscribe(this);
+    }
 
+    @Override
+    public void onResult(List<Song> songList) {
+        if (getActivity() == null)
+            return;
+
+        mSongList = songList;
+
+        if (mAdapter == null) {
+            mAdapter = new MusicListAdapter();
+            // or in onCreateView()
+            if (mListView != null)
+                mListView.setAdapter(mAdapter);
+            getActivity().setTitle(mTitle);
+        } else {
+            mAdapter.notifyDataSetChanged();
+        }
     }
 
     @Override
     public void onDestroy() {
         super.onDestroy();
+        if (mSongListSubscription != null)
+            mSongListSubscription.unsubscribe();
+        if (mSongWindow != null)
+            mSongWindow.close();
         mSongList = null;
+        mSongWindow = null;
         mListView.setAdapter(null);
     }
 
@@ -123,6 +129,9 @@ public class MusicListFragment extends Fragment implements AdapterView.OnItemCli
         mLayout = inflater.inflate(R.layout.music_list, null, false);
         mListView = (ListView) mLayout;
         mListView.setOnItemClickListener(this);
+        mListView.setOnScrollListener(this);
+        if (mAdapter != null)
+            mListView.setAdapter(mAdapter);
 
         registerForContextMenu(mListView);
 
@@ -141,27 +150,21 @@ public class MusicListFragment extends Fragment implements AdapterView.OnItemCli
 
         switch (item.getItemId()) {
             case CONTEXT_MENU_ITEM_DELETE:
-                final Song song = mSongList.get(info.position);
-                TaskExecutor.executeTask(new Runnable() {
+                final Song song = getSong(info.position);
+                if (song == null)
+                    break;
+                mApp.getLibraryQueries().getExecutor().executeWrite(new Runnable() {
                     @Override
                     public void run() {
-                        // delete song from database
+                        // delete song from database, the lists showing it are read again
                         mMusicPlayerDAO.deleteSong(song.id, song.artistId, song.albumId);
 
-                        // delete song from list in memory
-                        mSongList.remove(song);
-                        List<Song> cachedSongList = mApp.getCachedAllMusicSongList(false);
-                        if (cachedSongList != null && mSongList != mApp.getCachedAllMusicSongList(false))
-                            cachedSongList.remove(song);
-
-                        mApp.getMessagePump().broadcastMessage(Message.Type.REDRAW_LIST, null);
+                        mApp.updateCachedAllMusicSongList(Collections.<Song>emptyList(), Collections.singletonList(song.id));
 
-                        // redraw the current listview and show a dialog to ask
-                        // if the user wants to delete the underlying file
+                        // show a dialog to ask if the user wants to delete the underlying file
                         mApp.runOnUiThread(new Runnable() {
                             @Override
                             public void run() {
-                                mAdapter.notifyDataSetChanged();
                                 showAskDeleteFileDialog();
                             }
 
@@ -206,15 +209,34 @@ public class MusicListFragment extends Fragment implements AdapterView.OnItemCli
         mMusicPlayerService = service;
     }
 
+    // null if the page of an all songs row is still being read
+    private Song getSong (int position) {
+        if (mSongWindow != null)
+            return mSongWindow.get(position);
+        return mSongList.get(position);
+    }
+
+    @Override
+    public void onScrollStateChanged(AbsListView view, int scrollState) {
+    }
+
+    @Override
+    public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount, int totalItemCount) {
+        if (mSongWindow != null)
+            mSongWindow.onVisibleRangeChanged(firstVisibleItem, visibleItemCount);
+    }
+
     private class MusicListAdapter extends BaseAdapter {
         @Override
         public int getCount() {
+            if (mSongWindow != null)
+                return mSongWindow.getCount();
             return mSongList.size();
         }
 
         @Override
         public Object getItem(int position) {
-            return mSongList.get(position);
+            return getSong(position);
         }
 
         @Override
@@ -238,7 +260,14 @@ public class MusicListFragment extends Fragment implements AdapterView.OnItemCli
                 holder = (ViewHolder) convertView.getTag();
             }
 
-            Song song = mSongList.get(position);
+            Song song = getSong(position);
+            if (song == null) {
+                // drawn again when its page arrives
+                holder.title.setText(position + 1 + ". ");
+                holder.duration.setText("");
+                holder.artist.setText("");
+                return convertView;
+            }
             holder.title.setText(position + 1 + ". " + song.title);
             holder.duration.setText("[" + Util.formatMilliseconds(song.duration, null) + "]");
             holder.artist.setText(song.artist);
@@ -255,6 +284,23 @@ public class MusicListFragment extends Fragment implements AdapterView.OnItemCli
 
     @Override
     public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
-        mApp.startPlayingSong(mSongList.get(position).id, 0);
+        Song song = getSong(position);
+        if (song == null)
+            return;
+
+        if (mSongWindow != null) {
+            TaskExecutor.executeTask(new Runnable() {
+                @Override
+                public void run() {
+                    // the play list of all songs
+                    mApp.setCurrentPlayList(mApp.getCachedAllMusicSongList(true));
+                }
+            });
+        } else {
+            // the songs of the artist/album as they are now, a later change of them does
+            // not touch the play list
+            mApp.setCurrentPlayList(mSongList);
+        }
+        mApp.startPlayingSong(song.id, 0);
     }
 }
@@ -0,0 +1,218 @@
+package com.example.musicplayer.fragment;
+
+import android.os.Bundle;
+import android.support.v4.app.Fragment;
+import android.text.Editable;
+import android.text.TextWatcher;
+import android.util.Log;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.AdapterView;
+import android.widget.BaseAdapter;
+import android.widget.EditText;
+import android.widget.ListView;
+import android.widget.TextView;
+import com.example.musicplayer.MusicPlayerApplication;
+import com.example.musicplayer.R;
+import com.example.musicplayer.db.MusicPlayerDAO;
+import com.example.musicplayer.pojo.Song;
+import com.example.musicplayer.util.Util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: neevek
+ * Date: 10/19/26
+ * Time: 4:50 PM
+ */
+
+// searches the songs as the user types, see MusicPlayerDAO.searchSongs().
+//
+// a query only starts once typing pauses for SEARCH_DELAY, and every keystroke cancels
+// the query that has not started yet. a query that is already running can not be
+// interrupted on older devices, its result is dropped if more was typed meanwhile.
+public class SearchFragment extends Fragment implements TextWatcher, AdapterView.OnItemClickListener {
+    private final static boolean DEBUG = true;
+    private final static String TAG = SearchFragment.class.getSimpleName();
+
+    private final static int SEARCH_DELAY = 150;
+    private final static int MAX_RESULT_COUNT = 200;
+
+    private MusicPlayerApplication mApp;
+    private MusicPlayerDAO mMusicPlayerDAO;
+
+    private View mLayout;
+    private EditText mSearchEditText;
+    private ListView mListView;
+    private SearchResultAdapter mAdapter;
+
+    private List<Song> mSongList = new ArrayList<Song>();
+
+    // the number of the last query typed, results of older ones are dropped
+    private int mQuerySeq;
+    private Runnable mPendingSearch;
+    private Future<List<Song>> mPendingQuery;
+
+    @Override
+    public void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+
+        mApp = MusicPlayerApplication.getInstance();
+        mMusicPlayerDAO = mApp.getMusicPlayerDAO();
+    }
+
+    @Override
+    public View onCreateView(LayoutInflater inflater, ViewGroup container, Bundle savedInstanceState) {
+        getActivity().setTitle(R.string.title_search);
+
+        if (mLayout != null) {
+            ((ViewGroup)mLayout.getParent()).removeView(mLayout);
+            return mLayout;
+        }
+
+        mLayout = inflater.inflate(R.layout.search, null, false);
+        mSearchEditText = (EditText) mLayout.findViewById(R.id.et_search);
+        mSearchEditText.addTextChangedListener(this);
+
+        mListView = (ListView) mLayout.findViewById(R.id.lv_search_result);
+        mListView.setOnItemClickListener(this);
+        mAdapter = new SearchResultAdapter();
+        mListView.setAdapter(mAdapter);
+
+        return mLayout;
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        cancelPendingSearch();
+        ++mQuerySeq;
+    }
+
+    @Override
+    public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+    }
+
+    @Override
+    public void onTextChanged(CharSequence s, int start, int before, int count) {
+    }
+
+    @Override
+    public void afterTextChanged(Editable s) {
+        cancelPendingSearch();
+
+        final String query = s.toString().trim();
+        final int querySeq = ++mQuerySeq;
+        if (query.length() == 0) {
+            showResult(new ArrayList<Song>());
+            return;
+        }
+
+        mPendingSearch = new Runnable() {
+            @Override
+            public void run() {
+                mPendingSearch = null;
+                search(query, querySeq);
+            }
+        };
+        mApp.getMainHandler().postDelayed(mPendingSearch, SEARCH_DELAY);
+    }
+
+    private void cancelPendingSearch () {
+        if (mPendingSearch != null) {
+            mApp.getMainHandler().removeCallbacks(mPendingSearch);
+            mPendingSearch = null;
+        }
+        if (mPendingQuery != null) {
+            // a query that has not started never runs
+            mPendingQuery.cancel(false);
+            mPendingQuery = null;
+        }
+    }
+
+    private void search (final String query, final int querySeq) {
+        mPendingQuery = mApp.getLibraryQueries().getExecutor().submitRead(new Callable<List<Song>>() {
+            @Override
+            public List<Song> call() throws Exception {
+                long startTime = System.currentTimeMillis();
+                final List<Song> songList = mMusicPlayerDAO.searchSongs(query, MAX_RESULT_COUNT);
+                if (DEBUG) Log.d(TAG, ">>>> searched \"" + query + "\", " + songList.size() + " songs in " + (System.currentTimeMillis() - startTime) + "ms");
+
+                mApp.runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (querySeq != mQuerySeq)
+                            return;
+                        mPendingQuery = null;
+                        showResult(songList);
+                    }
+                });
+                return songList;
+            }
+        });
+    }
+
+    private void showResult (List<Song> songList) {
+        mSongList = songList;
+        mAdapter.notifyDataSetChanged();
+    }
+
+    private class SearchResultAdapter extends BaseAdapter {
+        @Override
+        public int getCount() {
+            return mSongList.size();
+        }
+
+        @Override
+        public Object getItem(int position) {
+            return mSongList.get(position);
+        }
+
+        @Override
+        public long getItemId(int position) {
+            return position;
+        }
+
+        @Override
+        public View getView(int position, View convertView, ViewGroup parent) {
+            ViewHolder holder;
+            if (convertView == null) {
+                convertView = getLayoutInflater(null).inflate(R.layout.music_list_item, null);
+                holder = new ViewHolder();
+
+                holder.title = (TextView) convertView.findViewById(R.id.tv_title);
+                holder.artist = (TextView) convertView.findViewById(R.id.tv_artist);
+                holder.duration = (TextView) convertView.findViewById(R.id.tv_duration);
+
+                convertView.setTag(holder);
+            } else {
+                holder = (ViewHolder) convertView.getTag();
+            }
+
+            Song song = mSongList.get(position);
+            holder.title.setText(position + 1 + ". " + song.title);
+            holder.duration.setText("[" + Util.formatMilliseconds(song.duration, null) + "]");
+            holder.artist.setText(song.artist);
+
+            return convertView;
+        }
+
+        class ViewHolder {
+            TextView title;
+            TextView duration;
+            TextView artist;
+        }
+    }
+
+    @Override
+    public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
+        // the results are the play list
+        mApp.setCurrentPlayList(mSongList);
+        mApp.startPlayingSong(mSongList.get(position).id, 0);
+    }
+}
@@ -0,0 +1,240 @@
+package com.example.musicplayer.fragment;
+
+import android.util.SparseArray;
+import com.example.musicplayer.MusicPlayerApplication;
+import com.example.musicplayer.db.DBExecutor;
+import com.example.musicplayer.db.MusicPlayerDAO;
+import com.example.musicplayer.db.ObservableQuery;
+import com.example.musicplayer.pojo.LibraryCounts;
+import com.example.musicplayer.pojo.Song;
+import com.example.musicplayer.pojo.SongPage;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: neevek
+ * Date: 10/19/26
+ * Time: 3:30 PM
+ */
+
+// the list of all songs, read page by page around the rows the ListView shows
+// instead of loaded as a whole, so the first screen costs a count and one page
+// however big the library is.
+//
+// pages are read with MusicPlayerDAO.getSongPage() from the nearest row whose sort
+// key is known, the first and last rows of every page read so far are kept for that
+// (they are small and stay after the page is dropped). the pages in the scroll
+// direction are read ahead, the ones far from the visible rows are dropped.
+//
+// the keys stay valid places in "ORDER BY title_key, _id" when the songs change, so
+// they are kept across a refresh and the visible pages are read again from them
+// instead of with an OFFSET from the ends of the list. songs added or deleted above a
+// kept row move it by that many positions, the rows read from it stay where they were
+// on the screen and the list does not jump, the ends of the list are read from the
+// ends and stay exact.
+//
+// everything but the queries runs on the UI thread, get() returns null for a row
+// whose page is not there yet and Listener.onWindowChanged() tells when it is.
+//
+// the count comes from the library counts query, which follows every write to the
+// songs, the batches of a running scan too. when it changes the visible pages are
+// read again, the ones it had are shown until then so the list does not blank out.
+class SongWindow implements ObservableQuery.Subscriber<LibraryCounts> {
+    final static int PAGE_SIZE = 50;
+    // pages read ahead of the visible ones in the scroll direction
+    private final static int PREFETCH_PAGES = 2;
+    // pages farther than this from the visible ones are dropped
+    private final static int KEEP_PAGES = 4;
+
+    interface Listener {
+        // the count changed or a page arrived, redraw
+        void onWindowChanged ();
+    }
+
+    private MusicPlayerApplication mApp;
+    private MusicPlayerDAO mMusicPlayerDAO;
+    private DBExecutor mExecutor;
+    private Listener mListener;
+    private ObservableQuery<LibraryCounts>.Subscription mCountsSubscription;
+
+    // -1 until counted
+    private int mCount = -1;
+    private SparseArray<List<Song>> mPages = new SparseArray<List<Song>>();
+    // the pages of before the last refresh(), shown until they are read again
+    private SparseArray<List<Song>> mStalePages = new SparseArray<List<Song>>();
+    private final Set<Integer> mLoadingPages = new HashSet<Integer>();
+    // the first and last rows of the pages read so far, by list position
+    private final TreeMap<Integer, SongPage.Bound> mBounds = new TreeMap<Integer, SongPage.Bound>();
+    // results of queries started before the last refresh() are dropped
+    private int mGeneration;
+
+    private int mFirstVisiblePosition;
+    private int mLastVisiblePosition;
+    private boolean mScrollingDown = true;
+
+    SongWindow (MusicPlayerApplication app, Listener listener) {
+        mApp = app;
+        mMusicPlayerDAO = app.getMusicPlayerDAO();
+        mExecutor = app.getLibraryQueries().getExecutor();
+        mListener = listener;
+    }
+
+    void open () {
+        mCountsSubscription = mApp.getLibraryQueries().getLibraryCounts().subscribe(this);
+    }
+
+    void close () {
+        if (mCountsSubscription != null) {
+            mCountsSubscription.unsubscribe();
+            mCountsSubscription = null;
+        }
+        ++mGeneration;
+    }
+
+    @Override
+    public void onResult(LibraryCounts counts) {
+        if (mCount >= 0)
+            refresh();
+
+        mCount = counts.songCount;
+        if (mLastVisiblePosition >= mCount)
+            mLastVisiblePosition = Math.max(0, mCount - 1);
+        requestPages();
+        mListener.onWindowChanged();
+    }
+
+    // the songs changed, the pages read so far are shown until they are read again
+    private void refresh () {
+        SparseArray<List<Song>> pages = mStalePages;
+        mStalePages = mPages;
+        mPages = pages;
+        mPages.clear();
+
+        // the bounds are kept, see above
+        ++mGeneration;
+        mLoadingPages.clear();
+    }
+
+    int getCount () {
+        return mCount > 0 ? mCount : 0;
+    }
+
+    // null if the page of the row is still being read
+    Song get (int position) {
+        List<Song> page = mPages.get(position / PAGE_SIZE);
+        if (page == null) {
+            requestPage(position / PAGE_SIZE);
+            page = mStalePages.get(position / PAGE_SIZE);
+            if (page == null)
+                return null;
+        }
+
+        int index = position % PAGE_SIZE;
+        // the page came short if songs were deleted since counting
+        return index < page.size() ? page.get(index) : null;
+    }
+
+    // from AbsListView.OnScrollListener.onScroll()
+    void onVisibleRangeChanged (int firstVisiblePosition, int visibleCount) {
+        if (firstVisiblePosition != mFirstVisiblePosition)
+            mScrollingDown = firstVisiblePosition > mFirstVisiblePosition;
+        mFirstVisiblePosition = firstVisiblePosition;
+        mLastVisiblePosition = firstVisiblePosition + Math.max(visibleCount, 1) - 1;
+
+        requestPages();
+        evictPages();
+    }
+
+    private void requestPages () {
+        int firstPage = mFirstVisiblePosition / PAGE_SIZE;
+        int lastPage = mLastVisiblePosition / PAGE_SIZE;
+        for (int page = firstPage; page <= lastPage; ++page)
+            requestPage(page);
+
+        for (int i = 1; i <= PREFETCH_PAGES; ++i)
+            requestPage(mScrollingDown ? lastPage + i : firstPage - i);
+    }
+
+    private void evictPages () {
+        int firstPage = mFirstVisiblePosition / PAGE_SIZE - KEEP_PAGES;
+        int lastPage = mLastVisiblePosition / PAGE_SIZE + KEEP_PAGES;
+        evictPages(mPages, firstPage, lastPage);
+        evictPages(mStalePages, firstPage, lastPage);
+    }
+
+    private static void evictPages (SparseArray<List<Song>> pages, int firstPage, int lastPage) {
+        for (int i = pages.size() - 1; i >= 0; --i) {
+            int page = pages.keyAt(i);
+            if (page < firstPage || page > lastPage)
+                pages.removeAt(i);
+        }
+    }
+
+    private void requestPage (final int page) {
+        if (mCount < 0 || page < 0 || page * PAGE_SIZE >= mCount || mPages.get(page) != null || mLoadingPages.contains(page))
+            return;
+
+        final int start = page * PAGE_SIZE;
+        final int rowCount = Math.min(PAGE_SIZE, mCount - start);
+
+        // read forward from the nearest known row above the page, or backward from the
+        // nearest one below it, whichever skips fewer rows. the ends of the list are
+        // known rows at -1 and mCount
+        SongPage.Bound anchor = null;
+        boolean forward = true;
+        int skip = start;
+
+        Map.Entry<Integer, SongPage.Bound> above = mBounds.floorEntry(start - 1);
+        if (above != null && start - above.getKey() - 1 < skip) {
+            anchor = above.getValue();
+            skip = start - above.getKey() - 1;
+        }
+        int endSkip = mCount - start - rowCount;
+        if (endSkip < skip) {
+            anchor = null;
+            forward = false;
+            skip = endSkip;
+        }
+        Map.Entry<Integer, SongPage.Bound> below = mBounds.ceilingEntry(start + rowCount);
+        if (below != null && below.getKey() - start - rowCount < skip) {
+            anchor = below.getValue();
+            forward = false;
+            skip = below.getKey() - start - rowCount;
+        }
+
+        mLoadingPages.add(page);
+        final int generation = mGeneration;
+        final SongPage.Bound finalAnchor = anchor;
+        final boolean finalForward = forward;
+        final int finalSkip = skip;
+        mExecutor.executeRead(new Runnable() {
+            @Override
+            public void run() {
+                final SongPage songPage = mMusicPlayerDAO.getSongPage(finalAnchor, finalForward, finalSkip, rowCount);
+                mApp.runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        // read before the last refresh(), only its bounds are taken
+                        if (songPage.first != null) {
+                            mBounds.put(start, songPage.first);
+                            mBounds.put(start + songPage.songs.size() - 1, songPage.last);
+                        }
+                        if (generation != mGeneration)
+                            return;
+
+                        mLoadingPages.remove(page);
+                        mPages.put(page, songPage.songs);
+                        mStalePages.remove(page);
+                        evictPages();
+                        mListener.onWindowChanged();
+                    }
+                });
+            }
+        });
+    }
+}
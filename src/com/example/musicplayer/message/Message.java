@@ -32,7 +32,11 @@ public class Message {
         SHOW_FRAGMENT_ALBUM_LIST,
         SHOW_FRAGMENT_ARTIST_LIST,
 
-        REDRAW_LIST,
+        ON_SCAN_STARTED,
+        ON_SCAN_PROGRESS,
+        ON_SCAN_FINISHED,
+        // songs were added, changed or deleted between scans, the cached song list is already patched
+        ON_LIBRARY_CHANGED,
     }
 
     public Message(Type type, Object data, int priority, Object sender) {
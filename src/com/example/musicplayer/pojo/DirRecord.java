@@ -0,0 +1,28 @@
+package com.example.musicplayer.pojo;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: neevek
+ * Date: 10/18/26
+ * Time: 7:10 PM
+ */
+
+// what dir_info remembers about a directory that was listed by a scan
+public class DirRecord {
+    public String path;
+    // null for the root of a scan
+    public String parentPath;
+    public long lastModified;
+    // number of entries returned by File.list()
+    public int childCount;
+    // when the directory was listed, used to tell whether lastModified can be trusted
+    public long scannedAt;
+
+    public DirRecord (String path, String parentPath, long lastModified, int childCount, long scannedAt) {
+        this.path = path;
+        this.parentPath = parentPath;
+        this.lastModified = lastModified;
+        this.childCount = childCount;
+        this.scannedAt = scannedAt;
+    }
+}
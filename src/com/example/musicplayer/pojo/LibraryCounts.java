@@ -0,0 +1,21 @@
+package com.example.musicplayer.pojo;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: neevek
+ * Date: 10/19/26
+ * Time: 6:10 PM
+ */
+
+// the numbers of songs, artists and albums, read together, see MusicPlayerDAO.getLibraryCounts()
+public class LibraryCounts {
+    public final int songCount;
+    public final int artistCount;
+    public final int albumCount;
+
+    public LibraryCounts (int songCount, int artistCount, int albumCount) {
+        this.songCount = songCount;
+        this.artistCount = artistCount;
+        this.albumCount = albumCount;
+    }
+}
@@ -0,0 +1,19 @@
+package com.example.musicplayer.pojo;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: neevek
+ * Date: 10/18/26
+ * Time: 11:40 PM
+ */
+
+// a path that leads to a directory or file the last scan read through another path
+public class PathAlias {
+    public String aliasPath;
+    public String targetPath;
+
+    public PathAlias (String aliasPath, String targetPath) {
+        this.aliasPath = aliasPath;
+        this.targetPath = targetPath;
+    }
+}
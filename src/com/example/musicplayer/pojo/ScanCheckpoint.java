@@ -0,0 +1,31 @@
+package com.example.musicplayer.pojo;
+
+import java.util.Set;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: neevek
+ * Date: 10/18/26
+ * Time: 9:30 PM
+ */
+
+// where a scan that did not finish stopped, read from scan_state and scan_journal
+public class ScanCheckpoint {
+    public int scanGeneration;
+    public int mode;
+    public String rootDir;
+    public long startedAt;
+    // songs written by the batches the scan committed
+    public int committedCount;
+    // directories whose songs are all committed
+    public Set<String> completedDirs;
+
+    public ScanCheckpoint (int scanGeneration, int mode, String rootDir, long startedAt, int committedCount, Set<String> completedDirs) {
+        this.scanGeneration = scanGeneration;
+        this.mode = mode;
+        this.rootDir = rootDir;
+        this.startedAt = startedAt;
+        this.committedCount = committedCount;
+        this.completedDirs = completedDirs;
+    }
+}
@@ -18,6 +18,11 @@ public class Song implements Serializable {
     public String album;
     public int albumId;
     public int duration;
+    // in kbps
+    public int bitrate;
+    // in Hz
+    public int sampleRate;
+    public boolean vbr;
     public String filePath;
 
     public Song (int id, String title, int artistId, String artist, int albumId, String album, int duration, String filePath) {
@@ -0,0 +1,25 @@
+package com.example.musicplayer.pojo;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: neevek
+ * Date: 10/18/26
+ * Time: 11:20 AM
+ */
+
+// what song_info remembers about a file to tell whether it changed since the last scan
+public class SongFingerprint {
+    public int id;
+    public long fileSize;
+    public long lastModified;
+
+    public SongFingerprint (int id, long fileSize, long lastModified) {
+        this.id = id;
+        this.fileSize = fileSize;
+        this.lastModified = lastModified;
+    }
+
+    public boolean matches (long fileSize, long lastModified) {
+        return this.fileSize == fileSize && this.lastModified == lastModified;
+    }
+}
@@ -0,0 +1,46 @@
+package com.example.musicplayer.pojo;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: neevek
+ * Date: 10/18/26
+ * Time: 9:40 AM
+ */
+
+// metadata read from an audio file during a scan, before it goes into song_info
+public class SongMetadata {
+    public String filePath;
+    public String title;
+    public String artist;
+    public String album;
+    public int duration;
+    // in kbps
+    public int bitrate;
+    // in Hz
+    public int sampleRate;
+    public boolean vbr;
+    public long fileSize;
+    public long lastModified;
+
+    // _id of the song_info row of this file if it is already in the library, 0 otherwise
+    public int existingId;
+    // the file did not change since the last scan, only the scan generation of
+    // existingId is updated, the other fields are not set
+    public boolean unchanged;
+
+    public SongMetadata (String filePath, String title, String artist, String album, int duration) {
+        this.filePath = filePath;
+        this.title = title;
+        this.artist = artist;
+        this.album = album;
+        this.duration = duration;
+    }
+
+    // a placeholder for a file that did not change, see unchanged
+    public static SongMetadata unchanged (String filePath, int existingId) {
+        SongMetadata song = new SongMetadata(filePath, null, null, null, 0);
+        song.existingId = existingId;
+        song.unchanged = true;
+        return song;
+    }
+}
@@ -0,0 +1,35 @@
+package com.example.musicplayer.pojo;
+
+import java.util.List;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: neevek
+ * Date: 10/19/26
+ * Time: 3:10 PM
+ */
+
+// a page of songs in list order, see MusicPlayerDAO.getSongPage()
+public class SongPage {
+    // where a row is in "ORDER BY title_key, _id", the next page is read from here
+    public static class Bound {
+        public final byte[] titleKey;
+        public final int id;
+
+        public Bound (byte[] titleKey, int id) {
+            this.titleKey = titleKey;
+            this.id = id;
+        }
+    }
+
+    public final List<Song> songs;
+    // null if the page is empty
+    public final Bound first;
+    public final Bound last;
+
+    public SongPage (List<Song> songs, Bound first, Bound last) {
+        this.songs = songs;
+        this.first = first;
+        this.last = last;
+    }
+}
@@ -0,0 +1,180 @@
+package com.example.musicplayer.scan;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: neevek
+ * Date: 10/18/26
+ * Time: 8:15 PM
+ */
+
+// turns bursts of file change events into batches.
+//
+// copying an album produces a CREATE/MODIFY/CLOSE_WRITE storm for every file, a batch
+// is handed to the sink only when no event came for quietMillis, or when the oldest
+// pending change has waited maxDelayMillis, or when maxBatchSize distinct paths are
+// pending. a path changed several times in a burst is delivered once.
+//
+// a path that is created and deleted again before it is delivered is dropped, as if
+// nothing happened. a pending path stands for everything under it, the applier looks
+// at a directory as a whole, so a directory moved away or in with all its files is one
+// path.
+//
+// plain java, the sink is called on the coalescer's own thread.
+public class ChangeCoalescer implements ChangeEventSource.Listener {
+    public interface Sink {
+        // paths in the order they first changed, each one once
+        void onChanges (List<String> paths);
+    }
+
+    private Sink mSink;
+    private long mQuietMillis;
+    private long mMaxDelayMillis;
+    private int mMaxBatchSize;
+
+    private final Object mLock = new Object();
+    // in the order they first changed, to the kind of change so far
+    private Map<String, Integer> mPendingPaths = new LinkedHashMap<String, Integer>();
+    // the same paths sorted, for the ones under a directory
+    private TreeSet<String> mSortedPaths = new TreeSet<String>();
+    private long mFirstEventTime;
+    private long mLastEventTime;
+
+    private Thread mThread;
+    private volatile boolean mStopped;
+
+    public ChangeCoalescer (Sink sink, long quietMillis, long maxDelayMillis, int maxBatchSize) {
+        mSink = sink;
+        mQuietMillis = quietMillis;
+        mMaxDelayMillis = maxDelayMillis;
+        mMaxBatchSize = maxBatchSize;
+    }
+
+    public void start () {
+        mStopped = false;
+        mThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                dispatchBatches();
+            }
+        }, "change-coalescer");
+        mThread.setPriority(Thread.NORM_PRIORITY - 1);
+        mThread.start();
+    }
+
+    // pending changes that were not delivered yet are dropped
+    public void stop () {
+        mStopped = true;
+        if (mThread != null) {
+            mThread.interrupt();
+            mThread = null;
+        }
+    }
+
+    @Override
+    public void onPathChanged (int kind, String path) {
+        synchronized (mLock) {
+            long now = System.currentTimeMillis();
+            if (mPendingPaths.isEmpty())
+                mFirstEventTime = now;
+            mLastEventTime = now;
+
+            if (!isUnderPendingPath(path))
+                addPendingPath(kind, path);
+            mLock.notifyAll();
+        }
+    }
+
+    // holding the lock
+    private void addPendingPath (int kind, String path) {
+        Integer pendingKind = mPendingPaths.get(path);
+        if (pendingKind == null) {
+            // the path stands for them from now on
+            removePendingPathsUnder(path);
+            mPendingPaths.put(path, kind);
+            mSortedPaths.add(path);
+        } else if (pendingKind == ChangeEventSource.CREATED && kind == ChangeEventSource.DELETED) {
+            // nothing was under it but what came after it
+            mPendingPaths.remove(path);
+            mSortedPaths.remove(path);
+        } else if (pendingKind == ChangeEventSource.DELETED && kind == ChangeEventSource.CREATED) {
+            // replaced
+            mPendingPaths.put(path, ChangeEventSource.CHANGED);
+        } else if (pendingKind != ChangeEventSource.CREATED) {
+            mPendingPaths.put(path, kind);
+        }
+    }
+
+    // holding the lock
+    private boolean isUnderPendingPath (String path) {
+        int end = path.lastIndexOf('/');
+        while (end > 0) {
+            if (mPendingPaths.containsKey(path.substring(0, end)))
+                return true;
+            end = path.lastIndexOf('/', end - 1);
+        }
+        return false;
+    }
+
+    // holding the lock, '0' is the character after '/'
+    private void removePendingPathsUnder (String path) {
+        Iterator<String> it = mSortedPaths.subSet(path + "/", path + "0").iterator();
+        while (it.hasNext()) {
+            mPendingPaths.remove(it.next());
+            it.remove();
+        }
+    }
+
+    public int getPendingCount () {
+        synchronized (mLock) {
+            return mPendingPaths.size();
+        }
+    }
+
+    private void dispatchBatches () {
+        try {
+            while (!mStopped) {
+                List<String> batch = awaitBatch();
+                try {
+                    mSink.onChanges(batch);
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+        } catch (InterruptedException e) {
+            // stopped
+        }
+    }
+
+    // blocks until the pending changes are due, then takes them
+    private List<String> awaitBatch () throws InterruptedException {
+        synchronized (mLock) {
+            while (true) {
+                if (mPendingPaths.isEmpty()) {
+                    mLock.wait();
+                    continue;
+                }
+
+                long now = System.currentTimeMillis();
+                long quietDeadline = mLastEventTime + mQuietMillis;
+                long maxDelayDeadline = mFirstEventTime + mMaxDelayMillis;
+                long deadline = Math.min(quietDeadline, maxDelayDeadline);
+                if (now >= deadline || mPendingPaths.size() >= mMaxBatchSize)
+                    break;
+
+                mLock.wait(deadline - now);
+            }
+
+            List<String> batch = new ArrayList<String>(mPendingPaths.keySet());
+            mPendingPaths.clear();
+            mSortedPaths.clear();
+            return batch;
+        }
+    }
+}
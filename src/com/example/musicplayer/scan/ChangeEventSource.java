@@ -0,0 +1,33 @@
+package com.example.musicplayer.scan;
+
+import java.util.Collection;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: neevek
+ * Date: 10/18/26
+ * Time: 8:10 PM
+ */
+
+// something that reports changes to files and directories of the library,
+// FileObserverEventSource on a device, anything that calls the listener in a test
+public interface ChangeEventSource {
+    // a file or directory that appeared, by being created or moved in
+    int CREATED = 1;
+    // a file that was written
+    int CHANGED = 2;
+    // a file or directory that was deleted or moved away
+    int DELETED = 3;
+
+    interface Listener {
+        // called on any thread, kind is CREATED, CHANGED or DELETED
+        void onPathChanged (int kind, String path);
+    }
+
+    void setListener (Listener listener);
+
+    // watches exactly the given directories, stops watching the ones not in dirPaths
+    void watch (Collection<String> dirPaths);
+
+    void stopWatching ();
+}
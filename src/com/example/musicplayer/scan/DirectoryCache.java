@@ -0,0 +1,112 @@
+package com.example.musicplayer.scan;
+
+import com.example.musicplayer.pojo.DirRecord;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: neevek
+ * Date: 10/18/26
+ * Time: 7:20 PM
+ */
+
+// the directories listed by the last scan, lets a quick scan skip listing the ones
+// that did not change.
+//
+// the records only hold for the scan rules they were listed with: a directory the old
+// rules excluded has no record and is never reached through an unchanged parent, so
+// LibraryScanner only hands over the records of the same rules (see ScanRules.getHash())
+// and scans incrementally when there are none. a directory moved in from elsewhere
+// adds an entry to its new parent, which is listed again and finds it.
+//
+// the mtime of a directory changes when an entry is added to, removed from or
+// renamed in it, NOT when a file in it is rewritten or when something changes deeper
+// down the tree. so an unchanged directory still has its subdirectories visited (one
+// stat each, taken from the cache instead of a listing), and the files in it are
+// assumed unchanged. edits in place are picked up by the next incremental scan.
+//
+// FAT (what most sdcards are formatted with) stores mtimes with a 2 second
+// granularity, a directory changed within that window after it was listed can keep
+// the mtime we recorded, such a directory is only trusted if its entry count did not
+// change either.
+//
+// the files of a directory whose songs were imported from the MediaStore are not read,
+// the media scanner may have skipped some of them. such a directory is recorded with
+// an mtime of 0, so the next quick scan lists it and reads what is missing.
+class DirectoryCache {
+    private final static long MTIME_GRANULARITY = 2000;
+
+    private Map<String, DirRecord> mOldRecords = new HashMap<String, DirRecord>();
+    private Map<String, List<String>> mOldChildDirs = new HashMap<String, List<String>>();
+
+    private final List<DirRecord> mNewRecords = new ArrayList<DirRecord>();
+    // directories this scan lists without reading their files
+    private Set<String> mUnreadDirs = Collections.emptySet();
+
+    DirectoryCache (List<DirRecord> oldRecords) {
+        for (int i = 0; i < oldRecords.size(); ++i) {
+            DirRecord record = oldRecords.get(i);
+            mOldRecords.put(record.path, record);
+
+            if (record.parentPath != null) {
+                List<String> childDirs = mOldChildDirs.get(record.parentPath);
+                if (childDirs == null) {
+                    childDirs = new ArrayList<String>();
+                    mOldChildDirs.put(record.parentPath, childDirs);
+                }
+                childDirs.add(record.path);
+            }
+        }
+    }
+
+    /**
+     * @return the record of the last scan if the directory did not change since,
+     * null if it has to be listed again
+     */
+    DirRecord getUnchanged (File dir, String path, long lastModified) {
+        DirRecord record = mOldRecords.get(path);
+        if (record == null || record.lastModified != lastModified)
+            return null;
+
+        if (record.scannedAt - lastModified <= MTIME_GRANULARITY) {
+            // File.list() is cheaper than listFiles(), it does not create a File per entry
+            String[] names = dir.list();
+            if (names == null || names.length != record.childCount)
+                return null;
+        }
+        return record;
+    }
+
+    // subdirectories the directory had when it was last listed
+    List<String> getChildDirs (String path) {
+        List<String> childDirs = mOldChildDirs.get(path);
+        if (childDirs == null)
+            return Collections.emptyList();
+        return childDirs;
+    }
+
+    // before the walk starts
+    void setUnreadDirs (Set<String> unreadDirs) {
+        mUnreadDirs = unreadDirs;
+    }
+
+    // called on the walker threads for every directory visited by this scan
+    void record (DirRecord record) {
+        if (mUnreadDirs.contains(record.path))
+            record.lastModified = 0;
+        synchronized (mNewRecords) {
+            mNewRecords.add(record);
+        }
+    }
+
+    List<DirRecord> getNewRecords () {
+        return mNewRecords;
+    }
+}
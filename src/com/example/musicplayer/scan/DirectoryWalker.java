@@ -0,0 +1,213 @@
+package com.example.musicplayer.scan;
+
+import com.example.musicplayer.pojo.DirRecord;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: neevek
+ * Date: 10/18/26
+ * Time: 5:20 PM
+ */
+
+// walks a directory tree in parallel, every directory subtree is forked as its own
+// task on a pool of walker threads.
+//
+// java.util.concurrent.ForkJoinPool is only available since API 21, so the
+// fork/join is done with a plain ThreadPoolExecutor and a pending task counter.
+//
+// every visited directory is recorded in the DirectoryCache, directories the cache
+// reports as unchanged are not listed, only their known subdirectories are visited.
+//
+// a physical directory is walked once, through the first path that reaches it, other
+// paths to it (symlinks, bind mounts like /sdcard and /storage/emulated/0) are
+// reported as aliases and not walked, that also breaks symlink loops. see FileKey.
+//
+// walk() once per instance.
+class DirectoryWalker {
+    // all methods are called on a walker thread, the ones for one directory on the same thread
+    interface Listener {
+        // the directory was listed, return false to skip its files (its subdirectories are still walked)
+        boolean onDirListed (String dirPath);
+        // called for every file included by the scan rules, may block to apply backpressure
+        void onFile (String dirPath, File file) throws InterruptedException;
+        // all files of a directory for which onDirListed() returned true were reported
+        void onDirDone (String dirPath);
+        // the directory was not listed because it did not change since the last scan
+        void onUnchangedDir (String dirPath) throws InterruptedException;
+        // the directory is another path to targetPath, which is walked instead
+        void onAliasDir (String dirPath, String targetPath);
+    }
+
+    private ScanRules mScanRules;
+    private DirectoryCache mDirectoryCache;
+    private Listener mListener;
+
+    // shut down when the walk ends or is aborted, the tasks still running then fork nothing more
+    private final ThreadPoolExecutor mWalkerPool;
+
+    // path through which each physical directory is walked
+    private final ConcurrentHashMap<FileKey, String> mVisitedDirs = new ConcurrentHashMap<FileKey, String>();
+
+    private final Object mPendingTaskLock = new Object();
+    private int mPendingTaskCount;
+
+    DirectoryWalker (int parallelism, int threadPriority, ScanRules scanRules, DirectoryCache directoryCache, Listener listener) {
+        mScanRules = scanRules;
+        mDirectoryCache = directoryCache;
+        mListener = listener;
+        mWalkerPool = new ThreadPoolExecutor(parallelism, parallelism,
+                0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                new NamedThreadFactory("scan-walker", threadPriority));
+    }
+
+    // walks all roots of the scan rules, blocks until the whole tree is walked
+    void walk () throws InterruptedException {
+        try {
+            // the roots are claimed in their configured order before anything is walked,
+            // so the same root wins in every scan
+            List<String> roots = mScanRules.getRoots();
+            for (int i = 0; i < roots.size(); ++i) {
+                File rootDir = new File(roots.get(i));
+                String rootPath = rootDir.getAbsolutePath();
+                if (mScanRules.isExcludedDir(rootPath, rootDir.getName()))
+                    continue;
+
+                String targetPath = mVisitedDirs.putIfAbsent(FileKeyResolver.resolveDirKey(rootDir), rootPath);
+                if (targetPath != null)
+                    mListener.onAliasDir(rootPath, targetPath);
+                else
+                    fork(new DirectoryTask(rootDir, null));
+            }
+            awaitPendingTasks();
+        } finally {
+            mWalkerPool.shutdownNow();
+        }
+    }
+
+    // the task is dropped if the walk was aborted, nobody waits for it any more
+    private void fork (Runnable task) {
+        synchronized (mPendingTaskLock) {
+            if (mWalkerPool.isShutdown())
+                return;
+            ++mPendingTaskCount;
+        }
+        try {
+            mWalkerPool.execute(task);
+        } catch (RejectedExecutionException e) {
+            // shut down since the check above
+            onTaskDone();
+        }
+    }
+
+    private void onTaskDone () {
+        synchronized (mPendingTaskLock) {
+            if (--mPendingTaskCount == 0)
+                mPendingTaskLock.notifyAll();
+        }
+    }
+
+    private void awaitPendingTasks () throws InterruptedException {
+        synchronized (mPendingTaskLock) {
+            while (mPendingTaskCount > 0)
+                mPendingTaskLock.wait();
+        }
+    }
+
+    // mDir passed the exclusion rules before the task was forked
+    private class DirectoryTask implements Runnable {
+        private File mDir;
+        private String mParentPath;
+
+        DirectoryTask (File dir, String parentPath) {
+            mDir = dir;
+            mParentPath = parentPath;
+        }
+
+        @Override
+        public void run() {
+            try {
+                String path = mDir.getAbsolutePath();
+
+                long lastModified;
+                FileKey key;
+                if (FileKeyResolver.isStatSupported()) {
+                    FileKeyResolver.Stat stat = FileKeyResolver.stat(path);
+                    if (stat == null)
+                        return;
+                    lastModified = stat.lastModified;
+                    key = stat.key;
+                } else {
+                    // 0 if the directory is gone, saves an exists() call
+                    lastModified = mDir.lastModified();
+                    if (lastModified == 0 && !mDir.exists())
+                        return;
+                    key = FileKeyResolver.resolveDirKey(mDir);
+                }
+
+                String targetPath = mVisitedDirs.putIfAbsent(key, path);
+                if (targetPath != null && !targetPath.equals(path)) {
+                    mListener.onAliasDir(path, targetPath);
+                    return;
+                }
+
+                // taken before listing, a change made while we list must not look older than the listing
+                long now = System.currentTimeMillis();
+
+                DirRecord unchangedRecord = mDirectoryCache.getUnchanged(mDir, path, lastModified);
+                if (unchangedRecord != null) {
+                    mDirectoryCache.record(new DirRecord(path, mParentPath, lastModified, unchangedRecord.childCount, now));
+                    mListener.onUnchangedDir(path);
+
+                    // the rules may have changed since the directories were recorded
+                    List<String> childDirs = mDirectoryCache.getChildDirs(path);
+                    for (int i = 0; i < childDirs.size(); ++i) {
+                        File childDir = new File(childDirs.get(i));
+                        if (!mScanRules.isExcludedDir(childDir.getPath(), childDir.getName()))
+                            fork(new DirectoryTask(childDir, path));
+                    }
+                    return;
+                }
+
+                // list() instead of listFiles(), the names are matched as they are and a
+                // File is only created for the entries that pass the name rules
+                String[] names = mDir.list();
+                if (names == null)
+                    return;
+
+                mDirectoryCache.record(new DirRecord(path, mParentPath, lastModified, names.length, now));
+
+                boolean reportFiles = mListener.onDirListed(path);
+                for (int i = 0; i < names.length; ++i) {
+                    String name = names[i];
+                    if (mScanRules.isIncludedFile(name)) {
+                        if (reportFiles)
+                            mListener.onFile(path, new File(mDir, name));
+                    } else {
+                        File file = new File(mDir, name);
+                        // cheap name/prefix checks first, isDirectory() is a stat
+                        if (!mScanRules.isExcludedDir(file.getPath(), name) && file.isDirectory())
+                            fork(new DirectoryTask(file, path));
+                    }
+                }
+                // not reached if the walk is aborted, the directory must not look complete then
+                if (reportFiles)
+                    mListener.onDirDone(path);
+            } catch (InterruptedException e) {
+                // the walk was aborted
+            } catch (Exception e) {
+                e.printStackTrace();
+            } finally {
+                onTaskDone();
+            }
+        }
+    }
+}
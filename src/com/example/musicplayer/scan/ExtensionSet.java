@@ -0,0 +1,73 @@
+package com.example.musicplayer.scan;
+
+import java.util.List;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: neevek
+ * Date: 10/18/26
+ * Time: 10:25 PM
+ */
+
+// a case insensitive set of file extensions, looked up with the file name itself:
+// the hash of the extension is computed over the chars of the name, so there is no
+// substring() or toLowerCase() per file
+class ExtensionSet {
+    // open addressing, the length is a power of 2 and at least twice the size
+    private String[] mTable;
+    private int mMask;
+    private int mSize;
+
+    // extensions without the '.'
+    ExtensionSet (List<String> extensions) {
+        int capacity = 4;
+        while (capacity < extensions.size() * 2)
+            capacity <<= 1;
+        mTable = new String[capacity];
+        mMask = capacity - 1;
+
+        for (int i = 0; i < extensions.size(); ++i)
+            add(extensions.get(i).toLowerCase());
+    }
+
+    private void add (String extension) {
+        int index = hash(extension, 0, extension.length()) & mMask;
+        while (mTable[index] != null) {
+            if (mTable[index].equals(extension))
+                return;
+            index = (index + 1) & mMask;
+        }
+        mTable[index] = extension;
+        ++mSize;
+    }
+
+    boolean isEmpty () {
+        return mSize == 0;
+    }
+
+    // true if the part of fileName after the last '.' is in the set
+    boolean matches (String fileName) {
+        int dot = fileName.lastIndexOf('.');
+        if (dot < 0)
+            return false;
+
+        int start = dot + 1;
+        int len = fileName.length() - start;
+        int index = hash(fileName, start, len) & mMask;
+        String extension;
+        while ((extension = mTable[index]) != null) {
+            if (extension.length() == len && fileName.regionMatches(true, start, extension, 0, len))
+                return true;
+            index = (index + 1) & mMask;
+        }
+        return false;
+    }
+
+    private static int hash (String s, int start, int len) {
+        int h = 0;
+        for (int i = start; i < start + len; ++i)
+            h = 31 * h + Character.toLowerCase(s.charAt(i));
+        // spread the bits, the table is small
+        return h ^ (h >>> 16);
+    }
+}
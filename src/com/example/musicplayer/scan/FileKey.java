@@ -0,0 +1,58 @@
+package com.example.musicplayer.scan;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: neevek
+ * Date: 10/18/26
+ * Time: 11:30 PM
+ */
+
+// identifies a physical file or directory no matter which path leads to it.
+//
+// a (device, inode) pair where stat() is available, that sees through symlinks, bind
+// mounts and hard links. the canonical path otherwise, that only sees through symlinks.
+// the two kinds never equal each other.
+final class FileKey {
+    private final long mDev;
+    private final long mIno;
+    private final String mCanonicalPath;
+
+    private FileKey (long dev, long ino, String canonicalPath) {
+        mDev = dev;
+        mIno = ino;
+        mCanonicalPath = canonicalPath;
+    }
+
+    static FileKey ofInode (long dev, long ino) {
+        return new FileKey(dev, ino, null);
+    }
+
+    static FileKey ofCanonicalPath (String canonicalPath) {
+        return new FileKey(0, 0, canonicalPath);
+    }
+
+    @Override
+    public boolean equals (Object o) {
+        if (this == o)
+            return true;
+        if (!(o instanceof FileKey))
+            return false;
+
+        FileKey other = (FileKey)o;
+        if (mCanonicalPath != null)
+            return mCanonicalPath.equals(other.mCanonicalPath);
+        return other.mCanonicalPath == null && mDev == other.mDev && mIno == other.mIno;
+    }
+
+    @Override
+    public int hashCode () {
+        if (mCanonicalPath != null)
+            return mCanonicalPath.hashCode();
+        return (int)(mIno ^ (mIno >>> 32)) * 31 + (int)(mDev ^ (mDev >>> 32));
+    }
+
+    @Override
+    public String toString () {
+        return mCanonicalPath != null ? mCanonicalPath : mDev + ":" + mIno;
+    }
+}
@@ -0,0 +1,112 @@
+package com.example.musicplayer.scan;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: neevek
+ * Date: 10/18/26
+ * Time: 11:35 PM
+ */
+
+// stat()s files to get their FileKey.
+//
+// stat() is public as android.system.Os.stat() since API 21 only, before that it is
+// the hidden libcore.io.Libcore.os.stat() (API 14 to 20), both are looked up by
+// reflection. on older releases there is no stat() at all, directories are then
+// keyed by their canonical path and files are not keyed, the canonical path of
+// every file would cost more than the double parsing it saves.
+class FileKeyResolver {
+    private final static Object STAT_TARGET;
+    private final static Method STAT_METHOD;
+    private static Field sDevField;
+    private static Field sInoField;
+    private static Field sSizeField;
+    private static Field sMtimeField;
+
+    static {
+        Object target = null;
+        Method method = null;
+        try {
+            // API 21+
+            method = Class.forName("android.system.Os").getMethod("stat", String.class);
+        } catch (Exception e) {
+            try {
+                // API 14 to 20
+                Field osField = Class.forName("libcore.io.Libcore").getField("os");
+                target = osField.get(null);
+                method = target.getClass().getMethod("stat", String.class);
+            } catch (Exception e2) {
+                method = null;
+            }
+        }
+
+        if (method != null) {
+            try {
+                Class<?> structStat = method.getReturnType();
+                sDevField = structStat.getField("st_dev");
+                sInoField = structStat.getField("st_ino");
+                sSizeField = structStat.getField("st_size");
+                sMtimeField = structStat.getField("st_mtime");
+            } catch (Exception e) {
+                e.printStackTrace();
+                target = null;
+                method = null;
+            }
+        }
+
+        STAT_TARGET = target;
+        STAT_METHOD = method;
+    }
+
+    // what stat() tells about a file
+    static class Stat {
+        FileKey key;
+        long size;
+        // in milliseconds, like File.lastModified()
+        long lastModified;
+    }
+
+    static boolean isStatSupported () {
+        return STAT_METHOD != null;
+    }
+
+    /**
+     * one stat() for the key, size and mtime of the file, which saves the two stat()s
+     * of File.length() and File.lastModified().
+     *
+     * @return null if stat() is not supported or failed
+     */
+    static Stat stat (String path) {
+        if (STAT_METHOD == null)
+            return null;
+
+        try {
+            Object structStat = STAT_METHOD.invoke(STAT_TARGET, path);
+            Stat stat = new Stat();
+            stat.key = FileKey.ofInode(sDevField.getLong(structStat), sInoField.getLong(structStat));
+            stat.size = sSizeField.getLong(structStat);
+            stat.lastModified = sMtimeField.getLong(structStat) * 1000;
+            return stat;
+        } catch (Exception e) {
+            // ErrnoException wrapped in an InvocationTargetException, the file is gone
+            return null;
+        }
+    }
+
+    // the key of a directory, the canonical path one if stat() is not supported
+    static FileKey resolveDirKey (File dir) {
+        Stat stat = stat(dir.getPath());
+        if (stat != null)
+            return stat.key;
+
+        try {
+            return FileKey.ofCanonicalPath(dir.getCanonicalPath());
+        } catch (IOException e) {
+            return FileKey.ofCanonicalPath(dir.getAbsolutePath());
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package com.example.musicplayer.scan;
+
+import android.os.FileObserver;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: neevek
+ * Date: 10/18/26
+ * Time: 8:30 PM
+ */
+
+// reports library changes with inotify watches, one FileObserver per directory
+// since inotify is not recursive.
+//
+// directories created in or moved into a watched directory get a watch of their own
+// (and so do their subdirectories), a watched directory that is deleted loses it. a
+// watched directory that is moved away loses it together with the watches of all
+// directories under it: inotify follows the moved inodes, those watches would go on
+// reporting events under paths that are gone. a FileObserver stops watching when it
+// is garbage collected, so all of them are kept in mObservers.
+public class FileObserverEventSource implements ChangeEventSource {
+    private final static int EVENT_MASK = FileObserver.CLOSE_WRITE | FileObserver.CREATE
+            | FileObserver.MOVED_FROM | FileObserver.MOVED_TO
+            | FileObserver.DELETE | FileObserver.DELETE_SELF | FileObserver.MOVE_SELF;
+
+    private volatile Listener mListener;
+    private volatile ScanRules mScanRules = ScanRules.getDefault();
+    private final Map<String, DirObserver> mObservers = new HashMap<String, DirObserver>();
+
+    @Override
+    public void setListener (Listener listener) {
+        mListener = listener;
+    }
+
+    // directories created later are matched against the rules, so are the names of changed files
+    public void setScanRules (ScanRules scanRules) {
+        mScanRules = scanRules;
+    }
+
+    @Override
+    public void watch (Collection<String> dirPaths) {
+        Set<String> wanted = new HashSet<String>(dirPaths);
+        synchronized (mObservers) {
+            Iterator<Map.Entry<String, DirObserver>> it = mObservers.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<String, DirObserver> entry = it.next();
+                if (!wanted.contains(entry.getKey())) {
+                    entry.getValue().stopWatching();
+                    it.remove();
+                }
+            }
+
+            Iterator<String> pathIt = wanted.iterator();
+            while (pathIt.hasNext())
+                addWatch(pathIt.next());
+        }
+    }
+
+    @Override
+    public void stopWatching () {
+        synchronized (mObservers) {
+            Iterator<DirObserver> it = mObservers.values().iterator();
+            while (it.hasNext())
+                it.next().stopWatching();
+            mObservers.clear();
+        }
+    }
+
+    public int getWatchCount () {
+        synchronized (mObservers) {
+            return mObservers.size();
+        }
+    }
+
+    private void addWatch (String dirPath) {
+        synchronized (mObservers) {
+            if (mObservers.containsKey(dirPath))
+                return;
+            DirObserver observer = new DirObserver(dirPath);
+            observer.startWatching();
+            mObservers.put(dirPath, observer);
+        }
+    }
+
+    private void removeWatch (String dirPath) {
+        synchronized (mObservers) {
+            DirObserver observer = mObservers.remove(dirPath);
+            if (observer != null)
+                observer.stopWatching();
+        }
+    }
+
+    // a directory moved away, its subdirectories went with it
+    private void removeWatchTree (String dirPath) {
+        String prefix = dirPath + "/";
+        synchronized (mObservers) {
+            Iterator<Map.Entry<String, DirObserver>> it = mObservers.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<String, DirObserver> entry = it.next();
+                if (entry.getKey().equals(dirPath) || entry.getKey().startsWith(prefix)) {
+                    entry.getValue().stopWatching();
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    // watches a directory that appeared and all directories under it
+    private void startWatchingTree (File dir) {
+        List<File> dirs = new ArrayList<File>();
+        // a symlink loop must not make us watch forever
+        Set<FileKey> visitedDirs = new HashSet<FileKey>();
+        dirs.add(dir);
+        while (!dirs.isEmpty()) {
+            File d = dirs.remove(dirs.size() - 1);
+            if (mScanRules.isExcludedDir(d.getAbsolutePath(), d.getName()))
+                continue;
+            if (!visitedDirs.add(FileKeyResolver.resolveDirKey(d)))
+                continue;
+            addWatch(d.getAbsolutePath());
+
+            File[] files = d.listFiles();
+            if (files == null)
+                continue;
+            for (int i = 0; i < files.length; ++i) {
+                if (files[i].isDirectory())
+                    dirs.add(files[i]);
+            }
+        }
+    }
+
+    private void notifyPathChanged (int kind, String path) {
+        Listener listener = mListener;
+        if (listener != null)
+            listener.onPathChanged(kind, path);
+    }
+
+    private class DirObserver extends FileObserver {
+        private String mDirPath;
+
+        DirObserver (String dirPath) {
+            super(dirPath, EVENT_MASK);
+            mDirPath = dirPath;
+        }
+
+        // called on the FileObserver thread, keep it short
+        @Override
+        public void onEvent (int event, String name) {
+            event &= FileObserver.ALL_EVENTS;
+
+            if ((event & (FileObserver.DELETE_SELF | FileObserver.MOVE_SELF)) != 0) {
+                // a deleted directory was emptied first, each subdirectory reported its own
+                if ((event & FileObserver.MOVE_SELF) != 0)
+                    removeWatchTree(mDirPath);
+                else
+                    removeWatch(mDirPath);
+                notifyPathChanged(DELETED, mDirPath);
+                return;
+            }
+            // hidden and temporary files of other apps
+            if (name == null || name.startsWith("."))
+                return;
+
+            File file = new File(mDirPath, name);
+            if ((event & (FileObserver.CREATE | FileObserver.MOVED_TO)) != 0 && file.isDirectory()) {
+                startWatchingTree(file);
+                notifyPathChanged(CREATED, file.getAbsolutePath());
+            } else if ((event & FileObserver.MOVED_TO) != 0) {
+                if (mScanRules.isIncludedFile(name))
+                    notifyPathChanged(CREATED, file.getAbsolutePath());
+            } else if ((event & FileObserver.CLOSE_WRITE) != 0) {
+                // new or overwritten, there is no telling. the CREATE of a file is not
+                // reported, the file is only half written then
+                if (mScanRules.isIncludedFile(name))
+                    notifyPathChanged(CHANGED, file.getAbsolutePath());
+            } else if ((event & (FileObserver.DELETE | FileObserver.MOVED_FROM)) != 0) {
+                // may have been a directory, there is no telling any more
+                notifyPathChanged(DELETED, file.getAbsolutePath());
+            }
+        }
+    }
+}
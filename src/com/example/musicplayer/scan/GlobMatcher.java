@@ -0,0 +1,51 @@
+package com.example.musicplayer.scan;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: neevek
+ * Date: 10/18/26
+ * Time: 10:30 PM
+ */
+
+// matches a single file or directory name against a glob with '*' (any run of chars)
+// and '?' (one char), without allocating
+class GlobMatcher {
+    private final String mGlob;
+
+    GlobMatcher (String glob) {
+        mGlob = glob;
+    }
+
+    boolean matches (String name) {
+        String glob = mGlob;
+        int g = 0;
+        int n = 0;
+        // where to resume after the last '*' if the current attempt fails
+        int starG = -1;
+        int starN = 0;
+
+        while (n < name.length()) {
+            if (g < glob.length() && (glob.charAt(g) == '?' || glob.charAt(g) == name.charAt(n))) {
+                ++g;
+                ++n;
+            } else if (g < glob.length() && glob.charAt(g) == '*') {
+                starG = g++;
+                starN = n;
+            } else if (starG >= 0) {
+                // let the last '*' eat one more char
+                g = starG + 1;
+                n = ++starN;
+            } else {
+                return false;
+            }
+        }
+        while (g < glob.length() && glob.charAt(g) == '*')
+            ++g;
+        return g == glob.length();
+    }
+
+    @Override
+    public String toString() {
+        return mGlob;
+    }
+}
@@ -0,0 +1,30 @@
+package com.example.musicplayer.scan;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: neevek
+ * Date: 10/18/26
+ * Time: 1:10 PM
+ */
+
+// the fields of an ID3v1/ID3v2 tag the library cares about
+public class Id3Tag {
+    public String title;
+    public String artist;
+    public String album;
+
+    // TLEN/TLE frame in milliseconds, 0 if the tag does not have one
+    public int length;
+
+    // size in bytes of the ID3v2 tag at the beginning of the file (header, frames,
+    // padding and footer), i.e. the offset where the audio data starts
+    public int id3v2Size;
+
+    public boolean hasAllTextFields () {
+        return title != null && artist != null && album != null;
+    }
+
+    public boolean isEmpty () {
+        return title == null && artist == null && album == null;
+    }
+}
@@ -0,0 +1,407 @@
+package com.example.musicplayer.scan;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: neevek
+ * Date: 10/18/26
+ * Time: 1:20 PM
+ */
+
+// a pure java ID3v2.2/2.3/2.4 and ID3v1 reader, it only reads the tag header and the
+// headers of the frames it walks through, frame bodies are read only for the few text
+// frames we need, so a big embedded picture costs nothing.
+//
+// an instance reuses one small buffer and is NOT thread safe, use one per thread.
+public class Id3TagReader {
+    private final static int ID3V2_HEADER_SIZE = 10;
+    private final static int ID3V1_TAG_SIZE = 128;
+    private final static int BUFFER_SIZE = 4096;
+
+    // tags with whole-tag unsynchronisation have to be read into memory to be parsed,
+    // only this much of them is read
+    private final static int MAX_UNSYNCHRONISED_TAG_SIZE = 64 * 1024;
+
+    private final static int FIELD_NONE = 0;
+    private final static int FIELD_TITLE = 1;
+    private final static int FIELD_ARTIST = 2;
+    private final static int FIELD_ALBUM = 3;
+    private final static int FIELD_LENGTH = 4;
+    // TPE2(band/album artist), only used when there is no TPE1
+    private final static int FIELD_ALBUM_ARTIST = 5;
+
+    private final static int[] V22_FRAME_IDS = { frameId("TT2"), frameId("TP1"), frameId("TAL"), frameId("TLE"), frameId("TP2") };
+    private final static int[] V23_FRAME_IDS = { frameId("TIT2"), frameId("TPE1"), frameId("TALB"), frameId("TLEN"), frameId("TPE2") };
+
+    private final static Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+    private final static Charset UTF_8 = Charset.forName("UTF-8");
+    private final static Charset UTF_16 = Charset.forName("UTF-16");
+    private final static Charset UTF_16BE = Charset.forName("UTF-16BE");
+
+    // ID3v1 tags and ID3v2 frames flagged as ISO-8859-1 are very often GBK in the wild
+    public final static Charset DEFAULT_LEGACY_CHARSET = lookupCharset("GBK");
+
+    private final ByteBuffer mBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private final CharsetDecoder mLegacyDecoder;
+
+    // the de-unsynchronised tag body when the whole tag is unsynchronised, null otherwise
+    private byte[] mUnsynchronisedTag;
+
+    public Id3TagReader () {
+        this(DEFAULT_LEGACY_CHARSET);
+    }
+
+    public Id3TagReader (Charset legacyCharset) {
+        mLegacyDecoder = legacyCharset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPORT)
+                .onUnmappableCharacter(CodingErrorAction.REPORT);
+    }
+
+    /**
+     * @return the tag of the file, or null if the file has neither an ID3v2 nor an ID3v1 tag
+     */
+    public Id3Tag read (File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            long fileSize = channel.size();
+
+            Id3Tag tag = new Id3Tag();
+            readId3v2(channel, fileSize, tag);
+            if (!tag.hasAllTextFields())
+                readId3v1(channel, fileSize, tag);
+
+            if (tag.isEmpty() && tag.id3v2Size == 0)
+                return null;
+            return tag;
+        } finally {
+            mUnsynchronisedTag = null;
+            raf.close();
+        }
+    }
+
+    private void readId3v2 (FileChannel channel, long fileSize, Id3Tag tag) throws IOException {
+        if (fileSize < ID3V2_HEADER_SIZE)
+            return;
+
+        ByteBuffer header = readAt(channel, 0, ID3V2_HEADER_SIZE);
+        if (header.get(0) != 'I' || header.get(1) != 'D' || header.get(2) != '3')
+            return;
+
+        int majorVersion = header.get(3) & 0xff;
+        int flags = header.get(5) & 0xff;
+        int tagSize = readSyncsafeInt(header, 6);
+        if (majorVersion < 2 || majorVersion > 4 || tagSize < 0)
+            return;
+
+        boolean hasFooter = majorVersion == 4 && (flags & 0x10) != 0;
+        tag.id3v2Size = ID3V2_HEADER_SIZE + tagSize + (hasFooter ? ID3V2_HEADER_SIZE : 0);
+
+        // ID3v2.2 used this flag for a compression scheme that was never defined
+        if (majorVersion == 2 && (flags & 0x40) != 0)
+            return;
+
+        long pos = ID3V2_HEADER_SIZE;
+        long end = Math.min(ID3V2_HEADER_SIZE + (long)tagSize, fileSize);
+
+        // whole-tag unsynchronisation (ID3v2.4 does it per frame instead)
+        if ((flags & 0x80) != 0 && majorVersion < 4) {
+            int size = (int)Math.min(end - pos, MAX_UNSYNCHRONISED_TAG_SIZE);
+            byte[] data = new byte[size];
+            ByteBuffer dst = ByteBuffer.wrap(data);
+            while (dst.hasRemaining()) {
+                if (channel.read(dst, pos + dst.position()) <= 0)
+                    return;
+            }
+            mUnsynchronisedTag = data;
+            end = pos + resynchronise(data, 0, size);
+        }
+
+        if (majorVersion >= 3 && (flags & 0x40) != 0) {
+            if (pos + 4 > end)
+                return;
+            ByteBuffer extHeader = readRegion(channel, pos, 4);
+            // ID3v2.3 does not count the size itself, ID3v2.4 does
+            int extHeaderSize = majorVersion == 3 ? extHeader.getInt(0) : readSyncsafeInt(extHeader, 0);
+            // a size that is not syncsafe (or negative) would move us backwards, the tag can't be trusted
+            if (extHeaderSize < 0)
+                return;
+            pos += majorVersion == 3 ? 4 + extHeaderSize : extHeaderSize;
+        }
+
+        int[] frameIds = majorVersion == 2 ? V22_FRAME_IDS : V23_FRAME_IDS;
+        int frameHeaderSize = majorVersion == 2 ? 6 : 10;
+        String albumArtist = null;
+
+        while (pos + frameHeaderSize <= end && !(tag.hasAllTextFields() && tag.length > 0)) {
+            ByteBuffer frameHeader = readRegion(channel, pos, frameHeaderSize);
+            // reached the padding
+            if (frameHeader.get(0) == 0)
+                break;
+
+            int frameId;
+            int frameSize;
+            int formatFlags = 0;
+            if (majorVersion == 2) {
+                frameId = ((frameHeader.get(0) & 0xff) << 16) | ((frameHeader.get(1) & 0xff) << 8) | (frameHeader.get(2) & 0xff);
+                frameSize = ((frameHeader.get(3) & 0xff) << 16) | ((frameHeader.get(4) & 0xff) << 8) | (frameHeader.get(5) & 0xff);
+            } else {
+                frameId = frameHeader.getInt(0);
+                frameSize = majorVersion == 3 ? frameHeader.getInt(4) : readSyncsafeInt(frameHeader, 4);
+                formatFlags = frameHeader.get(9) & 0xff;
+            }
+
+            long bodyPos = pos + frameHeaderSize;
+            if (frameSize <= 0 || bodyPos + frameSize > end)
+                break;
+            pos = bodyPos + frameSize;
+
+            int field = lookupField(frameIds, frameId);
+            if (field == FIELD_NONE)
+                continue;
+
+            int skip = 0;
+            boolean unsynchronised = false;
+            if (majorVersion == 3) {
+                // compressed or encrypted
+                if ((formatFlags & 0xc0) != 0)
+                    continue;
+                if ((formatFlags & 0x20) != 0)
+                    skip += 1;
+            } else if (majorVersion == 4) {
+                if ((formatFlags & 0x0c) != 0)
+                    continue;
+                if ((formatFlags & 0x40) != 0)
+                    skip += 1;
+                if ((formatFlags & 0x01) != 0)
+                    skip += 4;
+                unsynchronised = (formatFlags & 0x02) != 0;
+            }
+
+            int bodySize = Math.min(frameSize - skip, BUFFER_SIZE);
+            if (bodySize <= 1)
+                continue;
+
+            ByteBuffer body = readRegion(channel, bodyPos + skip, bodySize);
+            if (unsynchronised)
+                bodySize = resynchronise(body.array(), 0, bodySize);
+
+            String text = decodeTextFrame(body.array(), bodySize);
+            if (text == null)
+                continue;
+
+            switch (field) {
+                case FIELD_TITLE:
+                    if (tag.title == null)
+                        tag.title = text;
+                    break;
+                case FIELD_ARTIST:
+                    if (tag.artist == null)
+                        tag.artist = text;
+                    break;
+                case FIELD_ALBUM:
+                    if (tag.album == null)
+                        tag.album = text;
+                    break;
+                case FIELD_ALBUM_ARTIST:
+                    albumArtist = text;
+                    break;
+                case FIELD_LENGTH:
+                    tag.length = parseLength(text);
+                    break;
+            }
+        }
+
+        if (tag.artist == null)
+            tag.artist = albumArtist;
+    }
+
+    private void readId3v1 (FileChannel channel, long fileSize, Id3Tag tag) throws IOException {
+        if (fileSize < ID3V1_TAG_SIZE + tag.id3v2Size)
+            return;
+
+        ByteBuffer buf = readAt(channel, fileSize - ID3V1_TAG_SIZE, ID3V1_TAG_SIZE);
+        if (buf.get(0) != 'T' || buf.get(1) != 'A' || buf.get(2) != 'G')
+            return;
+
+        byte[] data = buf.array();
+        if (tag.title == null)
+            tag.title = decodeId3v1Field(data, 3);
+        if (tag.artist == null)
+            tag.artist = decodeId3v1Field(data, 33);
+        if (tag.album == null)
+            tag.album = decodeId3v1Field(data, 63);
+    }
+
+    private String decodeId3v1Field (byte[] data, int offset) {
+        int len = 0;
+        while (len < 30 && data[offset + len] != 0)
+            ++len;
+        while (len > 0 && data[offset + len - 1] == ' ')
+            --len;
+        return trimToNull(decodeLegacy(data, offset, len));
+    }
+
+    // data[0] is the text encoding, the text follows
+    private String decodeTextFrame (byte[] data, int size) {
+        int encoding = data[0];
+        int offset = 1;
+        int len;
+        String text;
+        switch (encoding) {
+            case 0:
+                len = singleByteTextLength(data, offset, size);
+                text = decodeLegacy(data, offset, len);
+                break;
+            case 1:
+                len = doubleByteTextLength(data, offset, size);
+                text = new String(data, offset, len, UTF_16);
+                break;
+            case 2:
+                len = doubleByteTextLength(data, offset, size);
+                text = new String(data, offset, len, UTF_16BE);
+                break;
+            case 3:
+                len = singleByteTextLength(data, offset, size);
+                text = new String(data, offset, len, UTF_8);
+                break;
+            default:
+                return null;
+        }
+        return trimToNull(text);
+    }
+
+    // length up to the first null, frames with several values only yield the first one
+    private static int singleByteTextLength (byte[] data, int offset, int end) {
+        int i = offset;
+        while (i < end && data[i] != 0)
+            ++i;
+        return i - offset;
+    }
+
+    private static int doubleByteTextLength (byte[] data, int offset, int end) {
+        int i = offset;
+        while (i + 1 < end && (data[i] != 0 || data[i + 1] != 0))
+            i += 2;
+        return i - offset;
+    }
+
+    // ASCII goes straight through, anything else is tried with the legacy charset
+    // first and falls back to ISO-8859-1 if it is not valid in that charset
+    private String decodeLegacy (byte[] data, int offset, int len) {
+        boolean ascii = true;
+        for (int i = offset; i < offset + len; ++i) {
+            if (data[i] < 0) {
+                ascii = false;
+                break;
+            }
+        }
+
+        if (!ascii) {
+            try {
+                mLegacyDecoder.reset();
+                CharBuffer chars = mLegacyDecoder.decode(ByteBuffer.wrap(data, offset, len));
+                return chars.toString();
+            } catch (CharacterCodingException e) {
+                // not in the legacy charset
+            }
+        }
+        return new String(data, offset, len, ISO_8859_1);
+    }
+
+    private ByteBuffer readAt (FileChannel channel, long pos, int len) throws IOException {
+        mBuffer.clear();
+        mBuffer.limit(len);
+        while (mBuffer.hasRemaining()) {
+            if (channel.read(mBuffer, pos + mBuffer.position()) <= 0)
+                throw new IOException("unexpected end of file");
+        }
+        mBuffer.flip();
+        return mBuffer;
+    }
+
+    // reads from the file, or from the de-unsynchronised tag if there is one
+    private ByteBuffer readRegion (FileChannel channel, long pos, int len) throws IOException {
+        if (mUnsynchronisedTag == null)
+            return readAt(channel, pos, len);
+
+        int offset = (int)(pos - ID3V2_HEADER_SIZE);
+        if (offset + len > mUnsynchronisedTag.length)
+            throw new IOException("frame exceeds the unsynchronised tag");
+
+        mBuffer.clear();
+        mBuffer.put(mUnsynchronisedTag, offset, len);
+        mBuffer.flip();
+        return mBuffer;
+    }
+
+    // undoes unsynchronisation in place (drops every 0x00 that follows a 0xff), returns the new length
+    static int resynchronise (byte[] data, int offset, int len) {
+        int dst = offset;
+        int end = offset + len;
+        for (int src = offset; src < end; ++src) {
+            data[dst++] = data[src];
+            if (data[src] == (byte)0xff && src + 1 < end && data[src + 1] == 0)
+                ++src;
+        }
+        return dst - offset;
+    }
+
+    // returns -1 if any of the 4 bytes has its high bit set
+    private static int readSyncsafeInt (ByteBuffer buf, int index) {
+        int value = 0;
+        for (int i = 0; i < 4; ++i) {
+            int b = buf.get(index + i) & 0xff;
+            if (b >= 0x80)
+                return -1;
+            value = (value << 7) | b;
+        }
+        return value;
+    }
+
+    private static int parseLength (String text) {
+        try {
+            return Integer.parseInt(text);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static String trimToNull (String s) {
+        s = s.trim();
+        return s.length() > 0 ? s : null;
+    }
+
+    private static int lookupField (int[] frameIds, int frameId) {
+        for (int i = 0; i < frameIds.length; ++i) {
+            if (frameIds[i] == frameId)
+                return i + 1;
+        }
+        return FIELD_NONE;
+    }
+
+    private static int frameId (String id) {
+        int value = 0;
+        for (int i = 0; i < id.length(); ++i)
+            value = (value << 8) | id.charAt(i);
+        return value;
+    }
+
+    private static Charset lookupCharset (String name) {
+        try {
+            return Charset.forName(name);
+        } catch (Exception e) {
+            return ISO_8859_1;
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package com.example.musicplayer.scan;
+
+import android.util.Log;
+import com.example.musicplayer.db.LibraryBatchWriter;
+import com.example.musicplayer.db.MusicPlayerDAO;
+import com.example.musicplayer.pojo.Song;
+import com.example.musicplayer.pojo.SongMetadata;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: neevek
+ * Date: 10/18/26
+ * Time: 8:45 PM
+ */
+
+// applies a batch of changed paths to the library.
+//
+// the events themselves are not trusted, every path is checked against the file
+// system when the batch is applied: a path that is gone deletes the song with that
+// path and all songs under it, an existing file included by the scan rules is
+// (re)read and upserted, an existing directory has all included files under it
+// upserted. the batch is applied between scans, never while one is running.
+public class LibraryChangeApplier implements ChangeCoalescer.Sink {
+    private final static boolean DEBUG = true;
+    private final static String TAG = LibraryChangeApplier.class.getSimpleName();
+
+    public interface Listener {
+        // called on the coalescer thread after the database was updated
+        void onLibraryChanged (List<Song> changedSongs, List<Integer> deletedSongIds);
+    }
+
+    private MusicPlayerDAO mMusicPlayerDAO;
+    private LibraryScanner mLibraryScanner;
+    private Listener mListener;
+
+    private MetadataExtractor mMetadataExtractor = new MetadataExtractor();
+
+    public LibraryChangeApplier (MusicPlayerDAO musicPlayerDAO, LibraryScanner libraryScanner, Listener listener) {
+        mMusicPlayerDAO = musicPlayerDAO;
+        mLibraryScanner = libraryScanner;
+        mListener = listener;
+    }
+
+    @Override
+    public void onChanges (final List<String> paths) {
+        mLibraryScanner.runBetweenScans(new Runnable() {
+            @Override
+            public void run() {
+                apply(paths);
+            }
+        });
+    }
+
+    private void apply (List<String> paths) {
+        ScanRules scanRules = mLibraryScanner.getScanRules();
+
+        // /a/b and /a/b/c.mp3 in one batch, /a/b covers both
+        List<String> sortedPaths = new ArrayList<String>(paths);
+        Collections.sort(sortedPaths);
+
+        List<File> changedFiles = new ArrayList<File>();
+        List<String> gonePaths = new ArrayList<String>();
+        String lastDirPath = null;
+        for (int i = 0; i < sortedPaths.size(); ++i) {
+            String path = sortedPaths.get(i);
+            if (lastDirPath != null && path.startsWith(lastDirPath + "/"))
+                continue;
+
+            File file = new File(path);
+            if (file.isDirectory()) {
+                lastDirPath = path;
+                if (!scanRules.isExcludedDir(path, file.getName()))
+                    collectIncludedFiles(scanRules, file, changedFiles, new HashSet<FileKey>());
+            } else if (file.exists()) {
+                if (scanRules.isIncludedFile(file.getName()) && scanRules.isIncludedFileSize(file.length()))
+                    changedFiles.add(file);
+            } else {
+                lastDirPath = path;
+                gonePaths.add(path);
+            }
+        }
+
+        List<Integer> deletedSongIds = gonePaths.isEmpty() ? Collections.<Integer>emptyList()
+                : mMusicPlayerDAO.deleteSongsByPaths(gonePaths);
+
+        List<String> changedPaths = new ArrayList<String>(changedFiles.size());
+        for (int i = 0; i < changedFiles.size(); ++i)
+            changedPaths.add(changedFiles.get(i).getAbsolutePath());
+
+        if (!changedFiles.isEmpty()) {
+            Map<String, Integer> existingIds = mMusicPlayerDAO.getSongIdsByPaths(changedPaths);
+
+            LibraryBatchWriter batchWriter = mMusicPlayerDAO.openBatchWriter(mMusicPlayerDAO.getCurrentScanGeneration());
+            try {
+                for (int i = 0; i < changedFiles.size(); ++i) {
+                    File file = changedFiles.get(i);
+                    SongMetadata metadata = mMetadataExtractor.extract(file);
+                    if (metadata == null)
+                        continue;
+
+                    Integer existingId = existingIds.get(metadata.filePath);
+                    metadata.fileSize = file.length();
+                    metadata.lastModified = file.lastModified();
+                    metadata.existingId = existingId != null ? existingId : 0;
+                    batchWriter.add(metadata);
+                }
+            } finally {
+                batchWriter.close();
+            }
+        }
+
+        if (deletedSongIds.isEmpty() && changedPaths.isEmpty())
+            return;
+
+        mMusicPlayerDAO.deleteEmptySongGroups();
+
+        List<Song> changedSongs = mMusicPlayerDAO.getSongsByPaths(changedPaths);
+        if (DEBUG) Log.d(TAG, ">>>> applied " + paths.size() + " changed paths, upserted: " + changedSongs.size() + ", deleted: " + deletedSongIds.size());
+
+        if (mListener != null)
+            mListener.onLibraryChanged(changedSongs, deletedSongIds);
+    }
+
+    // visitedDirs breaks symlink loops
+    private static void collectIncludedFiles (ScanRules scanRules, File dir, List<File> result, Set<FileKey> visitedDirs) {
+        if (!visitedDirs.add(FileKeyResolver.resolveDirKey(dir)))
+            return;
+
+        String[] names = dir.list();
+        if (names == null)
+            return;
+
+        for (int i = 0; i < names.length; ++i) {
+            String name = names[i];
+            File file = new File(dir, name);
+            if (scanRules.isIncludedFile(name)) {
+                if (scanRules.isIncludedFileSize(file.length()))
+                    result.add(file);
+            } else if (!scanRules.isExcludedDir(file.getPath(), name) && file.isDirectory()) {
+                collectIncludedFiles(scanRules, file, result, visitedDirs);
+            }
+        }
+    }
+}
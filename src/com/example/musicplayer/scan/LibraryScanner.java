@@ -0,0 +1,297 @@
+package com.example.musicplayer.scan;
+
+import android.os.Process;
+import android.text.TextUtils;
+import android.util.Log;
+import com.example.musicplayer.db.LibraryBatchWriter;
+import com.example.musicplayer.db.MusicPlayerDAO;
+import com.example.musicplayer.message.Message;
+import com.example.musicplayer.message.MessagePump;
+import com.example.musicplayer.pojo.DirRecord;
+import com.example.musicplayer.pojo.PathAlias;
+import com.example.musicplayer.pojo.ScanCheckpoint;
+import com.example.musicplayer.pojo.SongFingerprint;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: neevek
+ * Date: 10/18/26
+ * Time: 10:05 AM
+ */
+
+// entry point of library scans, see ScanPipeline for how a scan runs.
+//
+// progress is published over the MessagePump:
+//   ON_SCAN_STARTED  - no data
+//   ON_SCAN_PROGRESS - a ScanProgress, about twice a second
+//   ON_SCAN_FINISHED - the final ScanProgress, after the database is consistent again
+//
+// every scan keeps a journal (see MusicPlayerDAO.beginScanJournal()), a scan that was
+// cancelled with cancelScan(), killed with the process or that failed to commit a batch
+// is resumed by the next call to scan(), the songs it committed are kept and the
+// directories it completed are not read again.
+public class LibraryScanner {
+    private final static boolean DEBUG = true;
+    private final static String TAG = LibraryScanner.class.getSimpleName();
+
+    // reads every file again, and deletes the songs whose files are gone
+    public final static int MODE_FULL = 0;
+    // only reads files that are new or whose size/mtime changed since the last scan,
+    // and deletes the songs whose files are gone
+    public final static int MODE_INCREMENTAL = 1;
+    // like MODE_INCREMENTAL, but directories whose mtime did not change since the last
+    // scan are not listed and the songs in them are kept as they are, see DirectoryCache.
+    // on an empty library it scans like MODE_MEDIA_STORE
+    public final static int MODE_QUICK = 2;
+    // imports the songs the system MediaStore knows first, without reading their files,
+    // then walks the roots like MODE_INCREMENTAL but only reads the files of the
+    // directories MediaStore had no songs in. meant for the first scan, files the media
+    // scanner missed in a covered directory are picked up by the next MODE_QUICK scan,
+    // which lists the covered directories again
+    public final static int MODE_MEDIA_STORE = 3;
+
+    // priority of the scan threads for scans started by the user
+    private final static int FOREGROUND_THREAD_PRIORITY = Thread.NORM_PRIORITY - 1;
+    // priority of the scan threads for scanInBackground(), dalvik maps it to
+    // android.os.Process.THREAD_PRIORITY_BACKGROUND
+    private final static int BACKGROUND_THREAD_PRIORITY = 4;
+
+    private MusicPlayerDAO mMusicPlayerDAO;
+    private MessagePump mMessagePump;
+    private volatile int mParallelism;
+    private volatile ScanRules mScanRules = ScanRules.getDefault();
+    private volatile MediaStoreSource mMediaStoreSource;
+
+    private final AtomicBoolean mScanRunning = new AtomicBoolean();
+    private volatile ScanPipeline mRunningPipeline;
+    private volatile boolean mCancelRequested;
+
+    public LibraryScanner (MusicPlayerDAO musicPlayerDAO, MessagePump messagePump, int parallelism) {
+        mMusicPlayerDAO = musicPlayerDAO;
+        mMessagePump = messagePump;
+        setParallelism(parallelism);
+    }
+
+    public static int getDefaultParallelism () {
+        return Math.max(2, Runtime.getRuntime().availableProcessors());
+    }
+
+    // takes effect on the next call to scan()
+    public void setParallelism (int parallelism) {
+        mParallelism = Math.max(1, parallelism);
+    }
+
+    public int getParallelism () {
+        return mParallelism;
+    }
+
+    // takes effect on the next call to scan(), an unfinished scan of other roots is not resumed.
+    // the next MODE_QUICK scan runs as MODE_INCREMENTAL if the rules changed
+    public void setScanRules (ScanRules scanRules) {
+        mScanRules = scanRules;
+    }
+
+    public ScanRules getScanRules () {
+        return mScanRules;
+    }
+
+    // without one MODE_MEDIA_STORE scans like MODE_INCREMENTAL
+    public void setMediaStoreSource (MediaStoreSource mediaStoreSource) {
+        mMediaStoreSource = mediaStoreSource;
+    }
+
+    public boolean isScanRunning () {
+        return mScanRunning.get();
+    }
+
+    /**
+     * stops the running scan, scan() returns shortly after with the songs committed so
+     * far kept in the database. the next scan resumes where this one stopped.
+     * does nothing if no scan is running.
+     */
+    public void cancelScan () {
+        if (!mScanRunning.get())
+            return;
+
+        mCancelRequested = true;
+        ScanPipeline pipeline = mRunningPipeline;
+        if (pipeline != null)
+            pipeline.cancel();
+    }
+
+    /**
+     * scans the roots of the scan rules recursively and adds all playable files the
+     * rules include to the database, blocks until the whole tree is done.
+     *
+     * @param mode MODE_FULL, MODE_INCREMENTAL, MODE_QUICK or MODE_MEDIA_STORE
+     */
+    public void scan (int mode) {
+        scan(mode, FOREGROUND_THREAD_PRIORITY);
+    }
+
+    /**
+     * starts a scan on a background priority thread and returns at once, does nothing
+     * if a scan is already running.
+     *
+     * @return true if the scan was started
+     */
+    public boolean scanInBackground (final int mode) {
+        if (mScanRunning.get())
+            return false;
+
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                scan(mode, BACKGROUND_THREAD_PRIORITY);
+            }
+        }, "scan-background");
+        thread.start();
+        return true;
+    }
+
+    // runs the task on the calling thread, waits for the running scan to finish first
+    public synchronized void runBetweenScans (Runnable task) {
+        task.run();
+    }
+
+    private synchronized void scan (int mode, int threadPriority) {
+        mScanRunning.set(true);
+        mCancelRequested = false;
+        try {
+            doScan(mScanRules, mode, threadPriority);
+        } finally {
+            mScanRunning.set(false);
+        }
+    }
+
+    private void doScan (ScanRules scanRules, int mode, int threadPriority) {
+        mMessagePump.broadcastMessage(Message.Type.ON_SCAN_STARTED, null);
+
+        // the journal identifies a scan by all of its roots
+        String rootPath = TextUtils.join("\n", scanRules.getRoots());
+        int scanGeneration;
+        Set<String> completedDirs;
+        List<DirRecord> oldDirRecords = null;
+
+        // a full scan reads every file again too, but it updates the songs in place
+        // instead of truncating the tables first, so the library stays usable (and
+        // consistent) if the scan is cancelled or the process is killed
+        Map<String, SongFingerprint> fingerprints = mMusicPlayerDAO.getSongFingerprints();
+
+        // a scan that was cancelled or killed is resumed, unless a full scan is asked
+        // for and the unfinished one was not a full scan
+        ScanCheckpoint checkpoint = mMusicPlayerDAO.getScanCheckpoint();
+        if (checkpoint != null && checkpoint.rootDir.equals(rootPath) && (mode != MODE_FULL || checkpoint.mode == MODE_FULL)) {
+            mode = checkpoint.mode;
+            scanGeneration = checkpoint.scanGeneration;
+            completedDirs = checkpoint.completedDirs;
+
+            if (DEBUG) Log.d(TAG, ">>>> resuming scan " + scanGeneration + ", completed dirs: " + completedDirs.size() + ", committed songs: " + checkpoint.committedCount);
+        } else {
+            // nothing to be quick about, take what the MediaStore knows instead of reading every file
+            if (mode == MODE_QUICK && fingerprints.isEmpty() && mMediaStoreSource != null)
+                mode = MODE_MEDIA_STORE;
+            // the records only hold for the rules they were listed with, other rules may
+            // include files and directories an unchanged directory hides from a quick scan
+            if (mode == MODE_QUICK) {
+                oldDirRecords = mMusicPlayerDAO.getDirRecords(scanRules.getHash());
+                if (oldDirRecords.isEmpty())
+                    mode = MODE_INCREMENTAL;
+            }
+
+            scanGeneration = mMusicPlayerDAO.getNextScanGeneration();
+            completedDirs = Collections.emptySet();
+            mMusicPlayerDAO.beginScanJournal(scanGeneration, mode, rootPath);
+        }
+
+        // only a quick scan trusts the records of the last scan, the others list every
+        // directory, all of them record what they listed for the next quick scan
+        if (oldDirRecords == null)
+            oldDirRecords = mode == MODE_QUICK ? mMusicPlayerDAO.getDirRecords(scanRules.getHash()) : Collections.<DirRecord>emptyList();
+        DirectoryCache directoryCache = new DirectoryCache(oldDirRecords);
+
+        LibraryBatchWriter batchWriter = mMusicPlayerDAO.openBatchWriter(scanGeneration, true);
+        ScanPipeline pipeline = new ScanPipeline(mParallelism, threadPriority, scanRules, fingerprints, directoryCache, batchWriter);
+        pipeline.setReextractAll(mode == MODE_FULL);
+        pipeline.setCompletedDirs(completedDirs);
+
+        MediaStoreSource mediaStoreSource = mMediaStoreSource;
+        if (mode == MODE_MEDIA_STORE && mediaStoreSource != null && !mCancelRequested) {
+            long importStartTime = System.currentTimeMillis();
+            MediaStoreSource.Result result = mediaStoreSource.importSongs(scanRules, fingerprints, batchWriter);
+            // commit the import before the walk starts, the journal then holds it too.
+            // if some of it did not commit, the walker reads the covered directories as well
+            if (result != null && batchWriter.flush() && !batchWriter.hasFailed()) {
+                pipeline.setImported(result.coveredDirs, result.importedCount);
+                mMessagePump.broadcastMessage(Message.Type.ON_SCAN_PROGRESS, new ScanProgress(result.importedCount,
+                        result.importedCount, batchWriter.getCommittedCount(), System.currentTimeMillis() - importStartTime));
+            }
+        }
+
+        mRunningPipeline = pipeline;
+        if (mCancelRequested)
+            pipeline.cancel();
+        try {
+            pipeline.run(new ScanPipeline.ProgressListener() {
+                @Override
+                public void onProgress(ScanProgress progress) {
+                    mMessagePump.broadcastMessage(Message.Type.ON_SCAN_PROGRESS, progress);
+                }
+            });
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+            pipeline.cancel();
+        } finally {
+            mRunningPipeline = null;
+            batchWriter.close();
+        }
+
+        boolean cancelled = pipeline.isCancelled();
+        // the songs of a batch that failed to commit still have the old generation, they
+        // would be deleted as gone. left to the journal, the next scan resumes this one
+        // and reads the directories of that batch again
+        boolean failed = batchWriter.hasFailed();
+        if (!cancelled && !failed) {
+            mMusicPlayerDAO.replaceDirRecords(directoryCache.getNewRecords(), scanRules.getHash());
+
+            int deletedCount = mMusicPlayerDAO.deleteSongsNotInGeneration(scanGeneration);
+
+            // songs read through a path that turned out to be an alias, by an older version,
+            // by a resumed run that reached the directory through the other path first, or
+            // by this run before it reached the path it prefers to a file
+            List<PathAlias> pathAliases = pipeline.getPathAliases();
+            mMusicPlayerDAO.replacePathAliases(pathAliases);
+            if (!pathAliases.isEmpty()) {
+                List<String> aliasPaths = new ArrayList<String>(pathAliases.size());
+                for (int i = 0; i < pathAliases.size(); ++i)
+                    aliasPaths.add(pathAliases.get(i).aliasPath);
+                deletedCount += mMusicPlayerDAO.deleteSongsByPaths(aliasPaths).size();
+            }
+
+            mMusicPlayerDAO.finishScanJournal();
+
+            if (DEBUG) Log.d(TAG, ">>>> deleted songs: " + deletedCount + ", path aliases: " + pathAliases.size());
+        }
+        // artists/albums whose songs all went, or moved to other names
+        mMusicPlayerDAO.deleteEmptySongGroups();
+        // a bulk load changes the shape of the tables, let the planner know
+        if (!cancelled && !failed && batchWriter.getCommittedCount() > 0)
+            mMusicPlayerDAO.analyze();
+
+        ScanProgress progress = pipeline.getProgress();
+        progress.cancelled = cancelled;
+        mMessagePump.broadcastMessage(Message.Type.ON_SCAN_FINISHED, progress);
+
+        if (DEBUG) Log.d(TAG, ">>>> scanned " + scanRules.getRoots() + " in " + progress.elapsedMillis + "ms with parallelism " + mParallelism
+                + ", files: " + progress.filesSeen + ", parsed: " + progress.filesParsed + ", committed: " + progress.songsCommitted
+                + ", cancelled: " + cancelled + ", failed: " + failed);
+    }
+}
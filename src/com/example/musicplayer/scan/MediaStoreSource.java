@@ -0,0 +1,251 @@
+package com.example.musicplayer.scan;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Environment;
+import android.provider.MediaStore;
+import android.util.Log;
+import com.example.musicplayer.db.LibraryBatchWriter;
+import com.example.musicplayer.pojo.SongFingerprint;
+import com.example.musicplayer.pojo.SongMetadata;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: neevek
+ * Date: 10/19/26
+ * Time: 9:30 AM
+ */
+
+// imports the songs the media scanner of the system already indexed, with one
+// cursor over MediaStore.Audio.Media straight into a LibraryBatchWriter, no file is
+// opened. see LibraryScanner.MODE_MEDIA_STORE.
+//
+// MediaStore paths are mapped onto our scan roots (it says /storage/emulated/0 or
+// /mnt/sdcard where we say /sdcard) and go through the same scan rules as walked files.
+// a row without a duration is a file the media scanner could not read, its directory
+// is left to the walker. the content uri can be replaced, e.g. by one of a fake
+// ContentProvider, columns are looked up by name and only _data is required.
+public class MediaStoreSource {
+    private final static boolean DEBUG = true;
+    private final static String TAG = MediaStoreSource.class.getSimpleName();
+
+    private final static String[] PROJECTION = {
+            MediaStore.Audio.Media.DATA,
+            MediaStore.Audio.Media.TITLE,
+            MediaStore.Audio.Media.ARTIST,
+            MediaStore.Audio.Media.ALBUM,
+            MediaStore.Audio.Media.DURATION,
+            MediaStore.Audio.Media.SIZE,
+            MediaStore.Audio.Media.DATE_MODIFIED,
+    };
+    // rows come sorted by path, so the rows of a directory are mostly next to each other
+    private final static String SELECTION = MediaStore.Audio.Media.IS_MUSIC + "!=0";
+    private final static String SORT_ORDER = MediaStore.Audio.Media.DATA;
+
+    private ContentResolver mContentResolver;
+    private Uri mContentUri;
+
+    public MediaStoreSource (ContentResolver contentResolver) {
+        this(contentResolver, MediaStore.Audio.Media.EXTERNAL_CONTENT_URI);
+    }
+
+    public MediaStoreSource (ContentResolver contentResolver, Uri contentUri) {
+        mContentResolver = contentResolver;
+        mContentUri = contentUri;
+    }
+
+    // what an import did
+    static class Result {
+        // directories that had at least one song imported, the walker does not read their files
+        Set<String> coveredDirs = new HashSet<String>();
+        int importedCount;
+    }
+
+    /**
+     * @param fingerprints songs already in the library, matching rows are only touched
+     * @return null if the MediaStore could not be queried, the whole tree must be walked then
+     */
+    Result importSongs (ScanRules scanRules, Map<String, SongFingerprint> fingerprints, LibraryBatchWriter batchWriter) {
+        long startTime = System.currentTimeMillis();
+        List<String[]> rootAliases = resolveRootAliases(scanRules.getRoots());
+
+        Cursor cursor = null;
+        try {
+            cursor = mContentResolver.query(mContentUri, PROJECTION, SELECTION, null, SORT_ORDER);
+            if (cursor == null)
+                return null;
+
+            int dataColumn = cursor.getColumnIndex(MediaStore.Audio.Media.DATA);
+            if (dataColumn == -1) {
+                if (DEBUG) Log.d(TAG, ">>>> no " + MediaStore.Audio.Media.DATA + " column in " + mContentUri);
+                return null;
+            }
+            int titleColumn = cursor.getColumnIndex(MediaStore.Audio.Media.TITLE);
+            int artistColumn = cursor.getColumnIndex(MediaStore.Audio.Media.ARTIST);
+            int albumColumn = cursor.getColumnIndex(MediaStore.Audio.Media.ALBUM);
+            int durationColumn = cursor.getColumnIndex(MediaStore.Audio.Media.DURATION);
+            int sizeColumn = cursor.getColumnIndex(MediaStore.Audio.Media.SIZE);
+            int dateModifiedColumn = cursor.getColumnIndex(MediaStore.Audio.Media.DATE_MODIFIED);
+
+            // songs imported per directory, {count}
+            Map<String, int[]> importedDirs = new HashMap<String, int[]>();
+            // directories with a file the MediaStore could not read, the walker reads them all
+            Set<String> unreadDirs = new HashSet<String>();
+            String lastMediaDirPath = null;
+            String lastDirPath = null;
+            boolean lastDirIncluded = false;
+
+            while (cursor.moveToNext()) {
+                String mediaPath = cursor.getString(dataColumn);
+                long fileSize = getLong(cursor, sizeColumn);
+                if (mediaPath == null || !scanRules.isIncludedFileSize(fileSize))
+                    continue;
+
+                int slash = mediaPath.lastIndexOf('/');
+                if (slash <= 0)
+                    continue;
+                String fileName = mediaPath.substring(slash + 1);
+                if (!scanRules.isIncludedFile(fileName))
+                    continue;
+
+                // the directory is mapped and matched once for a run of its rows
+                if (lastMediaDirPath == null || lastMediaDirPath.length() != slash || !mediaPath.startsWith(lastMediaDirPath)) {
+                    lastMediaDirPath = mediaPath.substring(0, slash);
+                    lastDirPath = toLocalPath(lastMediaDirPath, rootAliases);
+                    lastDirIncluded = lastDirPath != null && scanRules.isIncludedDirPath(lastDirPath);
+                }
+                if (!lastDirIncluded)
+                    continue;
+
+                int duration = (int)getLong(cursor, durationColumn);
+                if (duration <= 0) {
+                    unreadDirs.add(lastDirPath);
+                    continue;
+                }
+
+                String filePath = lastDirPath + "/" + fileName;
+                // seconds, File.lastModified() has the same resolution on the device
+                long lastModified = getLong(cursor, dateModifiedColumn) * 1000;
+
+                SongFingerprint fingerprint = fingerprints.get(filePath);
+                if (fingerprint != null && fingerprint.matches(fileSize, lastModified)) {
+                    batchWriter.add(SongMetadata.unchanged(filePath, fingerprint.id));
+                } else {
+                    SongMetadata song = new SongMetadata(filePath,
+                            ensureKnown(getString(cursor, titleColumn), fileName),
+                            ensureKnown(getString(cursor, artistColumn), ""),
+                            ensureKnown(getString(cursor, albumColumn), ""),
+                            duration);
+                    song.fileSize = fileSize;
+                    song.lastModified = lastModified;
+                    song.existingId = fingerprint != null ? fingerprint.id : 0;
+                    batchWriter.add(song);
+                }
+
+                int[] importedCount = importedDirs.get(lastDirPath);
+                if (importedCount == null) {
+                    importedCount = new int[1];
+                    importedDirs.put(lastDirPath, importedCount);
+                }
+                ++importedCount[0];
+            }
+
+            // the songs imported from a directory the walker reads are read again, their
+            // inserts are ignored, so they are not counted here
+            Result result = new Result();
+            Iterator<Map.Entry<String, int[]>> it = importedDirs.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<String, int[]> entry = it.next();
+                if (unreadDirs.contains(entry.getKey()))
+                    continue;
+                result.coveredDirs.add(entry.getKey());
+                result.importedCount += entry.getValue()[0];
+            }
+
+            if (DEBUG) Log.d(TAG, ">>>> imported " + result.importedCount + " songs in " + result.coveredDirs.size()
+                    + " directories from " + mContentUri + " in " + (System.currentTimeMillis() - startTime) + "ms");
+            return result;
+        } catch (Exception e) {
+            // no external storage, or a provider that does not know our columns
+            e.printStackTrace();
+            return null;
+        } finally {
+            if (cursor != null)
+                cursor.close();
+        }
+    }
+
+    private static String getString (Cursor cursor, int column) {
+        return column != -1 ? cursor.getString(column) : null;
+    }
+
+    private static long getLong (Cursor cursor, int column) {
+        return column != -1 ? cursor.getLong(column) : 0;
+    }
+
+    // the media scanner stores "<unknown>" for missing tags
+    private static String ensureKnown (String value, String defaultValue) {
+        if (value == null || value.length() == 0 || MediaStore.UNKNOWN_STRING.equals(value))
+            return defaultValue;
+        return value;
+    }
+
+    private static String toLocalPath (String mediaDirPath, List<String[]> rootAliases) {
+        for (int i = 0; i < rootAliases.size(); ++i) {
+            String alias = rootAliases.get(i)[0];
+            if (mediaDirPath.startsWith(alias) && (mediaDirPath.length() == alias.length() || mediaDirPath.charAt(alias.length()) == '/'))
+                return rootAliases.get(i)[1] + mediaDirPath.substring(alias.length());
+        }
+        return null;
+    }
+
+    // {alias, root} pairs, every root maps to itself and to the other paths of the same directory
+    private static List<String[]> resolveRootAliases (List<String> roots) {
+        String externalStoragePath = Environment.getExternalStorageDirectory().getAbsolutePath();
+
+        List<String[]> rootAliases = new ArrayList<String[]>();
+        for (int i = 0; i < roots.size(); ++i) {
+            String root = roots.get(i);
+            rootAliases.add(new String[]{ root, root });
+
+            File rootDir = new File(root);
+            FileKey rootKey = FileKeyResolver.resolveDirKey(rootDir);
+            String[] candidates = { getCanonicalPath(rootDir), externalStoragePath, getCanonicalPath(new File(externalStoragePath)) };
+            for (int j = 0; j < candidates.length; ++j) {
+                String candidate = candidates[j];
+                if (candidate.equals(root) || containsAlias(rootAliases, candidate))
+                    continue;
+                if (rootKey.equals(FileKeyResolver.resolveDirKey(new File(candidate))))
+                    rootAliases.add(new String[]{ candidate, root });
+            }
+        }
+        return rootAliases;
+    }
+
+    private static boolean containsAlias (List<String[]> rootAliases, String alias) {
+        for (int i = 0; i < rootAliases.size(); ++i) {
+            if (rootAliases.get(i)[0].equals(alias))
+                return true;
+        }
+        return false;
+    }
+
+    private static String getCanonicalPath (File file) {
+        try {
+            return file.getCanonicalPath();
+        } catch (IOException e) {
+            return file.getAbsolutePath();
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package com.example.musicplayer.scan;
+
+import android.media.MediaMetadataRetriever;
+import com.example.musicplayer.pojo.SongMetadata;
+import com.example.musicplayer.util.Util;
+
+import java.io.File;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: neevek
+ * Date: 10/18/26
+ * Time: 9:45 AM
+ */
+
+// reads title/artist/album/duration of an audio file, one instance per worker thread.
+//
+// the ID3 tag is parsed in java first and the duration is estimated from the mp3
+// frame headers, MediaMetadataRetriever is only used when the file has no usable tag,
+// or to get the duration when neither the frame headers nor the tag give one
+public class MetadataExtractor {
+    private final Id3TagReader mId3TagReader = new Id3TagReader();
+    private final Mp3DurationEstimator mDurationEstimator = new Mp3DurationEstimator();
+
+    /**
+     * @return the metadata of the file, or null if the file is not playable
+     */
+    public SongMetadata extract(File file) {
+        Id3Tag tag = null;
+        try {
+            tag = mId3TagReader.read(file);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+
+        Mp3AudioInfo audioInfo = null;
+        try {
+            audioInfo = mDurationEstimator.estimate(file, tag != null ? tag.id3v2Size : 0);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+
+        SongMetadata metadata;
+        if (tag == null || tag.isEmpty()) {
+            metadata = extractWithRetriever(file);
+        } else {
+            String title = Util.ensureNotNull(tag.title, file.getName());
+            String artist = Util.ensureNotNull(tag.artist, "");
+            String album = Util.ensureNotNull(tag.album, "");
+            metadata = new SongMetadata(file.getAbsolutePath(), title, artist, album, tag.length);
+        }
+
+        if (audioInfo != null) {
+            if (metadata == null) {
+                // the retriever could not read the file at all, but it does have mp3 frames
+                metadata = new SongMetadata(file.getAbsolutePath(), file.getName(), "", "", 0);
+            }
+            metadata.duration = audioInfo.duration;
+            metadata.bitrate = audioInfo.bitrate;
+            metadata.sampleRate = audioInfo.sampleRate;
+            metadata.vbr = audioInfo.vbr;
+        } else if (metadata != null && metadata.duration <= 0) {
+            metadata.duration = extractDurationWithRetriever(file);
+        }
+
+        if (metadata == null || metadata.duration <= 0)
+            return null;
+        return metadata;
+    }
+
+    private SongMetadata extractWithRetriever(File file) {
+        MediaMetadataRetriever mmr = new MediaMetadataRetriever();
+        try {
+            String filePath = file.getAbsolutePath();
+            mmr.setDataSource(filePath);
+
+            int intDuration = parseDuration(mmr);
+
+            String title = Util.ensureNotNull(mmr.extractMetadata(MediaMetadataRetriever.METADATA_KEY_TITLE), file.getName());
+            String artist = Util.ensureNotNull(mmr.extractMetadata(MediaMetadataRetriever.METADATA_KEY_ARTIST), "");
+            String album = Util.ensureNotNull(mmr.extractMetadata(MediaMetadataRetriever.METADATA_KEY_ALBUM), "");
+
+            return new SongMetadata(filePath, title, artist, album, intDuration);
+        } catch (Exception e) {
+            e.printStackTrace();
+        } finally {
+            // the retriever holds a native media framework instance, never leak it
+            mmr.release();
+        }
+        return null;
+    }
+
+    private int extractDurationWithRetriever(File file) {
+        MediaMetadataRetriever mmr = new MediaMetadataRetriever();
+        try {
+            mmr.setDataSource(file.getAbsolutePath());
+            return parseDuration(mmr);
+        } catch (Exception e) {
+            e.printStackTrace();
+        } finally {
+            mmr.release();
+        }
+        return 0;
+    }
+
+    private static int parseDuration(MediaMetadataRetriever mmr) {
+        String duration = Util.ensureNotNull(mmr.extractMetadata(MediaMetadataRetriever.METADATA_KEY_DURATION), "");
+        if (duration.length() > 0)
+            return Integer.parseInt(duration);
+        return 0;
+    }
+}
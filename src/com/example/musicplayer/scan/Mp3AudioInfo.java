@@ -0,0 +1,22 @@
+package com.example.musicplayer.scan;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: neevek
+ * Date: 10/18/26
+ * Time: 3:05 PM
+ */
+
+// stream properties of an mp3 file, estimated from its frame headers
+public class Mp3AudioInfo {
+    // in milliseconds
+    public int duration;
+    // average bitrate in kbps
+    public int bitrate;
+    // in Hz
+    public int sampleRate;
+    public boolean vbr;
+
+    // file offset of the first MPEG audio frame
+    public long firstFrameOffset;
+}
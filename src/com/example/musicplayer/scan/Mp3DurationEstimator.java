@@ -0,0 +1,293 @@
+package com.example.musicplayer.scan;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: neevek
+ * Date: 10/18/26
+ * Time: 3:10 PM
+ */
+
+// estimates duration, bitrate and sample rate of an mp3 file without decoding it:
+//   1. find the first MPEG audio frame after the ID3v2 tag
+//   2. if it carries a Xing/Info or VBRI header, compute the duration from its frame count
+//   3. otherwise walk a bounded number of frames, if they all have the same bitrate the
+//      stream is CBR and the duration follows from the audio size, if not the average
+//      bitrate of the walked frames is used and the stream is flagged as VBR
+//
+// an instance reuses one buffer and is NOT thread safe, use one per thread.
+public class Mp3DurationEstimator {
+    private final static int BUFFER_SIZE = 16 * 1024;
+    private final static int ID3V1_TAG_SIZE = 128;
+
+    // how far past the ID3v2 tag we search for the first frame
+    private final static int MAX_SYNC_SEARCH_SIZE = 64 * 1024;
+    // bounds of the region walked frame by frame when there is no Xing/VBRI header
+    private final static int MAX_FRAMES_TO_COUNT = 200;
+    private final static int MAX_BYTES_TO_COUNT = 256 * 1024;
+
+    private final static int VERSION_1 = 3;
+    private final static int VERSION_2 = 2;
+    private final static int VERSION_2_5 = 0;
+
+    private final static int LAYER_1 = 3;
+    private final static int LAYER_2 = 2;
+    private final static int LAYER_3 = 1;
+
+    private final static int CHANNEL_MODE_MONO = 3;
+
+    // [MPEG1, MPEG2/2.5][layer I, II, III][bitrate index], in kbps
+    private final static int[][][] BITRATES = {
+            {
+                    {0, 32, 64, 96, 128, 160, 192, 224, 256, 288, 320, 352, 384, 416, 448},
+                    {0, 32, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320, 384},
+                    {0, 32, 40, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320},
+            },
+            {
+                    {0, 32, 48, 56, 64, 80, 96, 112, 128, 144, 160, 176, 192, 224, 256},
+                    {0, 8, 16, 24, 32, 40, 48, 56, 64, 80, 96, 112, 128, 144, 160},
+                    {0, 8, 16, 24, 32, 40, 48, 56, 64, 80, 96, 112, 128, 144, 160},
+            },
+    };
+
+    // [MPEG1, MPEG2, MPEG2.5][sample rate index], in Hz
+    private final static int[][] SAMPLE_RATES = {
+            {44100, 48000, 32000},
+            {22050, 24000, 16000},
+            {11025, 12000, 8000},
+    };
+
+    private final static int XING = ('X' << 24) | ('i' << 16) | ('n' << 8) | 'g';
+    private final static int INFO = ('I' << 24) | ('n' << 16) | ('f' << 8) | 'o';
+    private final static int VBRI = ('V' << 24) | ('B' << 16) | ('R' << 8) | 'I';
+
+    private final ByteBuffer mBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+    // file offset of the first byte in mBuffer, -1 if nothing is buffered
+    private long mBufferOffset = -1;
+
+    // fields of the last header parsed by parseHeader()
+    private int mVersion;
+    private int mLayer;
+    private int mBitrate;
+    private int mSampleRate;
+    private int mChannelMode;
+    private int mSamplesPerFrame;
+    private int mFrameLength;
+
+    /**
+     * @param audioStart where to start looking for the first frame, usually the size of the ID3v2 tag
+     * @return null if no MPEG audio frame was found
+     */
+    public Mp3AudioInfo estimate (File file, long audioStart) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            return estimate(channel, channel.size(), audioStart);
+        } finally {
+            mBufferOffset = -1;
+            raf.close();
+        }
+    }
+
+    private Mp3AudioInfo estimate (FileChannel channel, long fileSize, long audioStart) throws IOException {
+        long frameOffset = findFirstFrame(channel, fileSize, audioStart);
+        if (frameOffset < 0)
+            return null;
+
+        // parse the first frame again, findFirstFrame() parsed the next one last
+        parseHeader(readInt(channel, frameOffset));
+
+        Mp3AudioInfo info = new Mp3AudioInfo();
+        info.firstFrameOffset = frameOffset;
+        info.sampleRate = mSampleRate;
+
+        long audioEnd = fileSize;
+        if (fileSize - ID3V1_TAG_SIZE > frameOffset && ensureBuffered(channel, fileSize - ID3V1_TAG_SIZE, 3)
+                && mBuffer.get(bufferIndex(fileSize - ID3V1_TAG_SIZE)) == 'T'
+                && mBuffer.get(bufferIndex(fileSize - ID3V1_TAG_SIZE) + 1) == 'A'
+                && mBuffer.get(bufferIndex(fileSize - ID3V1_TAG_SIZE) + 2) == 'G') {
+            audioEnd -= ID3V1_TAG_SIZE;
+        }
+        long audioSize = audioEnd - frameOffset;
+
+        if (readVbrHeader(channel, frameOffset, audioSize, info))
+            return info;
+
+        // no VBR header, walk the frames to tell CBR from VBR
+        int firstBitrate = mBitrate;
+        long bitrateSum = 0;
+        int frameCount = 0;
+        boolean constant = true;
+        long pos = frameOffset;
+        while (frameCount < MAX_FRAMES_TO_COUNT && pos - frameOffset < MAX_BYTES_TO_COUNT && pos + 4 <= audioEnd) {
+            if (!ensureBuffered(channel, pos, 4) || !parseHeader(mBuffer.getInt(bufferIndex(pos))))
+                break;
+
+            if (mBitrate != firstBitrate)
+                constant = false;
+            bitrateSum += mBitrate;
+            ++frameCount;
+            pos += mFrameLength;
+        }
+
+        info.bitrate = constant ? firstBitrate : (int)(bitrateSum / frameCount);
+        info.vbr = !constant;
+        // kbps is bits per millisecond
+        info.duration = (int)(audioSize * 8 / info.bitrate);
+        return info;
+    }
+
+    private boolean readVbrHeader (FileChannel channel, long frameOffset, long audioSize, Mp3AudioInfo info) throws IOException {
+        int sideInfoSize;
+        if (mVersion == VERSION_1)
+            sideInfoSize = mChannelMode == CHANNEL_MODE_MONO ? 17 : 32;
+        else
+            sideInfoSize = mChannelMode == CHANNEL_MODE_MONO ? 9 : 17;
+
+        int samplesPerFrame = mSamplesPerFrame;
+        int sampleRate = mSampleRate;
+        long frames = 0;
+        long bytes = 0;
+        boolean vbr;
+
+        long xingOffset = frameOffset + 4 + sideInfoSize;
+        long vbriOffset = frameOffset + 4 + 32;
+        if (ensureBuffered(channel, xingOffset, 16) && isXingOrInfo(mBuffer.getInt(bufferIndex(xingOffset)))) {
+            int index = bufferIndex(xingOffset);
+            vbr = mBuffer.getInt(index) == XING;
+            int flags = mBuffer.getInt(index + 4);
+            index += 8;
+            if ((flags & 0x01) != 0) {
+                frames = mBuffer.getInt(index) & 0xffffffffL;
+                index += 4;
+            }
+            if ((flags & 0x02) != 0)
+                bytes = mBuffer.getInt(index) & 0xffffffffL;
+        } else if (ensureBuffered(channel, vbriOffset, 18) && mBuffer.getInt(bufferIndex(vbriOffset)) == VBRI) {
+            int index = bufferIndex(vbriOffset);
+            vbr = true;
+            bytes = mBuffer.getInt(index + 10) & 0xffffffffL;
+            frames = mBuffer.getInt(index + 14) & 0xffffffffL;
+        } else {
+            return false;
+        }
+
+        // a header without the frame count is useless, fall back to walking the frames
+        if (frames <= 0)
+            return false;
+
+        info.vbr = vbr;
+        info.duration = (int)(frames * samplesPerFrame * 1000 / sampleRate);
+        if (info.duration <= 0)
+            return false;
+
+        if (bytes <= 0 || bytes > audioSize)
+            bytes = audioSize;
+        info.bitrate = (int)(bytes * 8 / info.duration);
+        return true;
+    }
+
+    private static boolean isXingOrInfo (int tag) {
+        return tag == XING || tag == INFO;
+    }
+
+    // a frame counts as found only if the frame right after it has a compatible header
+    private long findFirstFrame (FileChannel channel, long fileSize, long audioStart) throws IOException {
+        long end = Math.min(fileSize - 4, audioStart + MAX_SYNC_SEARCH_SIZE);
+        for (long pos = audioStart; pos <= end; ++pos) {
+            if (!ensureBuffered(channel, pos, 4))
+                return -1;
+
+            int index = bufferIndex(pos);
+            if (mBuffer.get(index) != (byte)0xff || (mBuffer.get(index + 1) & 0xe0) != 0xe0)
+                continue;
+            if (!parseHeader(mBuffer.getInt(index)))
+                continue;
+
+            int version = mVersion;
+            int layer = mLayer;
+            int sampleRate = mSampleRate;
+            long nextPos = pos + mFrameLength;
+            // a single frame file, take it
+            if (nextPos + 4 > fileSize)
+                return pos;
+
+            if (ensureBuffered(channel, nextPos, 4) && parseHeader(mBuffer.getInt(bufferIndex(nextPos)))
+                    && mVersion == version && mLayer == layer && mSampleRate == sampleRate) {
+                return pos;
+            }
+        }
+        return -1;
+    }
+
+    private boolean parseHeader (int header) {
+        if ((header >>> 21) != 0x7ff)
+            return false;
+
+        int version = (header >>> 19) & 0x03;
+        int layer = (header >>> 17) & 0x03;
+        int bitrateIndex = (header >>> 12) & 0x0f;
+        int sampleRateIndex = (header >>> 10) & 0x03;
+        int padding = (header >>> 9) & 0x01;
+
+        // reserved or free format values
+        if (version == 1 || layer == 0 || bitrateIndex == 0 || bitrateIndex == 15 || sampleRateIndex == 3)
+            return false;
+
+        int layerIndex = layer == LAYER_1 ? 0 : layer == LAYER_2 ? 1 : 2;
+        int bitrate = BITRATES[version == VERSION_1 ? 0 : 1][layerIndex][bitrateIndex];
+        int sampleRate = SAMPLE_RATES[version == VERSION_1 ? 0 : version == VERSION_2 ? 1 : 2][sampleRateIndex];
+
+        int samplesPerFrame;
+        int frameLength;
+        if (layer == LAYER_1) {
+            samplesPerFrame = 384;
+            frameLength = (12000 * bitrate / sampleRate + padding) * 4;
+        } else if (layer == LAYER_3 && version != VERSION_1) {
+            samplesPerFrame = 576;
+            frameLength = 72000 * bitrate / sampleRate + padding;
+        } else {
+            samplesPerFrame = 1152;
+            frameLength = 144000 * bitrate / sampleRate + padding;
+        }
+
+        mVersion = version;
+        mLayer = layer;
+        mBitrate = bitrate;
+        mSampleRate = sampleRate;
+        mChannelMode = (header >>> 6) & 0x03;
+        mSamplesPerFrame = samplesPerFrame;
+        mFrameLength = frameLength;
+        return frameLength > 4;
+    }
+
+    private int readInt (FileChannel channel, long pos) throws IOException {
+        if (!ensureBuffered(channel, pos, 4))
+            throw new IOException("unexpected end of file");
+        return mBuffer.getInt(bufferIndex(pos));
+    }
+
+    private int bufferIndex (long pos) {
+        return (int)(pos - mBufferOffset);
+    }
+
+    // makes sure the len bytes at pos are in mBuffer, returns false at the end of the file
+    private boolean ensureBuffered (FileChannel channel, long pos, int len) throws IOException {
+        if (mBufferOffset >= 0 && pos >= mBufferOffset && pos + len <= mBufferOffset + mBuffer.limit())
+            return true;
+
+        mBuffer.clear();
+        while (mBuffer.hasRemaining()) {
+            if (channel.read(mBuffer, pos + mBuffer.position()) <= 0)
+                break;
+        }
+        mBuffer.flip();
+        mBufferOffset = pos;
+        return mBuffer.limit() >= len;
+    }
+}
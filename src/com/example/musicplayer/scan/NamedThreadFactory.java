@@ -0,0 +1,31 @@
+package com.example.musicplayer.scan;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: neevek
+ * Date: 10/18/26
+ * Time: 5:25 PM
+ */
+
+// names the scan threads so they can be told apart in traces, and keeps them
+// below the priority of the UI thread
+class NamedThreadFactory implements ThreadFactory {
+    private final String mNamePrefix;
+    private final int mPriority;
+    private final AtomicInteger mThreadCount = new AtomicInteger();
+
+    NamedThreadFactory (String namePrefix, int priority) {
+        mNamePrefix = namePrefix;
+        mPriority = priority;
+    }
+
+    @Override
+    public Thread newThread(Runnable r) {
+        Thread thread = new Thread(r, mNamePrefix + "-" + mThreadCount.incrementAndGet());
+        thread.setPriority(mPriority);
+        return thread;
+    }
+}
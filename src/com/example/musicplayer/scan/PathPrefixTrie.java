@@ -0,0 +1,76 @@
+package com.example.musicplayer.scan;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: neevek
+ * Date: 10/18/26
+ * Time: 10:20 PM
+ */
+
+// a set of absolute directory paths, tells whether a path is one of them or lies
+// under one of them with a single walk over its chars, nothing is allocated on lookup
+class PathPrefixTrie {
+    private final Node mRoot = new Node();
+    private int mSize;
+
+    // path without the trailing '/'
+    void add (String path) {
+        Node node = mRoot;
+        for (int i = 0; i < path.length(); ++i)
+            node = node.getOrAddChild(path.charAt(i));
+        node.terminal = true;
+        ++mSize;
+    }
+
+    boolean isEmpty () {
+        return mSize == 0;
+    }
+
+    // true if path equals one of the prefixes or is below one of them
+    boolean containsPathOrAncestor (String path) {
+        Node node = mRoot;
+        int len = path.length();
+        for (int i = 0; i < len; ++i) {
+            char c = path.charAt(i);
+            // "/a/b" covers "/a/b/c" but not "/a/bc"
+            if (node.terminal && c == '/')
+                return true;
+            node = node.getChild(c);
+            if (node == null)
+                return false;
+        }
+        return node.terminal;
+    }
+
+    private static class Node {
+        // children are few (a path component rarely branches), a linear search beats hashing
+        char[] labels = new char[0];
+        Node[] children = new Node[0];
+        boolean terminal;
+
+        Node getChild (char c) {
+            for (int i = 0; i < labels.length; ++i) {
+                if (labels[i] == c)
+                    return children[i];
+            }
+            return null;
+        }
+
+        Node getOrAddChild (char c) {
+            Node child = getChild(c);
+            if (child != null)
+                return child;
+
+            int n = labels.length;
+            char[] newLabels = new char[n + 1];
+            Node[] newChildren = new Node[n + 1];
+            System.arraycopy(labels, 0, newLabels, 0, n);
+            System.arraycopy(children, 0, newChildren, 0, n);
+            newLabels[n] = c;
+            newChildren[n] = child = new Node();
+            labels = newLabels;
+            children = newChildren;
+            return child;
+        }
+    }
+}
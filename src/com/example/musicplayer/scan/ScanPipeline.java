@@ -0,0 +1,535 @@
+package com.example.musicplayer.scan;
+
+import android.util.Log;
+import com.example.musicplayer.db.LibraryBatchWriter;
+import com.example.musicplayer.pojo.PathAlias;
+import com.example.musicplayer.pojo.SongFingerprint;
+import com.example.musicplayer.pojo.SongMetadata;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: neevek
+ * Date: 10/18/26
+ * Time: 5:40 PM
+ */
+
+// one scan, run as a three stage pipeline:
+//
+//   DirectoryWalker --(path queue)--> extractor threads --(song queue)--> writer thread
+//
+// both queues are bounded, a stage that gets ahead blocks on put() until the next
+// stage catches up, so memory stays flat no matter how big the card is. the writer
+// is the only thread that touches the database.
+//
+// every listed directory counts the files it still waits for, a directory is
+// complete when the batches holding all of its songs are committed, and it then goes
+// into the scan journal with the next batch. a resumed scan does not read the files
+// of completed directories again.
+//
+// cancel() stops the walker and the extractors, the writer still commits what was
+// already extracted, so cancelling takes at most one extraction and one batch.
+class ScanPipeline {
+    private final static boolean DEBUG = true;
+    private final static String TAG = ScanPipeline.class.getSimpleName();
+
+    private final static int PATH_QUEUE_CAPACITY = 256;
+    private final static int SONG_QUEUE_CAPACITY = 256;
+
+    private final static long PROGRESS_INTERVAL = 500;
+
+    // the "Poison Pill Shutdown" approach, see: http://stackoverflow.com/a/812362/668963
+    private final static PendingFile END_OF_PATHS = new PendingFile(null, null, 0, 0, 0);
+    private final static SongMetadata END_OF_SONGS = new SongMetadata(null, null, null, null, 0);
+
+    interface ProgressListener {
+        // called on the thread that called run()
+        void onProgress (ScanProgress progress);
+    }
+
+    private int mParallelism;
+    private int mThreadPriority;
+    private ScanRules mScanRules;
+    private Map<String, SongFingerprint> mFingerprints;
+    private DirectoryCache mDirectoryCache;
+    private LibraryBatchWriter mBatchWriter;
+
+    // read every file again, even if its fingerprint matches
+    private boolean mReextractAll;
+    // directories a previous run of this scan completed
+    private Set<String> mCompletedDirs = Collections.emptySet();
+    // directories whose songs were imported from the MediaStore
+    private Set<String> mCoveredDirs = Collections.emptySet();
+
+    private BlockingQueue<PendingFile> mPathQueue = new ArrayBlockingQueue<PendingFile>(PATH_QUEUE_CAPACITY);
+    private BlockingQueue<SongMetadata> mSongQueue = new ArrayBlockingQueue<SongMetadata>(SONG_QUEUE_CAPACITY);
+
+    // directories that still wait for some of their songs to be committed, keyed by path
+    private Map<String, DirProgress> mDirProgresses = new ConcurrentHashMap<String, DirProgress>();
+
+    // file paths of the known songs grouped by the directory they are in, built lazily
+    // when the walker reports the first unchanged directory
+    private Map<String, List<String>> mSongPathsByDir;
+
+    // path through which each physical file is read, only filled where stat() is supported
+    private ConcurrentHashMap<FileKey, String> mVisitedFiles = new ConcurrentHashMap<FileKey, String>();
+    // other paths to the directories and files walked through another path
+    private final List<PathAlias> mPathAliases = new ArrayList<PathAlias>();
+
+    private AtomicInteger mFilesSeen = new AtomicInteger();
+    private AtomicInteger mFilesParsed = new AtomicInteger();
+    private AtomicInteger mRunningExtractorCount = new AtomicInteger();
+    private long mStartTime;
+
+    private volatile Thread mWalkerThread;
+    private final List<Thread> mExtractorThreads = new ArrayList<Thread>();
+    private volatile boolean mCancelled;
+
+    /**
+     * @param fingerprints files whose size and mtime match their fingerprint are not extracted again
+     * @param directoryCache directories it reports as unchanged are not listed, the songs in them are kept as they are
+     */
+    ScanPipeline (int parallelism, int threadPriority, ScanRules scanRules, Map<String, SongFingerprint> fingerprints,
+                  DirectoryCache directoryCache, LibraryBatchWriter batchWriter) {
+        mParallelism = parallelism;
+        mThreadPriority = threadPriority;
+        mScanRules = scanRules;
+        mFingerprints = fingerprints;
+        mDirectoryCache = directoryCache;
+        mBatchWriter = batchWriter;
+    }
+
+    void setReextractAll (boolean reextractAll) {
+        mReextractAll = reextractAll;
+    }
+
+    void setCompletedDirs (Set<String> completedDirs) {
+        mCompletedDirs = completedDirs;
+    }
+
+    /**
+     * @param coveredDirs directories whose files are not read, their songs were
+     *                    imported from the MediaStore before run() into the same batch writer
+     * @param importedCount number of songs imported, they count as seen and parsed
+     */
+    void setImported (Set<String> coveredDirs, int importedCount) {
+        mCoveredDirs = coveredDirs;
+        // listed again by the next quick scan, the MediaStore may not have had all of their files
+        mDirectoryCache.setUnreadDirs(coveredDirs);
+        mFilesSeen.addAndGet(importedCount);
+        mFilesParsed.addAndGet(importedCount);
+    }
+
+    // blocks until the last song is committed, or until what was extracted before cancel() is committed
+    void run (ProgressListener progressListener) throws InterruptedException {
+        mStartTime = System.currentTimeMillis();
+
+        mBatchWriter.setCommitListener(new LibraryBatchWriter.CommitListener() {
+            @Override
+            public void onCommitted(List<SongMetadata> songs) {
+                onSongsCommitted(songs);
+            }
+        });
+
+        Thread writerThread = new Thread(new WriterStage(), "scan-writer");
+        writerThread.setPriority(mThreadPriority);
+        writerThread.start();
+
+        mRunningExtractorCount.set(mParallelism);
+        NamedThreadFactory extractorThreadFactory = new NamedThreadFactory("scan-extractor", mThreadPriority);
+        synchronized (mExtractorThreads) {
+            for (int i = 0; i < mParallelism; ++i) {
+                Thread thread = extractorThreadFactory.newThread(new ExtractorStage());
+                mExtractorThreads.add(thread);
+                thread.start();
+            }
+        }
+
+        Thread walkerThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    new DirectoryWalker(mParallelism, mThreadPriority, mScanRules, mDirectoryCache, new WalkerListener()).walk();
+                } catch (InterruptedException e) {
+                    // cancelled
+                } finally {
+                    // one pill for every extractor
+                    for (int i = 0; i < mParallelism; ++i)
+                        putUnlessCancelled(mPathQueue, END_OF_PATHS);
+                }
+            }
+        }, "scan-walker-main");
+        walkerThread.setPriority(mThreadPriority);
+        mWalkerThread = walkerThread;
+        walkerThread.start();
+
+        // cancel() may have been called before the threads existed
+        if (mCancelled)
+            interruptWalkerAndExtractors();
+
+        while (writerThread.isAlive()) {
+            writerThread.join(PROGRESS_INTERVAL);
+            if (progressListener != null)
+                progressListener.onProgress(getProgress());
+        }
+
+        if (DEBUG) Log.d(TAG, ">>>> pipeline drained, " + getProgress().getFilesPerSecond() + " files/s, cancelled: " + mCancelled);
+    }
+
+    // may be called on any thread, run() returns soon after
+    void cancel () {
+        mCancelled = true;
+        interruptWalkerAndExtractors();
+    }
+
+    boolean isCancelled () {
+        return mCancelled;
+    }
+
+    private void interruptWalkerAndExtractors () {
+        // interrupting the walker shuts its pool down, which interrupts the walker threads
+        Thread walkerThread = mWalkerThread;
+        if (walkerThread != null)
+            walkerThread.interrupt();
+
+        // files queued but not extracted yet are simply not part of this run
+        mPathQueue.clear();
+
+        synchronized (mExtractorThreads) {
+            for (int i = 0; i < mExtractorThreads.size(); ++i)
+                mExtractorThreads.get(i).interrupt();
+        }
+    }
+
+    ScanProgress getProgress () {
+        return new ScanProgress(mFilesSeen.get(), mFilesParsed.get(), mBatchWriter.getCommittedCount(),
+                System.currentTimeMillis() - mStartTime);
+    }
+
+    private class WalkerListener implements DirectoryWalker.Listener {
+        @Override
+        public boolean onDirListed(String dirPath) {
+            // a resumed scan does not read the files of a completed directory again,
+            // they are already stamped with its generation
+            if (mCompletedDirs.contains(dirPath) || mCoveredDirs.contains(dirPath))
+                return false;
+
+            // held until onDirDone(), so the directory cannot complete while it is listed
+            acquireDir(dirPath);
+            return true;
+        }
+
+        @Override
+        public void onFile(String dirPath, File file) throws InterruptedException {
+            onFileFound(dirPath, file);
+        }
+
+        @Override
+        public void onDirDone(String dirPath) {
+            // a walker thread still running after cancel(), the batch writer may be closed
+            // already and the directory is not complete anyway
+            if (mCancelled)
+                return;
+            releaseDir(dirPath);
+        }
+
+        @Override
+        public void onUnchangedDir(String dirPath) throws InterruptedException {
+            onUnchangedDirFound(dirPath);
+        }
+
+        @Override
+        public void onAliasDir(String dirPath, String targetPath) {
+            addPathAlias(dirPath, targetPath);
+        }
+    }
+
+    private void addPathAlias (String aliasPath, String targetPath) {
+        if (DEBUG) Log.d(TAG, ">>>> " + aliasPath + " is an alias of " + targetPath);
+        synchronized (mPathAliases) {
+            mPathAliases.add(new PathAlias(aliasPath, targetPath));
+        }
+    }
+
+    // only complete if the pipeline was not cancelled
+    List<PathAlias> getPathAliases () {
+        synchronized (mPathAliases) {
+            return new ArrayList<PathAlias>(mPathAliases);
+        }
+    }
+
+    // stage 1, called on the walker threads
+    private void onFileFound (String dirPath, File file) throws InterruptedException {
+        String filePath = file.getAbsolutePath();
+
+        // the walker matched the name only, the size needs a stat
+        long fileSize;
+        long lastModified;
+        FileKeyResolver.Stat stat = FileKeyResolver.stat(filePath);
+        if (stat != null) {
+            fileSize = stat.size;
+            lastModified = stat.lastModified;
+        } else {
+            fileSize = file.length();
+            lastModified = file.lastModified();
+        }
+        if (!mScanRules.isIncludedFileSize(fileSize))
+            return;
+
+        // a hard link, or a symlink to a file we read through another path. the walker
+        // threads reach the paths in any order, the one read is picked by isPreferredPath()
+        // so it is the same in every scan; a path taken already is dropped as an alias
+        if (stat != null) {
+            String targetPath = mVisitedFiles.putIfAbsent(stat.key, filePath);
+            while (targetPath != null) {
+                if (!isPreferredPath(filePath, targetPath)) {
+                    addPathAlias(filePath, targetPath);
+                    return;
+                }
+                if (mVisitedFiles.replace(stat.key, targetPath, filePath)) {
+                    addPathAlias(targetPath, filePath);
+                    break;
+                }
+                targetPath = mVisitedFiles.get(stat.key);
+            }
+        }
+
+        mFilesSeen.incrementAndGet();
+
+        DirProgress dirProgress = acquireDir(dirPath);
+
+        SongFingerprint fingerprint = mFingerprints.get(filePath);
+        if (fingerprint != null && !mReextractAll && fingerprint.matches(fileSize, lastModified)) {
+            mSongQueue.put(SongMetadata.unchanged(filePath, fingerprint.id));
+        } else {
+            mPathQueue.put(new PendingFile(file, dirProgress, fileSize, lastModified, fingerprint != null ? fingerprint.id : 0));
+        }
+    }
+
+    // of two paths to one file: the one the library has a song for, so the song keeps its
+    // _id, then the canonical one, then the lexicographically smaller one
+    private boolean isPreferredPath (String path, String otherPath) {
+        boolean known = mFingerprints.containsKey(path);
+        if (known != mFingerprints.containsKey(otherPath))
+            return known;
+
+        // only paths to a file reached twice get here, it is not worth it for every file
+        boolean canonical = isCanonicalPath(path);
+        if (canonical != isCanonicalPath(otherPath))
+            return canonical;
+
+        return path.compareTo(otherPath) < 0;
+    }
+
+    private static boolean isCanonicalPath (String path) {
+        try {
+            return new File(path).getCanonicalPath().equals(path);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    // stage 1, the songs in a directory that was not listed are kept as they are
+    private void onUnchangedDirFound (String dirPath) throws InterruptedException {
+        if (mCompletedDirs.contains(dirPath))
+            return;
+
+        List<String> songPaths;
+        synchronized (this) {
+            if (mSongPathsByDir == null)
+                mSongPathsByDir = groupSongPathsByDir(mFingerprints);
+            songPaths = mSongPathsByDir.get(dirPath);
+        }
+
+        acquireDir(dirPath);
+        if (songPaths != null) {
+            for (int i = 0; i < songPaths.size(); ++i) {
+                String filePath = songPaths.get(i);
+                mFilesSeen.incrementAndGet();
+                acquireDir(dirPath);
+                mSongQueue.put(SongMetadata.unchanged(filePath, mFingerprints.get(filePath).id));
+            }
+        }
+        // not reached if the walk is aborted, the directory must not look complete then
+        releaseDir(dirPath);
+    }
+
+    private static Map<String, List<String>> groupSongPathsByDir (Map<String, SongFingerprint> fingerprints) {
+        Map<String, List<String>> map = new HashMap<String, List<String>>();
+        Iterator<String> it = fingerprints.keySet().iterator();
+        while (it.hasNext()) {
+            String filePath = it.next();
+            String dirPath = getDirPath(filePath);
+
+            List<String> songPaths = map.get(dirPath);
+            if (songPaths == null) {
+                songPaths = new ArrayList<String>();
+                map.put(dirPath, songPaths);
+            }
+            songPaths.add(filePath);
+        }
+        return map;
+    }
+
+    private static String getDirPath (String filePath) {
+        return filePath.substring(0, Math.max(0, filePath.lastIndexOf('/')));
+    }
+
+    // one more file of the directory (or the listing itself) to wait for. a directory
+    // is only acquired by the walker thread that lists it, and its count does not drop
+    // to 0 before that thread released the listing, so get() then put() is safe here
+    private DirProgress acquireDir (String dirPath) {
+        DirProgress dirProgress = mDirProgresses.get(dirPath);
+        if (dirProgress == null) {
+            dirProgress = new DirProgress(dirPath);
+            mDirProgresses.put(dirPath, dirProgress);
+        }
+        dirProgress.pendingCount.incrementAndGet();
+        return dirProgress;
+    }
+
+    private void releaseDir (String dirPath) {
+        DirProgress dirProgress = mDirProgresses.get(dirPath);
+        if (dirProgress != null && dirProgress.pendingCount.decrementAndGet() == 0) {
+            mDirProgresses.remove(dirPath);
+            mBatchWriter.addCompletedDir(dirPath);
+        }
+    }
+
+    // called on the thread that flushed the batch writer
+    private void onSongsCommitted (List<SongMetadata> songs) {
+        for (int i = 0; i < songs.size(); ++i)
+            releaseDir(getDirPath(songs.get(i).filePath));
+    }
+
+    // stage 2
+    private class ExtractorStage implements Runnable {
+        private MetadataExtractor mMetadataExtractor = new MetadataExtractor();
+
+        @Override
+        public void run() {
+            try {
+                while (!mCancelled) {
+                    PendingFile pendingFile = mPathQueue.take();
+                    if (pendingFile == END_OF_PATHS)
+                        break;
+
+                    SongMetadata metadata = null;
+                    try {
+                        metadata = mMetadataExtractor.extract(pendingFile.file);
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    }
+                    mFilesParsed.incrementAndGet();
+
+                    if (metadata != null) {
+                        metadata.fileSize = pendingFile.fileSize;
+                        metadata.lastModified = pendingFile.lastModified;
+                        metadata.existingId = pendingFile.existingId;
+                        mSongQueue.put(metadata);
+                    } else {
+                        // nothing to commit for this file
+                        releaseDir(pendingFile.dirProgress.path);
+                    }
+                }
+            } catch (InterruptedException e) {
+                // cancelled
+            } finally {
+                // the last extractor to finish tells the writer there is nothing more to come
+                if (mRunningExtractorCount.decrementAndGet() == 0)
+                    putUninterruptibly(mSongQueue, END_OF_SONGS);
+            }
+        }
+    }
+
+    // stage 3, never interrupted, it commits whatever was queued before it stops
+    private class WriterStage implements Runnable {
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    SongMetadata metadata = mSongQueue.take();
+                    if (metadata == END_OF_SONGS)
+                        break;
+
+                    mBatchWriter.add(metadata);
+
+                    if (DEBUG && !metadata.unchanged)
+                        Log.d(TAG, ">>>> song info: " + metadata.artist + ", " + metadata.title + ", " + metadata.album + ", " + metadata.duration);
+                }
+            } catch (InterruptedException e) {
+                // not expected
+            } finally {
+                mBatchWriter.flush();
+            }
+        }
+    }
+
+    private static <T> void putUninterruptibly (BlockingQueue<T> queue, T item) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                queue.put(item);
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+
+    // after cancel() nobody may be left to take the item, do not wait for room then
+    private <T> void putUnlessCancelled (BlockingQueue<T> queue, T item) {
+        boolean interrupted = false;
+        while (!mCancelled) {
+            try {
+                if (queue.offer(item, PROGRESS_INTERVAL, TimeUnit.MILLISECONDS))
+                    break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+
+    private static class DirProgress {
+        String path;
+        AtomicInteger pendingCount = new AtomicInteger();
+
+        DirProgress (String path) {
+            this.path = path;
+        }
+    }
+
+    private static class PendingFile {
+        File file;
+        DirProgress dirProgress;
+        long fileSize;
+        long lastModified;
+        int existingId;
+
+        PendingFile (File file, DirProgress dirProgress, long fileSize, long lastModified, int existingId) {
+            this.file = file;
+            this.dirProgress = dirProgress;
+            this.fileSize = fileSize;
+            this.lastModified = lastModified;
+            this.existingId = existingId;
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package com.example.musicplayer.scan;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: neevek
+ * Date: 10/18/26
+ * Time: 5:30 PM
+ */
+
+// a snapshot of the counters of a running scan, sent with Message.Type.ON_SCAN_PROGRESS
+public class ScanProgress {
+    // mp3 files found by the walker
+    public int filesSeen;
+    // files that went through metadata extraction
+    public int filesParsed;
+    // songs written to the database by committed transactions
+    public int songsCommitted;
+    public long elapsedMillis;
+    // set on the ScanProgress of ON_SCAN_FINISHED if the scan was cancelled, it is resumed next time
+    public boolean cancelled;
+
+    public ScanProgress (int filesSeen, int filesParsed, int songsCommitted, long elapsedMillis) {
+        this.filesSeen = filesSeen;
+        this.filesParsed = filesParsed;
+        this.songsCommitted = songsCommitted;
+        this.elapsedMillis = elapsedMillis;
+    }
+
+    public int getFilesPerSecond () {
+        if (elapsedMillis <= 0)
+            return 0;
+        return (int)(filesSeen * 1000L / elapsedMillis);
+    }
+}
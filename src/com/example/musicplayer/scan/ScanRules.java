@@ -0,0 +1,198 @@
+package com.example.musicplayer.scan;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: neevek
+ * Date: 10/18/26
+ * Time: 10:40 PM
+ */
+
+// what a scan looks at: the roots it walks, and the include/exclude rules compiled
+// into matchers that do not allocate per file.
+//
+// rules are given one per line:
+//   +*.ext        include files with this extension, e.g. "+*.mp3"
+//   -/abs/path    exclude this directory and everything under it, "/**" at the end is allowed
+//   -glob         exclude files and directories whose name matches the glob, e.g. "-.*"
+// lines that are empty or start with '#' are ignored.
+//
+// files smaller than the minimum file size are skipped before any metadata is read,
+// that keeps notification and ringtone sounds out of the library.
+public class ScanRules {
+    private final static String TAG = ScanRules.class.getSimpleName();
+
+    public final static String DEFAULT_RULES = "+*.mp3\n-.*\n-/sdcard/Android/**";
+    public final static long DEFAULT_MIN_FILE_SIZE = 50 * 1024;
+
+    private List<String> mRoots;
+    private String mRuleText;
+    private ExtensionSet mIncludedExtensions;
+    private PathPrefixTrie mExcludedDirs;
+    private GlobMatcher[] mExcludedNames;
+    private long mMinFileSize;
+    private long mHash;
+
+    private ScanRules (List<String> roots, String ruleText, ExtensionSet includedExtensions,
+                       PathPrefixTrie excludedDirs, GlobMatcher[] excludedNames, long minFileSize) {
+        mRoots = roots;
+        mRuleText = ruleText;
+        mIncludedExtensions = includedExtensions;
+        mExcludedDirs = excludedDirs;
+        mExcludedNames = excludedNames;
+        mMinFileSize = minFileSize;
+        mHash = hash(roots, ruleText, minFileSize);
+    }
+
+    // 64 bit FNV-1a of the roots, the rule text and the minimum size
+    private static long hash (List<String> roots, String ruleText, long minFileSize) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < roots.size(); ++i)
+            sb.append(roots.get(i)).append('\n');
+        sb.append('\0').append(ruleText).append('\0').append(minFileSize);
+
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < sb.length(); ++i) {
+            hash ^= sb.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    public static ScanRules getDefault () {
+        return compile(StorageVolumes.getDefaultRoots(), DEFAULT_RULES, DEFAULT_MIN_FILE_SIZE);
+    }
+
+    // malformed lines are logged and skipped
+    public static ScanRules compile (List<String> roots, String ruleText, long minFileSize) {
+        List<String> extensions = new ArrayList<String>();
+        PathPrefixTrie excludedDirs = new PathPrefixTrie();
+        List<GlobMatcher> excludedNames = new ArrayList<GlobMatcher>();
+
+        String[] lines = ruleText.split("\n");
+        for (int i = 0; i < lines.length; ++i) {
+            String line = lines[i].trim();
+            if (line.length() == 0 || line.charAt(0) == '#')
+                continue;
+
+            char sign = line.charAt(0);
+            String pattern = line.substring(1).trim();
+            if (sign == '+' && pattern.startsWith("*.") && pattern.indexOf('*', 1) < 0 && pattern.indexOf('?') < 0) {
+                extensions.add(pattern.substring(2));
+            } else if (sign == '-' && pattern.startsWith("/")) {
+                String path = pattern;
+                if (path.endsWith("/**"))
+                    path = path.substring(0, path.length() - 3);
+                while (path.length() > 1 && path.endsWith("/"))
+                    path = path.substring(0, path.length() - 1);
+                if (path.indexOf('*') >= 0 || path.indexOf('?') >= 0) {
+                    Log.w(TAG, "wildcards are only supported in names, ignored rule: " + line);
+                    continue;
+                }
+                excludedDirs.add(path);
+            } else if (sign == '-' && pattern.length() > 0 && pattern.indexOf('/') < 0) {
+                excludedNames.add(new GlobMatcher(pattern));
+            } else {
+                Log.w(TAG, "ignored rule: " + line);
+            }
+        }
+
+        List<String> normalizedRoots = new ArrayList<String>(roots.size());
+        for (int i = 0; i < roots.size(); ++i) {
+            String root = roots.get(i).trim();
+            while (root.length() > 1 && root.endsWith("/"))
+                root = root.substring(0, root.length() - 1);
+            if (root.length() > 0 && !normalizedRoots.contains(root))
+                normalizedRoots.add(root);
+        }
+        // a volume mounted inside another one (/sdcard/external_sd on some devices) is walked with it
+        for (int i = normalizedRoots.size() - 1; i >= 0; --i) {
+            String root = normalizedRoots.get(i);
+            for (int j = 0; j < normalizedRoots.size(); ++j) {
+                if (j != i && root.startsWith(normalizedRoots.get(j) + "/")) {
+                    normalizedRoots.remove(i);
+                    break;
+                }
+            }
+        }
+
+        return new ScanRules(Collections.unmodifiableList(normalizedRoots), ruleText, new ExtensionSet(extensions),
+                excludedDirs, excludedNames.toArray(new GlobMatcher[excludedNames.size()]), minFileSize);
+    }
+
+    public List<String> getRoots () {
+        return mRoots;
+    }
+
+    public String getRuleText () {
+        return mRuleText;
+    }
+
+    public long getMinFileSize () {
+        return mMinFileSize;
+    }
+
+    // the same for rules compiled from the same roots, text and minimum size
+    public long getHash () {
+        return mHash;
+    }
+
+    /**
+     * @param path absolute path of the directory
+     * @param name last component of path
+     */
+    public boolean isExcludedDir (String path, String name) {
+        return isExcludedName(name) || mExcludedDirs.containsPathOrAncestor(path);
+    }
+
+    /**
+     * whether a walk of the roots reaches the directory, for paths that come from
+     * elsewhere than the walker: it is a root or under one, and neither it nor any
+     * directory between it and the root is excluded.
+     */
+    public boolean isIncludedDirPath (String dirPath) {
+        for (int i = 0; i < mRoots.size(); ++i) {
+            String root = mRoots.get(i);
+            if (!dirPath.startsWith(root) || (dirPath.length() > root.length() && dirPath.charAt(root.length()) != '/'))
+                continue;
+
+            if (mExcludedDirs.containsPathOrAncestor(dirPath))
+                return false;
+
+            // the name of the root itself counts too
+            int start = root.lastIndexOf('/') + 1;
+            while (start < dirPath.length()) {
+                int end = dirPath.indexOf('/', start);
+                if (end < 0)
+                    end = dirPath.length();
+                if (end > start && isExcludedName(dirPath.substring(start, end)))
+                    return false;
+                start = end + 1;
+            }
+            return true;
+        }
+        return false;
+    }
+
+    // whether a file in a directory that is not excluded is a candidate, by its name only
+    public boolean isIncludedFile (String name) {
+        return mIncludedExtensions.matches(name) && !isExcludedName(name);
+    }
+
+    public boolean isIncludedFileSize (long fileSize) {
+        return fileSize >= mMinFileSize;
+    }
+
+    private boolean isExcludedName (String name) {
+        for (int i = 0; i < mExcludedNames.length; ++i) {
+            if (mExcludedNames[i].matches(name))
+                return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,61 @@
+package com.example.musicplayer.scan;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: neevek
+ * Date: 10/18/26
+ * Time: 10:50 PM
+ */
+
+// finds the storage volumes worth scanning.
+//
+// there is no public API listing the volumes before API 19, vendors export the
+// secondary ones (external sdcards, usb drives) in the SECONDARY_STORAGE environment
+// variable though, as a ':' separated list of mount points.
+public class StorageVolumes {
+    // the primary volume keeps its historic path, the songs in the library are keyed by it
+    public final static String PRIMARY_ROOT_DIR = "/sdcard";
+
+    public static List<String> getDefaultRoots () {
+        List<String> roots = new ArrayList<String>();
+        List<String> canonicalRoots = new ArrayList<String>();
+        addRoot(PRIMARY_ROOT_DIR, roots, canonicalRoots);
+
+        String secondaryStorage = System.getenv("SECONDARY_STORAGE");
+        if (secondaryStorage != null) {
+            String[] paths = secondaryStorage.split(":");
+            for (int i = 0; i < paths.length; ++i) {
+                if (paths[i].length() > 0)
+                    addRoot(paths[i], roots, canonicalRoots);
+            }
+        }
+        return roots;
+    }
+
+    // skips volumes that are not mounted and the ones that are another path to a volume we have
+    private static void addRoot (String path, List<String> roots, List<String> canonicalRoots) {
+        File dir = new File(path);
+        if (!dir.isDirectory() || !dir.canRead()) {
+            // the primary volume is kept even when it is not mounted right now
+            if (!PRIMARY_ROOT_DIR.equals(path))
+                return;
+        }
+
+        String canonicalPath;
+        try {
+            canonicalPath = dir.getCanonicalPath();
+        } catch (IOException e) {
+            canonicalPath = dir.getAbsolutePath();
+        }
+        if (canonicalRoots.contains(canonicalPath))
+            return;
+
+        roots.add(path);
+        canonicalRoots.add(canonicalPath);
+    }
+}
@@ -0,0 +1,123 @@
+package com.example.musicplayer.service;
+
+import android.app.Service;
+import android.content.Intent;
+import android.os.IBinder;
+import android.util.Log;
+import com.example.musicplayer.MusicPlayerApplication;
+import com.example.musicplayer.db.MusicPlayerDAO;
+import com.example.musicplayer.message.Message;
+import com.example.musicplayer.message.MessageCallback;
+import com.example.musicplayer.pojo.DirRecord;
+import com.example.musicplayer.pojo.Song;
+import com.example.musicplayer.scan.ChangeCoalescer;
+import com.example.musicplayer.scan.FileObserverEventSource;
+import com.example.musicplayer.scan.LibraryChangeApplier;
+import com.example.musicplayer.scan.ScanRules;
+import com.example.musicplayer.util.TaskExecutor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: neevek
+ * Date: 10/18/26
+ * Time: 9:00 PM
+ */
+
+// keeps the library in sync with the sdcard between scans.
+//
+// every directory recorded by the last scan is watched with a FileObserver, bursts
+// of events are coalesced and applied to the database in batches, and the cached
+// song list of the application is patched with the songs that changed.
+// the watched directories are refreshed whenever a scan finishes.
+public class LibraryWatcherService extends Service implements MessageCallback, LibraryChangeApplier.Listener {
+    private final static boolean DEBUG = true;
+    private final static String TAG = LibraryWatcherService.class.getSimpleName();
+
+    // a song being copied fires CLOSE_WRITE once, an album being copied fires it for a
+    // while, wait for the burst to end but never hold changes longer than MAX_DELAY
+    private final static long QUIET_MILLIS = 1500;
+    private final static long MAX_DELAY_MILLIS = 10000;
+    private final static int MAX_BATCH_SIZE = 500;
+
+    private MusicPlayerApplication mApp;
+    private MusicPlayerDAO mMusicPlayerDAO;
+
+    private FileObserverEventSource mEventSource;
+    private ChangeCoalescer mChangeCoalescer;
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+
+        mApp = MusicPlayerApplication.getInstance();
+        mMusicPlayerDAO = mApp.getMusicPlayerDAO();
+
+        LibraryChangeApplier applier = new LibraryChangeApplier(mMusicPlayerDAO, mApp.getLibraryScanner(), this);
+        mChangeCoalescer = new ChangeCoalescer(applier, QUIET_MILLIS, MAX_DELAY_MILLIS, MAX_BATCH_SIZE);
+        mChangeCoalescer.start();
+
+        mEventSource = new FileObserverEventSource();
+        mEventSource.setListener(mChangeCoalescer);
+
+        mApp.getMessagePump().register(Message.Type.ON_SCAN_FINISHED, this);
+
+        refreshWatches();
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        return START_STICKY;
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+
+        mApp.getMessagePump().unregister(Message.Type.ON_SCAN_FINISHED, this);
+        mEventSource.stopWatching();
+        mChangeCoalescer.stop();
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return null;
+    }
+
+    @Override
+    public void onReceiveMessage(Message message) {
+        switch (message.type) {
+            case ON_SCAN_FINISHED:
+                refreshWatches();
+                break;
+        }
+    }
+
+    // watches the roots and every directory the last scan listed
+    private void refreshWatches () {
+        TaskExecutor.executeTask(new Runnable() {
+            @Override
+            public void run() {
+                ScanRules scanRules = mApp.getLibraryScanner().getScanRules();
+                mEventSource.setScanRules(scanRules);
+
+                List<DirRecord> dirRecords = mMusicPlayerDAO.getDirRecords();
+                List<String> dirPaths = new ArrayList<String>(dirRecords.size() + scanRules.getRoots().size());
+                dirPaths.addAll(scanRules.getRoots());
+                for (int i = 0; i < dirRecords.size(); ++i)
+                    dirPaths.add(dirRecords.get(i).path);
+
+                mEventSource.watch(dirPaths);
+
+                if (DEBUG) Log.d(TAG, ">>>> watching " + mEventSource.getWatchCount() + " directories");
+            }
+        });
+    }
+
+    @Override
+    public void onLibraryChanged(List<Song> changedSongs, List<Integer> deletedSongIds) {
+        mApp.updateCachedAllMusicSongList(changedSongs, deletedSongIds);
+    }
+}
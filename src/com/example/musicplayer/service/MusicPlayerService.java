@@ -41,6 +41,8 @@ public class MusicPlayerService extends Service implements MediaPlayer.OnComplet
     private MediaPlayer mMediaPlayer;
 
     private Song mCurrentSong;
+    // the order the current play list is played in, it follows the list when another one is set
+    private final PlayQueue mPlayQueue = new PlayQueue();
 
     private MessagePump mMessageePump;
     private TaskQueue mActionQueue;
@@ -71,6 +73,10 @@ public class MusicPlayerService extends Service implements MediaPlayer.OnComplet
 
         mMusicPlayerDAO = mApp.getMusicPlayerDAO();
 
+        SharedPreferences prefs = getSharedPreferences(MusicPlayerApplication.SHARED_PREF, MODE_PRIVATE);
+        mPlayQueue.setPlayMode(prefs.getInt(MusicPlayerApplication.PREF_KEY_REPEAT_MODE, PlayQueue.REPEAT_OFF),
+                prefs.getInt(MusicPlayerApplication.PREF_KEY_SHUFFLE_MODE, PlayQueue.SHUFFLE_OFF));
+
         mMediaPlayer = new MediaPlayer();
         mMediaPlayer.setAudioStreamType(AudioManager.STREAM_MUSIC);
         mMediaPlayer.setOnCompletionListener(this);
@@ -124,11 +130,39 @@ public class MusicPlayerService extends Service implements MediaPlayer.OnComplet
                 if (song == null)
                     return;
 
+                // next/prev go on from the song picked
+                if (syncPlayQueue(songId))
+                    mPlayQueue.moveToSong(songId);
                 playSong(song, progress);
             }
         });
     }
 
+    // on the action queue, false if there is no play list
+    private boolean syncPlayQueue (int currentSongId) {
+        List<Song> playList = mApp.getCurrentPlayList();
+        if (playList == null)
+            return false;
+
+        // the ids are copied once per list, not on every next/prev. a list patched after
+        // a library change keeps the order and the position, see PlayQueue.setPlayList()
+        if (playList != mPlayQueue.getSnapshot().playList)
+            mPlayQueue.setPlayList(playList, currentSongId);
+        return true;
+    }
+
+    private int getCurrentSongId () {
+        Song song = mCurrentSong;
+        return song != null ? song.id : 0;
+    }
+
+    // on the action queue, position is one PlayQueue gave
+    private void playQueuedSong (int position) {
+        Song song = mMusicPlayerDAO.getSongById(mPlayQueue.getSnapshot().songIds[position]);
+        if (song != null)
+            playSong(song, 0);
+    }
+
     private void playSong(Song song, int progress) {
         if (DEBUG) Log.d(TAG, ">>>> start playing: " + song.title);
         try {
@@ -186,11 +220,20 @@ public class MusicPlayerService extends Service implements MediaPlayer.OnComplet
 
     @Override
     public void onCompletion(MediaPlayer mp) {
-        List<Song> playList = mApp.getCurrentPlayList();
-        if (playList != null) {
-            int songIndex = playList.indexOf(mCurrentSong);
-            if (songIndex == -1 || songIndex == playList.size() - 1) {
-                mp.stop();
+        mActionQueue.scheduleTask(new Runnable() {
+            @Override
+            public void run() {
+                if (!syncPlayQueue(getCurrentSongId()))
+                    return;
+
+                // a song that is not in the play list is not followed by it
+                int position = mPlayQueue.getSnapshot().getPosition() != -1 ? mPlayQueue.next(true) : -1;
+                if (position != -1) {
+                    playQueuedSong(position);
+                    return;
+                }
+
+                mMediaPlayer.stop();
                 getSharedPreferences(MusicPlayerApplication.SHARED_PREF, MODE_PRIVATE).edit()
                         .remove(MusicPlayerApplication.PREF_KEY_LAST_PLAYED_SONG_PROGRESS)
                         .commit();
@@ -198,10 +241,8 @@ public class MusicPlayerService extends Service implements MediaPlayer.OnComplet
                 stopForeground(true);
 
                 mMessageePump.broadcastMessage(Message.Type.ON_PAUSE_PLAYBACK, mCurrentSong);
-            } else {
-                playNextSong();
             }
-        }
+        });
     }
 
     public void pausePlayback() {
@@ -254,21 +295,12 @@ public class MusicPlayerService extends Service implements MediaPlayer.OnComplet
         mActionQueue.scheduleTask(new Runnable() {
             @Override
             public void run() {
-                List<Song> songList = mApp.getCurrentPlayList();
-                if (songList != null && songList.size() > 0) {
-                    int nextSongIndex = songList.indexOf(mCurrentSong);
-                    if (nextSongIndex != -1) {
-                        if (nextSongIndex < songList.size() - 1)
-                            ++nextSongIndex;
-                        else
-                            nextSongIndex = 0;
-                    }
-
-                    if (nextSongIndex == -1)
-                        nextSongIndex = 0;
+                if (!syncPlayQueue(getCurrentSongId()))
+                    return;
 
-                    playSong(songList.get(nextSongIndex), 0);
-                }
+                int position = mPlayQueue.next(false);
+                if (position != -1)
+                    playQueuedSong(position);
             }
         });
     }
@@ -277,25 +309,35 @@ public class MusicPlayerService extends Service implements MediaPlayer.OnComplet
         mActionQueue.scheduleTask(new Runnable() {
             @Override
             public void run() {
-                List<Song> songList = mApp.getCurrentPlayList();
-                if (songList != null && songList.size() > 0) {
-                    int prevSongIndex = songList.indexOf(mCurrentSong);
-                    if (prevSongIndex != -1) {
-                        if (prevSongIndex > 0)
-                            --prevSongIndex;
-                        else
-                            prevSongIndex = songList.size() - 1;
-                    }
+                if (!syncPlayQueue(getCurrentSongId()))
+                    return;
 
-                    if (prevSongIndex == -1)
-                        prevSongIndex = 0;
+                int position = mPlayQueue.prev();
+                if (position != -1)
+                    playQueuedSong(position);
+            }
+        });
+    }
 
-                    playSong(songList.get(prevSongIndex), 0);
-                }
+    /**
+     * see PlayQueue for the modes, a new shuffle starts with the song playing. the modes
+     * are not saved, the caller does.
+     */
+    public void setPlayMode(final int repeatMode, final int shuffleMode) {
+        mActionQueue.scheduleTask(new Runnable() {
+            @Override
+            public void run() {
+                syncPlayQueue(getCurrentSongId());
+                mPlayQueue.setPlayMode(repeatMode, shuffleMode);
             }
         });
     }
 
+    // read it from any thread, see PlayQueue.getSnapshot()
+    public PlayQueue getPlayQueue () {
+        return mPlayQueue;
+    }
+
     public Song getCurrentSong () {
         return mCurrentSong;
     }
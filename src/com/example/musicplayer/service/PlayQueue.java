@@ -0,0 +1,405 @@
+package com.example.musicplayer.service;
+
+import com.example.musicplayer.pojo.Song;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: neevek
+ * Date: 10/20/26
+ * Time: 2:30 PM
+ */
+
+// the order the songs of the play list are played in and where the player is in it.
+//
+// the ids of the songs are copied when the play list is set, the list itself may change
+// afterwards. setting it again with songs added or deleted carries the order over. shuffling makes a Fisher-Yates permutation of the list once, next/prev walk
+// it, so prev goes back through the songs played; it is shuffled again when repeat-all
+// wraps around. next/prev only move a cursor. SHUFFLE_SPREAD_ARTISTS spaces the songs
+// of every artist out over the permutation and then swaps apart the neighbours of one
+// artist that are left.
+//
+// the state is an immutable Snapshot that is replaced on every move, the UI reads it
+// without a lock while the service moves the queue.
+public class PlayQueue {
+    public final static int REPEAT_OFF = 0;
+    public final static int REPEAT_ALL = 1;
+    public final static int REPEAT_ONE = 2;
+
+    public final static int SHUFFLE_OFF = 0;
+    public final static int SHUFFLE_ON = 1;
+    // shuffled, without two songs of an artist in a row where it can be helped
+    public final static int SHUFFLE_SPREAD_ARTISTS = 2;
+
+    // positions looked ahead for a song of another artist, the pass after the spread stays O(n)
+    private final static int MAX_ARTIST_LOOKAHEAD = 32;
+
+    public static class Snapshot {
+        // the list it was set to, the service compares it with the current play list
+        final List<Song> playList;
+        // in list order
+        final int[] songIds;
+        final int[] artistIds;
+        // positions in play order, null for list order
+        final int[] order;
+        // index into order, -1 before the first song
+        final int cursor;
+        final int repeatMode;
+        final int shuffleMode;
+
+        Snapshot (List<Song> playList, int[] songIds, int[] artistIds, int[] order, int cursor, int repeatMode, int shuffleMode) {
+            this.playList = playList;
+            this.songIds = songIds;
+            this.artistIds = artistIds;
+            this.order = order;
+            this.cursor = cursor;
+            this.repeatMode = repeatMode;
+            this.shuffleMode = shuffleMode;
+        }
+
+        Snapshot moveTo (int cursor) {
+            return new Snapshot(playList, songIds, artistIds, order, cursor, repeatMode, shuffleMode);
+        }
+
+        public int size () {
+            return songIds.length;
+        }
+
+        // position in the list of the song at the cursor, -1 if none
+        public int getPosition () {
+            return positionAt(cursor);
+        }
+
+        public int getSongId () {
+            int position = getPosition();
+            return position != -1 ? songIds[position] : 0;
+        }
+
+        public int getRepeatMode () {
+            return repeatMode;
+        }
+
+        public int getShuffleMode () {
+            return shuffleMode;
+        }
+
+        int positionAt (int index) {
+            if (index < 0 || index >= songIds.length)
+                return -1;
+            return order != null ? order[index] : index;
+        }
+    }
+
+    private final Random mRandom;
+    private volatile Snapshot mSnapshot = new Snapshot(null, new int[0], new int[0], null, -1, REPEAT_OFF, SHUFFLE_OFF);
+
+    public PlayQueue () {
+        this(new Random());
+    }
+
+    PlayQueue (Random random) {
+        mRandom = random;
+    }
+
+    // any thread, no lock
+    public Snapshot getSnapshot () {
+        return mSnapshot;
+    }
+
+    /**
+     * plays the songs from now on. if it has songs of the current list (the same list
+     * again, or one with songs added or deleted), they keep their order, the cursor and
+     * the songs played before it; songs new to the list go into the part not played yet,
+     * a deleted song at the cursor leaves it on the one played before. otherwise the
+     * cursor is put on the song of currentSongId if it is in the list, before the first
+     * song if not, and a shuffle starts with it.
+     */
+    public synchronized void setPlayList (List<Song> playList, int currentSongId) {
+        int size = playList.size();
+        int[] songIds = new int[size];
+        int[] artistIds = new int[size];
+        int position = -1;
+        for (int i = 0; i < size; ++i) {
+            Song song = playList.get(i);
+            songIds[i] = song.id;
+            artistIds[i] = song.artistId;
+            if (song.id == currentSongId && position == -1)
+                position = i;
+        }
+
+        Snapshot snapshot = mSnapshot;
+        Snapshot changed = new Snapshot(playList, songIds, artistIds, null, -1, snapshot.repeatMode, snapshot.shuffleMode);
+        if (Arrays.equals(songIds, snapshot.songIds)) {
+            mSnapshot = new Snapshot(playList, songIds, artistIds, snapshot.order, snapshot.cursor,
+                    snapshot.repeatMode, snapshot.shuffleMode);
+        } else {
+            Snapshot remapped = remap(snapshot, changed);
+            mSnapshot = remapped != null ? remapped : order(changed, position);
+        }
+    }
+
+    public synchronized void setPlayMode (int repeatMode, int shuffleMode) {
+        Snapshot snapshot = mSnapshot;
+        Snapshot changed = new Snapshot(snapshot.playList, snapshot.songIds, snapshot.artistIds, snapshot.order,
+                snapshot.cursor, repeatMode, shuffleMode);
+        // the song at the cursor stays, a new shuffle starts with it
+        mSnapshot = shuffleMode != snapshot.shuffleMode ? order(changed, snapshot.getPosition()) : changed;
+    }
+
+    /**
+     * moves the cursor to the song picked from the list, a shuffle goes on from there.
+     *
+     * @return false if it is not in the list
+     */
+    public synchronized boolean moveToSong (int songId) {
+        Snapshot snapshot = mSnapshot;
+        if (snapshot.getSongId() == songId)
+            return true;
+
+        int[] songIds = snapshot.songIds;
+        for (int i = 0; i < songIds.length; ++i) {
+            if (songIds[i] == songId) {
+                // the played ones stay behind it, the song is swapped in right after them
+                mSnapshot = snapshot.order != null ? pickNext(snapshot, i) : snapshot.moveTo(i);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param completed the song played to its end, repeat-one plays it again and
+     *                  repeat-off stops after the last song, a skip wraps around
+     * @return the position in the list of the song to play, -1 to stop
+     */
+    public synchronized int next (boolean completed) {
+        Snapshot snapshot = mSnapshot;
+        int size = snapshot.size();
+        if (size == 0)
+            return -1;
+
+        if (completed && snapshot.repeatMode == REPEAT_ONE && snapshot.cursor != -1)
+            return snapshot.getPosition();
+
+        if (snapshot.cursor < size - 1) {
+            mSnapshot = snapshot.moveTo(snapshot.cursor + 1);
+        } else {
+            if (completed && snapshot.repeatMode == REPEAT_OFF)
+                return -1;
+            mSnapshot = snapshot.order != null ? reshuffle(snapshot) : snapshot.moveTo(0);
+        }
+        return mSnapshot.getPosition();
+    }
+
+    // back through the songs played, wraps around to the last
+    public synchronized int prev () {
+        Snapshot snapshot = mSnapshot;
+        int size = snapshot.size();
+        if (size == 0)
+            return -1;
+
+        if (snapshot.cursor == -1)
+            mSnapshot = snapshot.moveTo(0);
+        else
+            mSnapshot = snapshot.moveTo(snapshot.cursor > 0 ? snapshot.cursor - 1 : size - 1);
+        return mSnapshot.getPosition();
+    }
+
+    // holding the lock, the order of snapshot carried over to the songs of changed, null
+    // if they have no song in common
+    private Snapshot remap (Snapshot snapshot, Snapshot changed) {
+        Map<Integer, Integer> positions = new HashMap<Integer, Integer>(changed.size() * 2);
+        for (int i = changed.size() - 1; i >= 0; --i)
+            positions.put(changed.songIds[i], i);
+
+        // the new positions in the old play order, the deleted songs left out
+        int size = snapshot.size();
+        int[] order = new int[changed.size()];
+        boolean[] kept = new boolean[changed.size()];
+        int count = 0;
+        int cursor = -1;
+        for (int i = 0; i < size; ++i) {
+            Integer position = positions.get(snapshot.songIds[snapshot.positionAt(i)]);
+            if (position != null && !kept[position]) {
+                kept[position] = true;
+                order[count++] = position;
+            }
+            if (i == snapshot.cursor)
+                cursor = count - 1;
+        }
+        if (count == 0)
+            return null;
+
+        if (snapshot.order == null) {
+            // list order, the cursor goes to where the song at it is in the new list
+            return new Snapshot(changed.playList, changed.songIds, changed.artistIds, null,
+                    cursor != -1 ? order[cursor] : -1, changed.repeatMode, changed.shuffleMode);
+        }
+
+        // the songs new to the list are mixed in at random after the cursor
+        int addedCount = order.length - count;
+        if (addedCount > 0) {
+            int[] added = new int[addedCount];
+            for (int i = 0, j = 0; i < kept.length; ++i) {
+                if (!kept[i])
+                    added[j++] = i;
+            }
+            for (int i = addedCount - 1; i > 0; --i)
+                swap(added, i, mRandom.nextInt(i + 1));
+
+            int[] tail = Arrays.copyOfRange(order, cursor + 1, count);
+            int t = 0;
+            int a = 0;
+            for (int i = cursor + 1; i < order.length; ++i) {
+                // every interleaving of the two equally likely
+                if (a == addedCount || (t < tail.length && mRandom.nextInt(tail.length - t + addedCount - a) < tail.length - t))
+                    order[i] = tail[t++];
+                else
+                    order[i] = added[a++];
+            }
+
+            if (changed.shuffleMode == SHUFFLE_SPREAD_ARTISTS) {
+                for (int i = Math.max(1, cursor + 1); i < order.length; ++i)
+                    spreadArtist(order, i, changed.artistIds[order[i - 1]], changed.artistIds);
+            }
+        }
+        return new Snapshot(changed.playList, changed.songIds, changed.artistIds, order, cursor,
+                changed.repeatMode, changed.shuffleMode);
+    }
+
+    // holding the lock, list order or a new shuffle starting with the song at position
+    private Snapshot order (Snapshot snapshot, int position) {
+        if (snapshot.shuffleMode == SHUFFLE_OFF)
+            return new Snapshot(snapshot.playList, snapshot.songIds, snapshot.artistIds, null, position,
+                    snapshot.repeatMode, snapshot.shuffleMode);
+
+        int[] order = shuffle(snapshot, position);
+        return new Snapshot(snapshot.playList, snapshot.songIds, snapshot.artistIds, order, position != -1 ? 0 : -1,
+                snapshot.repeatMode, snapshot.shuffleMode);
+    }
+
+    // holding the lock, the next round of repeat-all, not starting with the song just played
+    private Snapshot reshuffle (Snapshot snapshot) {
+        int lastPosition = snapshot.getPosition();
+        int[] order = shuffle(snapshot, -1);
+        if (order.length > 1 && order[0] == lastPosition)
+            swap(order, 0, 1 + mRandom.nextInt(order.length - 1));
+        if (snapshot.shuffleMode == SHUFFLE_SPREAD_ARTISTS && lastPosition != -1)
+            spreadArtist(order, 0, snapshot.artistIds[lastPosition], snapshot.artistIds);
+        return new Snapshot(snapshot.playList, snapshot.songIds, snapshot.artistIds, order, 0,
+                snapshot.repeatMode, snapshot.shuffleMode);
+    }
+
+    // holding the lock, the song at position is swapped in after the cursor and played next
+    private Snapshot pickNext (Snapshot snapshot, int position) {
+        int[] order = snapshot.order;
+        int index = 0;
+        while (order[index] != position)
+            ++index;
+
+        int cursor = snapshot.cursor + 1;
+        // a song played already is not moved, the shuffle goes on from it
+        if (index < cursor)
+            return snapshot.moveTo(index);
+
+        order = Arrays.copyOf(order, order.length);
+        swap(order, index, cursor);
+        return new Snapshot(snapshot.playList, snapshot.songIds, snapshot.artistIds, order, cursor,
+                snapshot.repeatMode, snapshot.shuffleMode);
+    }
+
+    // Fisher-Yates over all positions, the one at first (if not -1) is put first
+    private int[] shuffle (Snapshot snapshot, int first) {
+        int size = snapshot.size();
+        int[] order = new int[size];
+        for (int i = 0; i < size; ++i)
+            order[i] = i;
+        for (int i = size - 1; i > 0; --i)
+            swap(order, i, mRandom.nextInt(i + 1));
+
+        boolean spread = snapshot.shuffleMode == SHUFFLE_SPREAD_ARTISTS;
+        if (spread)
+            spreadArtists(order, snapshot.artistIds);
+
+        if (first != -1) {
+            int index = 0;
+            while (order[index] != first)
+                ++index;
+            // shifted, not swapped, so the spread stays
+            System.arraycopy(order, 0, order, 1, index);
+            order[0] = first;
+        }
+
+        // what the spread could not keep apart
+        if (spread) {
+            int[] artistIds = snapshot.artistIds;
+            for (int i = 1; i < size; ++i)
+                spreadArtist(order, i, artistIds[order[i - 1]], artistIds);
+        }
+        return order;
+    }
+
+    // spaces the songs of every artist evenly over the order: the k-th of the c songs of
+    // an artist (in shuffled order) goes to (k + offset) / c, with a random offset per
+    // artist so the artists interleave differently every time. songs without an artist
+    // go anywhere. O(n log n)
+    private void spreadArtists (int[] order, int[] artistIds) {
+        int size = order.length;
+        Map<Integer, int[]> artists = new HashMap<Integer, int[]>();
+        for (int i = 0; i < size; ++i) {
+            int artistId = artistIds[order[i]];
+            if (artistId == 0)
+                continue;
+            // {song count, songs seen, random offset bits}
+            int[] artist = artists.get(artistId);
+            if (artist == null) {
+                artist = new int[] { 0, 0, Float.floatToIntBits(mRandom.nextFloat()) };
+                artists.put(artistId, artist);
+            }
+            ++artist[0];
+        }
+
+        // the key in the high half, it is a positive float so its bits sort like it
+        long[] keyed = new long[size];
+        for (int i = 0; i < size; ++i) {
+            int artistId = artistIds[order[i]];
+            float key;
+            if (artistId == 0) {
+                key = mRandom.nextFloat();
+            } else {
+                int[] artist = artists.get(artistId);
+                key = (artist[1]++ + Float.intBitsToFloat(artist[2])) / artist[0];
+            }
+            keyed[i] = ((long)Float.floatToIntBits(key) << 32) | order[i];
+        }
+        Arrays.sort(keyed);
+        for (int i = 0; i < size; ++i)
+            order[i] = (int)keyed[i];
+    }
+
+    // makes order[index] a song not of the artist, with one of the next few if it is.
+    // songs without an artist (id 0) are not kept apart
+    private static void spreadArtist (int[] order, int index, int artistId, int[] artistIds) {
+        if (artistId == 0 || artistIds[order[index]] != artistId)
+            return;
+
+        int end = Math.min(order.length, index + 1 + MAX_ARTIST_LOOKAHEAD);
+        for (int i = index + 1; i < end; ++i) {
+            if (artistIds[order[i]] != artistId) {
+                swap(order, index, i);
+                return;
+            }
+        }
+    }
+
+    private static void swap (int[] array, int i, int j) {
+        int tmp = array[i];
+        array[i] = array[j];
+        array[j] = tmp;
+    }
+}
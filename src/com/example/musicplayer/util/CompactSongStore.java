@@ -0,0 +1,333 @@
+package com.example.musicplayer.util;
+
+import com.example.musicplayer.pojo.Song;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.Set;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: neevek
+ * Date: 10/19/26
+ * Time: 9:40 PM
+ */
+
+// a list of songs kept column by column: the numbers of every song in int arrays, the
+// strings in a pool where every distinct one is kept once, so the artist/album of the
+// songs of an artist/album and the directory of the songs of a directory are shared
+// instead of read into a String per song, and no Song object is kept per row. see
+// CompactSongStoreBenchmark for what it saves.
+//
+// it does not change, patch() makes a new one. read it by position, or hand asList()
+// to whoever wants a List<Song>, it makes a Song per get().
+public class CompactSongStore {
+    // sample rate high bit
+    private final static int VBR_FLAG = 0x80000000;
+
+    private final int mSize;
+    private final int[] mIds;
+    private final int[] mArtistIds;
+    private final int[] mAlbumIds;
+    private final int[] mDurations;
+    private final int[] mBitrates;
+    private final int[] mSampleRates;
+    // indexes into mPool
+    private final int[] mTitles;
+    private final int[] mArtists;
+    private final int[] mAlbums;
+    // a path is kept as its directory and its file name, the songs of a directory share the first
+    private final int[] mDirs;
+    private final int[] mFileNames;
+    private final String[] mPool;
+
+    // the ids in ascending order and the positions of their songs, for indexOf()
+    private final int[] mSortedIds;
+    private final int[] mSortedIdPositions;
+
+    private final List<Song> mListView = new SongListView();
+
+    // the songs in list order
+    public CompactSongStore (List<Song> songs) {
+        this(new Builder(songs.size()).addAll(songs));
+    }
+
+    private CompactSongStore (Builder builder) {
+        mSize = builder.mSize;
+        mIds = Arrays.copyOf(builder.mIds, mSize);
+        mArtistIds = Arrays.copyOf(builder.mArtistIds, mSize);
+        mAlbumIds = Arrays.copyOf(builder.mAlbumIds, mSize);
+        mDurations = Arrays.copyOf(builder.mDurations, mSize);
+        mBitrates = Arrays.copyOf(builder.mBitrates, mSize);
+        mSampleRates = Arrays.copyOf(builder.mSampleRates, mSize);
+        mTitles = Arrays.copyOf(builder.mTitles, mSize);
+        mArtists = Arrays.copyOf(builder.mArtists, mSize);
+        mAlbums = Arrays.copyOf(builder.mAlbums, mSize);
+        mDirs = Arrays.copyOf(builder.mDirs, mSize);
+        mFileNames = Arrays.copyOf(builder.mFileNames, mSize);
+        mPool = builder.mPool.toArray(new String[builder.mPool.size()]);
+
+        // id in the high half, position in the low half, sorted as one long
+        long[] idPositions = new long[mSize];
+        for (int i = 0; i < mSize; ++i)
+            idPositions[i] = ((long)mIds[i] << 32) | i;
+        Arrays.sort(idPositions);
+        mSortedIds = new int[mSize];
+        mSortedIdPositions = new int[mSize];
+        for (int i = 0; i < mSize; ++i) {
+            mSortedIds[i] = (int)(idPositions[i] >> 32);
+            mSortedIdPositions[i] = (int)idPositions[i];
+        }
+    }
+
+    public int size () {
+        return mSize;
+    }
+
+    public int getId (int position) {
+        return mIds[position];
+    }
+
+    public String getTitle (int position) {
+        return mPool[mTitles[position]];
+    }
+
+    public String getArtist (int position) {
+        return mPool[mArtists[position]];
+    }
+
+    public int getArtistId (int position) {
+        return mArtistIds[position];
+    }
+
+    public String getAlbum (int position) {
+        return mPool[mAlbums[position]];
+    }
+
+    public int getAlbumId (int position) {
+        return mAlbumIds[position];
+    }
+
+    public int getDuration (int position) {
+        return mDurations[position];
+    }
+
+    // a String of its own every time
+    public String getFilePath (int position) {
+        return mPool[mDirs[position]].concat(mPool[mFileNames[position]]);
+    }
+
+    // a Song of its own, for whoever keeps it
+    public Song getSong (int position) {
+        Song song = new Song(mIds[position], getTitle(position), mArtistIds[position], getArtist(position),
+                mAlbumIds[position], getAlbum(position), mDurations[position], getFilePath(position));
+        song.bitrate = mBitrates[position];
+        song.sampleRate = mSampleRates[position] & ~VBR_FLAG;
+        song.vbr = (mSampleRates[position] & VBR_FLAG) != 0;
+        return song;
+    }
+
+    // -1 if the song is not in the store
+    public int indexOfId (int songId) {
+        int index = Arrays.binarySearch(mSortedIds, songId);
+        return index >= 0 ? mSortedIdPositions[index] : -1;
+    }
+
+    /**
+     * a read-only List of the songs, get() makes a Song, indexOf() looks the id up.
+     * it can be the play list, it does not change under the player.
+     */
+    public List<Song> asList () {
+        return mListView;
+    }
+
+    /**
+     * a store of these songs without the deleted and the changed ones, and the changed
+     * (or new) ones put where the list order puts them.
+     */
+    public CompactSongStore patch (List<Song> changedSongs, List<Integer> deletedSongIds) {
+        Set<Integer> droppedIds = new HashSet<Integer>(deletedSongIds);
+        for (int i = 0; i < changedSongs.size(); ++i)
+            droppedIds.add(changedSongs.get(i).id);
+
+        int[] kept = new int[mSize];
+        int keptCount = 0;
+        for (int i = 0; i < mSize; ++i) {
+            if (!droppedIds.contains(mIds[i]))
+                kept[keptCount++] = i;
+        }
+
+        List<Song> inserted = new ArrayList<Song>(changedSongs);
+        Collections.sort(inserted, Util.SONG_ORDER);
+
+        Builder builder = new Builder(keptCount + inserted.size());
+        int next = 0;
+        for (int i = 0; i < inserted.size(); ++i) {
+            Song song = inserted.get(i);
+            int end = insertionPoint(kept, next, keptCount, song);
+            for (; next < end; ++next)
+                builder.add(this, kept[next]);
+            builder.add(song);
+        }
+        for (; next < keptCount; ++next)
+            builder.add(this, kept[next]);
+        return new CompactSongStore(builder);
+    }
+
+    // the first of kept[from, to) that goes after the song, compared on the columns
+    // without making a Song per step
+    private int insertionPoint (int[] kept, int from, int to, Song song) {
+        while (from < to) {
+            int mid = (from + to) >>> 1;
+            int position = kept[mid];
+            if (Util.compareSongOrder(getTitle(position), mIds[position], song.title, song.id) < 0)
+                from = mid + 1;
+            else
+                to = mid;
+        }
+        return from;
+    }
+
+    // bytes of heap the store takes, arrays and distinct strings, 4 byte references
+    public long estimateHeapSize () {
+        long size = 11 * arraySize(mSize, 4) + 2 * arraySize(mSize, 4) + arraySize(mPool.length, 4);
+        for (int i = 0; i < mPool.length; ++i)
+            size += stringSize(mPool[i]);
+        return size;
+    }
+
+    // the same for a List<Song> of these songs read from the database, where every
+    // song has Strings of its own
+    public long estimateSongListHeapSize () {
+        // ArrayList + its array + a Song per row, 6 ints, a boolean and 4 references
+        long size = 24 + arraySize(mSize, 4) + (long)mSize * align(12 + 6 * 4 + 1 + 4 * 4);
+        for (int i = 0; i < mSize; ++i)
+            size += stringSize(getTitle(i)) + stringSize(getArtist(i)) + stringSize(getAlbum(i)) + stringSize(getFilePath(i));
+        return size;
+    }
+
+    private static long arraySize (int length, int elementSize) {
+        return align(16 + (long)length * elementSize);
+    }
+
+    // a String and its char array
+    private static long stringSize (String s) {
+        return 24 + arraySize(s.length(), 2);
+    }
+
+    private static long align (long size) {
+        return (size + 7) & ~7;
+    }
+
+    private class SongListView extends AbstractList<Song> implements RandomAccess {
+        @Override
+        public Song get(int location) {
+            if (location < 0 || location >= mSize)
+                throw new IndexOutOfBoundsException("index " + location + ", size " + mSize);
+            return getSong(location);
+        }
+
+        @Override
+        public int size() {
+            return mSize;
+        }
+
+        // Song equals by id
+        @Override
+        public int indexOf(Object object) {
+            return object instanceof Song ? indexOfId(((Song)object).id) : -1;
+        }
+
+        @Override
+        public boolean contains(Object object) {
+            return indexOf(object) != -1;
+        }
+    }
+
+    // the columns of a store while it is made, every string goes into the pool once
+    private static class Builder {
+        private int mSize;
+        private int[] mIds;
+        private int[] mArtistIds;
+        private int[] mAlbumIds;
+        private int[] mDurations;
+        private int[] mBitrates;
+        private int[] mSampleRates;
+        private int[] mTitles;
+        private int[] mArtists;
+        private int[] mAlbums;
+        private int[] mDirs;
+        private int[] mFileNames;
+        private final List<String> mPool = new ArrayList<String>();
+        private final Map<String, Integer> mPoolIndexes = new HashMap<String, Integer>();
+
+        Builder (int capacity) {
+            mIds = new int[capacity];
+            mArtistIds = new int[capacity];
+            mAlbumIds = new int[capacity];
+            mDurations = new int[capacity];
+            mBitrates = new int[capacity];
+            mSampleRates = new int[capacity];
+            mTitles = new int[capacity];
+            mArtists = new int[capacity];
+            mAlbums = new int[capacity];
+            mDirs = new int[capacity];
+            mFileNames = new int[capacity];
+        }
+
+        Builder addAll (List<Song> songs) {
+            for (int i = 0; i < songs.size(); ++i)
+                add(songs.get(i));
+            return this;
+        }
+
+        void add (Song song) {
+            add(song.id, song.title, song.artistId, song.artist, song.albumId, song.album, song.duration,
+                    song.filePath, song.bitrate, song.vbr ? song.sampleRate | VBR_FLAG : song.sampleRate);
+        }
+
+        void add (CompactSongStore store, int position) {
+            add(store.mIds[position], store.getTitle(position), store.mArtistIds[position], store.getArtist(position),
+                    store.mAlbumIds[position], store.getAlbum(position), store.mDurations[position],
+                    store.getFilePath(position), store.mBitrates[position], store.mSampleRates[position]);
+        }
+
+        private void add (int id, String title, int artistId, String artist, int albumId, String album, int duration,
+                          String filePath, int bitrate, int sampleRate) {
+            int i = mSize++;
+            mIds[i] = id;
+            mTitles[i] = intern(title);
+            mArtistIds[i] = artistId;
+            mArtists[i] = intern(artist);
+            mAlbumIds[i] = albumId;
+            mAlbums[i] = intern(album);
+            mDurations[i] = duration;
+            if (filePath == null)
+                filePath = "";
+            int nameStart = filePath.lastIndexOf('/') + 1;
+            mDirs[i] = intern(filePath.substring(0, nameStart));
+            mFileNames[i] = intern(filePath.substring(nameStart));
+            mBitrates[i] = bitrate;
+            mSampleRates[i] = sampleRate;
+        }
+
+        private int intern (String s) {
+            if (s == null)
+                s = "";
+            Integer index = mPoolIndexes.get(s);
+            if (index == null) {
+                index = mPool.size();
+                mPool.add(s);
+                mPoolIndexes.put(s, index);
+            }
+            return index;
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.example.musicplayer.util;
+
+import java.io.UnsupportedEncodingException;
+import java.text.Collator;
+import java.util.Locale;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: neevek
+ * Date: 10/19/26
+ * Time: 4:20 PM
+ */
+
+// the first letters of the pinyin of the chinese characters and of the latin words
+// of a string, "周杰伦" -> "zjl", "Hey Jude" -> "hj", so typing a few letters finds a song.
+//
+// the 3755 common characters of GB2312 (0xB0A1-0xD7F9) are ordered by their pinyin,
+// the letter of a character is found by where its GB2312 code falls between the first
+// codes of the letters below. the rarer characters are placed between the first
+// characters of the letters with the collator of Locale.CHINA, which orders by pinyin
+// on the device (ICU), but not on every JVM, so it is only used if it passes a check.
+// characters found by neither have no letter and are left out.
+public class PinyinInitials {
+    private final static int[] LETTER_START_CODES = {
+            0xB0A1, 0xB0C5, 0xB2C1, 0xB4EE, 0xB6EA, 0xB7A2, 0xB8C1, 0xB9FE, 0xBBF7, 0xBFA6, 0xC0AC, 0xC2E8,
+            0xC4C3, 0xC5B6, 0xC5BE, 0xC6DA, 0xC8BB, 0xC8F6, 0xCBFA, 0xCDDA, 0xCEF4, 0xD1B9, 0xD4D1,
+    };
+    // no pinyin starts with i, u or v
+    private final static char[] LETTERS = "abcdefghjklmnopqrstwxyz".toCharArray();
+    private final static int LAST_CODE = 0xD7F9;
+    // the first GB2312 character of each letter
+    private final static String[] LETTER_START_CHARS = {
+            "啊", "芭", "擦", "搭", "蛾", "发", "噶", "哈", "击", "喀", "垃", "妈",
+            "拿", "哦", "啪", "期", "然", "撒", "塌", "挖", "昔", "压", "匝",
+    };
+
+    // null if it does not order by pinyin
+    private final static Collator mPinyinCollator = createPinyinCollator();
+
+    private static Collator createPinyinCollator () {
+        Collator collator = Collator.getInstance(Locale.CHINA);
+        for (int i = 1; i < LETTER_START_CHARS.length; ++i) {
+            if (collator.compare(LETTER_START_CHARS[i - 1], LETTER_START_CHARS[i]) >= 0)
+                return null;
+        }
+        // 奕 (yi) and 鑫 (xin) are not among the common characters
+        if (collator.compare("奕", "压") < 0 || collator.compare("奕", "匝") >= 0
+                || collator.compare("鑫", "昔") < 0 || collator.compare("鑫", "压") >= 0)
+            return null;
+        return collator;
+    }
+
+    public static String of (String s) {
+        if (s == null)
+            return "";
+
+        StringBuilder sb = new StringBuilder();
+        boolean inWord = false;
+        for (int i = 0; i < s.length(); ++i) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                boolean letterOrDigit = Character.isLetterOrDigit(c);
+                if (letterOrDigit && !inWord)
+                    sb.append(Character.toLowerCase(c));
+                inWord = letterOrDigit;
+            } else {
+                inWord = false;
+                if (c >= 0x4E00 && c <= 0x9FA5) {
+                    char letter = letterOf(c);
+                    if (letter != 0)
+                        sb.append(letter);
+                }
+            }
+        }
+        return sb.toString();
+    }
+
+    // 0 if no letter was found
+    private static char letterOf (char c) {
+        byte[] bytes;
+        try {
+            bytes = String.valueOf(c).getBytes("GB2312");
+        } catch (UnsupportedEncodingException e) {
+            return 0;
+        }
+        int code = bytes.length == 2 ? ((bytes[0] & 0xff) << 8) | (bytes[1] & 0xff) : 0;
+        if (code < LETTER_START_CODES[0] || code > LAST_CODE)
+            return collatedLetterOf(c);
+
+        int letter = LETTER_START_CODES.length - 1;
+        while (code < LETTER_START_CODES[letter])
+            --letter;
+        return LETTERS[letter];
+    }
+
+    private static char collatedLetterOf (char c) {
+        if (mPinyinCollator == null)
+            return 0;
+
+        String s = String.valueOf(c);
+        synchronized (mPinyinCollator) {
+            if (mPinyinCollator.compare(s, LETTER_START_CHARS[0]) < 0)
+                return 0;
+            int letter = LETTER_START_CHARS.length - 1;
+            while (mPinyinCollator.compare(s, LETTER_START_CHARS[letter]) < 0)
+                --letter;
+            return LETTERS[letter];
+        }
+    }
+}
@@ -1,15 +1,10 @@
 package com.example.musicplayer.util;
 
-import com.example.musicplayer.pojo.Album;
-import com.example.musicplayer.pojo.Artist;
 import com.example.musicplayer.pojo.Song;
-import com.example.musicplayer.pojo.SongGroup;
 
 import java.text.Collator;
 import java.text.RuleBasedCollator;
-import java.util.Collections;
 import java.util.Comparator;
-import java.util.List;
 import java.util.Locale;
 import java.util.regex.Pattern;
 
@@ -75,30 +70,29 @@ public class Util {
 
     private static RuleBasedCollator mChineseSortCollator = (RuleBasedCollator)Collator.getInstance(Locale.CHINA);
 
-    public static void sortSongList (List<Song> songList) {
-        Collections.sort(songList, new Comparator<Song>() {
-            @Override
-            public int compare(Song lhs, Song rhs) {
-                return mChineseSortCollator.compare(lhs.title, rhs.title);
-            }
-        });
+    // the collation key of the string in bytes. comparing two keys byte by byte (unsigned)
+    // gives the order the collator gives the strings, so SQLite sorts a BLOB column of
+    // them with a plain memcmp(), see the *_key columns in MusicPlayerDBHelper
+    public static byte[] getSortKey (String s) {
+        synchronized (mChineseSortCollator) {
+            return mChineseSortCollator.getCollationKey(s != null ? s : "").toByteArray();
+        }
     }
 
-    public static void sortAlbumList (List<Album> albumList) {
-        Collections.sort(albumList, new Comparator<Album>() {
-            @Override
-            public int compare(Album lhs, Album rhs) {
-                return mChineseSortCollator.compare(lhs.name, rhs.name);
-            }
-        });
-    }
+    // the order of "ORDER BY title_key, _id", for songs that are placed into a loaded list by hand
+    public final static Comparator<Song> SONG_ORDER = new Comparator<Song>() {
+        @Override
+        public int compare(Song lhs, Song rhs) {
+            return compareSongOrder(lhs.title, lhs.id, rhs.title, rhs.id);
+        }
+    };
 
-    public static void sortArtistList (List<Artist> albumList) {
-        Collections.sort(albumList, new Comparator<Artist>() {
-            @Override
-            public int compare(Artist lhs, Artist rhs) {
-                return mChineseSortCollator.compare(lhs.name, rhs.name);
-            }
-        });
+    // SONG_ORDER on the title and id of two songs, without Songs
+    public static int compareSongOrder (String lhsTitle, int lhsId, String rhsTitle, int rhsId) {
+        int result;
+        synchronized (mChineseSortCollator) {
+            result = mChineseSortCollator.compare(lhsTitle, rhsTitle);
+        }
+        return result != 0 ? result : (lhsId < rhsId ? -1 : (lhsId == rhsId ? 0 : 1));
     }
 }
@@ -0,0 +1,131 @@
+package com.example.musicplayer.db;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+import android.util.Log;
+import com.example.musicplayer.pojo.Song;
+import com.example.musicplayer.pojo.SongMetadata;
+import com.example.musicplayer.util.CompactSongStore;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: neevek
+ * Date: 10/21/26
+ * Time: 8:30 PM
+ */
+
+// heap the list of all songs takes on a library of SONG_COUNT songs: what the app keeps
+// after it loaded the list (the CompactSongStore of the SongListCache and the
+// LibraryIndex the DAO made on it) against the List<Song> read from the database, which
+// the index kept next to the store before. measured as the growth of the used heap
+// after a GC, next to the estimates. runs on an in-memory database seeded with songs
+// that share their artists, albums and directories the way a real library does.
+//
+//   adb shell am instrument -w -e class com.example.musicplayer.db.CompactSongStoreBenchmark \
+//       com.example.musicplayer.tests/android.test.InstrumentationTestRunner
+public class CompactSongStoreBenchmark extends AndroidTestCase {
+    private final static String TAG = CompactSongStoreBenchmark.class.getSimpleName();
+
+    private final static int SONG_COUNT = 50000;
+    private final static int ARTIST_COUNT = 2000;
+    private final static int ALBUMS_PER_ARTIST = 3;
+
+    private final static String SQL_SELECT_ALL_SONGS = "SELECT _id, title, artist_id, artist, album_id, album, duration, " +
+            "file_path, bitrate, sample_rate, vbr FROM song_info ORDER BY title_key, _id";
+
+    private MusicPlayerDBHelper mDbHelper;
+    private MusicPlayerDAO mMusicPlayerDAO;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        // no name, in memory
+        mDbHelper = new MusicPlayerDBHelper(getContext(), null);
+        mMusicPlayerDAO = new MusicPlayerDAO(mDbHelper);
+        seed(mMusicPlayerDAO);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDbHelper.close();
+        super.tearDown();
+    }
+
+    public void testRetainedHeap () {
+        long baseHeap = getUsedHeap();
+        SongListCache songListCache = new SongListCache(mMusicPlayerDAO);
+        CompactSongStore store = songListCache.get(true);
+        long storeHeap = getUsedHeap() - baseHeap;
+
+        List<Song> songs = readSongs(mDbHelper.getReadableDatabase());
+        long songListHeap = getUsedHeap() - baseHeap - storeHeap;
+
+        StringBuilder report = new StringBuilder();
+        report.append("all songs heap, ").append(store.size()).append(" songs, List<Song> -> store + index\n");
+        appendRow(report, "measured", songListHeap, storeHeap);
+        appendRow(report, "estimated", store.estimateSongListHeapSize(), songListCache.getRetainedSize());
+        Log.i(TAG, report.toString());
+
+        assertEquals(SONG_COUNT, store.size());
+        assertEquals(store.size(), songs.size());
+        assertTrue(store.estimateHeapSize() < store.estimateSongListHeapSize());
+        assertTrue("store + index " + storeHeap + " bytes, List<Song> " + songListHeap + " bytes", storeHeap < songListHeap);
+    }
+
+    // ARTIST_COUNT artists of ALBUMS_PER_ARTIST albums, a directory per album
+    private static void seed (MusicPlayerDAO dao) {
+        LibraryBatchWriter batchWriter = dao.openBatchWriter(1);
+        try {
+            for (int i = 0; i < SONG_COUNT; ++i) {
+                int artist = i % ARTIST_COUNT;
+                int album = i / ARTIST_COUNT % ALBUMS_PER_ARTIST;
+                String artistName = "Artist " + artist;
+                String albumName = artistName + " Album " + album;
+                SongMetadata song = new SongMetadata("/sdcard/Music/" + artistName + "/" + albumName + "/" + i + " Track.mp3",
+                        "Track " + i, artistName, albumName, 180000 + i % 60000);
+                song.bitrate = 320000;
+                song.sampleRate = 44100;
+                batchWriter.add(song);
+            }
+        } finally {
+            batchWriter.close();
+        }
+    }
+
+    // every row into Strings of its own, the way the DAO reads a cursor
+    private static List<Song> readSongs (SQLiteDatabase db) {
+        List<Song> songs = new ArrayList<Song>();
+        Cursor cursor = db.rawQuery(SQL_SELECT_ALL_SONGS, null);
+        try {
+            while (cursor.moveToNext())
+                songs.add(MusicPlayerDAO.readSong(cursor));
+        } finally {
+            cursor.close();
+        }
+        return songs;
+    }
+
+    private static void appendRow (StringBuilder report, String name, long songListHeap, long storeHeap) {
+        report.append(name).append(": ").append(songListHeap / 1024).append("KB -> ").append(storeHeap / 1024).append("KB");
+        if (songListHeap > 0)
+            report.append(", -").append(100 - storeHeap * 100 / songListHeap).append('%');
+        report.append('\n');
+    }
+
+    private static long getUsedHeap () {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; ++i) {
+            System.gc();
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,219 @@
+package com.example.musicplayer.db;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.test.AndroidTestCase;
+import android.util.Log;
+import com.example.musicplayer.pojo.Song;
+import com.example.musicplayer.pojo.SongMetadata;
+import com.example.musicplayer.util.Util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: neevek
+ * Date: 10/19/26
+ * Time: 11:00 AM
+ */
+
+// micro-benchmark of the hot MusicPlayerDAO calls: the SQL of the DAO with its values
+// written into the text, compiled again on every call as it was before, against the
+// same SQL with bound arguments the way the DAO runs it now. both sides read the same
+// columns into Songs, the song lists are read past QueryCache and LibraryIndex so the
+// database is what is measured. runs on an in-memory database seeded with SONG_COUNT
+// songs and logs the average cost per call.
+//
+//   adb shell am instrument -w -e class com.example.musicplayer.db.DAOBenchmark \
+//       com.example.musicplayer.tests/android.test.InstrumentationTestRunner
+public class DAOBenchmark extends AndroidTestCase {
+    private final static String TAG = DAOBenchmark.class.getSimpleName();
+
+    private final static int SONG_COUNT = 2000;
+    private final static int ARTIST_COUNT = 50;
+    private final static int ALBUM_COUNT = 200;
+    private final static int ITERATIONS = 500;
+
+    private MusicPlayerDBHelper mDbHelper;
+    private MusicPlayerDAO mMusicPlayerDAO;
+    private SQLiteDatabase mDb;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        // no name, in memory
+        mDbHelper = new MusicPlayerDBHelper(getContext(), null);
+        mMusicPlayerDAO = new MusicPlayerDAO(mDbHelper);
+        mDb = mDbHelper.getWritableDatabase();
+        seed(mMusicPlayerDAO, SONG_COUNT);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDbHelper.close();
+        super.tearDown();
+    }
+
+    public void testCostPerCall () {
+        StringBuilder report = new StringBuilder();
+        report.append("DAO benchmark, ").append(SONG_COUNT).append(" songs, ").append(ITERATIONS).append(" calls each, ns/call string-built -> bound\n");
+
+        // a round of each first, so neither side pays for warming up the connection
+        runLegacyGetSongById(1);
+        runGetSongById(1);
+        report("getSongById", runLegacyGetSongById(ITERATIONS), runGetSongById(ITERATIONS), report);
+        report("getSongsByAlbumId", runLegacyGetSongs(MusicPlayerDAO.SQL_SELECT_SONGS_BY_ALBUM_ID, ALBUM_COUNT, ITERATIONS),
+                runGetSongs(MusicPlayerDAO.SQL_SELECT_SONGS_BY_ALBUM_ID, ALBUM_COUNT, ITERATIONS), report);
+        report("getSongsByArtistId", runLegacyGetSongs(MusicPlayerDAO.SQL_SELECT_SONGS_BY_ARTIST_ID, ARTIST_COUNT, ITERATIONS),
+                runGetSongs(MusicPlayerDAO.SQL_SELECT_SONGS_BY_ARTIST_ID, ARTIST_COUNT, ITERATIONS), report);
+        report("getAllMusicCount", runLegacyCount(ITERATIONS), runCount(ITERATIONS), report);
+        report("addArtist", runLegacyAddArtist(ITERATIONS), runAddArtist(ITERATIONS), report);
+        Log.i(TAG, report.toString());
+
+        // both sides read the same rows
+        for (int i = 1; i <= ALBUM_COUNT; ++i) {
+            String arg = String.valueOf(i);
+            assertEquals(getIds(querySongs(bind(MusicPlayerDAO.SQL_SELECT_SONGS_BY_ALBUM_ID, arg))),
+                    getIds(mMusicPlayerDAO.querySongs(MusicPlayerDAO.SQL_SELECT_SONGS_BY_ALBUM_ID, new String[]{ arg })));
+        }
+        assertEquals(SONG_COUNT, mMusicPlayerDAO.getAllMusicCount());
+    }
+
+    private static void report (String name, long legacyNanos, long nanos, StringBuilder report) {
+        report.append(name).append(": ").append(legacyNanos).append(" -> ").append(nanos).append('\n');
+    }
+
+    private static void seed (MusicPlayerDAO dao, int songCount) {
+        LibraryBatchWriter batchWriter = dao.openBatchWriter(1);
+        try {
+            for (int i = 0; i < songCount; ++i) {
+                SongMetadata song = new SongMetadata("/sdcard/benchmark/" + i + ".mp3", "title " + i,
+                        "artist " + (i % ARTIST_COUNT), "album " + (i % ALBUM_COUNT), 180000);
+                batchWriter.add(song);
+            }
+        } finally {
+            batchWriter.close();
+        }
+        dao.analyze();
+    }
+
+    // the value written into the text, a new statement for every value
+    private static String bind (String sql, String value) {
+        return sql.replace("?", value);
+    }
+
+    private long runLegacyGetSongById (int iterations) {
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; ++i) {
+            Cursor cursor = mDb.rawQuery(bind(MusicPlayerDAO.SQL_SELECT_SONG_BY_ID, String.valueOf(i % SONG_COUNT + 1)), null);
+            try {
+                if (cursor.moveToFirst())
+                    MusicPlayerDAO.readSong(cursor);
+            } finally {
+                cursor.close();
+            }
+        }
+        return (System.nanoTime() - start) / iterations;
+    }
+
+    private long runGetSongById (int iterations) {
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; ++i)
+            mMusicPlayerDAO.getSongById(i % SONG_COUNT + 1);
+        return (System.nanoTime() - start) / iterations;
+    }
+
+    private long runLegacyGetSongs (String sql, int idCount, int iterations) {
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; ++i)
+            querySongs(bind(sql, String.valueOf(i % idCount + 1)));
+        return (System.nanoTime() - start) / iterations;
+    }
+
+    // what getSongsByAlbumId()/getSongsByArtistId() run when neither cache has the list
+    private long runGetSongs (String sql, int idCount, int iterations) {
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; ++i)
+            mMusicPlayerDAO.querySongs(sql, new String[]{ String.valueOf(i % idCount + 1) });
+        return (System.nanoTime() - start) / iterations;
+    }
+
+    private List<Song> querySongs (String sql) {
+        List<Song> list = new ArrayList<Song>();
+        Cursor cursor = mDb.rawQuery(sql, null);
+        try {
+            while (cursor.moveToNext())
+                list.add(MusicPlayerDAO.readSong(cursor));
+        } finally {
+            cursor.close();
+        }
+        return list;
+    }
+
+    // a statement made for every call instead of the one the DAO keeps, nothing to bind
+    private long runLegacyCount (int iterations) {
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; ++i) {
+            SQLiteStatement statement = mDb.compileStatement(MusicPlayerDAO.SQL_COUNT_SONGS);
+            try {
+                statement.simpleQueryForLong();
+            } finally {
+                statement.close();
+            }
+        }
+        return (System.nanoTime() - start) / iterations;
+    }
+
+    private long runCount (int iterations) {
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; ++i)
+            mMusicPlayerDAO.getAllMusicCount();
+        return (System.nanoTime() - start) / iterations;
+    }
+
+    // new names, the insert is not ignored. the statement the DAO keeps compiled, made
+    // and compiled for every name
+    private long runLegacyAddArtist (int iterations) {
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; ++i) {
+            String name = "legacy artist " + i;
+            SQLiteStatement statement = mDb.compileStatement(MusicPlayerDAO.SQL_INSERT_ARTIST
+                    .replaceFirst("\\?", "'" + Util.escapeDBSingleQuotes(name) + "'")
+                    .replaceFirst("\\?", toBlobLiteral(Util.getSortKey(name))));
+            try {
+                statement.executeInsert();
+            } finally {
+                statement.close();
+            }
+        }
+        return (System.nanoTime() - start) / iterations;
+    }
+
+    private long runAddArtist (int iterations) {
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; ++i)
+            mMusicPlayerDAO.addArtist("new artist " + i);
+        return (System.nanoTime() - start) / iterations;
+    }
+
+    private final static char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
+    private static String toBlobLiteral (byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2 + 3);
+        sb.append("X'");
+        for (int i = 0; i < bytes.length; ++i) {
+            sb.append(HEX_DIGITS[(bytes[i] >> 4) & 0xf]);
+            sb.append(HEX_DIGITS[bytes[i] & 0xf]);
+        }
+        return sb.append('\'').toString();
+    }
+
+    private static List<Integer> getIds (List<Song> songs) {
+        List<Integer> ids = new ArrayList<Integer>(songs.size());
+        for (int i = 0; i < songs.size(); ++i)
+            ids.add(songs.get(i).id);
+        return ids;
+    }
+}
@@ -0,0 +1,189 @@
+package com.example.musicplayer.scan;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: neevek
+ * Date: 10/21/26
+ * Time: 3:20 PM
+ */
+
+// ChangeCoalescer fed by a fake event source, runs on a plain JVM
+public class ChangeCoalescerTest extends TestCase {
+    private FakeEventSource mEventSource;
+    private RecordingSink mSink;
+    private ChangeCoalescer mChangeCoalescer;
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (mChangeCoalescer != null)
+            mChangeCoalescer.stop();
+    }
+
+    public void testBurstIsDeliveredOnceItIsQuiet () throws InterruptedException {
+        start(100, 10000, 500);
+        mEventSource.fire(ChangeEventSource.CHANGED, "/m/a.mp3");
+        mEventSource.fire(ChangeEventSource.CHANGED, "/m/b.mp3");
+        Thread.sleep(50);
+        long lastEventTime = System.currentTimeMillis();
+        mEventSource.fire(ChangeEventSource.CHANGED, "/m/a.mp3");
+
+        assertEquals(Arrays.asList("/m/a.mp3", "/m/b.mp3"), mSink.awaitBatch(2000));
+        assertTrue(mSink.mLastBatchTime >= lastEventTime + 100);
+        assertNull(mSink.awaitBatch(300));
+    }
+
+    public void testLongBurstIsFlushedAfterMaxDelay () throws InterruptedException {
+        start(200, 500, 500);
+        long startTime = System.currentTimeMillis();
+        for (int i = 0; i < 30; ++i) {
+            mEventSource.fire(ChangeEventSource.CHANGED, "/m/" + i + ".mp3");
+            Thread.sleep(50);
+        }
+
+        // never quiet for 200ms, delivered anyway
+        List<String> batch = mSink.awaitBatch(0);
+        assertNotNull(batch);
+        assertTrue(mSink.mLastBatchTime < startTime + 500 + 300);
+        assertEquals("/m/0.mp3", batch.get(0));
+    }
+
+    public void testFullBatchIsDeliveredRightAway () throws InterruptedException {
+        start(10000, 10000, 3);
+        mEventSource.fire(ChangeEventSource.CHANGED, "/m/a.mp3");
+        mEventSource.fire(ChangeEventSource.CHANGED, "/m/b.mp3");
+        mEventSource.fire(ChangeEventSource.CHANGED, "/m/a.mp3");
+        assertNull(mSink.awaitBatch(200));
+
+        mEventSource.fire(ChangeEventSource.CHANGED, "/m/c.mp3");
+        assertEquals(Arrays.asList("/m/a.mp3", "/m/b.mp3", "/m/c.mp3"), mSink.awaitBatch(2000));
+    }
+
+    public void testCreatedThenDeletedCancelsOut () throws InterruptedException {
+        start(100, 10000, 500);
+        mEventSource.fire(ChangeEventSource.CREATED, "/m/new.mp3");
+        mEventSource.fire(ChangeEventSource.CHANGED, "/m/new.mp3");
+        mEventSource.fire(ChangeEventSource.DELETED, "/m/new.mp3");
+        // a directory made and removed with a file in it
+        mEventSource.fire(ChangeEventSource.CREATED, "/m/new");
+        mEventSource.fire(ChangeEventSource.CHANGED, "/m/new/a.mp3");
+        mEventSource.fire(ChangeEventSource.DELETED, "/m/new/a.mp3");
+        mEventSource.fire(ChangeEventSource.DELETED, "/m/new");
+
+        assertNull(mSink.awaitBatch(400));
+        assertEquals(0, mChangeCoalescer.getPendingCount());
+
+        mEventSource.fire(ChangeEventSource.CREATED, "/m/new.mp3");
+        mEventSource.fire(ChangeEventSource.CHANGED, "/m/b.mp3");
+        mEventSource.fire(ChangeEventSource.DELETED, "/m/new.mp3");
+        assertEquals(Arrays.asList("/m/b.mp3"), mSink.awaitBatch(2000));
+    }
+
+    public void testDeletedThenCreatedIsKept () throws InterruptedException {
+        start(100, 10000, 500);
+        // replaced, the old song has to be read again
+        mEventSource.fire(ChangeEventSource.DELETED, "/m/a.mp3");
+        mEventSource.fire(ChangeEventSource.CREATED, "/m/a.mp3");
+        // was there before the batch, deleting it is a change
+        mEventSource.fire(ChangeEventSource.CHANGED, "/m/b.mp3");
+        mEventSource.fire(ChangeEventSource.DELETED, "/m/b.mp3");
+
+        assertEquals(Arrays.asList("/m/a.mp3", "/m/b.mp3"), mSink.awaitBatch(2000));
+    }
+
+    public void testDirectoryMovedAwayCollapses () throws InterruptedException {
+        start(100, 10000, 500);
+        mEventSource.fire(ChangeEventSource.CHANGED, "/m/x.mp3");
+        mEventSource.fire(ChangeEventSource.CHANGED, "/m/album/1.mp3");
+        mEventSource.fire(ChangeEventSource.CHANGED, "/m/album/cd2/2.mp3");
+        mEventSource.fire(ChangeEventSource.CHANGED, "/m/album2/3.mp3");
+        mEventSource.fire(ChangeEventSource.CHANGED, "/m/album.mp3");
+        // MOVED_FROM in the parent, then MOVE_SELF of the directory itself
+        mEventSource.fire(ChangeEventSource.DELETED, "/m/album");
+        mEventSource.fire(ChangeEventSource.DELETED, "/m/album");
+        mEventSource.fire(ChangeEventSource.DELETED, "/m/album/cd2");
+
+        assertEquals(Arrays.asList("/m/x.mp3", "/m/album2/3.mp3", "/m/album.mp3", "/m/album"),
+                mSink.awaitBatch(2000));
+    }
+
+    public void testDirectoryMovedInCollapses () throws InterruptedException {
+        start(100, 10000, 500);
+        mEventSource.fire(ChangeEventSource.CREATED, "/n/album");
+        // the watches put on the new tree see the rest of the copy
+        mEventSource.fire(ChangeEventSource.CREATED, "/n/album/cd1");
+        mEventSource.fire(ChangeEventSource.CHANGED, "/n/album/cd1/1.mp3");
+        mEventSource.fire(ChangeEventSource.CHANGED, "/n/album/2.mp3");
+        mEventSource.fire(ChangeEventSource.CHANGED, "/n/other.mp3");
+
+        assertEquals(Arrays.asList("/n/album", "/n/other.mp3"), mSink.awaitBatch(2000));
+    }
+
+    private void start (long quietMillis, long maxDelayMillis, int maxBatchSize) {
+        mSink = new RecordingSink();
+        mChangeCoalescer = new ChangeCoalescer(mSink, quietMillis, maxDelayMillis, maxBatchSize);
+        mChangeCoalescer.start();
+        mEventSource = new FakeEventSource();
+        mEventSource.setListener(mChangeCoalescer);
+        mEventSource.watch(Arrays.asList("/m", "/n"));
+    }
+
+    // reports what the test makes up
+    private static class FakeEventSource implements ChangeEventSource {
+        private Listener mListener;
+        private List<String> mWatchedDirs = new ArrayList<String>();
+
+        @Override
+        public void setListener (Listener listener) {
+            mListener = listener;
+        }
+
+        @Override
+        public void watch (Collection<String> dirPaths) {
+            mWatchedDirs = new ArrayList<String>(dirPaths);
+        }
+
+        @Override
+        public void stopWatching () {
+            mWatchedDirs.clear();
+        }
+
+        void fire (int kind, String path) {
+            if (mListener != null && !mWatchedDirs.isEmpty())
+                mListener.onPathChanged(kind, path);
+        }
+    }
+
+    private static class RecordingSink implements ChangeCoalescer.Sink {
+        private final List<List<String>> mBatches = new ArrayList<List<String>>();
+        private final List<Long> mBatchTimes = new ArrayList<Long>();
+        // when the batch awaitBatch() returned last was delivered
+        private long mLastBatchTime;
+
+        @Override
+        public synchronized void onChanges (List<String> paths) {
+            mBatches.add(paths);
+            mBatchTimes.add(System.currentTimeMillis());
+            notifyAll();
+        }
+
+        // the oldest batch not taken yet, null if none came within timeoutMillis
+        synchronized List<String> awaitBatch (long timeoutMillis) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + timeoutMillis;
+            while (mBatches.isEmpty()) {
+                long now = System.currentTimeMillis();
+                if (now >= deadline)
+                    return null;
+                wait(deadline - now);
+            }
+            mLastBatchTime = mBatchTimes.remove(0);
+            return mBatches.remove(0);
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package com.example.musicplayer.scan;
+
+import com.example.musicplayer.pojo.DirRecord;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: neevek
+ * Date: 10/22/26
+ * Time: 11:10 AM
+ */
+
+// DirectoryCache with DirectoryWalker on a temporary tree, runs on a plain JVM
+public class DirectoryCacheTest extends TestCase {
+    // older than the FAT window, an unchanged directory is trusted without a listing
+    private final static long OLD_MTIME = System.currentTimeMillis() - 60 * 1000;
+
+    private File mRoot;
+    private ScanRules mScanRules;
+
+    @Override
+    protected void setUp() throws Exception {
+        mRoot = File.createTempFile("walk", "");
+        mRoot.delete();
+        mRoot.mkdir();
+        mScanRules = ScanRules.compile(Collections.singletonList(mRoot.getPath()), "+*.mp3\n-.*", 1);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        delete(mRoot);
+    }
+
+    public void testUnchangedDirIsNotListed () throws Exception {
+        File album = mkdir(mRoot, "album");
+        touch(album, "1.mp3");
+        setOld(album);
+        setOld(mRoot);
+
+        DirectoryCache cache = new DirectoryCache(Collections.<DirRecord>emptyList());
+        walk(cache, Collections.<String>emptySet());
+
+        RecordingListener listener = walk(new DirectoryCache(cache.getNewRecords()), Collections.<String>emptySet());
+        assertTrue(listener.mUnchangedDirs.contains(album.getPath()));
+        assertTrue(listener.mFiles.isEmpty());
+    }
+
+    public void testCoveredDirIsListedByTheNextScan () throws Exception {
+        File album = mkdir(mRoot, "album");
+        touch(album, "1.mp3");
+        // the media scanner did not index it
+        touch(album, "2.mp3");
+        setOld(album);
+        setOld(mRoot);
+
+        // the MediaStore import covered the album, its files are not read
+        DirectoryCache cache = new DirectoryCache(Collections.<DirRecord>emptyList());
+        cache.setUnreadDirs(Collections.singleton(album.getPath()));
+        RecordingListener listener = walk(cache, Collections.singleton(album.getPath()));
+        assertTrue(listener.mFiles.isEmpty());
+
+        // the next quick scan lists it and finds both files
+        listener = walk(new DirectoryCache(cache.getNewRecords()), Collections.<String>emptySet());
+        assertFalse(listener.mUnchangedDirs.contains(album.getPath()));
+        assertTrue(listener.mUnchangedDirs.contains(mRoot.getPath()));
+        assertEquals(2, listener.mFiles.size());
+
+        // and trusts it from then on
+        DirectoryCache cache2 = new DirectoryCache(Collections.<DirRecord>emptyList());
+        walk(cache2, Collections.<String>emptySet());
+        listener = walk(new DirectoryCache(cache2.getNewRecords()), Collections.<String>emptySet());
+        assertTrue(listener.mUnchangedDirs.contains(album.getPath()));
+    }
+
+    private RecordingListener walk (DirectoryCache cache, Set<String> coveredDirs) throws InterruptedException {
+        RecordingListener listener = new RecordingListener(coveredDirs);
+        new DirectoryWalker(2, Thread.NORM_PRIORITY, mScanRules, cache, listener).walk();
+        return listener;
+    }
+
+    private static File mkdir (File parent, String name) {
+        File dir = new File(parent, name);
+        assertTrue(dir.mkdir());
+        return dir;
+    }
+
+    private static void touch (File dir, String name) throws IOException {
+        assertTrue(new File(dir, name).createNewFile());
+    }
+
+    private static void setOld (File dir) {
+        assertTrue(dir.setLastModified(OLD_MTIME));
+    }
+
+    private static void delete (File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (int i = 0; i < children.length; ++i)
+                delete(children[i]);
+        }
+        file.delete();
+    }
+
+    private static class RecordingListener implements DirectoryWalker.Listener {
+        private Set<String> mCoveredDirs;
+        private final List<String> mFiles = Collections.synchronizedList(new ArrayList<String>());
+        private final Set<String> mUnchangedDirs = Collections.synchronizedSet(new HashSet<String>());
+
+        RecordingListener (Set<String> coveredDirs) {
+            mCoveredDirs = coveredDirs;
+        }
+
+        @Override
+        public boolean onDirListed (String dirPath) {
+            return !mCoveredDirs.contains(dirPath);
+        }
+
+        @Override
+        public void onFile (String dirPath, File file) {
+            mFiles.add(file.getPath());
+        }
+
+        @Override
+        public void onDirDone (String dirPath) {
+        }
+
+        @Override
+        public void onUnchangedDir (String dirPath) {
+            mUnchangedDirs.add(dirPath);
+        }
+
+        @Override
+        public void onAliasDir (String dirPath, String targetPath) {
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package com.example.musicplayer.scan;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: neevek
+ * Date: 10/21/26
+ * Time: 10:00 AM
+ */
+
+// Id3TagReader against tags built byte by byte, runs on a plain JVM
+public class Id3TagReaderTest extends TestCase {
+    private final static Charset GBK = Charset.forName("GBK");
+    private final static Charset UTF_8 = Charset.forName("UTF-8");
+    private final static Charset UTF_16LE = Charset.forName("UTF-16LE");
+    private final static Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+    private File mFile;
+
+    @Override
+    protected void setUp() throws Exception {
+        mFile = File.createTempFile("id3", ".mp3");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mFile.delete();
+    }
+
+    public void testV22 () throws IOException {
+        Id3Tag tag = read(tag(2, 0, concat(
+                frame22("TT2", latin1("Title")),
+                frame22("TP1", latin1("Artist")),
+                frame22("TAL", latin1("Album")),
+                frame22("TLE", latin1("215000")))));
+
+        assertEquals("Title", tag.title);
+        assertEquals("Artist", tag.artist);
+        assertEquals("Album", tag.album);
+        assertEquals(215000, tag.length);
+    }
+
+    public void testV23Utf16WithBom () throws IOException {
+        byte[] body = concat(
+                frame23("APIC", new byte[3000]),
+                frame23("TIT2", utf16("晴天")),
+                frame23("TPE1", utf16("周杰伦")),
+                frame23("TALB", utf16("叶惠美")));
+        Id3Tag tag = read(tag(3, 0, body, 100));
+
+        assertEquals("晴天", tag.title);
+        assertEquals("周杰伦", tag.artist);
+        assertEquals("叶惠美", tag.album);
+        assertEquals(10 + body.length + 100, tag.id3v2Size);
+    }
+
+    public void testV24Utf8 () throws IOException {
+        Id3Tag tag = read(tag(4, 0, concat(
+                frame24("TIT2", text(3, "Ünïcödé".getBytes(UTF_8)), 0),
+                frame24("TPE2", text(3, "Band".getBytes(UTF_8)), 0))));
+
+        assertEquals("Ünïcödé", tag.title);
+        // TPE2 stands in for a missing TPE1
+        assertEquals("Band", tag.artist);
+        assertNull(tag.album);
+    }
+
+    public void testV24UnsynchronisedFrame () throws IOException {
+        // the BOM is FF FE, unsynchronised to FF 00 FE
+        Id3Tag tag = read(tag(4, 0, frame24("TIT2", unsynchronise(utf16("Title")), 0x02)));
+
+        assertEquals("Title", tag.title);
+    }
+
+    public void testV23UnsynchronisedTag () throws IOException {
+        byte[] frames = concat(
+                frame23("TIT2", utf16("Title")),
+                frame23("TPE1", utf16("Artist")));
+        Id3Tag tag = read(tag(3, 0x80, unsynchronise(frames)));
+
+        assertEquals("Title", tag.title);
+        assertEquals("Artist", tag.artist);
+    }
+
+    public void testV23ExtendedHeader () throws IOException {
+        // 6 bytes of extended header after its size
+        byte[] extHeader = { 0, 0, 0, 6, 0, 0, 0, 0, 0, 0 };
+        Id3Tag tag = read(tag(3, 0x40, concat(extHeader, frame23("TIT2", latin1("Title")))));
+
+        assertEquals("Title", tag.title);
+    }
+
+    public void testV24ExtendedHeaderSizeNotSyncsafe () throws IOException {
+        byte[] extHeader = { 0, 0, 0, (byte)0x80, 1, 0 };
+        Id3Tag tag = read(tag(4, 0x40, concat(extHeader, frame24("TIT2", latin1("Title"), 0))));
+
+        // not parsed from somewhere before the extended header
+        assertNotNull(tag);
+        assertNull(tag.title);
+    }
+
+    public void testLegacyTextIsGbk () throws IOException {
+        Id3Tag tag = read(tag(3, 0, concat(
+                frame23("TIT2", text(0, "七里香".getBytes(GBK))),
+                frame23("TPE1", text(0, "café".getBytes(ISO_8859_1))))));
+
+        assertEquals("七里香", tag.title);
+        // a lone 0xe9 at the end is not GBK, it is read as ISO-8859-1
+        assertEquals("café", tag.artist);
+    }
+
+    public void testId3v1Gbk () throws IOException {
+        byte[] v1 = new byte[128];
+        v1[0] = 'T';
+        v1[1] = 'A';
+        v1[2] = 'G';
+        put(v1, 3, "稻香".getBytes(GBK));
+        put(v1, 33, "周杰伦".getBytes(GBK));
+        put(v1, 63, "Album  ".getBytes(ISO_8859_1));
+        Id3Tag tag = read(concat(new byte[1000], v1));
+
+        assertEquals("稻香", tag.title);
+        assertEquals("周杰伦", tag.artist);
+        assertEquals("Album", tag.album);
+        assertEquals(0, tag.id3v2Size);
+    }
+
+    public void testV2FieldsWinOverV1 () throws IOException {
+        byte[] v1 = new byte[128];
+        v1[0] = 'T';
+        v1[1] = 'A';
+        v1[2] = 'G';
+        put(v1, 3, "Old title".getBytes(ISO_8859_1));
+        put(v1, 63, "Old album".getBytes(ISO_8859_1));
+        Id3Tag tag = read(concat(tag(3, 0, frame23("TIT2", latin1("Title"))), new byte[500], v1));
+
+        assertEquals("Title", tag.title);
+        assertEquals("Old album", tag.album);
+    }
+
+    public void testNoTag () throws IOException {
+        assertNull(read(new byte[2000]));
+    }
+
+    private Id3Tag read (byte[] data) throws IOException {
+        FileOutputStream out = new FileOutputStream(mFile);
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+        return new Id3TagReader().read(mFile);
+    }
+
+    private static byte[] tag (int majorVersion, int flags, byte[] body) {
+        return tag(majorVersion, flags, body, 0);
+    }
+
+    private static byte[] tag (int majorVersion, int flags, byte[] body, int padding) {
+        byte[] header = { 'I', 'D', '3', (byte)majorVersion, 0, (byte)flags, 0, 0, 0, 0 };
+        putSyncsafe(header, 6, body.length + padding);
+        return concat(header, body, new byte[padding]);
+    }
+
+    private static byte[] frame22 (String id, byte[] body) {
+        byte[] header = new byte[6];
+        put(header, 0, id.getBytes(ISO_8859_1));
+        header[3] = (byte)(body.length >> 16);
+        header[4] = (byte)(body.length >> 8);
+        header[5] = (byte)body.length;
+        return concat(header, body);
+    }
+
+    private static byte[] frame23 (String id, byte[] body) {
+        byte[] header = new byte[10];
+        put(header, 0, id.getBytes(ISO_8859_1));
+        header[4] = (byte)(body.length >> 24);
+        header[5] = (byte)(body.length >> 16);
+        header[6] = (byte)(body.length >> 8);
+        header[7] = (byte)body.length;
+        return concat(header, body);
+    }
+
+    private static byte[] frame24 (String id, byte[] body, int formatFlags) {
+        byte[] header = new byte[10];
+        put(header, 0, id.getBytes(ISO_8859_1));
+        putSyncsafe(header, 4, body.length);
+        header[9] = (byte)formatFlags;
+        return concat(header, body);
+    }
+
+    private static byte[] latin1 (String s) {
+        return text(0, s.getBytes(ISO_8859_1));
+    }
+
+    // little endian with a BOM
+    private static byte[] utf16 (String s) {
+        return text(1, concat(new byte[] { (byte)0xff, (byte)0xfe }, s.getBytes(UTF_16LE)));
+    }
+
+    private static byte[] text (int encoding, byte[] text) {
+        return concat(new byte[] { (byte)encoding }, text);
+    }
+
+    // a 0x00 after every 0xff
+    private static byte[] unsynchronise (byte[] data) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int i = 0; i < data.length; ++i) {
+            out.write(data[i]);
+            if (data[i] == (byte)0xff)
+                out.write(0);
+        }
+        return out.toByteArray();
+    }
+
+    private static void putSyncsafe (byte[] data, int offset, int value) {
+        for (int i = 3; i >= 0; --i) {
+            data[offset + i] = (byte)(value & 0x7f);
+            value >>= 7;
+        }
+    }
+
+    private static void put (byte[] data, int offset, byte[] value) {
+        System.arraycopy(value, 0, data, offset, value.length);
+    }
+
+    private static byte[] concat (byte[]... parts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int i = 0; i < parts.length; ++i)
+            out.write(parts[i], 0, parts[i].length);
+        return out.toByteArray();
+    }
+}
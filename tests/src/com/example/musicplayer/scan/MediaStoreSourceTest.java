@@ -0,0 +1,164 @@
+package com.example.musicplayer.scan;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.provider.MediaStore;
+import android.test.AndroidTestCase;
+import android.test.mock.MockContentProvider;
+import android.test.mock.MockContentResolver;
+import com.example.musicplayer.db.LibraryBatchWriter;
+import com.example.musicplayer.db.MusicPlayerDAO;
+import com.example.musicplayer.db.MusicPlayerDBHelper;
+import com.example.musicplayer.pojo.Song;
+import com.example.musicplayer.pojo.SongFingerprint;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: neevek
+ * Date: 10/21/26
+ * Time: 5:40 PM
+ */
+
+// MediaStoreSource against a fake provider, imported into an in-memory database
+public class MediaStoreSourceTest extends AndroidTestCase {
+    private final static String AUTHORITY = "com.example.musicplayer.tests.media";
+    private final static Uri CONTENT_URI = Uri.parse("content://" + AUTHORITY + "/audio");
+
+    private final static String[] COLUMNS = {
+            MediaStore.Audio.Media.DATA,
+            MediaStore.Audio.Media.TITLE,
+            MediaStore.Audio.Media.ARTIST,
+            MediaStore.Audio.Media.ALBUM,
+            MediaStore.Audio.Media.DURATION,
+            MediaStore.Audio.Media.SIZE,
+            MediaStore.Audio.Media.DATE_MODIFIED,
+    };
+    private final static long SIZE = 4 * 1024 * 1024;
+    private final static long DATE_MODIFIED = 1400000000;
+
+    private final static ScanRules SCAN_RULES = ScanRules.compile(Arrays.asList("/test/music"), "+*.mp3\n-.*", 1);
+
+    // what the provider returns for any query
+    private MatrixCursor mCursor;
+    private MockContentResolver mContentResolver;
+    private MusicPlayerDBHelper mDbHelper;
+    private MusicPlayerDAO mMusicPlayerDAO;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mCursor = new MatrixCursor(COLUMNS);
+        mContentResolver = new MockContentResolver();
+        mContentResolver.addProvider(AUTHORITY, new MockContentProvider(getContext()) {
+            @Override
+            public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+                return mCursor;
+            }
+        });
+
+        // no name, in memory
+        mDbHelper = new MusicPlayerDBHelper(getContext(), null);
+        mMusicPlayerDAO = new MusicPlayerDAO(mDbHelper);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDbHelper.close();
+        super.tearDown();
+    }
+
+    public void testRowsUnderTheRootsAreImported () {
+        addRow("/test/music/a/1.mp3", "One", "Artist", "Album", 215000);
+        addRow("/test/music/a/2.mp3", "Two", MediaStore.UNKNOWN_STRING, MediaStore.UNKNOWN_STRING, 180000);
+        // not included by the rules
+        addRow("/test/music/a/3.ogg", "Three", "Artist", "Album", 200000);
+        addRow("/test/music/.hidden/4.mp3", "Four", "Artist", "Album", 200000);
+        // outside the roots
+        addRow("/test/other/5.mp3", "Five", "Artist", "Album", 200000);
+        addRow("/test/musicbox/6.mp3", "Six", "Artist", "Album", 200000);
+        addRow("/test/music.mp3", "Seven", "Artist", "Album", 200000);
+
+        MediaStoreSource.Result result = importSongs();
+
+        assertEquals(2, result.importedCount);
+        assertEquals(Collections.singleton("/test/music/a"), result.coveredDirs);
+        List<Song> songs = getSongs("/test/music/a/1.mp3", "/test/music/a/2.mp3");
+        assertEquals(2, songs.size());
+        assertEquals("One", songs.get(0).title);
+        assertEquals("Artist", songs.get(0).artist);
+        assertEquals(215000, songs.get(0).duration);
+        // <unknown> is no name
+        assertEquals("", songs.get(1).artist);
+        assertEquals(2, mMusicPlayerDAO.getSongFingerprints().size());
+    }
+
+    public void testMissingDataColumnIsNotImported () {
+        mCursor = new MatrixCursor(new String[] {
+                MediaStore.Audio.Media.TITLE,
+                MediaStore.Audio.Media.DURATION,
+                MediaStore.Audio.Media.SIZE,
+        });
+        mCursor.addRow(new Object[] { "One", 215000, SIZE });
+
+        // the whole tree is walked then
+        assertNull(importSongs());
+        assertTrue(mMusicPlayerDAO.getSongFingerprints().isEmpty());
+    }
+
+    public void testZeroDurationLeavesTheDirectoryToTheWalker () {
+        addRow("/test/music/a/1.mp3", "One", "Artist", "Album", 215000);
+        // the media scanner could not read it
+        addRow("/test/music/a/2.mp3", "Two", "Artist", "Album", 0);
+        addRow("/test/music/b/3.mp3", "Three", "Artist", "Album", 200000);
+        addRow("/test/music/c/4.mp3", "Four", "Artist", "Album", 0);
+
+        MediaStoreSource.Result result = importSongs();
+
+        assertEquals(new HashSet<String>(Arrays.asList("/test/music/b")), result.coveredDirs);
+        // 1.mp3 is read again by the walker, it is not counted
+        assertEquals(1, result.importedCount);
+        assertTrue(getSongs("/test/music/a/2.mp3", "/test/music/c/4.mp3").isEmpty());
+        assertEquals(1, getSongs("/test/music/b/3.mp3").size());
+    }
+
+    public void testUnchangedRowIsKept () {
+        addRow("/test/music/a/1.mp3", "One", "Artist", "Album", 215000);
+        importSongs();
+        Song song = getSongs("/test/music/a/1.mp3").get(0);
+
+        mCursor = new MatrixCursor(COLUMNS);
+        addRow("/test/music/a/1.mp3", "Renamed", "Artist", "Album", 215000);
+        MediaStoreSource.Result result = importSongs();
+
+        assertEquals(1, result.importedCount);
+        // same size and time, the tags are not taken again
+        Song unchanged = getSongs("/test/music/a/1.mp3").get(0);
+        assertEquals(song.id, unchanged.id);
+        assertEquals("One", unchanged.title);
+    }
+
+    private void addRow (String path, String title, String artist, String album, int duration) {
+        mCursor.addRow(new Object[] { path, title, artist, album, duration, SIZE, DATE_MODIFIED });
+    }
+
+    private MediaStoreSource.Result importSongs () {
+        HashMap<String, SongFingerprint> fingerprints = new HashMap<String, SongFingerprint>(mMusicPlayerDAO.getSongFingerprints());
+        LibraryBatchWriter batchWriter = mMusicPlayerDAO.openBatchWriter(mMusicPlayerDAO.getNextScanGeneration());
+        try {
+            return new MediaStoreSource(mContentResolver, CONTENT_URI).importSongs(SCAN_RULES, fingerprints, batchWriter);
+        } finally {
+            batchWriter.close();
+        }
+    }
+
+    private List<Song> getSongs (String... paths) {
+        return mMusicPlayerDAO.getSongsByPaths(Arrays.asList(paths));
+    }
+}
@@ -0,0 +1,233 @@
+package com.example.musicplayer.scan;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: neevek
+ * Date: 10/22/26
+ * Time: 4:20 PM
+ */
+
+// Mp3DurationEstimator against streams built frame by frame, runs on a plain JVM
+public class Mp3DurationEstimatorTest extends TestCase {
+    private final static int VERSION_1 = 3;
+    private final static int VERSION_2 = 2;
+    private final static int VERSION_2_5 = 0;
+
+    private final static int STEREO = 0;
+    private final static int MONO = 3;
+
+    // MPEG1 layer III, 128 kbps at 44100 Hz: 144000 * 128 / 44100
+    private final static int HEADER_128K = header(VERSION_1, 9, 0, STEREO);
+    private final static int LENGTH_128K = 417;
+    // 192 kbps: 144000 * 192 / 44100
+    private final static int HEADER_192K = header(VERSION_1, 11, 0, STEREO);
+    private final static int LENGTH_192K = 626;
+
+    private File mFile;
+
+    @Override
+    protected void setUp() throws Exception {
+        mFile = File.createTempFile("mp3", ".mp3");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mFile.delete();
+    }
+
+    public void testCbr () throws IOException {
+        byte[] v1 = new byte[128];
+        v1[0] = 'T';
+        v1[1] = 'A';
+        v1[2] = 'G';
+        // junk before the first frame, an ID3v1 tag after the last one
+        Mp3AudioInfo info = estimate(concat(new byte[100], frames(HEADER_128K, LENGTH_128K, 200), v1));
+
+        assertEquals(100, info.firstFrameOffset);
+        assertEquals(128, info.bitrate);
+        assertEquals(44100, info.sampleRate);
+        assertFalse(info.vbr);
+        // 200 * 417 bytes at 128 bits per millisecond, the tag not counted
+        assertEquals(200 * 417 * 8 / 128, info.duration);
+    }
+
+    public void testVbrWithoutHeaderAveragesTheWalkedFrames () throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int i = 0; i < 100; ++i) {
+            out.write(frame(HEADER_128K, LENGTH_128K), 0, LENGTH_128K);
+            out.write(frame(HEADER_192K, LENGTH_192K), 0, LENGTH_192K);
+        }
+        Mp3AudioInfo info = estimate(out.toByteArray());
+
+        assertTrue(info.vbr);
+        assertEquals(160, info.bitrate);
+        assertEquals(100 * (417 + 626) * 8 / 160, info.duration);
+    }
+
+    public void testXingFrameCount () throws IOException {
+        // MPEG1 stereo, 32 bytes of side info
+        Mp3AudioInfo info = estimate(withTag(HEADER_128K, LENGTH_128K, 1000, 4 + 32, xing("Xing", 1000, 1000 * 417)));
+
+        assertTrue(info.vbr);
+        // 1000 frames of 1152 samples, not the 26062 ms the frame size gives
+        assertEquals(1000 * 1152 * 1000 / 44100, info.duration);
+        assertEquals(1000 * 417 * 8 / info.duration, info.bitrate);
+    }
+
+    public void testXingWithoutByteCountTakesTheAudioSize () throws IOException {
+        byte[] tag = xing("Xing", 1000, 0);
+        // only the frames flag
+        tag[7] = 0x01;
+        Mp3AudioInfo info = estimate(withTag(HEADER_128K, LENGTH_128K, 1000, 4 + 32, tag));
+
+        assertEquals(1000 * 1152 * 1000 / 44100, info.duration);
+        assertEquals(1000 * 417 * 8 / info.duration, info.bitrate);
+    }
+
+    public void testInfoIsCbr () throws IOException {
+        // MPEG1 mono, 17 bytes of side info
+        int header = header(VERSION_1, 9, 0, MONO);
+        Mp3AudioInfo info = estimate(withTag(header, LENGTH_128K, 1000, 4 + 17, xing("Info", 1000, 1000 * 417)));
+
+        assertFalse(info.vbr);
+        assertEquals(1000 * 1152 * 1000 / 44100, info.duration);
+    }
+
+    public void testTagAtTheStereoOffsetOfAMonoFrameIsNotRead () throws IOException {
+        int header = header(VERSION_1, 9, 0, MONO);
+        Mp3AudioInfo info = estimate(withTag(header, LENGTH_128K, 1000, 4 + 32, xing("Xing", 5000, 1000 * 417)));
+
+        // the frames are walked instead
+        assertFalse(info.vbr);
+        assertEquals(1000 * 417 * 8 / 128, info.duration);
+    }
+
+    public void testVbri () throws IOException {
+        // always 32 bytes after the header
+        Mp3AudioInfo info = estimate(withTag(HEADER_128K, LENGTH_128K, 1000, 4 + 32, vbri(1000, 1000 * 417)));
+
+        assertTrue(info.vbr);
+        assertEquals(1000 * 1152 * 1000 / 44100, info.duration);
+        assertEquals(1000 * 417 * 8 / info.duration, info.bitrate);
+    }
+
+    public void testMpeg2Cbr () throws IOException {
+        // layer III, 64 kbps at 22050 Hz: 72000 * 64 / 22050
+        Mp3AudioInfo info = estimate(frames(header(VERSION_2, 8, 0, STEREO), 208, 500));
+
+        assertEquals(22050, info.sampleRate);
+        assertEquals(64, info.bitrate);
+        assertFalse(info.vbr);
+        assertEquals(500 * 208 * 8 / 64, info.duration);
+    }
+
+    public void testMpeg2MonoXing () throws IOException {
+        // 24000 Hz, 9 bytes of side info
+        int header = header(VERSION_2, 8, 1, MONO);
+        // 72000 * 64 / 24000
+        Mp3AudioInfo info = estimate(withTag(header, 192, 500, 4 + 9, xing("Xing", 500, 500 * 192)));
+
+        assertEquals(24000, info.sampleRate);
+        assertTrue(info.vbr);
+        // 576 samples a frame
+        assertEquals(500 * 576 * 1000 / 24000, info.duration);
+    }
+
+    public void testMpeg25StereoXing () throws IOException {
+        // 8 kbps at 8000 Hz: 72000 * 8 / 8000, 17 bytes of side info
+        int header = header(VERSION_2_5, 1, 2, STEREO);
+        Mp3AudioInfo info = estimate(withTag(header, 72, 100, 4 + 17, xing("Xing", 100, 100 * 72)));
+
+        assertEquals(8000, info.sampleRate);
+        assertTrue(info.vbr);
+        assertEquals(7200, info.duration);
+        assertEquals(8, info.bitrate);
+    }
+
+    public void testNoFrame () throws IOException {
+        assertNull(estimate(new byte[2000]));
+    }
+
+    private Mp3AudioInfo estimate (byte[] data) throws IOException {
+        FileOutputStream out = new FileOutputStream(mFile);
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+        return new Mp3DurationEstimator().estimate(mFile, 0);
+    }
+
+    // layer III without CRC
+    private static int header (int version, int bitrateIndex, int sampleRateIndex, int channelMode) {
+        return 0xffe00000 | (version << 19) | (1 << 17) | (1 << 16)
+                | (bitrateIndex << 12) | (sampleRateIndex << 10) | (channelMode << 6);
+    }
+
+    private static byte[] frame (int header, int length) {
+        byte[] frame = new byte[length];
+        putInt(frame, 0, header);
+        return frame;
+    }
+
+    private static byte[] frames (int header, int length, int count) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] frame = frame(header, length);
+        for (int i = 0; i < count; ++i)
+            out.write(frame, 0, length);
+        return out.toByteArray();
+    }
+
+    // count frames, the first one carrying tag at offset
+    private static byte[] withTag (int header, int length, int count, int offset, byte[] tag) {
+        byte[] first = frame(header, length);
+        System.arraycopy(tag, 0, first, offset, tag.length);
+        return concat(first, frames(header, length, count - 1));
+    }
+
+    // with the frames and bytes flags, no TOC
+    private static byte[] xing (String id, int frames, int bytes) {
+        byte[] tag = new byte[16];
+        putId(tag, id);
+        putInt(tag, 4, 0x03);
+        putInt(tag, 8, frames);
+        putInt(tag, 12, bytes);
+        return tag;
+    }
+
+    private static byte[] vbri (int frames, int bytes) {
+        byte[] tag = new byte[18];
+        putId(tag, "VBRI");
+        // version 1
+        tag[5] = 1;
+        putInt(tag, 10, bytes);
+        putInt(tag, 14, frames);
+        return tag;
+    }
+
+    private static void putId (byte[] data, String id) {
+        for (int i = 0; i < 4; ++i)
+            data[i] = (byte)id.charAt(i);
+    }
+
+    private static void putInt (byte[] data, int offset, int value) {
+        data[offset] = (byte)(value >> 24);
+        data[offset + 1] = (byte)(value >> 16);
+        data[offset + 2] = (byte)(value >> 8);
+        data[offset + 3] = (byte)value;
+    }
+
+    private static byte[] concat (byte[]... parts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int i = 0; i < parts.length; ++i)
+            out.write(parts[i], 0, parts[i].length);
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,248 @@
+package com.example.musicplayer.service;
+
+import com.example.musicplayer.pojo.Song;
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: neevek
+ * Date: 10/22/26
+ * Time: 2:15 PM
+ */
+
+// PlayQueue with a seeded Random, runs on a plain JVM
+public class PlayQueueTest extends TestCase {
+    public void testRepeatOneReplaysOnCompletionOnly () {
+        PlayQueue playQueue = newPlayQueue(1, songs(5), 2);
+        playQueue.setPlayMode(PlayQueue.REPEAT_ONE, PlayQueue.SHUFFLE_OFF);
+
+        assertEquals(2, playQueue.next(true));
+        assertEquals(2, playQueue.next(true));
+        // a skip moves on
+        assertEquals(3, playQueue.next(false));
+        assertEquals(3, playQueue.next(true));
+    }
+
+    public void testRepeatOffStopsAtTheEnd () {
+        PlayQueue playQueue = newPlayQueue(1, songs(3), 1);
+
+        assertEquals(2, playQueue.next(true));
+        assertEquals(-1, playQueue.next(true));
+        // a skip wraps around
+        assertEquals(0, playQueue.next(false));
+    }
+
+    public void testRepeatAllWrapsAround () {
+        PlayQueue playQueue = newPlayQueue(1, songs(3), 2);
+        playQueue.setPlayMode(PlayQueue.REPEAT_ALL, PlayQueue.SHUFFLE_OFF);
+
+        assertEquals(0, playQueue.next(true));
+    }
+
+    public void testPrevWalksBackThroughTheHistory () {
+        PlayQueue playQueue = newPlayQueue(7, songs(20), 1);
+        playQueue.setPlayMode(PlayQueue.REPEAT_ALL, PlayQueue.SHUFFLE_ON);
+
+        List<Integer> played = new ArrayList<Integer>();
+        played.add(playQueue.getSnapshot().getPosition());
+        for (int i = 0; i < 5; ++i)
+            played.add(playQueue.next(false));
+        // the shuffle starts with the song playing
+        assertEquals(1, (int)played.get(0));
+
+        for (int i = played.size() - 2; i >= 0; --i)
+            assertEquals((int)played.get(i), playQueue.prev());
+        // and forward again the same way
+        for (int i = 1; i < played.size(); ++i)
+            assertEquals((int)played.get(i), playQueue.next(false));
+    }
+
+    public void testShuffleVisitsEverySongOnce () {
+        PlayQueue playQueue = newPlayQueue(3, songs(50), 0);
+        playQueue.setPlayMode(PlayQueue.REPEAT_OFF, PlayQueue.SHUFFLE_ON);
+
+        Set<Integer> played = new HashSet<Integer>();
+        played.add(playQueue.getSnapshot().getPosition());
+        int position;
+        while ((position = playQueue.next(true)) != -1)
+            assertTrue(played.add(position));
+        assertEquals(50, played.size());
+    }
+
+    public void testRepeatAllReshuffleDoesNotStartWithTheLastSong () {
+        for (int seed = 0; seed < 200; ++seed) {
+            PlayQueue playQueue = newPlayQueue(seed, songs(3), 0);
+            playQueue.setPlayMode(PlayQueue.REPEAT_ALL, PlayQueue.SHUFFLE_ON);
+
+            int last = playQueue.getSnapshot().getPosition();
+            for (int i = 0; i < 2; ++i)
+                last = playQueue.next(true);
+            assertTrue(playQueue.next(true) != last);
+        }
+    }
+
+    public void testMoveToSongPlaysItNext () {
+        PlayQueue playQueue = newPlayQueue(5, songs(20), 0);
+        playQueue.setPlayMode(PlayQueue.REPEAT_ALL, PlayQueue.SHUFFLE_ON);
+        int first = playQueue.getSnapshot().getPosition();
+        int second = playQueue.next(false);
+        int[] order = playQueue.getSnapshot().order.clone();
+
+        // one not played yet is swapped in right after the played ones
+        int picked = order[10];
+        assertTrue(playQueue.moveToSong(picked + 1));
+        assertEquals(picked, playQueue.getSnapshot().getPosition());
+        assertEquals(2, playQueue.getSnapshot().cursor);
+        assertEquals(order[2], playQueue.getSnapshot().order[10]);
+        assertEquals(second, playQueue.prev());
+        assertEquals(first, playQueue.prev());
+
+        // one played already is only moved back to
+        assertTrue(playQueue.moveToSong(second + 1));
+        assertEquals(1, playQueue.getSnapshot().cursor);
+        assertEquals(picked, playQueue.next(false));
+
+        assertFalse(playQueue.moveToSong(100));
+    }
+
+    public void testMoveToSongInListOrder () {
+        PlayQueue playQueue = newPlayQueue(1, songs(10), 0);
+
+        assertTrue(playQueue.moveToSong(6));
+        assertEquals(5, playQueue.getSnapshot().getPosition());
+        assertEquals(6, playQueue.next(false));
+    }
+
+    public void testSpreadArtistsLeavesNoNeighbours () {
+        // 4 artists of 10 songs each, and 2 of a fifth that has to be kept apart too
+        List<Song> songs = new ArrayList<Song>();
+        for (int i = 0; i < 42; ++i)
+            songs.add(song(i + 1, i < 40 ? 1 + i % 4 : 5));
+
+        for (int seed = 0; seed < 50; ++seed) {
+            PlayQueue playQueue = newPlayQueue(seed, songs, 0);
+            playQueue.setPlayMode(PlayQueue.REPEAT_ALL, PlayQueue.SHUFFLE_SPREAD_ARTISTS);
+            assertNoNeighbours(playQueue.getSnapshot());
+
+            // every round of repeat-all, and across the wrap
+            int last = playQueue.getSnapshot().getPosition();
+            for (int i = 0; i < songs.size() * 3; ++i) {
+                int position = playQueue.next(true);
+                assertTrue(songs.get(position).artistId != songs.get(last).artistId);
+                last = position;
+            }
+        }
+    }
+
+    public void testSameListKeepsTheOrder () {
+        List<Song> songs = songs(20);
+        PlayQueue playQueue = newPlayQueue(9, songs, 0);
+        playQueue.setPlayMode(PlayQueue.REPEAT_ALL, PlayQueue.SHUFFLE_ON);
+        playQueue.next(false);
+        playQueue.next(false);
+        PlayQueue.Snapshot snapshot = playQueue.getSnapshot();
+
+        // a patched list with the same songs
+        playQueue.setPlayList(new ArrayList<Song>(songs), 0);
+
+        assertTrue(Arrays.equals(snapshot.order, playQueue.getSnapshot().order));
+        assertEquals(snapshot.cursor, playQueue.getSnapshot().cursor);
+    }
+
+    public void testDeletedSongsAreRemapped () {
+        List<Song> songs = songs(20);
+        PlayQueue playQueue = newPlayQueue(11, songs, 0);
+        playQueue.setPlayMode(PlayQueue.REPEAT_ALL, PlayQueue.SHUFFLE_ON);
+        playQueue.next(false);
+        playQueue.next(false);
+        List<Integer> playOrder = getPlayOrder(playQueue.getSnapshot());
+        int previousId = playOrder.get(1);
+        int currentId = playOrder.get(2);
+        int nextId = playOrder.get(3);
+
+        // the song playing and another one not played yet are deleted
+        List<Song> patched = new ArrayList<Song>(songs);
+        patched.remove(songs.get(currentId - 1));
+        patched.remove(songs.get(playOrder.get(10) - 1));
+        playOrder.remove(10);
+        playOrder.remove(2);
+        playQueue.setPlayList(patched, currentId);
+
+        assertEquals(playOrder, getPlayOrder(playQueue.getSnapshot()));
+        // the cursor is left on the song before it
+        assertEquals(previousId, playQueue.getSnapshot().getSongId());
+        assertEquals(nextId, patched.get(playQueue.next(true)).id);
+    }
+
+    public void testAddedSongsGoAfterTheCursor () {
+        List<Song> songs = songs(20);
+        PlayQueue playQueue = newPlayQueue(13, songs, 0);
+        playQueue.setPlayMode(PlayQueue.REPEAT_OFF, PlayQueue.SHUFFLE_ON);
+        playQueue.next(false);
+        playQueue.next(false);
+        List<Integer> playOrder = getPlayOrder(playQueue.getSnapshot());
+
+        List<Song> patched = songs(25);
+        playQueue.setPlayList(patched, 3);
+
+        List<Integer> remapped = getPlayOrder(playQueue.getSnapshot());
+        assertEquals(25, remapped.size());
+        assertEquals(playOrder.subList(0, 3), remapped.subList(0, 3));
+        assertEquals(playOrder.get(2).intValue(), playQueue.getSnapshot().getSongId());
+        // the old ones keep their order among the new ones
+        List<Integer> old = new ArrayList<Integer>(remapped);
+        old.removeAll(Arrays.asList(21, 22, 23, 24, 25));
+        assertEquals(playOrder, old);
+    }
+
+    public void testOtherListStartsAShuffleWithTheSong () {
+        PlayQueue playQueue = newPlayQueue(17, songs(20), 0);
+        playQueue.setPlayMode(PlayQueue.REPEAT_ALL, PlayQueue.SHUFFLE_ON);
+
+        List<Song> other = new ArrayList<Song>();
+        for (int i = 0; i < 10; ++i)
+            other.add(song(100 + i, 1));
+        playQueue.setPlayList(other, 105);
+
+        assertEquals(0, playQueue.getSnapshot().cursor);
+        assertEquals(105, playQueue.getSnapshot().getSongId());
+    }
+
+    private static PlayQueue newPlayQueue (long seed, List<Song> songs, int currentPosition) {
+        PlayQueue playQueue = new PlayQueue(new Random(seed));
+        playQueue.setPlayList(songs, songs.get(currentPosition).id);
+        return playQueue;
+    }
+
+    // ids 1 to count, each of its own artist
+    private static List<Song> songs (int count) {
+        List<Song> songs = new ArrayList<Song>(count);
+        for (int i = 0; i < count; ++i)
+            songs.add(song(i + 1, i + 1));
+        return songs;
+    }
+
+    private static Song song (int id, int artistId) {
+        return new Song(id, "Song " + id, artistId, "Artist " + artistId, 0, "", 200000, "/m/" + id + ".mp3");
+    }
+
+    // the song ids in play order
+    private static List<Integer> getPlayOrder (PlayQueue.Snapshot snapshot) {
+        List<Integer> ids = new ArrayList<Integer>(snapshot.size());
+        for (int i = 0; i < snapshot.size(); ++i)
+            ids.add(snapshot.songIds[snapshot.positionAt(i)]);
+        return ids;
+    }
+
+    private static void assertNoNeighbours (PlayQueue.Snapshot snapshot) {
+        for (int i = 1; i < snapshot.size(); ++i)
+            assertTrue(snapshot.artistIds[snapshot.positionAt(i)] != snapshot.artistIds[snapshot.positionAt(i - 1)]);
+    }
+}